@@ -4,10 +4,22 @@ import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import channel.EmulatedTCPChannel;
+import channel.EmulatedTCPChannelInitializer;
 import protocols.apps.AutomatedApplication;
+import protocols.dht.chord.ChordProtocol;
+import protocols.dht.kademlia.KademliaProtocol;
+import protocols.dht.onehop.OneHopProtocol;
+import protocols.dht.pastry.PastryProtocol;
+import protocols.storage.StorageProtocol;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.core.Babel;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.FailureDetector;
 import utils.InterfaceToIp;
+import utils.MetricsRegistry;
+import utils.MetricsReporter;
+import utils.Tracer;
 
 
 public class Main {
@@ -42,31 +54,57 @@ public class Main {
 
         logger.info("Hello, I am {}", myself);
 
+        //Channel that applies the latency matrix to local runs, selected with "channel=EmulatedTCPChannel"
+        babel.registerChannelInitializer(EmulatedTCPChannel.NAME, new EmulatedTCPChannelInitializer(props));
+
+        //Protocols get their trace buffers when created, so tracing is configured first
+        Tracer.configure(props, myself.toString());
+        //Likewise for the failure detector the DHT and storage protocols share
+        FailureDetector.configure(props);
+
         // Application
-        AutomatedApplication app = new AutomatedApplication(myself, props, (short) 0 /**change this parameter to map the id of the Storage Protocol**/);
-        // Storage Protocol
-        //StorageProtocol storage = new ...; /**You need to uncomment this line and define the protocol**/
+        AutomatedApplication app = new AutomatedApplication(myself, props, StorageProtocol.PROTO_ID);
         // DHT Protocol
-        //DHTProtocol dht = new ...; /**You need to uncomment this line and define the protocol**/
+        GenericProtocol dht = createDHT(myself, props);
+        // Storage Protocol
+        StorageProtocol storage = new StorageProtocol(myself, props, dht.getProtoId());
 
         //Register applications in babel
         babel.registerProtocol(app);
-        /** You need to uncomment the next two lines when you have protocols to fill those gaps **/
-        //babel.registerProtocol(storage);
-        //babel.registerProtocol(dht);
+        babel.registerProtocol(storage);
+        babel.registerProtocol(dht);
 
         //Init the protocols. This should be done after creating all protocols, since there can be inter-protocol
         //communications in this step.
         app.init(props);
-        /** You need to uncomment the next two lines when you have protocols to fill those gaps **/
-        //storage.init(props);
-        //dht.init(props);
+        storage.init(props);
+        dht.init(props);
 
         //Start babel and protocol threads
         babel.start();
 
+        //Export the metrics that the protocols registered (file and/or local HTTP endpoint)
+        MetricsReporter.start(MetricsRegistry.global(), props);
+
         Runtime.getRuntime().addShutdownHook(new Thread(() -> logger.info("Goodbye")));
 
     }
 
+    //Instantiates the DHT protocol selected by the "dht_protocol" property
+    private static GenericProtocol createDHT(Host myself, Properties props) throws Exception {
+        String dht = props.getProperty("dht_protocol", "chord");
+        switch (dht) {
+            case "chord":
+                return new ChordProtocol(myself, props);
+            case "kademlia":
+                return new KademliaProtocol(myself, props);
+            case "onehop":
+                return new OneHopProtocol(myself, props);
+            case "pastry":
+                return new PastryProtocol(myself, props);
+            default:
+                throw new IllegalArgumentException("Unknown dht_protocol: " + dht);
+        }
+    }
+
 }
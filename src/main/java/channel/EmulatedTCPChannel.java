@@ -0,0 +1,86 @@
+package channel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import pt.unl.fct.di.novasys.babel.internal.BabelMessage;
+import pt.unl.fct.di.novasys.channel.ChannelListener;
+import pt.unl.fct.di.novasys.channel.IChannel;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.LatencyMatrix;
+
+/**
+ * TCPChannel that holds every outgoing message for the latency between this node and the
+ * destination, as docker/setupTc.sh does with netem, so that several processes on one machine
+ * see the delays of a latency-files matrix. Nodes that share an address (loopback, or the
+ * $(hostname -i) of deploy/start-processes.sh) are identified by their port: node i listens on
+ * base_port + i (see {@link LatencyMatrix#indexOf(Host, Host, int)}). A peer that maps to our own
+ * row is warned about, as it gets no delay. Delayed messages wait in a {@link TimerWheel},
+ * and connection closes follow the messages queued before them.
+ */
+public class EmulatedTCPChannel implements IChannel<BabelMessage> {
+
+	public static final String NAME = "EmulatedTCPChannel";
+
+	private static final Logger logger = LogManager.getLogger(EmulatedTCPChannel.class);
+
+	private final TCPChannel<BabelMessage> tcp;
+	private final LatencyMatrix latencies;
+	private final TimerWheel wheel;
+	private final int basePort;
+	private final Host self;
+	private boolean warned;
+
+	public EmulatedTCPChannel(ISerializer<BabelMessage> serializer, ChannelListener<BabelMessage> listener,
+							  Properties properties, LatencyMatrix latencies, int basePort, TimerWheel wheel) throws IOException {
+		this.tcp = new TCPChannel<>(serializer, listener, properties);
+		this.latencies = latencies;
+		this.wheel = wheel;
+		this.basePort = basePort;
+		this.self = new Host(InetAddress.getByName(properties.getProperty(TCPChannel.ADDRESS_KEY)),
+				Integer.parseInt(properties.getProperty(TCPChannel.PORT_KEY)));
+		this.warned = false;
+	}
+
+	//Milliseconds to hold messages to peer, 0 for nodes outside the matrix
+	private int delay(Host peer) {
+		int from = LatencyMatrix.indexOf(self, peer, basePort);
+		int to = LatencyMatrix.indexOf(peer, self, basePort);
+		if (from < 0 || from >= latencies.size() || to < 0 || to >= latencies.size())
+			return 0;
+		if (from == to && !warned && !peer.equals(self)) {
+			warned = true;
+			logger.warn("{} and {} are both node {} of the latency matrix, no latency is emulated between them", self, peer, from);
+		}
+		return latencies.get(from, to);
+	}
+
+	@Override
+	public void sendMessage(BabelMessage msg, Host peer, int connection) {
+		int delay = delay(peer);
+		if (delay <= 0)
+			tcp.sendMessage(msg, peer, connection);
+		else
+			wheel.schedule(delay, () -> tcp.sendMessage(msg, peer, connection));
+	}
+
+	@Override
+	public void closeConnection(Host peer, int connection) {
+		int delay = delay(peer);
+		if (delay <= 0)
+			tcp.closeConnection(peer, connection);
+		else
+			wheel.schedule(delay, () -> tcp.closeConnection(peer, connection));
+	}
+
+	@Override
+	public void openConnection(Host peer) {
+		tcp.openConnection(peer);
+	}
+}
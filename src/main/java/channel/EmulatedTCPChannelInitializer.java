@@ -0,0 +1,43 @@
+package channel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import pt.unl.fct.di.novasys.babel.initializers.ChannelInitializer;
+import pt.unl.fct.di.novasys.babel.internal.BabelMessage;
+import pt.unl.fct.di.novasys.channel.ChannelListener;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.LatencyMatrix;
+import utils.MetricsRegistry;
+
+/**
+ * Creates {@link EmulatedTCPChannel}s. The latency matrix is read, and the timer wheel started,
+ * when the first channel is created; both are shared by all channels of the process.
+ */
+public class EmulatedTCPChannelInitializer implements ChannelInitializer<EmulatedTCPChannel> {
+
+	private final String latencyFile;
+	private final int basePort;
+	private final long tick;
+	private LatencyMatrix latencies;
+	private TimerWheel wheel;
+
+	public EmulatedTCPChannelInitializer(Properties props) {
+		this.latencyFile = props.getProperty("emulated_latency_file", "latency-files/latency-100");
+		this.basePort = Integer.parseInt(props.getProperty("emulated_base_port", "10000"));
+		this.tick = Long.parseLong(props.getProperty("emulated_tick", "1"));
+	}
+
+	@Override
+	public synchronized EmulatedTCPChannel initialize(ISerializer<BabelMessage> serializer, ChannelListener<BabelMessage> list,
+													  Properties properties, short protoId) throws IOException {
+		if (latencies == null) {
+			latencies = LatencyMatrix.read(new File(latencyFile));
+			//The wheel spans the largest latency, so messages never wait for a second round
+			wheel = new TimerWheel("emulated-channel-wheel", tick, (int) (latencies.getMax() / Math.max(1, tick)) + 2);
+			MetricsRegistry.global().gauge("channel.emulated.delayed", wheel::size);
+		}
+		return new EmulatedTCPChannel(serializer, list, properties, latencies, basePort, wheel);
+	}
+}
@@ -0,0 +1,113 @@
+package channel;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hashed timer wheel run by a single daemon thread: tasks scheduled from any thread are handed over
+ * through a lock-free queue and placed in the slot of their due tick; every tick, the thread runs
+ * the due tasks of one slot, in the order they were scheduled. Delays longer than the wheel wait
+ * for as many rounds as needed. The thread parks while nothing is pending.
+ */
+public class TimerWheel {
+
+	private static final Logger logger = LogManager.getLogger(TimerWheel.class);
+
+	private static class Task {
+		private final long due;
+		private final Runnable action;
+
+		private Task(long due, Runnable action) {
+			this.due = due;
+			this.action = action;
+		}
+	}
+
+	private final long tickNanos;
+	private final long start;
+	private final ArrayDeque<Task>[] slots;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Task> incoming;
+	private final AtomicLong pending;
+	private final Thread thread;
+	//Last tick processed, only used by the wheel thread
+	private long tick;
+
+	@SuppressWarnings("unchecked")
+	public TimerWheel(String name, long tickMillis, int slotCount) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		this.start = System.nanoTime();
+		int size = Integer.highestOneBit(Math.max(2, slotCount) - 1) << 1;
+		this.slots = new ArrayDeque[size];
+		for (int i = 0; i < size; i++)
+			slots[i] = new ArrayDeque<>();
+		this.mask = size - 1;
+		this.incoming = new ConcurrentLinkedQueue<>();
+		this.pending = new AtomicLong();
+		this.tick = 0;
+		this.thread = new Thread(this::loop, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private long currentTick() {
+		return (System.nanoTime() - start) / tickNanos;
+	}
+
+	//Runs action on the wheel thread, delay milliseconds from now (rounded up to a tick)
+	public void schedule(long delayMillis, Runnable action) {
+		long due = (System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos;
+		incoming.add(new Task(due, action));
+		if (pending.getAndIncrement() == 0)
+			LockSupport.unpark(thread);
+	}
+
+	//Tasks scheduled and not run yet
+	public long size() {
+		return pending.get();
+	}
+
+	private void loop() {
+		while (true) {
+			if (pending.get() == 0) {
+				LockSupport.park(this);
+				tick = Math.max(tick, currentTick() - 1);
+			}
+			long next = tick + 1;
+			long wait;
+			while ((wait = start + next * tickNanos - System.nanoTime()) > 0)
+				LockSupport.parkNanos(this, wait);
+			Task t;
+			while ((t = incoming.poll()) != null)
+				slots[(int) (Math.max(t.due, next) & mask)].addLast(t);
+			//Catches up on the ticks we overslept, one slot at a time
+			long now = currentTick();
+			for (tick = next; tick <= now; tick++)
+				runSlot(slots[(int) (tick & mask)]);
+			tick = now;
+		}
+	}
+
+	private void runSlot(ArrayDeque<Task> slot) {
+		for (int n = slot.size(); n > 0; n--) {
+			Task t = slot.pollFirst();
+			if (t.due > tick) {
+				//Due in a later round of the wheel
+				slot.addLast(t);
+				continue;
+			}
+			pending.decrementAndGet();
+			try {
+				t.action.run();
+			} catch (RuntimeException e) {
+				logger.error("Timer wheel task failed", e);
+			}
+		}
+	}
+}
@@ -1,29 +1,69 @@
 package protocols.apps;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.IntSupplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import channel.notifications.ChannelCreated;
 import protocols.apps.timers.ExitTimer;
+import protocols.apps.timers.MetricsTimer;
 import protocols.apps.timers.RequestTimer;
 import protocols.apps.timers.StartTimer;
 import protocols.apps.timers.StopTimer;
+import protocols.storage.replies.MultiRetrieveReply;
+import protocols.storage.replies.MultiStoreReply;
 import protocols.storage.replies.RetrieveFailedReply;
 import protocols.storage.replies.RetrieveOKReply;
+import protocols.storage.replies.StoreFailedReply;
 import protocols.storage.replies.StoreOKReply;
+import protocols.storage.requests.MultiRetrieveRequest;
+import protocols.storage.requests.MultiStoreRequest;
 import protocols.storage.requests.RetrieveRequest;
 import protocols.storage.requests.StoreRequest;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
 import pt.unl.fct.di.novasys.channel.tcp.events.ChannelMetrics;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.Histogram;
+import utils.MetricsRegistry;
+import utils.TraceBuffer;
+import utils.Tracer;
 
+/**
+ * Stores numberContents contents, one at a time, and then retrieves contents stored by the other
+ * processes. With "workload_mode=closed" one retrieve is sent every "request_interval".
+ *
+ * With "workload_mode=open" requests are issued at "workload_rate" per second regardless of
+ * replies (evenly spaced, or Poisson with "workload_arrivals=poisson"), which is what exposes the
+ * throughput knee of the system. A "workload_read_ratio" fraction of them are retrieves over the
+ * keys of the other processes, the rest re-store our own keys; keys are picked by a
+ * {@link KeyChooser}. Requests due while "workload_max_outstanding" are pending are skipped and
+ * counted, so the offered load never turns into an unbounded queue.
+ *
+ * With "workload_batch_size" above 1, contents are stored with {@link MultiStoreRequest}s and every
+ * request, in either mode, is a {@link MultiStoreRequest} or {@link MultiRetrieveRequest} of that
+ * many keys. Latencies are then those of whole batches, while request counts are of keys.
+ *
+ * The latency of every request, from issue to reply, is recorded in fixed-memory histograms.
+ * Every "app_metrics_interval" milliseconds, and at exit, percentiles and throughput are logged
+ * and appended as CSV to "app_metrics_file", along with the requests still unanswered after
+ * "app_request_timeout" milliseconds; requests never answered are listed at exit.
+ */
 public class AutomatedApplication extends GenericProtocol {
 	private static final Logger logger = LogManager.getLogger(AutomatedApplication.class);
 
@@ -46,6 +86,16 @@ public class AutomatedApplication extends GenericProtocol {
 	//Interval between each request
 	private final int requestInterval;
 
+	//Open-loop workload
+	private final boolean openLoop;
+	private final double rate; //requests per second
+	private final int maxOutstanding;
+	private final double readRatio;
+	private final boolean poisson;
+	private final int tick; //in milliseconds
+	//Keys per request, 1 for single-key requests
+	private final int batchSize;
+
 	//Number of total processes in the system (for testing purposes)
 	private final int totalProcesses;
 	//Index of this process (for testing purposes)
@@ -60,13 +110,44 @@ public class AutomatedApplication extends GenericProtocol {
 	private List<String> myKeys;
 	private List<String> otherKeys;
 	private int storedKeys;
+	private KeyChooser readChooser;
+	private KeyChooser writeChooser;
+	private List<String> readKeys;
+	//Requests waiting for a reply, by UUID
+	private Map<UUID, Pending> pending;
+	private boolean running;
+	private double nextArrival;
 	
 	//Variables related with measurement
 	private long storeRequests = 0;
 	private long storeRequestsCompleted = 0;
+	private long storeRequestsFailed = 0;
 	private long retrieveRequests = 0;
 	private long retrieveRequestsSuccessful = 0;
 	private long retrieveRequestsFailed = 0;
+	private long skippedRequests = 0;
+	private final Latencies storeLatencies = new Latencies("store", 0);
+	private final Latencies retrieveLatencies = new Latencies("retrieve", 1);
+	private final Latencies failedLatencies = new Latencies("retrieve_failed", 2);
+	private final Latencies multiStoreLatencies = new Latencies("multi_store", 3);
+	private final Latencies multiRetrieveLatencies = new Latencies("multi_retrieve", 4);
+	private final Latencies storeFailedLatencies = new Latencies("store_failed", 5);
+	private final Latencies[] allLatencies = { storeLatencies, retrieveLatencies, failedLatencies, multiStoreLatencies,
+			multiRetrieveLatencies, storeFailedLatencies };
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	//Per-request text logging, which is costly at high request rates
+	private final boolean logRequests;
+	private final int metricsInterval;
+	private final long requestTimeout;
+	private final String metricsFile;
+	private PrintStream metrics;
+	private final MetricsRegistry.Gauge channelSentMessages = MetricsRegistry.global().gauge("channel.sent_messages");
+	private final MetricsRegistry.Gauge channelSentBytes = MetricsRegistry.global().gauge("channel.sent_bytes");
+	private final MetricsRegistry.Gauge channelReceivedMessages = MetricsRegistry.global().gauge("channel.received_messages");
+	private final MetricsRegistry.Gauge channelReceivedBytes = MetricsRegistry.global().gauge("channel.received_bytes");
+	private final MetricsRegistry.Gauge channelConnections = MetricsRegistry.global().gauge("channel.connections");
+	private long startTime;
+	private long windowStart;
 	
 	public AutomatedApplication(Host self, Properties properties, short storageProtoId) throws HandlerRegistrationException {
 		super(PROTO_NAME, PROTO_ID);
@@ -81,14 +162,34 @@ public class AutomatedApplication extends GenericProtocol {
 		this.runTime = Integer.parseInt(properties.getProperty("run_time")); //in seconds
 		this.requestInterval = Integer.parseInt(properties.getProperty("request_interval")); //in milliseconds
 
+		String mode = properties.getProperty("workload_mode", "closed");
+		if (!mode.equals("closed") && !mode.equals("open"))
+			throw new IllegalArgumentException("Unknown workload_mode: " + mode);
+		this.openLoop = mode.equals("open");
+		this.rate = Double.parseDouble(properties.getProperty("workload_rate", "100"));
+		this.maxOutstanding = Integer.parseInt(properties.getProperty("workload_max_outstanding", "1000"));
+		this.readRatio = Double.parseDouble(properties.getProperty("workload_read_ratio", "0.9"));
+		this.poisson = properties.getProperty("workload_arrivals", "uniform").equals("poisson");
+		this.tick = Integer.parseInt(properties.getProperty("workload_tick", "5")); //in milliseconds
+		this.batchSize = Integer.parseInt(properties.getProperty("workload_batch_size", "1"));
+		this.logRequests = Boolean.parseBoolean(properties.getProperty("app_log_requests", "true"));
+		this.metricsInterval = Integer.parseInt(properties.getProperty("app_metrics_interval", "1000")); //in milliseconds
+		this.requestTimeout = Long.parseLong(properties.getProperty("app_request_timeout", "10000")); //in milliseconds
+		this.metricsFile = properties.getProperty("app_metrics_file",
+				System.getProperty("logFilename", "node" + properties.getProperty("my_index")) + "-latency.csv");
+
 		//Setup handlers
 		registerTimerHandler(RequestTimer.TIMER_ID, this::uponRequestTimer);
 		registerTimerHandler(StartTimer.TIMER_ID, this::uponStartTimer);
 		registerTimerHandler(StopTimer.TIMER_ID, this::uponStopTimer);
 		registerTimerHandler(ExitTimer.TIMER_ID, this::uponExitTimer);
+		registerTimerHandler(MetricsTimer.TIMER_ID, this::uponMetricsTimer);
 		registerReplyHandler(StoreOKReply.REPLY_ID, this::uponStoreOk);
+		registerReplyHandler(StoreFailedReply.REPLY_ID, this::uponStoreFailed);
 		registerReplyHandler(RetrieveOKReply.REPLY_ID, this::uponRetrieveOK);
 		registerReplyHandler(RetrieveFailedReply.REPLY_ID, this::uponRetrieveFailed);
+		registerReplyHandler(MultiStoreReply.REPLY_ID, this::uponMultiStoreReply);
+		registerReplyHandler(MultiRetrieveReply.REPLY_ID, this::uponMultiRetrieveReply);
 
 		//Register notifications
 		subscribeNotification(ChannelCreated.NOTIFICATION_ID, this::uponChannelCreated);
@@ -99,6 +200,9 @@ public class AutomatedApplication extends GenericProtocol {
 		this.myKeys = new ArrayList<String>(this.numberContents);
 		this.otherKeys = new ArrayList<String>(this.numberContents * (this.totalProcesses-1));
 		this.storedKeys = 0;
+		this.pending = new HashMap<>();
+		MetricsRegistry.global().gauge("app.pending_requests", pending::size);
+		this.running = false;
 
 	}
 
@@ -129,6 +233,10 @@ public class AutomatedApplication extends GenericProtocol {
 		}	
 		//reset Random
 		r = new Random((long) this.localIndex);
+		//With a single process there are no other keys, so we read our own
+		this.readKeys = this.otherKeys.isEmpty() ? this.myKeys : this.otherKeys;
+		this.readChooser = new KeyChooser(this.readKeys.size(), props, r);
+		this.writeChooser = new KeyChooser(this.myKeys.size(), props, r);
 		//Wait prepareTime seconds before starting
 		logger.info("Waiting...");
 		setupTimer(new StartTimer(), prepareTime * 1000);
@@ -136,51 +244,246 @@ public class AutomatedApplication extends GenericProtocol {
 
 	private void uponStartTimer(StartTimer startTimer, long timerId) {
 		logger.info("Starting");
-		byte[] content = new byte[this.payloadSize];
-		new Random(this.localIndex*1000+this.storedKeys).nextBytes(content);
+		try {
+			this.metrics = new PrintStream(new FileOutputStream(this.metricsFile));
+			this.metrics.println("time_ms,scope,type,count,throughput,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+		} catch (FileNotFoundException e) {
+			logger.error("Unable to open {}: {}", this.metricsFile, e.getMessage());
+		}
+		this.startTime = System.currentTimeMillis();
+		this.windowStart = this.startTime;
+		if (this.metricsInterval > 0)
+			setupPeriodicTimer(new MetricsTimer(), this.metricsInterval, this.metricsInterval);
+		if (this.batchSize > 1) {
+			storeNextBatch();
+			return;
+		}
+		byte[] content = contentOf(this.storedKeys);
 		StoreRequest request = new StoreRequest(this.myKeys.get(this.storedKeys), content);
 		sendRequest(request, storageProtoId);
-		logger.info("{}: Storing content with name: {} with size {} bytes (requestID {})", self, request.getName(), content.length, request.getRequestUID());
+		issued(request.getRequestUID(), request.getName(), 0);
+		if (this.logRequests)
+			logger.info("{}: Storing content with name: {} with size {} bytes (requestID {})", self, request.getName(), content.length, request.getRequestUID());
 		this.storeRequests++;
 	}
 
 	private void uponRequestTimer(RequestTimer broadcastTimer, long timerId) {
+		if (this.openLoop) {
+			//Issue every arrival that is due, whatever happened to the previous ones
+			long now = System.currentTimeMillis();
+			double gap = 1000.0 / this.rate;
+			while (this.nextArrival <= now) {
+				issueOpenLoopRequest();
+				this.nextArrival += this.poisson ? -Math.log(1 - r.nextDouble()) * gap : gap;
+			}
+			return;
+		}
+		if (this.batchSize > 1) {
+			List<String> names = new ArrayList<>(this.batchSize);
+			for (int index : distinct(() -> r.nextInt(this.readKeys.size()), this.readKeys.size()))
+				names.add(this.readKeys.get(index));
+			sendMultiRetrieve(names);
+			return;
+		}
 		String name = this.otherKeys.get(r.nextInt(this.otherKeys.size()));
 		
 		RetrieveRequest request = new RetrieveRequest(name);
-		logger.info("{}: Sending Retrieve request for content with key: {} (request ID {})", self, request.getName(), request.getRequestUID());
+		if (this.logRequests)
+			logger.info("{}: Sending Retrieve request for content with key: {} (request ID {})", self, request.getName(), request.getRequestUID());
 		//And send it to the storage protocol
 		sendRequest(request, storageProtoId);
+		issued(request.getRequestUID(), request.getName(), 1);
 		this.retrieveRequests++;
 	}
 
+	private void issueOpenLoopRequest() {
+		if (this.pending.size() >= this.maxOutstanding) {
+			this.skippedRequests++;
+			return;
+		}
+		if (this.batchSize > 1) {
+			if (r.nextDouble() < this.readRatio) {
+				List<String> names = new ArrayList<>(this.batchSize);
+				for (int index : distinct(this.readChooser::next, this.readKeys.size()))
+					names.add(this.readKeys.get(index));
+				sendMultiRetrieve(names);
+			} else {
+				sendMultiStore(distinct(this.writeChooser::next, this.myKeys.size()));
+			}
+			return;
+		}
+		if (r.nextDouble() < this.readRatio) {
+			RetrieveRequest request = new RetrieveRequest(this.readKeys.get(this.readChooser.next()));
+			logger.debug("{}: Sending Retrieve request for content with key: {} (request ID {})", self, request.getName(), request.getRequestUID());
+			sendRequest(request, storageProtoId);
+			issued(request.getRequestUID(), request.getName(), 1);
+			this.retrieveRequests++;
+		} else {
+			//Each key is always stored with the same content, so re-stores never conflict
+			int index = this.writeChooser.next();
+			byte[] content = contentOf(index);
+			StoreRequest request = new StoreRequest(this.myKeys.get(index), content);
+			logger.debug("{}: Storing content with name: {} with size {} bytes (requestID {})", self, request.getName(), content.length, request.getRequestUID());
+			sendRequest(request, storageProtoId);
+			issued(request.getRequestUID(), request.getName(), 0);
+			this.storeRequests++;
+		}
+	}
+
 	private void uponStoreOk(StoreOKReply reply, short sourceProto) {
-		this.storedKeys++;
 		this.storeRequestsCompleted++;
-		logger.info("{}: Store Successful for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+		answered(reply.getReplyUID(), this.storeLatencies);
+		if (this.running) {
+			logger.debug("{}: Store Successful for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+			return;
+		}
+		if (this.logRequests)
+			logger.info("{}: Store Successful for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+		storeNext();
+	}
+
+	//The storage layer already retried, so a failed key is counted and skipped rather than stalling the store phase
+	private void uponStoreFailed(StoreFailedReply reply, short sourceProto) {
+		this.storeRequestsFailed++;
+		answered(reply.getReplyUID(), this.storeFailedLatencies);
+		logger.warn("{}: Store failed for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+		if (!this.running)
+			storeNext();
+	}
+
+	//Moves the store phase on to the next key, or to the requests once every key was stored
+	private void storeNext() {
+		this.storedKeys++;
 		if(this.storedKeys >= this.numberContents) {
-			//Start requests periodically
-			requestTimer = setupPeriodicTimer(new RequestTimer(), 0, requestInterval);
-			//And setup the stop timer
-			setupTimer(new StopTimer(), runTime * 1000);
+			startRunning();
 		} else {
-			byte[] content = new byte[this.payloadSize];
-			new Random(this.localIndex*1000+this.storedKeys).nextBytes(content);
+			byte[] content = contentOf(this.storedKeys);
 			StoreRequest request = new StoreRequest(this.myKeys.get(this.storedKeys), content);
 			sendRequest(request, storageProtoId);
-			logger.info("{}: Storing content with name: {} with size {} bytes (requestID {})", self, request.getName(), content.length, request.getRequestUID());
+			issued(request.getRequestUID(), request.getName(), 0);
+			if (this.logRequests)
+				logger.info("{}: Storing content with name: {} with size {} bytes (requestID {})", self, request.getName(), content.length, request.getRequestUID());
 			this.storeRequests++;
 		}
 	}
 	
+	private void startRunning() {
+		//Start requests periodically
+		this.running = true;
+		this.nextArrival = System.currentTimeMillis();
+		requestTimer = setupPeriodicTimer(new RequestTimer(), 0, this.openLoop ? this.tick : requestInterval);
+		//And setup the stop timer
+		setupTimer(new StopTimer(), runTime * 1000);
+	}
+
+	//The content of our index-th key, derived from the index
+	private byte[] contentOf(int index) {
+		byte[] content = new byte[this.payloadSize];
+		new Random(this.localIndex*1000+index).nextBytes(content);
+		return content;
+	}
+
 	private void uponRetrieveOK(RetrieveOKReply reply, short sourceProto) {
-		logger.info("{}: Retieve successful for content with name: {} with size {} bytes (replyID {})", self, reply.getName(), reply.getContent().length, reply.getReplyUID());
+		if (this.openLoop) {
+			//Per-request logging would dominate the cost of an open-loop run
+			answered(reply.getReplyUID(), this.retrieveLatencies);
+			this.retrieveRequestsSuccessful++;
+			logger.debug("{}: Retieve successful for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+			return;
+		}
+		if (this.logRequests)
+			logger.info("{}: Retieve successful for content with name: {} with size {} bytes (replyID {})", self, reply.getName(), reply.getContent().length, reply.getReplyUID());
 		this.retrieveRequestsSuccessful++;
+		answered(reply.getReplyUID(), this.retrieveLatencies);
 	}
 	
 	private void uponRetrieveFailed(RetrieveFailedReply reply, short sourceProto) {
-		logger.info("{}: Retieve failed for content with name: {} bytes (replyID {})", self, reply.getName(), reply.getReplyUID());
+		if (this.openLoop) {
+			answered(reply.getReplyUID(), this.failedLatencies);
+			this.retrieveRequestsFailed++;
+			logger.debug("{}: Retieve failed for content with name: {} (replyID {})", self, reply.getName(), reply.getReplyUID());
+			return;
+		}
+		if (this.logRequests)
+			logger.info("{}: Retieve failed for content with name: {} bytes (replyID {})", self, reply.getName(), reply.getReplyUID());
 		this.retrieveRequestsFailed++;
+		answered(reply.getReplyUID(), this.failedLatencies);
+	}
+
+	/*--------------------------------- Batches ---------------------------------------- */
+
+	private void storeNextBatch() {
+		List<Integer> indexes = new ArrayList<>(this.batchSize);
+		for (int i = this.storedKeys; i < Math.min(this.storedKeys + this.batchSize, this.numberContents); i++)
+			indexes.add(i);
+		sendMultiStore(indexes);
+	}
+
+	//Up to batchSize distinct indexes below keys, drawn from next, so that a batch never repeats a key
+	private List<Integer> distinct(IntSupplier next, int keys) {
+		int size = Math.min(this.batchSize, keys);
+		Set<Integer> indexes = new LinkedHashSet<>();
+		//Bounded, since skewed choosers seldom draw the rarest keys
+		for (int draws = 0; indexes.size() < size && draws < size * 16; draws++)
+			indexes.add(next.getAsInt());
+		return new ArrayList<>(indexes);
+	}
+
+	private void sendMultiStore(List<Integer> indexes) {
+		List<String> names = new ArrayList<>(indexes.size());
+		List<byte[]> contents = new ArrayList<>(indexes.size());
+		for (int index : indexes) {
+			names.add(this.myKeys.get(index));
+			contents.add(contentOf(index));
+		}
+		MultiStoreRequest request = new MultiStoreRequest(names, contents);
+		logger.debug("{}: Storing {} contents (requestID {})", self, names.size(), request.getRequestUID());
+		sendRequest(request, storageProtoId);
+		issued(request.getRequestUID(), names.size() + " keys", 2);
+		this.storeRequests += names.size();
+	}
+
+	private void sendMultiRetrieve(List<String> names) {
+		MultiRetrieveRequest request = new MultiRetrieveRequest(names);
+		logger.debug("{}: Sending Retrieve request for {} keys (request ID {})", self, names.size(), request.getRequestUID());
+		sendRequest(request, storageProtoId);
+		issued(request.getRequestUID(), names.size() + " keys", 3);
+		this.retrieveRequests += names.size();
+	}
+
+	private void uponMultiStoreReply(MultiStoreReply reply, short sourceProto) {
+		answered(reply.getReplyUID(), this.multiStoreLatencies);
+		int stored = 0;
+		for (Map.Entry<String, Boolean> e : reply.getResults().entrySet()) {
+			if (e.getValue())
+				stored++;
+			else
+				logger.warn("{}: Store failed for content with name: {} (replyID {})", self, e.getKey(), reply.getReplyUID());
+		}
+		this.storeRequestsCompleted += stored;
+		this.storeRequestsFailed += reply.getResults().size() - stored;
+		if (this.logRequests && !this.openLoop)
+			logger.info("{}: Stored {} of {} contents (replyID {})", self, stored, reply.getResults().size(), reply.getReplyUID());
+		if (this.running)
+			return;
+		//Failed keys are not retried, as the storage layer already did
+		this.storedKeys += reply.getResults().size();
+		if (this.storedKeys >= this.numberContents)
+			startRunning();
+		else
+			storeNextBatch();
+	}
+
+	private void uponMultiRetrieveReply(MultiRetrieveReply reply, short sourceProto) {
+		answered(reply.getReplyUID(), this.multiRetrieveLatencies);
+		int retrieved = 0;
+		for (byte[] content : reply.getContents().values())
+			if (content != null)
+				retrieved++;
+		this.retrieveRequestsSuccessful += retrieved;
+		this.retrieveRequestsFailed += reply.getContents().size() - retrieved;
+		if (this.logRequests && !this.openLoop)
+			logger.info("{}: Retrieved {} of {} contents (replyID {})", self, retrieved, reply.getContents().size(), reply.getReplyUID());
 	}
 
 	private void uponStopTimer(StopTimer stopTimer, long timerId) {
@@ -192,18 +495,131 @@ public class AutomatedApplication extends GenericProtocol {
 		logger.info("Exiting...");
 		logger.info("{}: Executed {} store requests.", self, this.storeRequests);
 		logger.info("{}: Completed {} store requests.", self, this.storeRequestsCompleted);
+		logger.info("{}: Failed on {} store requests.", self, this.storeRequestsFailed);
 		logger.info("{}: Executed {} retrieve requests.", self, this.retrieveRequests);
 		logger.info("{}: Success on {} retrieve requests.", self, this.retrieveRequestsSuccessful);
 		logger.info("{}: Failed on {} retrieve requests.", self, this.retrieveRequestsFailed);
+		if (this.openLoop)
+			logger.info("{}: Skipped {} requests with {} outstanding.", self, this.skippedRequests, this.maxOutstanding);
+		long now = System.currentTimeMillis();
+		writeWindow(now);
+		for (Latencies l : allLatencies) {
+			logger.info("{}: {} latency: {}", self, l.name, summary(l.total));
+			writeRow(now, "total", l.name, l.total, (now - this.startTime) / 1000.0);
+		}
+		for (Map.Entry<UUID, Pending> e : this.pending.entrySet())
+			logger.info("{}: Unanswered request for {} (request ID {}) issued {} ms before exit", self, e.getValue().name, e.getKey(),
+					(System.nanoTime() - e.getValue().issueTime) / 1_000_000);
+		logger.info("{}: {} requests never got a reply.", self, this.pending.size());
+		writeCount(now, "total", "unanswered", this.pending.size());
+		if (this.metrics != null)
+			this.metrics.close();
 		System.exit(0);
 	}
 	
+	/*--------------------------------- Latency ---------------------------------------- */
+
+	//kind: 0 for stores, 1 for retrieves, 2 for multi-stores, 3 for multi-retrieves
+	private void issued(UUID uid, String name, int kind) {
+		this.pending.put(uid, new Pending(name, System.nanoTime()));
+		this.trace.record(Tracer.REQUEST_ISSUED, kind, uid);
+	}
+
+	private void answered(UUID uid, Latencies latencies) {
+		this.trace.record(Tracer.REPLY_RECEIVED, latencies.code, uid);
+		Pending p = this.pending.remove(uid);
+		if (p != null)
+			latencies.record((System.nanoTime() - p.issueTime) / 1000);
+	}
+
+	private void uponMetricsTimer(MetricsTimer metricsTimer, long timerId) {
+		writeWindow(System.currentTimeMillis());
+	}
+
+	//Reports the window that ends now, folds it into the totals and starts a new one
+	private void writeWindow(long now) {
+		double seconds = Math.max(1, now - this.windowStart) / 1000.0;
+		for (Latencies l : allLatencies) {
+			if (l.window.getCount() > 0)
+				logger.info("{}: {} {}", self, l.name, summary(l.window) + String.format(" throughput=%.1f/s", l.window.getCount() / seconds));
+			writeRow(now, "window", l.name, l.window, seconds);
+			l.total.add(l.window);
+			l.window.reset();
+		}
+		long overdueBefore = System.nanoTime() - this.requestTimeout * 1_000_000;
+		int overdue = 0;
+		for (Pending p : this.pending.values())
+			if (p.issueTime < overdueBefore)
+				overdue++;
+		if (overdue > 0)
+			logger.info("{}: {} requests unanswered for more than {} ms", self, overdue, this.requestTimeout);
+		writeCount(now, "window", "unanswered", overdue);
+		this.windowStart = now;
+	}
+
+	private static String summary(Histogram h) {
+		return String.format("count=%d p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", h.getCount(),
+				h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0,
+				h.getPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+	}
+
+	private void writeRow(long now, String scope, String type, Histogram h, double seconds) {
+		if (this.metrics == null)
+			return;
+		this.metrics.printf("%d,%s,%s,%d,%.2f,%.1f,%d,%d,%d,%d,%d%n", now - this.startTime, scope, type, h.getCount(),
+				h.getCount() / seconds, h.getMean(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99),
+				h.getPercentile(99.9), h.getMax());
+	}
+
+	private void writeCount(long now, String scope, String type, long count) {
+		if (this.metrics != null)
+			this.metrics.printf("%d,%s,%s,%d,,,,,,,%n", now - this.startTime, scope, type, count);
+	}
+
+	private static class Pending {
+		private final String name;
+		private final long issueTime; //System.nanoTime()
+
+		private Pending(String name, long issueTime) {
+			this.name = name;
+			this.issueTime = issueTime;
+		}
+	}
+
+	private static class Latencies {
+		private final String name;
+		private final int code;
+		private final Histogram window = new Histogram();
+		private final Histogram total = new Histogram();
+		private final AtomicHistogram exported;
+
+		private Latencies(String name, int code) {
+			this.name = name;
+			this.code = code;
+			this.exported = MetricsRegistry.global().histogram("app." + name + ".latency_us");
+		}
+
+		private void record(long micros) {
+			window.record(micros);
+			exported.record(micros);
+		}
+	}
+
 	//If we passed a value >0 in the METRICS_INTERVAL_KEY property of the channel, this event will be triggered
     //periodically by the channel. This is NOT a protocol timer, but a channel event.
-    //Again, we are just showing some of the information you can get from the channel, and use how you see fit.
-    //"getInConnections" and "getOutConnections" returns the currently established connection to/from me.
-    //"getOldInConnections" and "getOldOutConnections" returns connections that have already been closed.
+    //The totals over all connections go to the MetricsRegistry; the (expensive) per-connection
+    //report is only built when debug logging is enabled.
     private void uponChannelMetrics(ChannelMetrics event, int channelId) {
+        long[] totals = new long[4];
+        event.getInConnections().forEach(c -> addTotals(totals, c));
+        event.getOutConnections().forEach(c -> addTotals(totals, c));
+        channelSentMessages.set(totals[0]);
+        channelSentBytes.set(totals[1]);
+        channelReceivedMessages.set(totals[2]);
+        channelReceivedBytes.set(totals[3]);
+        channelConnections.set(event.getInConnections().size() + event.getOutConnections().size());
+        if (!logger.isDebugEnabled())
+            return;
         StringBuilder sb = new StringBuilder("Channel Metrics:\n");
         sb.append("In channels:\n");
         event.getInConnections().forEach(c -> sb.append(String.format("\t%s: msgOut=%s (%s) msgIn=%s (%s)\n",
@@ -220,6 +636,13 @@ public class AutomatedApplication extends GenericProtocol {
                 c.getPeer(), c.getSentAppMessages(), c.getSentAppBytes(), c.getReceivedAppMessages(),
                 c.getReceivedAppBytes())));
         sb.setLength(sb.length() - 1);
-        logger.info(sb);
+        logger.debug(sb);
+    }
+
+    private static void addTotals(long[] totals, ChannelMetrics.ConnectionMetrics c) {
+        totals[0] += c.getSentAppMessages();
+        totals[1] += c.getSentAppBytes();
+        totals[2] += c.getReceivedAppMessages();
+        totals[3] += c.getReceivedAppBytes();
     }
 }
@@ -0,0 +1,69 @@
+package protocols.apps;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Picks indexes in [0, n[ following a key-popularity distribution:
+ * "uniform"; "zipf", where index i has weight 1/(i+1)^s; or "hotspot", where a fraction of
+ * the keys (the first ones) receives a given fraction of the accesses.
+ */
+public class KeyChooser {
+
+	private final String distribution;
+	private final int n;
+	private final Random r;
+	//Cumulative probabilities, for zipf
+	private final double[] cdf;
+	private final int hotKeys;
+	private final double hotProbability;
+
+	public KeyChooser(int n, Properties props, Random r) {
+		this.distribution = props.getProperty("workload_distribution", "uniform");
+		this.n = n;
+		this.r = r;
+		switch (distribution) {
+			case "uniform":
+				this.cdf = null;
+				this.hotKeys = 0;
+				this.hotProbability = 0;
+				break;
+			case "zipf":
+				double s = Double.parseDouble(props.getProperty("workload_zipf_exponent", "0.99"));
+				this.cdf = new double[n];
+				double sum = 0;
+				for (int i = 0; i < n; i++) {
+					sum += 1 / Math.pow(i + 1, s);
+					cdf[i] = sum;
+				}
+				for (int i = 0; i < n; i++)
+					cdf[i] /= sum;
+				this.hotKeys = 0;
+				this.hotProbability = 0;
+				break;
+			case "hotspot":
+				this.cdf = null;
+				double fraction = Double.parseDouble(props.getProperty("workload_hotspot_fraction", "0.2"));
+				this.hotKeys = Math.max(1, Math.min(n, (int) Math.round(n * fraction)));
+				this.hotProbability = Double.parseDouble(props.getProperty("workload_hotspot_probability", "0.8"));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown workload_distribution: " + distribution);
+		}
+	}
+
+	public int next() {
+		switch (distribution) {
+			case "zipf":
+				int idx = Arrays.binarySearch(cdf, r.nextDouble());
+				return Math.min(n - 1, idx >= 0 ? idx : -idx - 1);
+			case "hotspot":
+				if (hotKeys == n || r.nextDouble() < hotProbability)
+					return r.nextInt(hotKeys);
+				return hotKeys + r.nextInt(n - hotKeys);
+			default:
+				return r.nextInt(n);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package protocols.apps.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class MetricsTimer extends ProtoTimer {
+    public static final short TIMER_ID = 305;
+
+    public MetricsTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
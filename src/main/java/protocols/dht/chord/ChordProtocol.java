@@ -0,0 +1,649 @@
+package protocols.dht.chord;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import channel.notifications.ChannelCreated;
+import protocols.dht.chord.messages.FindSuccessorMessage;
+import protocols.dht.chord.messages.FoundSuccessorMessage;
+import protocols.dht.chord.messages.GetPredecessorMessage;
+import protocols.dht.chord.messages.NextHopReplyMessage;
+import protocols.dht.chord.messages.NextHopRequestMessage;
+import protocols.dht.chord.messages.PredecessorReplyMessage;
+import protocols.dht.chord.timers.FixFingersTimer;
+import protocols.dht.chord.timers.LookupTimeoutTimer;
+import protocols.dht.chord.timers.StabilizeTimer;
+import protocols.dht.chord.timers.StatsTimer;
+import protocols.dht.replies.LookupReply;
+import protocols.dht.requests.LookupRequest;
+import protocols.dht.vivaldi.Vivaldi;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionUp;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionUp;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.FailureDetector;
+import utils.HashGenerator;
+import utils.LatencyMatrix;
+import utils.MetricsRegistry;
+import utils.RingId;
+import utils.TraceBuffer;
+import utils.Tracer;
+
+/**
+ * Chord DHT. Keys are owned by their successor on a 2^160 identifier ring; lookups are routed
+ * through the finger table in O(log N) hops, either recursively (each hop forwards the request
+ * and the last one answers the origin directly) or iteratively (the origin queries each hop in
+ * turn). The mode is selected by the "chord_lookup_mode" property.
+ *
+ * With "chord_proximity", every node keeps {@link Vivaldi} coordinates, sampled from the
+ * round-trip times of stabilization (to the successor and, round-robin, to the fingers) and of
+ * iterative lookup steps, and spread by attaching them to the nodes carried in every message.
+ * They are used to pick the closest node of each finger interval (proximity neighbour selection)
+ * and to trade progress for latency when choosing the next hop (proximity route selection).
+ * If "dht_latency_file" names the latency matrix being emulated, the stretch of every lookup
+ * (its latency over the direct round-trip time to the owner) is measured against it.
+ *
+ * Lookups are routed around the nodes the {@link FailureDetector} suspects, and an iterative step
+ * that takes longer than the adaptive timeout of its hop is rerouted from our own routing state.
+ */
+public class ChordProtocol extends GenericProtocol {
+	private static final Logger logger = LogManager.getLogger(ChordProtocol.class);
+
+	//Protocol information, to register in babel
+	public static final String PROTO_NAME = "ChordDHT";
+	public static final short PROTO_ID = 100;
+
+	public static final String MODE_RECURSIVE = "recursive";
+	public static final String MODE_ITERATIVE = "iterative";
+
+	//Lookups issued by the protocol itself are not answered to any other protocol
+	private static final short INTERNAL = -1;
+	//Upper bound on hops, protects iterative lookups against routing loops while the ring converges
+	private static final int MAX_HOPS = FingerTable.M;
+
+	private final Host self;
+	private final ChordNode selfNode;
+	private final FingerTable table;
+	private final boolean recursive;
+	private final boolean proximity;
+	private final Vivaldi vivaldi;
+	private final LatencyMatrix groundTruth;
+	private final int groundTruthBasePort;
+	private final FailureDetector detector;
+	//Bound once, so that routing a hop allocates no method references
+	private final ToDoubleFunction<ChordNode> estimator = this::estimate;
+	private final Predicate<ChordNode> usable = this::usable;
+
+	private final int replyPeers;
+	private final int stabilizeInterval;
+	private final int fixFingersInterval;
+	private final int lookupTimeout;
+	private final int statsInterval;
+
+	private int channelId;
+	private Host contact;
+	private final Set<Host> connections;
+	private final Map<UUID, PendingLookup> pending;
+	private int nextFinger;
+	private int nextProbe;
+
+	//Variables related with measurement
+	private long lookupsCompleted = 0;
+	private long lookupsFailed = 0;
+	private long totalHops = 0;
+	private long totalLatency = 0;
+	private long stretchSamples = 0;
+	private double totalStretch = 0;
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	//Exported through the MetricsRegistry
+	private final AtomicHistogram hopsMetric = MetricsRegistry.global().histogram("dht.lookup.hops");
+	private final AtomicHistogram latencyMetric = MetricsRegistry.global().histogram("dht.lookup.latency_ms");
+	private final MetricsRegistry.Counter failedMetric = MetricsRegistry.global().counter("dht.lookups.failed");
+	//Lookup latency over the direct round-trip time to the owner, in percent
+	private final AtomicHistogram stretchMetric = MetricsRegistry.global().histogram("dht.lookup.stretch_pct");
+	private long messagesRouted = 0;
+	private long reroutes = 0;
+
+	public ChordProtocol(Host self, Properties props) throws HandlerRegistrationException, IOException {
+		super(PROTO_NAME, PROTO_ID);
+		this.self = self;
+		this.selfNode = new ChordNode(HashGenerator.generateRingId(self.toString()), self);
+		this.table = new FingerTable(selfNode, Integer.parseInt(props.getProperty("chord_successor_list_size", "4")));
+
+		String mode = props.getProperty("chord_lookup_mode", MODE_RECURSIVE);
+		if (!mode.equals(MODE_RECURSIVE) && !mode.equals(MODE_ITERATIVE))
+			throw new IllegalArgumentException("Unknown chord_lookup_mode: " + mode);
+		this.recursive = mode.equals(MODE_RECURSIVE);
+		this.proximity = Boolean.parseBoolean(props.getProperty("chord_proximity", "false"));
+		this.vivaldi = proximity ? new Vivaldi(Integer.parseInt(props.getProperty("vivaldi_peer_cache", "1024")), new Random()) : null;
+		if (proximity)
+			MetricsRegistry.global().gauge("dht.vivaldi.error_pct", () -> Math.round(vivaldi.getCoordinate().getError() * 100));
+		String latencyFile = props.getProperty("dht_latency_file", "");
+		this.groundTruth = latencyFile.isEmpty() ? null : LatencyMatrix.read(new File(latencyFile));
+		this.groundTruthBasePort = Integer.parseInt(props.getProperty("emulated_base_port", "10000"));
+		this.detector = FailureDetector.global();
+
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		this.stabilizeInterval = Integer.parseInt(props.getProperty("chord_stabilize_interval", "1000")); //in milliseconds
+		this.fixFingersInterval = Integer.parseInt(props.getProperty("chord_fix_fingers_interval", "500")); //in milliseconds
+		this.lookupTimeout = Integer.parseInt(props.getProperty("dht_lookup_timeout", "5000")); //in milliseconds
+		this.statsInterval = Integer.parseInt(props.getProperty("dht_stats_interval", "-1")); //in milliseconds
+
+		this.connections = new HashSet<>();
+		this.pending = new HashMap<>();
+		MetricsRegistry.global().gauge("dht.pending_lookups", pending::size);
+		this.nextFinger = 0;
+		this.nextProbe = 0;
+
+		/*--------------------- Register Request Handlers ----------------------------- */
+		registerRequestHandler(LookupRequest.REQUEST_ID, this::uponLookupRequest);
+
+		/*--------------------- Register Timer Handlers ----------------------------- */
+		registerTimerHandler(StabilizeTimer.TIMER_ID, this::uponStabilizeTimer);
+		registerTimerHandler(FixFingersTimer.TIMER_ID, this::uponFixFingersTimer);
+		registerTimerHandler(LookupTimeoutTimer.TIMER_ID, this::uponLookupTimeoutTimer);
+		registerTimerHandler(StatsTimer.TIMER_ID, this::uponStatsTimer);
+	}
+
+	@Override
+	public void init(Properties props) throws HandlerRegistrationException, IOException {
+		Properties channelProps = new Properties();
+		channelProps.setProperty(TCPChannel.ADDRESS_KEY, props.getProperty("address"));
+		channelProps.setProperty(TCPChannel.PORT_KEY, props.getProperty("port"));
+		channelProps.setProperty(TCPChannel.METRICS_INTERVAL_KEY, props.getProperty("channel_metrics_interval", "-1"));
+		channelProps.setProperty(TCPChannel.HEARTBEAT_INTERVAL_KEY, "1000");
+		channelProps.setProperty(TCPChannel.HEARTBEAT_TOLERANCE_KEY, "3000");
+		channelProps.setProperty(TCPChannel.CONNECT_TIMEOUT_KEY, "1000");
+		channelId = createChannel(props.getProperty("channel", TCPChannel.NAME), channelProps);
+
+		/*---------------------- Register Message Serializers ---------------------- */
+		registerMessageSerializer(channelId, FindSuccessorMessage.MSG_ID, MetricsRegistry.global().counting("msg.FindSuccessorMessage", FindSuccessorMessage.serializer));
+		registerMessageSerializer(channelId, FoundSuccessorMessage.MSG_ID, MetricsRegistry.global().counting("msg.FoundSuccessorMessage", FoundSuccessorMessage.serializer));
+		registerMessageSerializer(channelId, NextHopRequestMessage.MSG_ID, MetricsRegistry.global().counting("msg.NextHopRequestMessage", NextHopRequestMessage.serializer));
+		registerMessageSerializer(channelId, NextHopReplyMessage.MSG_ID, MetricsRegistry.global().counting("msg.NextHopReplyMessage", NextHopReplyMessage.serializer));
+		registerMessageSerializer(channelId, GetPredecessorMessage.MSG_ID, MetricsRegistry.global().counting("msg.GetPredecessorMessage", GetPredecessorMessage.serializer));
+		registerMessageSerializer(channelId, PredecessorReplyMessage.MSG_ID, MetricsRegistry.global().counting("msg.PredecessorReplyMessage", PredecessorReplyMessage.serializer));
+
+		/*---------------------- Register Message Handlers -------------------------- */
+		registerMessageHandler(channelId, FindSuccessorMessage.MSG_ID, this::uponFindSuccessor, this::uponFindSuccessorFail);
+		registerMessageHandler(channelId, FoundSuccessorMessage.MSG_ID, this::uponFoundSuccessor, this::uponMsgFail);
+		registerMessageHandler(channelId, NextHopRequestMessage.MSG_ID, this::uponNextHopRequest, this::uponNextHopRequestFail);
+		registerMessageHandler(channelId, NextHopReplyMessage.MSG_ID, this::uponNextHopReply, this::uponMsgFail);
+		registerMessageHandler(channelId, GetPredecessorMessage.MSG_ID, this::uponGetPredecessor, this::uponMsgFail);
+		registerMessageHandler(channelId, PredecessorReplyMessage.MSG_ID, this::uponPredecessorReply, this::uponMsgFail);
+
+		/*--------------------- Register Channel Events ------------------------------- */
+		registerChannelEventHandler(channelId, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+		registerChannelEventHandler(channelId, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		registerChannelEventHandler(channelId, OutConnectionUp.EVENT_ID, this::uponOutConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
+
+		//Let the storage and application protocols share our channel
+		triggerNotification(new ChannelCreated(channelId));
+
+		if (props.containsKey("contact")) {
+			try {
+				String contactProp = props.getProperty("contact");
+				String[] hostElems = contactProp.split(":");
+				contact = new Host(InetAddress.getByName(hostElems[0]), Integer.parseInt(hostElems[1]));
+				join();
+			} catch (Exception e) {
+				logger.error("Invalid contact on configuration: '" + props.getProperty("contact"));
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		setupPeriodicTimer(new StabilizeTimer(), stabilizeInterval, stabilizeInterval);
+		setupPeriodicTimer(new FixFingersTimer(), fixFingersInterval, fixFingersInterval);
+		//Often enough to notice iterative steps that exceed their adaptive timeout
+		long check = Math.max(1, Math.min(lookupTimeout, detector.getMinTimeout()));
+		setupPeriodicTimer(new LookupTimeoutTimer(), check, check);
+		if (statsInterval > 0)
+			setupPeriodicTimer(new StatsTimer(), statsInterval, statsInterval);
+
+		logger.info("Chord node {} started in {} mode{}", selfNode, recursive ? MODE_RECURSIVE : MODE_ITERATIVE,
+				proximity ? " with proximity routing" : "");
+	}
+
+	//Asks the contact for our own successor
+	private void join() {
+		UUID uid = UUID.randomUUID();
+		pending.put(uid, new PendingLookup(uid, selfNode.getId(), INTERNAL, -1));
+		send(new FindSuccessorMessage(uid, selfNode.getId(), me(), 1), contact);
+	}
+
+	/*--------------------------------- Lookups ---------------------------------------- */
+
+	private void uponLookupRequest(LookupRequest request, short sourceProto) {
+		PendingLookup lookup = new PendingLookup(request.getRequestUID(), request.getRingID(), sourceProto, -1);
+		lookup.request = request;
+		startLookup(lookup);
+	}
+
+	private void startLookup(PendingLookup lookup) {
+		List<ChordNode> local = resolveLocally(lookup.id);
+		if (local != null) {
+			completeLookup(lookup, local, 0);
+			return;
+		}
+		pending.put(lookup.uid, lookup);
+		ChordNode next = nextHop(lookup.id);
+		if (recursive)
+			send(new FindSuccessorMessage(lookup.uid, lookup.id, me(), 1), next.getHost());
+		else
+			query(lookup, next, 1);
+	}
+
+	//Iterative step: asks next for the following hop
+	private void query(PendingLookup lookup, ChordNode next, int hops) {
+		lookup.lastQueried = next;
+		lookup.hops = hops;
+		lookup.queriedAt = System.currentTimeMillis();
+		NextHopRequestMessage request = new NextHopRequestMessage(lookup.uid, lookup.id, hops, lookup.queriedAt);
+		if (next.equals(selfNode))
+			uponNextHopRequest(request, self, getProtoId(), channelId);
+		else
+			request(request, next.getHost());
+	}
+
+	//Owner of id and its successors if they can be determined without contacting anyone, null otherwise
+	private List<ChordNode> resolveLocally(RingId id) {
+		return table.resolveLocally(id, me(), replyPeers);
+	}
+
+	private ChordNode nextHop(RingId id) {
+		if (proximity && vivaldi.getSamples() > 0)
+			return table.nextHop(id, estimator, vivaldi.getAverageRtt(), usable);
+		return table.nextHop(id, null, 0, usable);
+	}
+
+	private boolean usable(ChordNode n) {
+		return !detector.isSuspected(n.getHost());
+	}
+
+	private void uponFindSuccessor(FindSuccessorMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Received {} from {}", msg, from);
+		messagesRouted++;
+		trace.record(Tracer.LOOKUP_HOP, msg.getHops(), msg.getUid());
+		learn(msg.getOrigin());
+		forward(msg, channelId);
+	}
+
+	//Answers msg if we own its key, else passes it on; no accounting, so reroutes are not counted twice
+	private void forward(FindSuccessorMessage msg, int channelId) {
+		List<ChordNode> owners = resolveLocally(msg.getKey());
+		if (owners != null) {
+			FoundSuccessorMessage reply = new FoundSuccessorMessage(msg.getUid(), msg.getKey(), msg.getHops(), owners);
+			if (msg.getOrigin().equals(selfNode))
+				uponFoundSuccessor(reply, self, getProtoId(), channelId);
+			else
+				send(reply, msg.getOrigin().getHost());
+			return;
+		}
+		ChordNode next = nextHop(msg.getKey());
+		if (msg.getHops() >= MAX_HOPS || next == null || next.equals(selfNode)) {
+			//Left for the origin to time out
+			logger.warn("Dropping {} after {} hops", msg, msg.getHops());
+		} else {
+			send(msg.nextHop(), next.getHost());
+		}
+	}
+
+	private void uponFindSuccessorFail(FindSuccessorMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		//Route around the failed node
+		logger.debug("Forwarding {} to {} failed, rerouting", msg, host);
+		peerFailed(host);
+		forward(msg, channelId);
+	}
+
+	private void uponFoundSuccessor(FoundSuccessorMessage msg, Host from, short sourceProto, int channelId) {
+		PendingLookup lookup = pending.remove(msg.getUid());
+		if (lookup == null) {
+			logger.debug("Late reply {} from {}", msg, from);
+			return;
+		}
+		for (ChordNode n : msg.getNodes())
+			learn(n);
+		completeLookup(lookup, msg.getNodes(), msg.getHops());
+	}
+
+	private void uponNextHopRequest(NextHopRequestMessage msg, Host from, short sourceProto, int channelId) {
+		messagesRouted++;
+		trace.record(Tracer.LOOKUP_HOP, msg.getHops(), msg.getUid());
+		List<ChordNode> owners = resolveLocally(msg.getKey());
+		NextHopReplyMessage reply;
+		if (owners != null) {
+			reply = new NextHopReplyMessage(msg.getUid(), msg.getKey(), true, msg.getHops(), owners, me(), msg.getTimestamp());
+		} else {
+			List<ChordNode> next = new ArrayList<>(1);
+			next.add(nextHop(msg.getKey()));
+			reply = new NextHopReplyMessage(msg.getUid(), msg.getKey(), false, msg.getHops(), next, me(), msg.getTimestamp());
+		}
+		send(reply, from);
+	}
+
+	private void uponNextHopRequestFail(NextHopRequestMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		peerFailed(host);
+		PendingLookup lookup = pending.get(msg.getUid());
+		//Restart from our own (now updated) routing state
+		if (lookup != null)
+			query(lookup, nextHop(lookup.id), msg.getHops() + 1);
+	}
+
+	private void uponNextHopReply(NextHopReplyMessage msg, Host from, short sourceProto, int channelId) {
+		sample(msg.getSender(), msg.getTimestamp());
+		if (!from.equals(self))
+			detector.replied(from, System.currentTimeMillis() - msg.getTimestamp());
+		for (ChordNode n : msg.getNodes())
+			learn(n);
+		PendingLookup lookup = pending.get(msg.getUid());
+		//Late answers from a hop that was routed around are ignored
+		if (lookup == null || !msg.getSender().equals(lookup.lastQueried))
+			return;
+		if (msg.isFound()) {
+			pending.remove(msg.getUid());
+			completeLookup(lookup, msg.getNodes(), msg.getHops());
+			return;
+		}
+		ChordNode next = msg.getNodes().get(0);
+		if (msg.getHops() >= MAX_HOPS || next.equals(lookup.lastQueried)) {
+			pending.remove(msg.getUid());
+			failLookup(lookup);
+			return;
+		}
+		query(lookup, next, msg.getHops() + 1);
+	}
+
+	private void completeLookup(PendingLookup lookup, List<ChordNode> owners, int hops) {
+		long latency = System.currentTimeMillis() - lookup.startTime;
+		trace.record(Tracer.LOOKUP_DONE, hops, lookup.uid);
+		//Fix-finger and join lookups are maintenance, left out of the lookup statistics
+		if (lookup.sourceProto != INTERNAL) {
+			lookupsCompleted++;
+			totalHops += hops;
+			totalLatency += latency;
+			hopsMetric.record(hops);
+			latencyMetric.record(latency);
+			recordStretch(owners.get(0).getHost(), latency);
+			List<Host> peers = new ArrayList<>(owners.size());
+			for (ChordNode n : owners)
+				peers.add(n.getHost());
+			logger.debug("Lookup {} resolved to {} in {} hops", lookup.uid, peers, hops);
+			sendReply(new LookupReply(lookup.request, peers), lookup.sourceProto);
+		} else if (lookup.finger >= 0) {
+			ChordNode finger = proximity ? table.proximityFinger(lookup.finger, owners, estimator) : owners.get(0);
+			if (!finger.equals(selfNode)) {
+				int last = table.setFinger(lookup.finger, finger);
+				nextFinger = (last + 1) % FingerTable.M;
+			}
+		} else {
+			//Join: adopt the owner of our own id as successor
+			ChordNode owner = owners.get(0);
+			if (!owner.equals(selfNode)) {
+				table.updateSuccessors(owner, owners.subList(1, owners.size()));
+				logger.info("Joined the ring, successor is {}", owner);
+			}
+		}
+	}
+
+	private void failLookup(PendingLookup lookup) {
+		trace.record(Tracer.LOOKUP_DONE, -1, lookup.uid);
+		if (lookup.sourceProto != INTERNAL) {
+			lookupsFailed++;
+			failedMetric.inc();
+			logger.debug("Lookup {} for {} failed", lookup.uid, lookup.id);
+			//An empty peer set tells the requester that the lookup failed
+			sendReply(new LookupReply(lookup.request, new ArrayList<Host>()), lookup.sourceProto);
+		}
+	}
+
+	private void uponLookupTimeoutTimer(LookupTimeoutTimer timer, long timerId) {
+		long now = System.currentTimeMillis();
+		List<PendingLookup> late = new ArrayList<>();
+		Iterator<PendingLookup> it = pending.values().iterator();
+		while (it.hasNext()) {
+			PendingLookup lookup = it.next();
+			if (now - lookup.startTime >= lookupTimeout) {
+				it.remove();
+				failLookup(lookup);
+			} else if (!recursive && lookup.lastQueried != null && !lookup.lastQueried.equals(selfNode)
+					&& now - lookup.queriedAt >= detector.timeout(lookup.lastQueried.getHost(), lookupTimeout)) {
+				late.add(lookup);
+			}
+		}
+		//Hops slower than their usual round-trip times are suspected and routed around
+		for (PendingLookup lookup : late) {
+			if (pending.get(lookup.uid) != lookup)
+				continue;
+			detector.failed(lookup.lastQueried.getHost());
+			reroutes++;
+			query(lookup, nextHop(lookup.id), lookup.hops + 1);
+		}
+	}
+
+	/*--------------------------------- Ring maintenance -------------------------------- */
+
+	private void uponStabilizeTimer(StabilizeTimer timer, long timerId) {
+		ChordNode successor = table.getSuccessor();
+		if (successor.equals(selfNode)) {
+			//Alone (or bootstrapping): close the ring through our predecessor, if someone notified us
+			ChordNode pred = table.getPredecessor();
+			if (pred != null && !pred.equals(selfNode))
+				table.setSuccessor(pred);
+			else if (contact != null && !contact.equals(self))
+				join();
+			return;
+		}
+		request(new GetPredecessorMessage(me(), true, System.currentTimeMillis()), successor.getHost());
+		if (proximity)
+			probeFinger(successor);
+	}
+
+	//Samples the round-trip time to the next distinct finger, without notifying it
+	private void probeFinger(ChordNode successor) {
+		for (int k = 0; k < FingerTable.M; k++) {
+			int i = nextProbe;
+			nextProbe = (nextProbe + 1) % FingerTable.M;
+			ChordNode f = table.getFinger(i);
+			if (f == null || f.equals(selfNode) || f.equals(successor) || (i > 0 && f.equals(table.getFinger(i - 1))))
+				continue;
+			request(new GetPredecessorMessage(me(), false, System.currentTimeMillis()), f.getHost());
+			return;
+		}
+	}
+
+	private void uponGetPredecessor(GetPredecessorMessage msg, Host from, short sourceProto, int channelId) {
+		send(new PredecessorReplyMessage(me(), table.getPredecessor(), table.getSuccessors(), msg.getTimestamp()), from);
+		if (proximity)
+			vivaldi.observe(from, msg.getSender().getCoordinate(), 0);
+		if (!msg.isNotify())
+			return;
+		//Chord notify: the sender believes it is our predecessor
+		ChordNode candidate = msg.getSender();
+		ChordNode pred = table.getPredecessor();
+		if (!candidate.equals(selfNode) && (pred == null || FingerTable.inOpen(candidate.getId(), pred.getId(), selfNode.getId())))
+			table.setPredecessor(candidate);
+	}
+
+	private void uponPredecessorReply(PredecessorReplyMessage msg, Host from, short sourceProto, int channelId) {
+		sample(msg.getSender(), msg.getTimestamp());
+		detector.replied(from, System.currentTimeMillis() - msg.getTimestamp());
+		learn(msg.getPredecessor());
+		for (ChordNode n : msg.getSuccessors())
+			learn(n);
+		//Replies to finger probes, or from a node that is no longer our successor, only carry samples
+		if (!from.equals(table.getSuccessor().getHost()))
+			return;
+		ChordNode successor = msg.getSender();
+		ChordNode x = msg.getPredecessor();
+		if (x != null && !x.equals(selfNode) && FingerTable.inOpen(x.getId(), selfNode.getId(), successor.getId())) {
+			//Someone joined between us and our successor
+			table.setSuccessor(x);
+			request(new GetPredecessorMessage(me(), true, System.currentTimeMillis()), x.getHost());
+			return;
+		}
+		table.updateSuccessors(successor, msg.getSuccessors());
+	}
+
+	private void uponFixFingersTimer(FixFingersTimer timer, long timerId) {
+		if (table.getSuccessor().equals(selfNode))
+			return;
+		int i = nextFinger;
+		nextFinger = (nextFinger + 1) % FingerTable.M;
+		PendingLookup lookup = new PendingLookup(UUID.randomUUID(), table.getFingerStart(i), INTERNAL, i);
+		startLookup(lookup);
+	}
+
+	private void uponStatsTimer(StatsTimer timer, long timerId) {
+		logger.info("{}: lookups completed={} failed={} avgHops={} avgLatency={}ms avgStretch={} routed={} reroutes={} pending={} {}{}", self,
+				lookupsCompleted, lookupsFailed,
+				lookupsCompleted == 0 ? 0 : String.format("%.2f", (double) totalHops / lookupsCompleted),
+				lookupsCompleted == 0 ? 0 : totalLatency / lookupsCompleted,
+				stretchSamples == 0 ? "-" : String.format("%.2f", totalStretch / stretchSamples),
+				messagesRouted, reroutes, pending.size(), table,
+				proximity ? " coordinate=" + vivaldi.getCoordinate() + " samples=" + vivaldi.getSamples() : "");
+	}
+
+	/*--------------------------------- Proximity -------------------------------------- */
+
+	//Our node, with our current coordinate when proximity routing is enabled
+	private ChordNode me() {
+		return proximity ? new ChordNode(selfNode.getId(), self, vivaldi.getCoordinate()) : selfNode;
+	}
+
+	//Estimated round-trip time to n in milliseconds, NaN if unknown
+	private double estimate(ChordNode n) {
+		double estimate = vivaldi.estimate(n.getHost());
+		if (Double.isNaN(estimate) && n.getCoordinate() != null)
+			estimate = vivaldi.getCoordinate().distanceTo(n.getCoordinate());
+		return estimate;
+	}
+
+	//A reply from sender to a message we sent at timestamp
+	private void sample(ChordNode sender, long timestamp) {
+		if (proximity && !sender.equals(selfNode))
+			vivaldi.observe(sender.getHost(), sender.getCoordinate(), System.currentTimeMillis() - timestamp);
+	}
+
+	//A node (and its coordinate) relayed by another node
+	private void learn(ChordNode n) {
+		if (proximity && n != null && !n.equals(selfNode))
+			vivaldi.learn(n.getHost(), n.getCoordinate());
+	}
+
+	private void recordStretch(Host owner, long latency) {
+		if (groundTruth == null || owner.equals(self))
+			return;
+		int from = LatencyMatrix.indexOf(self, owner, groundTruthBasePort);
+		int to = LatencyMatrix.indexOf(owner, self, groundTruthBasePort);
+		if (from < 0 || to < 0 || from >= groundTruth.size() || to >= groundTruth.size())
+			return;
+		int rtt = groundTruth.get(from, to) + groundTruth.get(to, from);
+		if (rtt <= 0)
+			return;
+		double stretch = (double) latency / rtt;
+		stretchSamples++;
+		totalStretch += stretch;
+		stretchMetric.record(Math.round(stretch * 100));
+	}
+
+	/*--------------------------------- Connections ------------------------------------ */
+
+	private void send(ProtoMessage msg, Host destination) {
+		if (!connections.contains(destination)) {
+			openConnection(destination);
+			connections.add(destination);
+		}
+		sendMessage(msg, destination);
+	}
+
+	//A message that expects an answer, which the failure detector waits for
+	private void request(ProtoMessage msg, Host destination) {
+		detector.sent(destination);
+		send(msg, destination);
+	}
+
+	private void peerFailed(Host host) {
+		connections.remove(host);
+		detector.failed(host);
+		if (proximity)
+			vivaldi.forget(host);
+		if (table.removePeer(host))
+			logger.info("Successor {} failed, new successor is {}", host, table.getSuccessor());
+	}
+
+	private void uponMsgFail(ProtoMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		logger.debug("Message {} to {} failed, reason: {}", msg, host, throwable);
+		peerFailed(host);
+	}
+
+	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
+		logger.debug("Connection to {} is up", event.getNode());
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Connection to {} is down cause {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<ProtoMessage> event, int channelId) {
+		logger.debug("Connection to {} failed cause: {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponInConnectionUp(InConnectionUp event, int channelId) {
+		logger.trace("Connection from {} is up", event.getNode());
+	}
+
+	private void uponInConnectionDown(InConnectionDown event, int channelId) {
+		logger.trace("Connection from {} is down, cause: {}", event.getNode(), event.getCause());
+	}
+
+	private static class PendingLookup {
+		private final UUID uid;
+		private final RingId id;
+		private final short sourceProto;
+		//Finger being fixed (>= 0) or -1 for client lookups and joins
+		private final int finger;
+		private final long startTime;
+		//Client lookups: the request, echoed in the reply
+		private LookupRequest request;
+		//Iterative mode: the hop being queried, since when, and its hop count
+		private ChordNode lastQueried;
+		private long queriedAt;
+		private int hops;
+
+		private PendingLookup(UUID uid, RingId id, short sourceProto, int finger) {
+			this.uid = uid;
+			this.id = id;
+			this.sourceProto = sourceProto;
+			this.finger = finger;
+			this.startTime = System.currentTimeMillis();
+		}
+	}
+}
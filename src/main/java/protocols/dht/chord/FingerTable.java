@@ -0,0 +1,274 @@
+package protocols.dht.chord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Routing state of a Chord node: finger table, successor list and predecessor.
+ * Identifiers live in [0, 2^M[ and are primitive {@link RingId}s, so routing a key through the
+ * table allocates nothing; this class has no Babel dependencies so that it can be exercised
+ * outside of a running protocol.
+ */
+public class FingerTable {
+
+	public static final int M = RingId.BITS;
+
+	private final ChordNode self;
+	private final ChordNode[] fingers;
+	private final RingId[] starts;
+	private final int successorListSize;
+	private final List<ChordNode> successors;
+	private ChordNode predecessor;
+
+	public FingerTable(ChordNode self, int successorListSize) {
+		this.self = self;
+		this.successorListSize = successorListSize;
+		this.fingers = new ChordNode[M];
+		this.starts = new RingId[M];
+		for (int i = 0; i < M; i++)
+			this.starts[i] = self.getId().addPowerOfTwo(i);
+		this.successors = new ArrayList<>(successorListSize);
+		this.predecessor = null;
+	}
+
+	//True if x is in the ring interval (a, b)
+	public static boolean inOpen(RingId x, RingId a, RingId b) {
+		return x.inOpen(a, b);
+	}
+
+	//True if x is in the ring interval (a, b]
+	public static boolean inHalfOpen(RingId x, RingId a, RingId b) {
+		return x.inHalfOpen(a, b);
+	}
+
+	public ChordNode getSelf() {
+		return self;
+	}
+
+	public ChordNode getSuccessor() {
+		return successors.isEmpty() ? self : successors.get(0);
+	}
+
+	public List<ChordNode> getSuccessors() {
+		return Collections.unmodifiableList(successors);
+	}
+
+	public ChordNode getPredecessor() {
+		return predecessor;
+	}
+
+	public void setPredecessor(ChordNode predecessor) {
+		this.predecessor = predecessor;
+	}
+
+	public RingId getFingerStart(int i) {
+		return starts[i];
+	}
+
+	public ChordNode getFinger(int i) {
+		return fingers[i];
+	}
+
+	/**
+	 * Sets finger i to node, and propagates it to the following fingers whose start it also
+	 * succeeds, so a single lookup can fill a whole run of (identical) fingers.
+	 * Returns the index of the last finger updated.
+	 */
+	public int setFinger(int i, ChordNode node) {
+		fingers[i] = node;
+		int j = i + 1;
+		while (j < M && inHalfOpen(starts[j], self.getId(), node.getId()) && !node.equals(self)) {
+			fingers[j] = node;
+			j++;
+		}
+		return j - 1;
+	}
+
+	public void setSuccessor(ChordNode successor) {
+		successors.remove(successor);
+		successors.add(0, successor);
+		while (successors.size() > successorListSize)
+			successors.remove(successors.size() - 1);
+		fingers[0] = successor;
+	}
+
+	//Adopts the successor list of our successor, prefixed by the successor itself
+	public void updateSuccessors(ChordNode successor, List<ChordNode> successorSuccessors) {
+		successors.clear();
+		successors.add(successor);
+		for (ChordNode n : successorSuccessors) {
+			if (successors.size() >= successorListSize)
+				break;
+			if (!n.equals(self) && !successors.contains(n))
+				successors.add(n);
+		}
+		fingers[0] = successor;
+	}
+
+	//True if the key is owned by this node, according to our predecessor
+	public boolean ownsLocally(RingId id) {
+		return predecessor != null && inHalfOpen(id, predecessor.getId(), self.getId());
+	}
+
+	//True if the key is owned by our successor
+	public boolean successorOwns(RingId id) {
+		return inHalfOpen(id, self.getId(), getSuccessor().getId());
+	}
+
+	//The known node that most closely precedes id (self if none does)
+	public ChordNode closestPrecedingNode(RingId id) {
+		return closestPrecedingNode(id, n -> true);
+	}
+
+	//Same, among the nodes that are usable (e.g. not suspected of having failed)
+	public ChordNode closestPrecedingNode(RingId id, Predicate<ChordNode> usable) {
+		ChordNode best = self;
+		for (int i = M - 1; i >= 0; i--) {
+			ChordNode f = fingers[i];
+			if (f != null && inOpen(f.getId(), self.getId(), id) && usable.test(f)) {
+				best = f;
+				break;
+			}
+		}
+		for (ChordNode s : successors) {
+			if (inOpen(s.getId(), best.getId(), id) && usable.test(s))
+				best = s;
+		}
+		return best;
+	}
+
+	/**
+	 * Proximity route selection: among the known nodes that make progress towards id, the one that
+	 * minimizes its estimated latency plus hopLatency for every hop still expected from it (half
+	 * the log2 of the nodes left to skip, as in a Chord lookup). Nodes of unknown latency are
+	 * assumed hopLatency away. Self if no node precedes id.
+	 */
+	public ChordNode closestPrecedingNode(RingId id, ToDoubleFunction<ChordNode> latency, double hopLatency) {
+		return closestPrecedingNode(id, latency, hopLatency, n -> true);
+	}
+
+	//Same, among the nodes that are usable
+	public ChordNode closestPrecedingNode(RingId id, ToDoubleFunction<ChordNode> latency, double hopLatency, Predicate<ChordNode> usable) {
+		ChordNode closest = closestPrecedingNode(id, usable);
+		if (closest.equals(self))
+			return self;
+		//Ids per node, from the distance to our successor
+		int spacing = Math.max(0, self.getId().distanceBit(getSuccessor().getId()));
+		ChordNode best = closest;
+		double bestCost = Double.MAX_VALUE;
+		ChordNode previous = null;
+		for (int i = 0; i <= M + successors.size(); i++) {
+			ChordNode n = i < M ? fingers[i] : i < M + successors.size() ? successors.get(i - M) : closest;
+			if (n == null || n == previous || !inOpen(n.getId(), self.getId(), id) || !usable.test(n))
+				continue;
+			previous = n;
+			double estimate = latency.applyAsDouble(n);
+			if (Double.isNaN(estimate))
+				estimate = hopLatency;
+			int left = Math.max(0, n.getId().distanceBit(id) - spacing);
+			double cost = estimate + hopLatency * left / 2.0;
+			if (cost < bestCost) {
+				best = n;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Proximity neighbour selection for finger i: any node in [start(i), start(i+1)[ is a valid
+	 * finger, so among the candidates (the owner of start(i) followed by its successors) the one
+	 * with the lowest known latency is picked. Returns the owner if it is the only valid candidate.
+	 */
+	public ChordNode proximityFinger(int i, List<ChordNode> candidates, ToDoubleFunction<ChordNode> latency) {
+		ChordNode owner = candidates.get(0);
+		ChordNode best = owner;
+		double bestLatency = Double.MAX_VALUE;
+		for (ChordNode n : candidates) {
+			if (n.equals(self) || inOpen(n.getId(), self.getId(), starts[i]))
+				continue;
+			if (i + 1 < M && inHalfOpen(starts[i + 1], self.getId(), n.getId()))
+				continue;
+			double estimate = latency.applyAsDouble(n);
+			if (!Double.isNaN(estimate) && estimate < bestLatency) {
+				best = n;
+				bestLatency = estimate;
+			}
+		}
+		return best;
+	}
+
+	//The owner of id followed by the nodes after it, to be used as replicas
+	public List<ChordNode> ownerAndSuccessors(ChordNode owner, List<ChordNode> ownerSuccessors, int max) {
+		List<ChordNode> result = new ArrayList<>(max);
+		result.add(owner);
+		for (ChordNode n : ownerSuccessors) {
+			if (result.size() >= max)
+				break;
+			if (!result.contains(n))
+				result.add(n);
+		}
+		return result;
+	}
+
+	/**
+	 * The owner of id and its successors, at most max, if they can be told without contacting
+	 * anyone, null otherwise. me stands for this node in the result (e.g. with its coordinate).
+	 */
+	public List<ChordNode> resolveLocally(RingId id, ChordNode me, int max) {
+		if (ownsLocally(id) || getSuccessor().equals(self))
+			return ownerAndSuccessors(me, successors, max);
+		if (successorOwns(id))
+			return ownerAndSuccessors(successors.get(0), successors.subList(1, successors.size()), max);
+		return null;
+	}
+
+	/**
+	 * The usable node to forward a lookup for id to: the closest preceding one, by proximity route
+	 * selection when latency is not null, or our successor if no node precedes id.
+	 */
+	public ChordNode nextHop(RingId id, ToDoubleFunction<ChordNode> latency, double hopLatency, Predicate<ChordNode> usable) {
+		ChordNode next = latency != null
+				? closestPrecedingNode(id, latency, hopLatency, usable)
+				: closestPrecedingNode(id, usable);
+		return next.equals(self) ? getSuccessor() : next;
+	}
+
+	//Removes every reference to a (failed) host. Returns true if the successor changed
+	public boolean removePeer(Host host) {
+		ChordNode oldSucc = getSuccessor();
+		successors.removeIf(n -> n.getHost().equals(host));
+		ChordNode replacement = successors.isEmpty() ? null : successors.get(0);
+		for (int i = M - 1; i >= 0; i--) {
+			if (fingers[i] != null && fingers[i].getHost().equals(host))
+				fingers[i] = (i + 1 < M && fingers[i + 1] != null && !fingers[i + 1].getHost().equals(host)) ? fingers[i + 1] : null;
+		}
+		fingers[0] = replacement;
+		if (predecessor != null && predecessor.getHost().equals(host))
+			predecessor = null;
+		return !oldSucc.equals(getSuccessor());
+	}
+
+	public boolean knows(Host host) {
+		if (predecessor != null && predecessor.getHost().equals(host))
+			return true;
+		for (ChordNode n : successors)
+			if (n.getHost().equals(host))
+				return true;
+		for (ChordNode f : fingers)
+			if (f != null && f.getHost().equals(host))
+				return true;
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "pred=" + predecessor + " succs=" + successors;
+	}
+}
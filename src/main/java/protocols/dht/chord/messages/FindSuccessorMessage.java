@@ -0,0 +1,77 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.chord.ChordNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Recursive lookup step: forwarded along the ring until it reaches the predecessor of the
+ * key, which answers the origin directly with a {@link FoundSuccessorMessage}.
+ */
+public class FindSuccessorMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 101;
+
+	private final UUID uid;
+	private final RingId id;
+	private final ChordNode origin;
+	private final int hops;
+
+	public FindSuccessorMessage(UUID uid, RingId id, ChordNode origin, int hops) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.origin = origin;
+		this.hops = hops;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public ChordNode getOrigin() {
+		return origin;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public FindSuccessorMessage nextHop() {
+		return new FindSuccessorMessage(uid, id, origin, hops + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "FindSuccessorMessage{uid=" + uid + ", id=" + id + ", origin=" + origin + ", hops=" + hops + '}';
+	}
+
+	public static ISerializer<FindSuccessorMessage> serializer = new ISerializer<FindSuccessorMessage>() {
+		@Override
+		public void serialize(FindSuccessorMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			ChordNode.serializer.serialize(msg.origin, out);
+			out.writeShort(msg.hops);
+		}
+
+		@Override
+		public FindSuccessorMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			ChordNode origin = ChordNode.serializer.deserialize(in);
+			int hops = in.readShort();
+			return new FindSuccessorMessage(uid, id, origin, hops);
+		}
+	};
+}
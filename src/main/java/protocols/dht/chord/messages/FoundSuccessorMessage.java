@@ -0,0 +1,80 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.chord.ChordNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Final answer of a recursive lookup, sent straight to the origin: the owner of the key
+ * followed by its successors.
+ */
+public class FoundSuccessorMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 102;
+
+	private final UUID uid;
+	private final RingId id;
+	private final int hops;
+	private final List<ChordNode> nodes;
+
+	public FoundSuccessorMessage(UUID uid, RingId id, int hops, List<ChordNode> nodes) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.hops = hops;
+		this.nodes = nodes;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public List<ChordNode> getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public String toString() {
+		return "FoundSuccessorMessage{uid=" + uid + ", id=" + id + ", hops=" + hops + ", nodes=" + nodes + '}';
+	}
+
+	public static ISerializer<FoundSuccessorMessage> serializer = new ISerializer<FoundSuccessorMessage>() {
+		@Override
+		public void serialize(FoundSuccessorMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			out.writeShort(msg.hops);
+			out.writeByte(msg.nodes.size());
+			for (ChordNode n : msg.nodes)
+				ChordNode.serializer.serialize(n, out);
+		}
+
+		@Override
+		public FoundSuccessorMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			int hops = in.readShort();
+			int size = in.readByte();
+			List<ChordNode> nodes = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				nodes.add(ChordNode.serializer.deserialize(in));
+			return new FoundSuccessorMessage(uid, id, hops, nodes);
+		}
+	};
+}
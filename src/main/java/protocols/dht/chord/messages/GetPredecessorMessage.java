@@ -0,0 +1,63 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.chord.ChordNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Sent periodically by stabilize to our successor. Doubles as the Chord "notify": the sender
+ * proposes itself as the predecessor of the receiver. With proximity routing it is also sent to
+ * fingers, without notify, only to sample round-trip times (the timestamp is echoed in the reply).
+ */
+public class GetPredecessorMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 105;
+
+	private final ChordNode sender;
+	private final boolean notify;
+	private final long timestamp;
+
+	public GetPredecessorMessage(ChordNode sender, boolean notify, long timestamp) {
+		super(MSG_ID);
+		this.sender = sender;
+		this.notify = notify;
+		this.timestamp = timestamp;
+	}
+
+	public ChordNode getSender() {
+		return sender;
+	}
+
+	public boolean isNotify() {
+		return notify;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "GetPredecessorMessage{sender=" + sender + ", notify=" + notify + '}';
+	}
+
+	public static ISerializer<GetPredecessorMessage> serializer = new ISerializer<GetPredecessorMessage>() {
+		@Override
+		public void serialize(GetPredecessorMessage msg, ByteBuf out) throws IOException {
+			ChordNode.serializer.serialize(msg.sender, out);
+			out.writeBoolean(msg.notify);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public GetPredecessorMessage deserialize(ByteBuf in) throws IOException {
+			ChordNode sender = ChordNode.serializer.deserialize(in);
+			boolean notify = in.readBoolean();
+			long timestamp = in.readLong();
+			return new GetPredecessorMessage(sender, notify, timestamp);
+		}
+	};
+}
@@ -0,0 +1,105 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.chord.ChordNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Iterative lookup step answer: either the owner of the key followed by its successors
+ * (found), or the next node the origin should query. Carries the sender (with its coordinate)
+ * and echoes the timestamp of the request.
+ */
+public class NextHopReplyMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 104;
+
+	private final UUID uid;
+	private final RingId id;
+	private final boolean found;
+	private final int hops;
+	private final List<ChordNode> nodes;
+	private final ChordNode sender;
+	private final long timestamp;
+
+	public NextHopReplyMessage(UUID uid, RingId id, boolean found, int hops, List<ChordNode> nodes, ChordNode sender, long timestamp) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.found = found;
+		this.hops = hops;
+		this.nodes = nodes;
+		this.sender = sender;
+		this.timestamp = timestamp;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public boolean isFound() {
+		return found;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public List<ChordNode> getNodes() {
+		return nodes;
+	}
+
+	public ChordNode getSender() {
+		return sender;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "NextHopReplyMessage{uid=" + uid + ", id=" + id + ", found=" + found + ", hops=" + hops + ", nodes=" + nodes + '}';
+	}
+
+	public static ISerializer<NextHopReplyMessage> serializer = new ISerializer<NextHopReplyMessage>() {
+		@Override
+		public void serialize(NextHopReplyMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			out.writeBoolean(msg.found);
+			out.writeShort(msg.hops);
+			out.writeByte(msg.nodes.size());
+			for (ChordNode n : msg.nodes)
+				ChordNode.serializer.serialize(n, out);
+			ChordNode.serializer.serialize(msg.sender, out);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public NextHopReplyMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			boolean found = in.readBoolean();
+			int hops = in.readShort();
+			int size = in.readByte();
+			List<ChordNode> nodes = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				nodes.add(ChordNode.serializer.deserialize(in));
+			ChordNode sender = ChordNode.serializer.deserialize(in);
+			long timestamp = in.readLong();
+			return new NextHopReplyMessage(uid, id, found, hops, nodes, sender, timestamp);
+		}
+	};
+}
@@ -0,0 +1,72 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Iterative lookup step: asks a node for the owner of a key, or for a closer node to ask next.
+ * The send time is echoed in the reply, to measure the round-trip time.
+ */
+public class NextHopRequestMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 103;
+
+	private final UUID uid;
+	private final RingId id;
+	private final int hops;
+	private final long timestamp;
+
+	public NextHopRequestMessage(UUID uid, RingId id, int hops, long timestamp) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.hops = hops;
+		this.timestamp = timestamp;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "NextHopRequestMessage{uid=" + uid + ", id=" + id + ", hops=" + hops + '}';
+	}
+
+	public static ISerializer<NextHopRequestMessage> serializer = new ISerializer<NextHopRequestMessage>() {
+		@Override
+		public void serialize(NextHopRequestMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			out.writeShort(msg.hops);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public NextHopRequestMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			int hops = in.readShort();
+			long timestamp = in.readLong();
+			return new NextHopRequestMessage(uid, id, hops, timestamp);
+		}
+	};
+}
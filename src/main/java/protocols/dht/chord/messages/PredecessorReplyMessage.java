@@ -0,0 +1,79 @@
+package protocols.dht.chord.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.chord.ChordNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link GetPredecessorMessage}: the predecessor of the sender (if any) and its successor
+ * list, echoing the timestamp of the request.
+ */
+public class PredecessorReplyMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 106;
+
+	private final ChordNode sender;
+	private final ChordNode predecessor;
+	private final List<ChordNode> successors;
+	private final long timestamp;
+
+	public PredecessorReplyMessage(ChordNode sender, ChordNode predecessor, List<ChordNode> successors, long timestamp) {
+		super(MSG_ID);
+		this.sender = sender;
+		this.predecessor = predecessor;
+		this.successors = successors;
+		this.timestamp = timestamp;
+	}
+
+	public ChordNode getSender() {
+		return sender;
+	}
+
+	public ChordNode getPredecessor() {
+		return predecessor;
+	}
+
+	public List<ChordNode> getSuccessors() {
+		return successors;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "PredecessorReplyMessage{sender=" + sender + ", predecessor=" + predecessor + ", successors=" + successors + '}';
+	}
+
+	public static ISerializer<PredecessorReplyMessage> serializer = new ISerializer<PredecessorReplyMessage>() {
+		@Override
+		public void serialize(PredecessorReplyMessage msg, ByteBuf out) throws IOException {
+			ChordNode.serializer.serialize(msg.sender, out);
+			out.writeBoolean(msg.predecessor != null);
+			if (msg.predecessor != null)
+				ChordNode.serializer.serialize(msg.predecessor, out);
+			out.writeByte(msg.successors.size());
+			for (ChordNode n : msg.successors)
+				ChordNode.serializer.serialize(n, out);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public PredecessorReplyMessage deserialize(ByteBuf in) throws IOException {
+			ChordNode sender = ChordNode.serializer.deserialize(in);
+			ChordNode predecessor = in.readBoolean() ? ChordNode.serializer.deserialize(in) : null;
+			int size = in.readByte();
+			List<ChordNode> successors = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				successors.add(ChordNode.serializer.deserialize(in));
+			long timestamp = in.readLong();
+			return new PredecessorReplyMessage(sender, predecessor, successors, timestamp);
+		}
+	};
+}
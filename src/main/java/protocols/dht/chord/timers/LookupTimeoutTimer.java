@@ -0,0 +1,16 @@
+package protocols.dht.chord.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class LookupTimeoutTimer extends ProtoTimer {
+    public static final short TIMER_ID = 103;
+
+    public LookupTimeoutTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
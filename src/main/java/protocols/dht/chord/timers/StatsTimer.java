@@ -0,0 +1,16 @@
+package protocols.dht.chord.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class StatsTimer extends ProtoTimer {
+    public static final short TIMER_ID = 104;
+
+    public StatsTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,66 @@
+package protocols.dht.kademlia;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * A (node identifier, host) pair, as stored in k-buckets and exchanged in FIND_NODE replies.
+ */
+public class KademliaNode {
+
+	private final RingId id;
+	private final Host host;
+
+	public KademliaNode(RingId id, Host host) {
+		this.id = id;
+		this.host = host;
+	}
+
+	public RingId getId() {
+		return id;
+	}
+
+	public Host getHost() {
+		return host;
+	}
+
+	public RingId distanceTo(RingId target) {
+		return id.xor(target);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof KademliaNode)) return false;
+		return host.equals(((KademliaNode) o).host);
+	}
+
+	@Override
+	public int hashCode() {
+		return host.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return host + "(" + id + ")";
+	}
+
+	public static ISerializer<KademliaNode> serializer = new ISerializer<KademliaNode>() {
+		@Override
+		public void serialize(KademliaNode node, ByteBuf out) throws IOException {
+			RingId.serialize(node.id, out);
+			Host.serializer.serialize(node.host, out);
+		}
+
+		@Override
+		public KademliaNode deserialize(ByteBuf in) throws IOException {
+			RingId id = RingId.deserialize(in);
+			Host host = Host.serializer.deserialize(in);
+			return new KademliaNode(id, host);
+		}
+	};
+}
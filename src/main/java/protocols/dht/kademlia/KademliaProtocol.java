@@ -0,0 +1,364 @@
+package protocols.dht.kademlia;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import channel.notifications.ChannelCreated;
+import protocols.dht.kademlia.messages.FindNodeMessage;
+import protocols.dht.kademlia.messages.FindNodeReplyMessage;
+import protocols.dht.kademlia.timers.RefreshTimer;
+import protocols.dht.kademlia.timers.RpcTimeoutTimer;
+import protocols.dht.kademlia.timers.StatsTimer;
+import protocols.dht.replies.LookupReply;
+import protocols.dht.requests.LookupRequest;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionUp;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionUp;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.FailureDetector;
+import utils.HashGenerator;
+import utils.MetricsRegistry;
+import utils.RingId;
+import utils.TraceBuffer;
+import utils.Tracer;
+
+/**
+ * Kademlia DHT. Nodes and keys share a 160-bit identifier space with the XOR metric; each
+ * LookupRequest runs an iterative lookup with up to "kademlia_alpha" concurrent FIND_NODE RPCs
+ * and is answered with the "kademlia_k" closest live nodes, closest first.
+ */
+public class KademliaProtocol extends GenericProtocol {
+	private static final Logger logger = LogManager.getLogger(KademliaProtocol.class);
+
+	//Protocol information, to register in babel
+	public static final String PROTO_NAME = "KademliaDHT";
+	public static final short PROTO_ID = 110;
+
+	//Lookups issued by the protocol itself are not answered to any other protocol
+	private static final short INTERNAL = -1;
+
+	private final Host self;
+	private final KademliaNode selfNode;
+	private final RoutingTable table;
+
+	private final int k;
+	private final int alpha;
+	private final int rpcTimeout;
+	private final int lookupTimeout;
+	private final int refreshInterval;
+	private final int statsInterval;
+	private final FailureDetector detector;
+
+	private int channelId;
+	private Host contact;
+	private final Set<Host> connections;
+	private final Map<UUID, NodeLookup> lookups;
+	private final Map<UUID, Short> lookupSources;
+	private final Map<UUID, LookupRequest> requests;
+	private final Random r;
+
+	//Variables related with measurement
+	private long lookupsCompleted = 0;
+	private long lookupsFailed = 0;
+	private long totalRpcs = 0;
+	private long totalRounds = 0;
+	private long totalLatency = 0;
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	//Exported through the MetricsRegistry
+	private final AtomicHistogram roundsMetric = MetricsRegistry.global().histogram("dht.lookup.rounds");
+	private final AtomicHistogram latencyMetric = MetricsRegistry.global().histogram("dht.lookup.latency_ms");
+	private final MetricsRegistry.Counter failedMetric = MetricsRegistry.global().counter("dht.lookups.failed");
+
+	public KademliaProtocol(Host self, Properties props) throws HandlerRegistrationException {
+		super(PROTO_NAME, PROTO_ID);
+		this.self = self;
+		this.selfNode = new KademliaNode(idOf(self), self);
+
+		this.k = Integer.parseInt(props.getProperty("kademlia_k", "20"));
+		this.alpha = Integer.parseInt(props.getProperty("kademlia_alpha", "3"));
+		this.rpcTimeout = Integer.parseInt(props.getProperty("kademlia_rpc_timeout", "1000")); //in milliseconds
+		this.refreshInterval = Integer.parseInt(props.getProperty("kademlia_refresh_interval", "30000")); //in milliseconds
+		this.lookupTimeout = Integer.parseInt(props.getProperty("dht_lookup_timeout", "5000")); //in milliseconds
+		this.statsInterval = Integer.parseInt(props.getProperty("dht_stats_interval", "-1")); //in milliseconds
+		this.table = new RoutingTable(selfNode, k);
+		this.detector = FailureDetector.global();
+
+		this.connections = new HashSet<>();
+		this.lookups = new HashMap<>();
+		MetricsRegistry.global().gauge("dht.pending_lookups", lookups::size);
+		this.lookupSources = new HashMap<>();
+		this.requests = new HashMap<>();
+		this.r = new Random();
+
+		/*--------------------- Register Request Handlers ----------------------------- */
+		registerRequestHandler(LookupRequest.REQUEST_ID, this::uponLookupRequest);
+
+		/*--------------------- Register Timer Handlers ----------------------------- */
+		registerTimerHandler(RpcTimeoutTimer.TIMER_ID, this::uponRpcTimeoutTimer);
+		registerTimerHandler(RefreshTimer.TIMER_ID, this::uponRefreshTimer);
+		registerTimerHandler(StatsTimer.TIMER_ID, this::uponStatsTimer);
+	}
+
+	//Node ids are derived from the address, so any node can compute the id of a contact
+	private static RingId idOf(Host host) {
+		return HashGenerator.generateRingId(host.toString());
+	}
+
+	@Override
+	public void init(Properties props) throws HandlerRegistrationException, IOException {
+		Properties channelProps = new Properties();
+		channelProps.setProperty(TCPChannel.ADDRESS_KEY, props.getProperty("address"));
+		channelProps.setProperty(TCPChannel.PORT_KEY, props.getProperty("port"));
+		channelProps.setProperty(TCPChannel.METRICS_INTERVAL_KEY, props.getProperty("channel_metrics_interval", "-1"));
+		channelProps.setProperty(TCPChannel.HEARTBEAT_INTERVAL_KEY, "1000");
+		channelProps.setProperty(TCPChannel.HEARTBEAT_TOLERANCE_KEY, "3000");
+		channelProps.setProperty(TCPChannel.CONNECT_TIMEOUT_KEY, "1000");
+		channelId = createChannel(props.getProperty("channel", TCPChannel.NAME), channelProps);
+
+		/*---------------------- Register Message Serializers ---------------------- */
+		registerMessageSerializer(channelId, FindNodeMessage.MSG_ID, MetricsRegistry.global().counting("msg.FindNodeMessage", FindNodeMessage.serializer));
+		registerMessageSerializer(channelId, FindNodeReplyMessage.MSG_ID, MetricsRegistry.global().counting("msg.FindNodeReplyMessage", FindNodeReplyMessage.serializer));
+
+		/*---------------------- Register Message Handlers -------------------------- */
+		registerMessageHandler(channelId, FindNodeMessage.MSG_ID, this::uponFindNode, this::uponFindNodeFail);
+		registerMessageHandler(channelId, FindNodeReplyMessage.MSG_ID, this::uponFindNodeReply, this::uponMsgFail);
+
+		/*--------------------- Register Channel Events ------------------------------- */
+		registerChannelEventHandler(channelId, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+		registerChannelEventHandler(channelId, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		registerChannelEventHandler(channelId, OutConnectionUp.EVENT_ID, this::uponOutConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
+
+		//Let the storage and application protocols share our channel
+		triggerNotification(new ChannelCreated(channelId));
+
+		if (props.containsKey("contact")) {
+			try {
+				String contactProp = props.getProperty("contact");
+				String[] hostElems = contactProp.split(":");
+				contact = new Host(InetAddress.getByName(hostElems[0]), Integer.parseInt(hostElems[1]));
+				join();
+			} catch (Exception e) {
+				logger.error("Invalid contact on configuration: '" + props.getProperty("contact"));
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		//RPCs time out adaptively, after a few round-trip times of their peer
+		long check = Math.max(1, Math.min(rpcTimeout / 4, detector.getMinTimeout()));
+		setupPeriodicTimer(new RpcTimeoutTimer(), check, check);
+		setupPeriodicTimer(new RefreshTimer(), refreshInterval, refreshInterval);
+		if (statsInterval > 0)
+			setupPeriodicTimer(new StatsTimer(), statsInterval, statsInterval);
+
+		logger.info("Kademlia node {} started (k={}, alpha={})", selfNode, k, alpha);
+	}
+
+	//Looks up our own id through the contact, which fills the buckets near us
+	private void join() {
+		if (contact.equals(self))
+			return;
+		List<KademliaNode> seeds = new ArrayList<>(1);
+		seeds.add(new KademliaNode(idOf(contact), contact));
+		startLookup(UUID.randomUUID(), selfNode.getId(), INTERNAL, seeds);
+	}
+
+	/*--------------------------------- Lookups ---------------------------------------- */
+
+	private void uponLookupRequest(LookupRequest request, short sourceProto) {
+		RingId target = request.getRingID();
+		requests.put(request.getRequestUID(), request);
+		startLookup(request.getRequestUID(), target, sourceProto, table.closest(target, k));
+	}
+
+	private void startLookup(UUID uid, RingId target, short sourceProto, List<KademliaNode> seeds) {
+		NodeLookup lookup = new NodeLookup(uid, target, k, alpha, selfNode, seeds);
+		lookups.put(uid, lookup);
+		lookupSources.put(uid, sourceProto);
+		advance(lookup);
+	}
+
+	//Issues the next RPCs of the lookup, or finishes it
+	private void advance(NodeLookup lookup) {
+		for (KademliaNode n : lookup.nextToQuery()) {
+			detector.sent(n.getHost());
+			send(new FindNodeMessage(lookup.getUid(), lookup.getTarget(), selfNode), n.getHost());
+		}
+		if (lookup.isFinished())
+			completeLookup(lookup);
+	}
+
+	private void uponFindNode(FindNodeMessage msg, Host from, short sourceProto, int channelId) {
+		trace.record(Tracer.LOOKUP_HOP, 0, msg.getUid());
+		table.seen(msg.getSender());
+		send(new FindNodeReplyMessage(msg.getUid(), msg.getTarget(), selfNode, table.closest(msg.getTarget(), k)), from);
+	}
+
+	private void uponFindNodeReply(FindNodeReplyMessage msg, Host from, short sourceProto, int channelId) {
+		table.seen(msg.getSender());
+		NodeLookup lookup = lookups.get(msg.getUid());
+		if (lookup == null) {
+			//Too late for the lookup, but the peer is alive
+			detector.replied(from, 0);
+			logger.debug("Late reply {} from {}", msg, from);
+			return;
+		}
+		//The round-trip time is only known while the RPC is in flight (0 is not sampled)
+		detector.replied(from, Math.max(0, lookup.onReply(from, msg.getClosest())));
+		advance(lookup);
+	}
+
+	private void uponFindNodeFail(FindNodeMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		peerFailed(host);
+		NodeLookup lookup = lookups.get(msg.getUid());
+		if (lookup != null) {
+			lookup.onFailure(host);
+			advance(lookup);
+		}
+	}
+
+	private void uponRpcTimeoutTimer(RpcTimeoutTimer timer, long timerId) {
+		long now = System.currentTimeMillis();
+		for (NodeLookup lookup : new ArrayList<>(lookups.values())) {
+			if (now - lookup.getStartTime() >= lookupTimeout) {
+				failLookup(lookup);
+				continue;
+			}
+			List<Host> expired = lookup.expired(now, h -> detector.timeout(h, rpcTimeout));
+			if (expired.isEmpty())
+				continue;
+			//A slow peer does not stall the lookup: treat it as failed and query the next candidate
+			for (Host h : expired) {
+				detector.failed(h);
+				lookup.onFailure(h);
+			}
+			advance(lookup);
+		}
+	}
+
+	private void completeLookup(NodeLookup lookup) {
+		if (lookups.remove(lookup.getUid()) == null)
+			return;
+		short sourceProto = lookupSources.remove(lookup.getUid());
+		trace.record(Tracer.LOOKUP_DONE, lookup.getRounds(), lookup.getUid());
+		//Refresh and join lookups are maintenance, left out of the lookup statistics
+		if (sourceProto == INTERNAL)
+			return;
+		long latency = System.currentTimeMillis() - lookup.getStartTime();
+		lookupsCompleted++;
+		totalRpcs += lookup.getRpcs();
+		totalRounds += lookup.getRounds();
+		totalLatency += latency;
+		roundsMetric.record(lookup.getRounds());
+		latencyMetric.record(latency);
+		List<Host> peers = new ArrayList<>(k);
+		for (KademliaNode n : lookup.result())
+			peers.add(n.getHost());
+		logger.debug("Lookup {} resolved to {} with {} rpcs in {}ms", lookup.getUid(), peers, lookup.getRpcs(), latency);
+		sendReply(new LookupReply(requests.remove(lookup.getUid()), peers), sourceProto);
+	}
+
+	private void failLookup(NodeLookup lookup) {
+		lookups.remove(lookup.getUid());
+		short sourceProto = lookupSources.remove(lookup.getUid());
+		trace.record(Tracer.LOOKUP_DONE, -1, lookup.getUid());
+		if (sourceProto == INTERNAL)
+			return;
+		lookupsFailed++;
+		failedMetric.inc();
+		logger.debug("Lookup {} for {} failed", lookup.getUid(), lookup.getTarget());
+		//An empty peer set tells the requester that the lookup failed, as with Chord and Pastry
+		sendReply(new LookupReply(requests.remove(lookup.getUid()), new ArrayList<Host>()), sourceProto);
+	}
+
+	/*--------------------------------- Maintenance ------------------------------------ */
+
+	private void uponRefreshTimer(RefreshTimer timer, long timerId) {
+		if (table.size() == 0) {
+			if (contact != null)
+				join();
+			return;
+		}
+		//Refresh a random bucket, so that distant regions of the id space stay populated
+		List<Integer> buckets = table.nonEmptyBuckets();
+		RingId target = table.randomIdInBucket(buckets.get(r.nextInt(buckets.size())), r);
+		startLookup(UUID.randomUUID(), target, INTERNAL, table.closest(target, k));
+	}
+
+	private void uponStatsTimer(StatsTimer timer, long timerId) {
+		logger.info("{}: lookups completed={} failed={} avgRpcs={} avgRounds={} avgLatency={}ms pending={} known={}", self,
+				lookupsCompleted, lookupsFailed,
+				lookupsCompleted == 0 ? 0 : String.format("%.2f", (double) totalRpcs / lookupsCompleted),
+				lookupsCompleted == 0 ? 0 : String.format("%.2f", (double) totalRounds / lookupsCompleted),
+				lookupsCompleted == 0 ? 0 : totalLatency / lookupsCompleted,
+				lookups.size(), table.size());
+	}
+
+	/*--------------------------------- Connections ------------------------------------ */
+
+	private void send(ProtoMessage msg, Host destination) {
+		if (!connections.contains(destination)) {
+			openConnection(destination);
+			connections.add(destination);
+		}
+		sendMessage(msg, destination);
+	}
+
+	private void peerFailed(Host host) {
+		connections.remove(host);
+		detector.failed(host);
+		table.remove(host);
+	}
+
+	private void uponMsgFail(ProtoMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		logger.debug("Message {} to {} failed, reason: {}", msg, host, throwable);
+		peerFailed(host);
+	}
+
+	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
+		logger.debug("Connection to {} is up", event.getNode());
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Connection to {} is down cause {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<ProtoMessage> event, int channelId) {
+		logger.debug("Connection to {} failed cause: {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+		for (NodeLookup lookup : new ArrayList<>(lookups.values())) {
+			lookup.onFailure(event.getNode());
+			advance(lookup);
+		}
+	}
+
+	private void uponInConnectionUp(InConnectionUp event, int channelId) {
+		logger.trace("Connection from {} is up", event.getNode());
+	}
+
+	private void uponInConnectionDown(InConnectionDown event, int channelId) {
+		logger.trace("Connection from {} is down, cause: {}", event.getNode(), event.getCause());
+	}
+}
@@ -0,0 +1,149 @@
+package protocols.dht.kademlia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.ToLongFunction;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * State of an iterative Kademlia node lookup. Keeps a shortlist ordered by XOR distance to the
+ * target and at most alpha FIND_NODE RPCs in flight; the lookup ends once the k closest nodes
+ * in the shortlist have all answered (or failed).
+ */
+public class NodeLookup {
+
+	private final UUID uid;
+	private final RingId target;
+	private final int k;
+	private final int alpha;
+	private final long startTime;
+
+	private final TreeMap<RingId, KademliaNode> shortlist;
+	private final Set<Host> queried;
+	private final Set<Host> responded;
+	private final Map<Host, Long> inFlight;
+	private int rpcs;
+	private int rounds;
+
+	public NodeLookup(UUID uid, RingId target, int k, int alpha, KademliaNode self, List<KademliaNode> seeds) {
+		this.uid = uid;
+		this.target = target;
+		this.k = k;
+		this.alpha = alpha;
+		this.startTime = System.currentTimeMillis();
+		this.shortlist = new TreeMap<>();
+		this.queried = new HashSet<>();
+		this.responded = new HashSet<>();
+		this.inFlight = new HashMap<>();
+		this.rpcs = 0;
+		this.rounds = 0;
+		//We already know what we know: no need to ask ourselves
+		queried.add(self.getHost());
+		responded.add(self.getHost());
+		shortlist.put(self.distanceTo(target), self);
+		for (KademliaNode n : seeds)
+			shortlist.put(n.distanceTo(target), n);
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getTarget() {
+		return target;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public int getRpcs() {
+		return rpcs;
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Nodes to query now: the closest not yet queried among the k closest of the shortlist,
+	 * up to alpha concurrent RPCs. Marks them as queried.
+	 */
+	public List<KademliaNode> nextToQuery() {
+		List<KademliaNode> next = new ArrayList<>(alpha);
+		int seen = 0;
+		for (KademliaNode n : shortlist.values()) {
+			if (seen++ >= k || inFlight.size() + next.size() >= alpha)
+				break;
+			if (!queried.contains(n.getHost()))
+				next.add(n);
+		}
+		long now = System.currentTimeMillis();
+		for (KademliaNode n : next) {
+			queried.add(n.getHost());
+			inFlight.put(n.getHost(), now);
+			rpcs++;
+		}
+		if (!next.isEmpty())
+			rounds++;
+		return next;
+	}
+
+	//Returns the round-trip time of the RPC, or -1 if it was not in flight
+	public long onReply(Host from, List<KademliaNode> closest) {
+		Long sentAt = inFlight.remove(from);
+		if (sentAt == null)
+			return -1;
+		responded.add(from);
+		for (KademliaNode n : closest)
+			shortlist.putIfAbsent(n.distanceTo(target), n);
+		return System.currentTimeMillis() - sentAt;
+	}
+
+	public void onFailure(Host host) {
+		inFlight.remove(host);
+		shortlist.values().removeIf(n -> n.getHost().equals(host) && !responded.contains(host));
+	}
+
+	//Hosts whose RPC has been unanswered for longer than their timeout
+	public List<Host> expired(long now, ToLongFunction<Host> timeout) {
+		List<Host> result = new ArrayList<>();
+		for (Map.Entry<Host, Long> e : inFlight.entrySet())
+			if (now - e.getValue() >= timeout.applyAsLong(e.getKey()))
+				result.add(e.getKey());
+		return result;
+	}
+
+	public boolean isFinished() {
+		if (!inFlight.isEmpty())
+			return false;
+		int seen = 0;
+		for (KademliaNode n : shortlist.values()) {
+			if (seen++ >= k)
+				break;
+			if (!queried.contains(n.getHost()))
+				return false;
+		}
+		return true;
+	}
+
+	//The k closest nodes that answered, by increasing distance to the target
+	public List<KademliaNode> result() {
+		List<KademliaNode> result = new ArrayList<>(k);
+		for (KademliaNode n : shortlist.values()) {
+			if (result.size() >= k)
+				break;
+			if (responded.contains(n.getHost()))
+				result.add(n);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+package protocols.dht.kademlia;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Kademlia k-buckets. Bucket i holds up to k nodes whose XOR distance to us is in [2^i, 2^(i+1)[,
+ * ordered from least to most recently seen. Long-lived nodes are kept in favour of newcomers,
+ * which wait in a small per-bucket replacement cache until an entry fails. Bucket indexes and
+ * distance orderings are computed on the primitive words of {@link RingId}, without allocating.
+ */
+public class RoutingTable {
+
+	public static final int B = RingId.BITS;
+
+	private final KademliaNode self;
+	private final int k;
+	private final List<LinkedList<KademliaNode>> buckets;
+	private final List<LinkedList<KademliaNode>> replacements;
+
+	public RoutingTable(KademliaNode self, int k) {
+		this.self = self;
+		this.k = k;
+		this.buckets = new ArrayList<>(B);
+		this.replacements = new ArrayList<>(B);
+		for (int i = 0; i < B; i++) {
+			buckets.add(new LinkedList<>());
+			replacements.add(new LinkedList<>());
+		}
+	}
+
+	public KademliaNode getSelf() {
+		return self;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	private int bucketIndex(RingId id) {
+		return self.getId().highestDifferingBit(id);
+	}
+
+	//Records that we heard from node; returns true if it is now in the routing table
+	public boolean seen(KademliaNode node) {
+		if (node.equals(self))
+			return false;
+		int i = bucketIndex(node.getId());
+		if (i < 0)
+			return false;
+		LinkedList<KademliaNode> bucket = buckets.get(i);
+		if (bucket.remove(node) || bucket.size() < k) {
+			bucket.addLast(node);
+			return true;
+		}
+		LinkedList<KademliaNode> cache = replacements.get(i);
+		cache.remove(node);
+		cache.addLast(node);
+		if (cache.size() > k)
+			cache.removeFirst();
+		return false;
+	}
+
+	//Evicts a failed host, promoting the most recently seen replacement of its bucket
+	public void remove(Host host) {
+		for (int i = 0; i < B; i++) {
+			LinkedList<KademliaNode> bucket = buckets.get(i);
+			if (bucket.removeIf(n -> n.getHost().equals(host))) {
+				LinkedList<KademliaNode> cache = replacements.get(i);
+				if (!cache.isEmpty())
+					bucket.addLast(cache.removeLast());
+			}
+			replacements.get(i).removeIf(n -> n.getHost().equals(host));
+		}
+	}
+
+	//The (up to) count known nodes closest to target, including ourselves, by increasing distance
+	public List<KademliaNode> closest(RingId target, int count) {
+		List<KademliaNode> result = new ArrayList<>();
+		result.add(self);
+		for (LinkedList<KademliaNode> bucket : buckets)
+			result.addAll(bucket);
+		result.sort((a, b) -> target.compareXorDistance(a.getId(), b.getId()));
+		return result.size() > count ? new ArrayList<>(result.subList(0, count)) : result;
+	}
+
+	public int size() {
+		int size = 0;
+		for (LinkedList<KademliaNode> bucket : buckets)
+			size += bucket.size();
+		return size;
+	}
+
+	//Indexes of the non-empty buckets, used for refreshes
+	public List<Integer> nonEmptyBuckets() {
+		List<Integer> result = new ArrayList<>();
+		for (int i = 0; i < B; i++)
+			if (!buckets.get(i).isEmpty())
+				result.add(i);
+		return result;
+	}
+
+	//A random id that falls in bucket i
+	public RingId randomIdInBucket(int i, java.util.Random r) {
+		//2^i plus i random lower bits, as a distance from us
+		RingId distance = RingId.ZERO.addPowerOfTwo(i).add(RingId.random(r, i));
+		return self.getId().xor(distance);
+	}
+}
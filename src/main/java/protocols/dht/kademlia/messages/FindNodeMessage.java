@@ -0,0 +1,64 @@
+package protocols.dht.kademlia.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.kademlia.KademliaNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * FIND_NODE RPC: asks the receiver for the k nodes it knows closest to target.
+ */
+public class FindNodeMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 111;
+
+	private final UUID uid;
+	private final RingId target;
+	private final KademliaNode sender;
+
+	public FindNodeMessage(UUID uid, RingId target, KademliaNode sender) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.target = target;
+		this.sender = sender;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getTarget() {
+		return target;
+	}
+
+	public KademliaNode getSender() {
+		return sender;
+	}
+
+	@Override
+	public String toString() {
+		return "FindNodeMessage{uid=" + uid + ", target=" + target + ", sender=" + sender + '}';
+	}
+
+	public static ISerializer<FindNodeMessage> serializer = new ISerializer<FindNodeMessage>() {
+		@Override
+		public void serialize(FindNodeMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.target, out);
+			KademliaNode.serializer.serialize(msg.sender, out);
+		}
+
+		@Override
+		public FindNodeMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId target = RingId.deserialize(in);
+			KademliaNode sender = KademliaNode.serializer.deserialize(in);
+			return new FindNodeMessage(uid, target, sender);
+		}
+	};
+}
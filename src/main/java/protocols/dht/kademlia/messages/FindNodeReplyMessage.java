@@ -0,0 +1,79 @@
+package protocols.dht.kademlia.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.kademlia.KademliaNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Answer to {@link FindNodeMessage}: the k nodes the sender knows closest to target.
+ */
+public class FindNodeReplyMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 112;
+
+	private final UUID uid;
+	private final RingId target;
+	private final KademliaNode sender;
+	private final List<KademliaNode> closest;
+
+	public FindNodeReplyMessage(UUID uid, RingId target, KademliaNode sender, List<KademliaNode> closest) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.target = target;
+		this.sender = sender;
+		this.closest = closest;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getTarget() {
+		return target;
+	}
+
+	public KademliaNode getSender() {
+		return sender;
+	}
+
+	public List<KademliaNode> getClosest() {
+		return closest;
+	}
+
+	@Override
+	public String toString() {
+		return "FindNodeReplyMessage{uid=" + uid + ", target=" + target + ", sender=" + sender + ", closest=" + closest + '}';
+	}
+
+	public static ISerializer<FindNodeReplyMessage> serializer = new ISerializer<FindNodeReplyMessage>() {
+		@Override
+		public void serialize(FindNodeReplyMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.target, out);
+			KademliaNode.serializer.serialize(msg.sender, out);
+			out.writeShort(msg.closest.size());
+			for (KademliaNode n : msg.closest)
+				KademliaNode.serializer.serialize(n, out);
+		}
+
+		@Override
+		public FindNodeReplyMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId target = RingId.deserialize(in);
+			KademliaNode sender = KademliaNode.serializer.deserialize(in);
+			int size = in.readShort();
+			List<KademliaNode> closest = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				closest.add(KademliaNode.serializer.deserialize(in));
+			return new FindNodeReplyMessage(uid, target, sender, closest);
+		}
+	};
+}
@@ -0,0 +1,16 @@
+package protocols.dht.kademlia.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class RefreshTimer extends ProtoTimer {
+    public static final short TIMER_ID = 112;
+
+    public RefreshTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
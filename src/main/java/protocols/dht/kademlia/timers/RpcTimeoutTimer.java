@@ -0,0 +1,16 @@
+package protocols.dht.kademlia.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class RpcTimeoutTimer extends ProtoTimer {
+    public static final short TIMER_ID = 111;
+
+    public RpcTimeoutTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
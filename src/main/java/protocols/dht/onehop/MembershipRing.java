@@ -0,0 +1,209 @@
+package protocols.dht.onehop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.HashGenerator;
+import utils.RingId;
+
+/**
+ * Complete membership view, kept as a ring sorted by identifier. Each 160-bit id is split into
+ * the three primitive words of its {@link RingId} (64 + 64 + 32 bits, compared unsigned) stored
+ * in parallel arrays, so the view costs a few dozen bytes per member and owner lookups are a
+ * binary search that touches no objects besides the resulting hosts.
+ *
+ * A member may hold several virtual nodes (tokens), each with its own id on the ring, which
+ * evens out the share of the id space each member owns. Owners are always distinct members.
+ */
+public class MembershipRing {
+
+	//Virtual nodes of each member
+	private final Map<Host, Integer> tokens;
+
+	private long[] hi;
+	private long[] mid;
+	private int[] lo;
+	private Host[] hosts;
+	private int size;
+
+	public MembershipRing(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 4);
+		this.hi = new long[capacity];
+		this.mid = new long[capacity];
+		this.lo = new int[capacity];
+		this.hosts = new Host[capacity];
+		this.size = 0;
+		this.tokens = new HashMap<>();
+	}
+
+	//Virtual nodes of a member of the given relative capacity, at least one
+	public static int tokens(int virtualNodes, double capacity) {
+		return Math.max(1, Math.min(Short.MAX_VALUE, (int) Math.round(virtualNodes * capacity)));
+	}
+
+	//Id of virtual node i of host; the first one is the id the host would have on its own
+	public static RingId tokenId(Host host, int i) {
+		return HashGenerator.generateRingId(i == 0 ? host.toString() : host + "#" + i);
+	}
+
+	//Virtual nodes, in total
+	public int size() {
+		return size;
+	}
+
+	//Distinct members
+	public int members() {
+		return tokens.size();
+	}
+
+	//Distinct members, whatever their tokens
+	public Set<Host> hosts() {
+		return Collections.unmodifiableSet(tokens.keySet());
+	}
+
+	public Host get(int index) {
+		return hosts[index];
+	}
+
+	private static int compare(long h1, long m1, int l1, long h2, long m2, int l2) {
+		int c = Long.compareUnsigned(h1, h2);
+		if (c != 0) return c;
+		c = Long.compareUnsigned(m1, m2);
+		if (c != 0) return c;
+		return Integer.compareUnsigned(l1, l2);
+	}
+
+	//Index of the first member with id >= (h, m, l), or -(insertion point) - 1 if there is no exact match
+	private int search(long h, long m, int l) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int c = compare(hi[middle], mid[middle], lo[middle], h, m, l);
+			if (c < 0)
+				low = middle + 1;
+			else if (c > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -(low + 1);
+	}
+
+	public boolean add(Host host, RingId id) {
+		long h = id.getHi();
+		long m = id.getMid();
+		int l = id.getLo();
+		int idx = search(h, m, l);
+		if (idx >= 0)
+			return false;
+		idx = -idx - 1;
+		if (size == hosts.length)
+			grow();
+		System.arraycopy(hi, idx, hi, idx + 1, size - idx);
+		System.arraycopy(mid, idx, mid, idx + 1, size - idx);
+		System.arraycopy(lo, idx, lo, idx + 1, size - idx);
+		System.arraycopy(hosts, idx, hosts, idx + 1, size - idx);
+		hi[idx] = h;
+		mid[idx] = m;
+		lo[idx] = l;
+		hosts[idx] = host;
+		size++;
+		tokens.merge(host, 1, Integer::sum);
+		return true;
+	}
+
+	//Adds the first count virtual nodes of host
+	public void addTokens(Host host, int count) {
+		for (int i = 0; i < count; i++)
+			add(host, tokenId(host, i));
+	}
+
+	public void removeTokens(Host host, int count) {
+		for (int i = 0; i < count; i++)
+			remove(tokenId(host, i));
+	}
+
+	public boolean remove(RingId id) {
+		int idx = search(id.getHi(), id.getMid(), id.getLo());
+		if (idx < 0)
+			return false;
+		Host host = hosts[idx];
+		if (tokens.merge(host, -1, Integer::sum) == 0)
+			tokens.remove(host);
+		int moved = size - idx - 1;
+		System.arraycopy(hi, idx + 1, hi, idx, moved);
+		System.arraycopy(mid, idx + 1, mid, idx, moved);
+		System.arraycopy(lo, idx + 1, lo, idx, moved);
+		System.arraycopy(hosts, idx + 1, hosts, idx, moved);
+		hosts[--size] = null;
+		return true;
+	}
+
+	public boolean contains(RingId id) {
+		return search(id.getHi(), id.getMid(), id.getLo()) >= 0;
+	}
+
+	//Index of the member that owns id: the first one with an id >= id, wrapping around
+	public int successorIndex(RingId id) {
+		int idx = search(id.getHi(), id.getMid(), id.getLo());
+		if (idx < 0)
+			idx = -idx - 1;
+		return idx == size ? 0 : idx;
+	}
+
+	//The owner of id followed by the next distinct members on the ring, at most count hosts
+	public List<Host> owners(RingId id, int count) {
+		int n = Math.min(count, tokens.size());
+		List<Host> result = new ArrayList<>(n);
+		if (size == 0)
+			return result;
+		int idx = successorIndex(id);
+		for (int i = 0; i < size && result.size() < n; i++) {
+			Host h = hosts[(idx + i) % size];
+			//Consecutive tokens of one member would otherwise take several replica slots
+			if (!result.contains(h))
+				result.add(h);
+		}
+		return result;
+	}
+
+	//Fraction of the id space owned by host: the arcs that end at its tokens
+	public double ownership(Host host) {
+		double owned = 0;
+		for (int i = 0; i < size; i++)
+			if (hosts[i].equals(host))
+				owned += arc(i);
+		return owned;
+	}
+
+	//Fraction of the id space from the previous token to token i, from the top 64 bits of the ids
+	private double arc(int i) {
+		if (size == 1)
+			return 1;
+		long gap = hi[i] - hi[(i + size - 1) % size];
+		return (gap >>> 1) * 0x1p-63;
+	}
+
+	//Ownership of every member
+	public Map<Host, Double> ownership() {
+		Map<Host, Double> result = new HashMap<>(tokens.size() * 2);
+		for (int i = 0; i < size; i++)
+			result.merge(hosts[i], arc(i), Double::sum);
+		return result;
+	}
+
+	private void grow() {
+		int capacity = hosts.length * 2;
+		hi = Arrays.copyOf(hi, capacity);
+		mid = Arrays.copyOf(mid, capacity);
+		lo = Arrays.copyOf(lo, capacity);
+		hosts = Arrays.copyOf(hosts, capacity);
+	}
+}
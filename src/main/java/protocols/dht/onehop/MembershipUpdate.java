@@ -0,0 +1,74 @@
+package protocols.dht.onehop;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/**
+ * A membership event: host is alive (or dead) as of the given incarnation. Higher incarnations
+ * override lower ones, and for the same incarnation a death overrides being alive. Also carries
+ * the number of virtual nodes the host holds on the ring.
+ */
+public class MembershipUpdate {
+
+	private final Host host;
+	private final int incarnation;
+	private final boolean alive;
+	private final int tokens;
+
+	public MembershipUpdate(Host host, int incarnation, boolean alive, int tokens) {
+		this.host = host;
+		this.incarnation = incarnation;
+		this.alive = alive;
+		this.tokens = tokens;
+	}
+
+	public Host getHost() {
+		return host;
+	}
+
+	public int getIncarnation() {
+		return incarnation;
+	}
+
+	public boolean isAlive() {
+		return alive;
+	}
+
+	public int getTokens() {
+		return tokens;
+	}
+
+	//True if this update supersedes other (which refers to the same host)
+	public boolean overrides(MembershipUpdate other) {
+		if (incarnation != other.incarnation)
+			return incarnation > other.incarnation;
+		return !alive && other.alive;
+	}
+
+	@Override
+	public String toString() {
+		return host + (alive ? " alive@" : " dead@") + incarnation + "x" + tokens;
+	}
+
+	public static ISerializer<MembershipUpdate> serializer = new ISerializer<MembershipUpdate>() {
+		@Override
+		public void serialize(MembershipUpdate update, ByteBuf out) throws IOException {
+			Host.serializer.serialize(update.host, out);
+			out.writeInt(update.incarnation);
+			out.writeBoolean(update.alive);
+			out.writeShort(update.tokens);
+		}
+
+		@Override
+		public MembershipUpdate deserialize(ByteBuf in) throws IOException {
+			Host host = Host.serializer.deserialize(in);
+			int incarnation = in.readInt();
+			boolean alive = in.readBoolean();
+			int tokens = in.readShort();
+			return new MembershipUpdate(host, incarnation, alive, tokens);
+		}
+	};
+}
@@ -0,0 +1,343 @@
+package protocols.dht.onehop;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import channel.notifications.ChannelCreated;
+import protocols.dht.onehop.messages.GossipMessage;
+import protocols.dht.onehop.messages.JoinMessage;
+import protocols.dht.onehop.messages.JoinReplyMessage;
+import protocols.dht.onehop.timers.GossipTimer;
+import protocols.dht.onehop.timers.StatsTimer;
+import protocols.dht.replies.LookupReply;
+import protocols.dht.requests.LookupRequest;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionUp;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionUp;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.MetricsRegistry;
+import utils.TraceBuffer;
+import utils.Tracer;
+
+/**
+ * One-hop DHT. Every node keeps the complete membership in a {@link MembershipRing}, so each
+ * LookupRequest is answered locally (binary search, no network hops) with the owner of the id
+ * and its successors. Membership changes are disseminated epidemically: every gossip round
+ * pushes at most "onehop_gossip_batch" recent updates to "onehop_fanout" random members, and
+ * each update is retransmitted O(log N) times, so per-node bandwidth does not grow with churn
+ * bursts or with N beyond that logarithmic factor.
+ *
+ * Each node holds "dht_virtual_nodes" tokens on the ring, scaled by its "dht_capacity" relative
+ * to the other nodes, and announces that count with its membership. With many tokens per node
+ * the share of the id space each one owns (and so its share of keys and requests) concentrates
+ * around its capacity share; LookupReplies still name each physical host once.
+ */
+public class OneHopProtocol extends GenericProtocol {
+	private static final Logger logger = LogManager.getLogger(OneHopProtocol.class);
+
+	//Protocol information, to register in babel
+	public static final String PROTO_NAME = "OneHopDHT";
+	public static final short PROTO_ID = 120;
+
+	private final Host self;
+	private final MembershipRing ring;
+	//Latest known state of every member (alive or not), used to discard stale updates
+	private final Map<Host, MembershipUpdate> members;
+	//Updates still to be gossiped, and how many more times each one will be sent
+	private final LinkedHashMap<Host, MembershipUpdate> buffer;
+	private final Map<Host, Integer> transmissions;
+
+	private final int replyPeers;
+	private final int gossipInterval;
+	private final int fanout;
+	private final int batchSize;
+	private final int retransmitFactor;
+	private final int statsInterval;
+	private final int tokens;
+
+	private int channelId;
+	private Host contact;
+	private int incarnation;
+	private final Set<Host> connections;
+	private final Random r;
+
+	//Variables related with measurement
+	private long lookups = 0;
+	private long gossipMessages = 0;
+	private long updatesSent = 0;
+	//Ring metrics, computed on the protocol thread and read by the metrics reporter
+	private volatile long membersMetric = 0;
+	private volatile long ownedPpmMetric = 0;
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	//Exported through the MetricsRegistry; lookups are always answered locally, in zero hops
+	private final AtomicHistogram hopsMetric = MetricsRegistry.global().histogram("dht.lookup.hops");
+
+	public OneHopProtocol(Host self, Properties props) throws HandlerRegistrationException {
+		super(PROTO_NAME, PROTO_ID);
+		this.self = self;
+		this.ring = new MembershipRing(Integer.parseInt(props.getProperty("total_processes", "16")));
+		MetricsRegistry.global().gauge("dht.members", () -> membersMetric);
+		this.members = new HashMap<>();
+		this.buffer = new LinkedHashMap<>();
+		this.transmissions = new HashMap<>();
+
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		this.gossipInterval = Integer.parseInt(props.getProperty("onehop_gossip_interval", "500")); //in milliseconds
+		this.fanout = Integer.parseInt(props.getProperty("onehop_fanout", "3"));
+		this.batchSize = Integer.parseInt(props.getProperty("onehop_gossip_batch", "64"));
+		this.retransmitFactor = Integer.parseInt(props.getProperty("onehop_retransmit_factor", "3"));
+		this.statsInterval = Integer.parseInt(props.getProperty("dht_stats_interval", "-1")); //in milliseconds
+		this.tokens = MembershipRing.tokens(Integer.parseInt(props.getProperty("dht_virtual_nodes", "1")),
+				Double.parseDouble(props.getProperty("dht_capacity", "1")));
+		//Parts per million of the id space we own
+		MetricsRegistry.global().gauge("dht.owned_ppm", () -> ownedPpmMetric);
+
+		this.incarnation = 0;
+		this.connections = new HashSet<>();
+		this.r = new Random();
+
+		/*--------------------- Register Request Handlers ----------------------------- */
+		registerRequestHandler(LookupRequest.REQUEST_ID, this::uponLookupRequest);
+
+		/*--------------------- Register Timer Handlers ----------------------------- */
+		registerTimerHandler(GossipTimer.TIMER_ID, this::uponGossipTimer);
+		registerTimerHandler(StatsTimer.TIMER_ID, this::uponStatsTimer);
+	}
+
+
+	@Override
+	public void init(Properties props) throws HandlerRegistrationException, IOException {
+		Properties channelProps = new Properties();
+		channelProps.setProperty(TCPChannel.ADDRESS_KEY, props.getProperty("address"));
+		channelProps.setProperty(TCPChannel.PORT_KEY, props.getProperty("port"));
+		channelProps.setProperty(TCPChannel.METRICS_INTERVAL_KEY, props.getProperty("channel_metrics_interval", "-1"));
+		channelProps.setProperty(TCPChannel.HEARTBEAT_INTERVAL_KEY, "1000");
+		channelProps.setProperty(TCPChannel.HEARTBEAT_TOLERANCE_KEY, "3000");
+		channelProps.setProperty(TCPChannel.CONNECT_TIMEOUT_KEY, "1000");
+		channelId = createChannel(props.getProperty("channel", TCPChannel.NAME), channelProps);
+
+		/*---------------------- Register Message Serializers ---------------------- */
+		registerMessageSerializer(channelId, JoinMessage.MSG_ID, MetricsRegistry.global().counting("msg.JoinMessage", JoinMessage.serializer));
+		registerMessageSerializer(channelId, JoinReplyMessage.MSG_ID, MetricsRegistry.global().counting("msg.JoinReplyMessage", JoinReplyMessage.serializer));
+		registerMessageSerializer(channelId, GossipMessage.MSG_ID, MetricsRegistry.global().counting("msg.GossipMessage", GossipMessage.serializer));
+
+		/*---------------------- Register Message Handlers -------------------------- */
+		registerMessageHandler(channelId, JoinMessage.MSG_ID, this::uponJoin, this::uponMsgFail);
+		registerMessageHandler(channelId, JoinReplyMessage.MSG_ID, this::uponJoinReply, this::uponMsgFail);
+		registerMessageHandler(channelId, GossipMessage.MSG_ID, this::uponGossip, this::uponMsgFail);
+
+		/*--------------------- Register Channel Events ------------------------------- */
+		registerChannelEventHandler(channelId, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+		registerChannelEventHandler(channelId, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		registerChannelEventHandler(channelId, OutConnectionUp.EVENT_ID, this::uponOutConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
+
+		//Let the storage and application protocols share our channel
+		triggerNotification(new ChannelCreated(channelId));
+
+		apply(new MembershipUpdate(self, incarnation, true, tokens));
+
+		if (props.containsKey("contact")) {
+			try {
+				String contactProp = props.getProperty("contact");
+				String[] hostElems = contactProp.split(":");
+				contact = new Host(InetAddress.getByName(hostElems[0]), Integer.parseInt(hostElems[1]));
+				join();
+			} catch (Exception e) {
+				logger.error("Invalid contact on configuration: '" + props.getProperty("contact"));
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		setupPeriodicTimer(new GossipTimer(), gossipInterval, gossipInterval);
+		if (statsInterval > 0)
+			setupPeriodicTimer(new StatsTimer(), statsInterval, statsInterval);
+
+		logger.info("One-hop node {} started with {} tokens", self, tokens);
+	}
+
+	private void join() {
+		if (contact.equals(self))
+			return;
+		List<MembershipUpdate> me = new ArrayList<>(1);
+		me.add(members.get(self));
+		send(new JoinMessage(me), contact);
+	}
+
+	/*--------------------------------- Lookups ---------------------------------------- */
+
+	private void uponLookupRequest(LookupRequest request, short sourceProto) {
+		lookups++;
+		hopsMetric.record(0);
+		trace.record(Tracer.LOOKUP_DONE, 0, request.getRequestUID());
+		List<Host> owners = ring.owners(request.getRingID(), replyPeers);
+		sendReply(new LookupReply(request, owners), sourceProto);
+	}
+
+	/*--------------------------------- Membership ------------------------------------- */
+
+	private void uponJoin(JoinMessage msg, Host from, short sourceProto, int channelId) {
+		for (MembershipUpdate u : msg.getUpdates())
+			apply(u);
+		send(new JoinReplyMessage(new ArrayList<>(members.values())), from);
+	}
+
+	private void uponJoinReply(JoinReplyMessage msg, Host from, short sourceProto, int channelId) {
+		//A snapshot is not re-gossiped: everyone else already knows it
+		for (MembershipUpdate u : msg.getUpdates())
+			merge(u, false);
+		logger.info("Joined through {}, {} members", from, ring.members());
+	}
+
+	private void uponGossip(GossipMessage msg, Host from, short sourceProto, int channelId) {
+		for (MembershipUpdate u : msg.getUpdates())
+			apply(u);
+	}
+
+	//Merges an update and, if it was news to us, queues it for dissemination
+	private void apply(MembershipUpdate update) {
+		merge(update, true);
+	}
+
+	private void merge(MembershipUpdate update, boolean disseminate) {
+		Host host = update.getHost();
+		if (host.equals(self) && !update.isAlive() && update.getIncarnation() >= incarnation) {
+			//Someone suspects us: refute with a higher incarnation
+			incarnation = update.getIncarnation() + 1;
+			update = new MembershipUpdate(self, incarnation, true, tokens);
+		}
+		MembershipUpdate known = members.get(host);
+		if (known != null && !update.overrides(known))
+			return;
+		members.put(host, update);
+		//A new incarnation may come with a different number of tokens
+		if (known != null && known.isAlive())
+			ring.removeTokens(host, known.getTokens());
+		if (update.isAlive())
+			ring.addTokens(host, update.getTokens());
+		if (disseminate) {
+			buffer.remove(host);
+			buffer.put(host, update);
+			transmissions.put(host, retransmitFactor * (32 - Integer.numberOfLeadingZeros(ring.members() + 1)));
+		}
+	}
+
+	private void uponGossipTimer(GossipTimer timer, long timerId) {
+		//The ring is not thread-safe, so the gauges read values published here
+		membersMetric = ring.members();
+		ownedPpmMetric = Math.round(ring.ownership(self) * 1_000_000);
+		if (ring.members() <= 1) {
+			//Our join went unanswered
+			if (contact != null)
+				join();
+			return;
+		}
+		if (buffer.isEmpty())
+			return;
+		//The newest updates go first
+		List<MembershipUpdate> batch = new ArrayList<>(Math.min(batchSize, buffer.size()));
+		List<Host> hosts = new ArrayList<>(buffer.keySet());
+		for (int i = hosts.size() - 1; i >= 0 && batch.size() < batchSize; i--) {
+			Host h = hosts.get(i);
+			batch.add(buffer.get(h));
+			int left = transmissions.get(h) - fanout;
+			if (left <= 0) {
+				buffer.remove(h);
+				transmissions.remove(h);
+			} else {
+				transmissions.put(h, left);
+			}
+		}
+		GossipMessage msg = new GossipMessage(batch);
+		for (Host target : randomMembers(fanout)) {
+			send(msg, target);
+			gossipMessages++;
+			updatesSent += batch.size();
+		}
+	}
+
+	private List<Host> randomMembers(int count) {
+		List<Host> others = new ArrayList<>(ring.members());
+		for (Host h : ring.hosts())
+			if (!h.equals(self))
+				others.add(h);
+		//Partial shuffle over members, not tokens, so that every member is as likely a target
+		int wanted = Math.min(count, others.size());
+		for (int i = 0; i < wanted; i++)
+			Collections.swap(others, i, i + r.nextInt(others.size() - i));
+		return others.subList(0, wanted);
+	}
+
+	private void uponStatsTimer(StatsTimer timer, long timerId) {
+		logger.info("{}: members={} tokens={} owned={}% (fair share {}%) lookups={} gossipMessages={} updatesSent={} pendingUpdates={}",
+				self, ring.members(), tokens, String.format("%.2f", ring.ownership(self) * 100),
+				String.format("%.2f", 100.0 / Math.max(1, ring.members())), lookups, gossipMessages, updatesSent, buffer.size());
+	}
+
+	/*--------------------------------- Connections ------------------------------------ */
+
+	private void send(ProtoMessage msg, Host destination) {
+		if (!connections.contains(destination)) {
+			openConnection(destination);
+			connections.add(destination);
+		}
+		sendMessage(msg, destination);
+	}
+
+	//A member we cannot reach is declared dead, with the incarnation we know for it
+	private void peerFailed(Host host) {
+		connections.remove(host);
+		MembershipUpdate known = members.get(host);
+		if (known != null && known.isAlive())
+			apply(new MembershipUpdate(host, known.getIncarnation(), false, known.getTokens()));
+	}
+
+	private void uponMsgFail(ProtoMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		logger.debug("Message {} to {} failed, reason: {}", msg, host, throwable);
+		peerFailed(host);
+	}
+
+	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
+		logger.debug("Connection to {} is up", event.getNode());
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Connection to {} is down cause {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<ProtoMessage> event, int channelId) {
+		logger.debug("Connection to {} failed cause: {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponInConnectionUp(InConnectionUp event, int channelId) {
+		logger.trace("Connection from {} is up", event.getNode());
+	}
+
+	private void uponInConnectionDown(InConnectionDown event, int channelId) {
+		logger.trace("Connection from {} is down, cause: {}", event.getNode(), event.getCause());
+	}
+}
@@ -0,0 +1,52 @@
+package protocols.dht.onehop.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.onehop.MembershipUpdate;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * A batch of recent membership updates, pushed periodically to a few random members.
+ */
+public class GossipMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 123;
+
+	private final List<MembershipUpdate> updates;
+
+	public GossipMessage(List<MembershipUpdate> updates) {
+		super(MSG_ID);
+		this.updates = updates;
+	}
+
+	public List<MembershipUpdate> getUpdates() {
+		return updates;
+	}
+
+	@Override
+	public String toString() {
+		return "GossipMessage{updates=" + updates.size() + '}';
+	}
+
+	public static ISerializer<GossipMessage> serializer = new ISerializer<GossipMessage>() {
+		@Override
+		public void serialize(GossipMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.updates.size());
+			for (MembershipUpdate u : msg.updates)
+				MembershipUpdate.serializer.serialize(u, out);
+		}
+
+		@Override
+		public GossipMessage deserialize(ByteBuf in) throws IOException {
+			int size = in.readInt();
+			List<MembershipUpdate> updates = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				updates.add(MembershipUpdate.serializer.deserialize(in));
+			return new GossipMessage(updates);
+		}
+	};
+}
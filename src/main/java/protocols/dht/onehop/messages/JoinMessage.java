@@ -0,0 +1,52 @@
+package protocols.dht.onehop.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.onehop.MembershipUpdate;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Sent by a joining node to its contact, carrying its own alive update.
+ */
+public class JoinMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 121;
+
+	private final List<MembershipUpdate> updates;
+
+	public JoinMessage(List<MembershipUpdate> updates) {
+		super(MSG_ID);
+		this.updates = updates;
+	}
+
+	public List<MembershipUpdate> getUpdates() {
+		return updates;
+	}
+
+	@Override
+	public String toString() {
+		return "JoinMessage{updates=" + updates.size() + '}';
+	}
+
+	public static ISerializer<JoinMessage> serializer = new ISerializer<JoinMessage>() {
+		@Override
+		public void serialize(JoinMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.updates.size());
+			for (MembershipUpdate u : msg.updates)
+				MembershipUpdate.serializer.serialize(u, out);
+		}
+
+		@Override
+		public JoinMessage deserialize(ByteBuf in) throws IOException {
+			int size = in.readInt();
+			List<MembershipUpdate> updates = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				updates.add(MembershipUpdate.serializer.deserialize(in));
+			return new JoinMessage(updates);
+		}
+	};
+}
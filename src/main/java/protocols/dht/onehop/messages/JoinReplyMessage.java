@@ -0,0 +1,52 @@
+package protocols.dht.onehop.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.onehop.MembershipUpdate;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link JoinMessage}: a snapshot of the whole membership known to the contact.
+ */
+public class JoinReplyMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 122;
+
+	private final List<MembershipUpdate> updates;
+
+	public JoinReplyMessage(List<MembershipUpdate> updates) {
+		super(MSG_ID);
+		this.updates = updates;
+	}
+
+	public List<MembershipUpdate> getUpdates() {
+		return updates;
+	}
+
+	@Override
+	public String toString() {
+		return "JoinReplyMessage{updates=" + updates.size() + '}';
+	}
+
+	public static ISerializer<JoinReplyMessage> serializer = new ISerializer<JoinReplyMessage>() {
+		@Override
+		public void serialize(JoinReplyMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.updates.size());
+			for (MembershipUpdate u : msg.updates)
+				MembershipUpdate.serializer.serialize(u, out);
+		}
+
+		@Override
+		public JoinReplyMessage deserialize(ByteBuf in) throws IOException {
+			int size = in.readInt();
+			List<MembershipUpdate> updates = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				updates.add(MembershipUpdate.serializer.deserialize(in));
+			return new JoinReplyMessage(updates);
+		}
+	};
+}
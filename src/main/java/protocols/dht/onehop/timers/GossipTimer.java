@@ -0,0 +1,16 @@
+package protocols.dht.onehop.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class GossipTimer extends ProtoTimer {
+    public static final short TIMER_ID = 121;
+
+    public GossipTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,80 @@
+package protocols.dht.pastry;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.vivaldi.Coordinate;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * A (node identifier, host) pair, as stored in routing tables and leaf sets, with the node's
+ * Vivaldi coordinate as last known by whoever sent it (null if unknown); the coordinate takes
+ * no part in equality.
+ */
+public class PastryNode {
+
+	private final RingId id;
+	private final Host host;
+	private final Coordinate coordinate;
+
+	public PastryNode(RingId id, Host host) {
+		this(id, host, null);
+	}
+
+	public PastryNode(RingId id, Host host, Coordinate coordinate) {
+		this.id = id;
+		this.host = host;
+		this.coordinate = coordinate;
+	}
+
+	public RingId getId() {
+		return id;
+	}
+
+	public Host getHost() {
+		return host;
+	}
+
+	//Null if unknown
+	public Coordinate getCoordinate() {
+		return coordinate;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PastryNode)) return false;
+		return host.equals(((PastryNode) o).host);
+	}
+
+	@Override
+	public int hashCode() {
+		return host.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return host + "(" + id + ")";
+	}
+
+	public static ISerializer<PastryNode> serializer = new ISerializer<PastryNode>() {
+		@Override
+		public void serialize(PastryNode node, ByteBuf out) throws IOException {
+			RingId.serialize(node.id, out);
+			Host.serializer.serialize(node.host, out);
+			out.writeBoolean(node.coordinate != null);
+			if (node.coordinate != null)
+				Coordinate.serializer.serialize(node.coordinate, out);
+		}
+
+		@Override
+		public PastryNode deserialize(ByteBuf in) throws IOException {
+			RingId id = RingId.deserialize(in);
+			Host host = Host.serializer.deserialize(in);
+			Coordinate coordinate = in.readBoolean() ? Coordinate.serializer.deserialize(in) : null;
+			return new PastryNode(id, host, coordinate);
+		}
+	};
+}
@@ -0,0 +1,514 @@
+package protocols.dht.pastry;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import channel.notifications.ChannelCreated;
+import protocols.dht.pastry.messages.JoinMessage;
+import protocols.dht.pastry.messages.RouteMessage;
+import protocols.dht.pastry.messages.RouteReplyMessage;
+import protocols.dht.pastry.messages.StateMessage;
+import protocols.dht.pastry.messages.StateRequestMessage;
+import protocols.dht.pastry.timers.LookupTimeoutTimer;
+import protocols.dht.pastry.timers.MaintenanceTimer;
+import protocols.dht.pastry.timers.StatsTimer;
+import protocols.dht.replies.LookupReply;
+import protocols.dht.requests.LookupRequest;
+import protocols.dht.vivaldi.Vivaldi;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionUp;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionUp;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.FailureDetector;
+import utils.HashGenerator;
+import utils.LatencyMatrix;
+import utils.MetricsRegistry;
+import utils.RingId;
+import utils.TraceBuffer;
+import utils.Tracer;
+
+/**
+ * Pastry DHT. Keys are owned by the numerically closest node; lookups are routed recursively by
+ * prefix, fixing at least one digit of "pastry_b" bits per hop, so they take O(log_{2^b} N) hops,
+ * and the last hop answers the origin directly with the nodes of its leaf set closest to the key.
+ * A joining node routes a join towards its own id and builds its state from the routing table
+ * rows of the nodes on the path and the leaf set of the last one, then announces itself.
+ *
+ * Routing table entries prefer the candidates with the lowest round-trip time, estimated with
+ * {@link Vivaldi} coordinates sampled from the periodic state exchanges (with the farthest
+ * leaves, to repair the leaf set, and with a random routing table entry, for a row of its table)
+ * and spread with the nodes carried in every message. If "dht_latency_file" names the latency
+ * matrix being emulated, the stretch of every lookup is measured against it. Routing table
+ * entries the {@link FailureDetector} suspects are routed around.
+ */
+public class PastryProtocol extends GenericProtocol {
+	private static final Logger logger = LogManager.getLogger(PastryProtocol.class);
+
+	//Protocol information, to register in babel
+	public static final String PROTO_NAME = "PastryDHT";
+	public static final short PROTO_ID = 130;
+
+	//Upper bound on hops, protects against routing loops while leaf sets converge
+	private static final int MAX_HOPS = RingId.BITS;
+
+	private final Host self;
+	private final PastryNode selfNode;
+	private final RoutingState state;
+	private final Vivaldi vivaldi;
+	private final LatencyMatrix groundTruth;
+	private final int groundTruthBasePort;
+	private final FailureDetector detector;
+
+	private final int replyPeers;
+	private final int maintenanceInterval;
+	private final int lookupTimeout;
+	private final int statsInterval;
+
+	private int channelId;
+	private Host contact;
+	private boolean joined;
+	private boolean nextSide;
+	private final Set<Host> connections;
+	private final Map<UUID, PendingLookup> pending;
+	private final Random r;
+
+	//Variables related with measurement
+	private long lookupsCompleted = 0;
+	private long lookupsFailed = 0;
+	private long totalHops = 0;
+	private long totalLatency = 0;
+	private long stretchSamples = 0;
+	private double totalStretch = 0;
+	private long messagesRouted = 0;
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	//Exported through the MetricsRegistry
+	private final AtomicHistogram hopsMetric = MetricsRegistry.global().histogram("dht.lookup.hops");
+	private final AtomicHistogram latencyMetric = MetricsRegistry.global().histogram("dht.lookup.latency_ms");
+	private final MetricsRegistry.Counter failedMetric = MetricsRegistry.global().counter("dht.lookups.failed");
+	//Lookup latency over the direct round-trip time to the owner, in percent
+	private final AtomicHistogram stretchMetric = MetricsRegistry.global().histogram("dht.lookup.stretch_pct");
+
+	public PastryProtocol(Host self, Properties props) throws HandlerRegistrationException, IOException {
+		super(PROTO_NAME, PROTO_ID);
+		this.self = self;
+		this.selfNode = new PastryNode(HashGenerator.generateRingId(self.toString()), self);
+		this.r = new Random();
+		this.vivaldi = new Vivaldi(Integer.parseInt(props.getProperty("vivaldi_peer_cache", "1024")), r);
+		MetricsRegistry.global().gauge("dht.vivaldi.error_pct", () -> Math.round(vivaldi.getCoordinate().getError() * 100));
+		this.state = new RoutingState(selfNode, Integer.parseInt(props.getProperty("pastry_b", "4")),
+				Integer.parseInt(props.getProperty("pastry_leaf_set_size", "16")), this::estimate);
+		String latencyFile = props.getProperty("dht_latency_file", "");
+		this.groundTruth = latencyFile.isEmpty() ? null : LatencyMatrix.read(new File(latencyFile));
+		this.groundTruthBasePort = Integer.parseInt(props.getProperty("emulated_base_port", "10000"));
+		this.detector = FailureDetector.global();
+
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		this.maintenanceInterval = Integer.parseInt(props.getProperty("pastry_maintenance_interval", "1000")); //in milliseconds
+		this.lookupTimeout = Integer.parseInt(props.getProperty("dht_lookup_timeout", "5000")); //in milliseconds
+		this.statsInterval = Integer.parseInt(props.getProperty("dht_stats_interval", "-1")); //in milliseconds
+
+		this.joined = false;
+		this.nextSide = true;
+		this.connections = new HashSet<>();
+		this.pending = new HashMap<>();
+		MetricsRegistry.global().gauge("dht.pending_lookups", pending::size);
+
+		/*--------------------- Register Request Handlers ----------------------------- */
+		registerRequestHandler(LookupRequest.REQUEST_ID, this::uponLookupRequest);
+
+		/*--------------------- Register Timer Handlers ----------------------------- */
+		registerTimerHandler(MaintenanceTimer.TIMER_ID, this::uponMaintenanceTimer);
+		registerTimerHandler(LookupTimeoutTimer.TIMER_ID, this::uponLookupTimeoutTimer);
+		registerTimerHandler(StatsTimer.TIMER_ID, this::uponStatsTimer);
+	}
+
+	@Override
+	public void init(Properties props) throws HandlerRegistrationException, IOException {
+		Properties channelProps = new Properties();
+		channelProps.setProperty(TCPChannel.ADDRESS_KEY, props.getProperty("address"));
+		channelProps.setProperty(TCPChannel.PORT_KEY, props.getProperty("port"));
+		channelProps.setProperty(TCPChannel.METRICS_INTERVAL_KEY, props.getProperty("channel_metrics_interval", "-1"));
+		channelProps.setProperty(TCPChannel.HEARTBEAT_INTERVAL_KEY, "1000");
+		channelProps.setProperty(TCPChannel.HEARTBEAT_TOLERANCE_KEY, "3000");
+		channelProps.setProperty(TCPChannel.CONNECT_TIMEOUT_KEY, "1000");
+		channelId = createChannel(props.getProperty("channel", TCPChannel.NAME), channelProps);
+
+		/*---------------------- Register Message Serializers ---------------------- */
+		registerMessageSerializer(channelId, RouteMessage.MSG_ID, MetricsRegistry.global().counting("msg.RouteMessage", RouteMessage.serializer));
+		registerMessageSerializer(channelId, RouteReplyMessage.MSG_ID, MetricsRegistry.global().counting("msg.RouteReplyMessage", RouteReplyMessage.serializer));
+		registerMessageSerializer(channelId, JoinMessage.MSG_ID, MetricsRegistry.global().counting("msg.JoinMessage", JoinMessage.serializer));
+		registerMessageSerializer(channelId, StateMessage.MSG_ID, MetricsRegistry.global().counting("msg.StateMessage", StateMessage.serializer));
+		registerMessageSerializer(channelId, StateRequestMessage.MSG_ID, MetricsRegistry.global().counting("msg.StateRequestMessage", StateRequestMessage.serializer));
+
+		/*---------------------- Register Message Handlers -------------------------- */
+		registerMessageHandler(channelId, RouteMessage.MSG_ID, this::uponRoute, this::uponRouteFail);
+		registerMessageHandler(channelId, RouteReplyMessage.MSG_ID, this::uponRouteReply, this::uponMsgFail);
+		registerMessageHandler(channelId, JoinMessage.MSG_ID, this::uponJoin, this::uponJoinFail);
+		registerMessageHandler(channelId, StateMessage.MSG_ID, this::uponState, this::uponMsgFail);
+		registerMessageHandler(channelId, StateRequestMessage.MSG_ID, this::uponStateRequest, this::uponMsgFail);
+
+		/*--------------------- Register Channel Events ------------------------------- */
+		registerChannelEventHandler(channelId, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+		registerChannelEventHandler(channelId, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		registerChannelEventHandler(channelId, OutConnectionUp.EVENT_ID, this::uponOutConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
+		registerChannelEventHandler(channelId, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
+
+		//Let the storage and application protocols share our channel
+		triggerNotification(new ChannelCreated(channelId));
+
+		if (props.containsKey("contact")) {
+			try {
+				String contactProp = props.getProperty("contact");
+				String[] hostElems = contactProp.split(":");
+				contact = new Host(InetAddress.getByName(hostElems[0]), Integer.parseInt(hostElems[1]));
+				join();
+			} catch (Exception e) {
+				logger.error("Invalid contact on configuration: '" + props.getProperty("contact"));
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		setupPeriodicTimer(new MaintenanceTimer(), maintenanceInterval, maintenanceInterval);
+		setupPeriodicTimer(new LookupTimeoutTimer(), lookupTimeout, lookupTimeout);
+		if (statsInterval > 0)
+			setupPeriodicTimer(new StatsTimer(), statsInterval, statsInterval);
+
+		logger.info("Pastry node {} started", selfNode);
+	}
+
+	//Routes a join towards our own id through the contact
+	private void join() {
+		if (!contact.equals(self))
+			send(new JoinMessage(me(), 0), contact);
+	}
+
+	/*--------------------------------- Lookups ---------------------------------------- */
+
+	private void uponLookupRequest(LookupRequest request, short sourceProto) {
+		PendingLookup lookup = new PendingLookup(request, sourceProto);
+		PastryNode next = nextHop(lookup.id);
+		if (next == null) {
+			completeLookup(lookup, closest(lookup.id), 0);
+			return;
+		}
+		pending.put(lookup.uid, lookup);
+		send(new RouteMessage(lookup.uid, lookup.id, me(), 1), next.getHost());
+	}
+
+	private PastryNode nextHop(RingId key) {
+		return state.nextHop(key, n -> !detector.isSuspected(n.getHost()));
+	}
+
+	//The replica set of key as far as our leaf set tells, the owner first
+	private List<PastryNode> closest(RingId key) {
+		List<PastryNode> nodes = state.closest(key, replyPeers);
+		nodes.replaceAll(n -> n.equals(selfNode) ? me() : n);
+		return nodes;
+	}
+
+	private void uponRoute(RouteMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Received {} from {}", msg, from);
+		messagesRouted++;
+		trace.record(Tracer.LOOKUP_HOP, msg.getHops(), msg.getUid());
+		learn(msg.getOrigin());
+		forward(msg, channelId);
+	}
+
+	//Answers msg if we own its key, else passes it on; no accounting, so reroutes are not counted twice
+	private void forward(RouteMessage msg, int channelId) {
+		PastryNode next = nextHop(msg.getKey());
+		if (next == null) {
+			RouteReplyMessage reply = new RouteReplyMessage(msg.getUid(), msg.getKey(), msg.getHops(), closest(msg.getKey()));
+			if (msg.getOrigin().equals(selfNode))
+				uponRouteReply(reply, self, getProtoId(), channelId);
+			else
+				send(reply, msg.getOrigin().getHost());
+		} else if (msg.getHops() >= MAX_HOPS) {
+			//Left for the origin to time out
+			logger.warn("Dropping {} after {} hops", msg, msg.getHops());
+		} else {
+			send(msg.nextHop(), next.getHost());
+		}
+	}
+
+	private void uponRouteFail(RouteMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		//Route around the failed node
+		logger.debug("Forwarding {} to {} failed, rerouting", msg, host);
+		peerFailed(host);
+		forward(msg, channelId);
+	}
+
+	private void uponRouteReply(RouteReplyMessage msg, Host from, short sourceProto, int channelId) {
+		PendingLookup lookup = pending.remove(msg.getUid());
+		if (lookup == null) {
+			logger.debug("Late reply {} from {}", msg, from);
+			return;
+		}
+		for (PastryNode n : msg.getNodes())
+			learn(n);
+		completeLookup(lookup, msg.getNodes(), msg.getHops());
+	}
+
+	private void completeLookup(PendingLookup lookup, List<PastryNode> owners, int hops) {
+		long latency = System.currentTimeMillis() - lookup.startTime;
+		lookupsCompleted++;
+		totalHops += hops;
+		totalLatency += latency;
+		hopsMetric.record(hops);
+		latencyMetric.record(latency);
+		trace.record(Tracer.LOOKUP_DONE, hops, lookup.uid);
+		recordStretch(owners.get(0).getHost(), latency);
+		List<Host> peers = new ArrayList<>(owners.size());
+		for (PastryNode n : owners)
+			peers.add(n.getHost());
+		logger.debug("Lookup {} resolved to {} in {} hops", lookup.uid, peers, hops);
+		sendReply(new LookupReply(lookup.request, peers), lookup.sourceProto);
+	}
+
+	private void failLookup(PendingLookup lookup) {
+		lookupsFailed++;
+		failedMetric.inc();
+		trace.record(Tracer.LOOKUP_DONE, -1, lookup.uid);
+		logger.debug("Lookup {} for {} failed", lookup.uid, lookup.id);
+		//An empty peer set tells the requester that the lookup failed
+		sendReply(new LookupReply(lookup.request, new ArrayList<Host>()), lookup.sourceProto);
+	}
+
+	private void uponLookupTimeoutTimer(LookupTimeoutTimer timer, long timerId) {
+		long now = System.currentTimeMillis();
+		Iterator<PendingLookup> it = pending.values().iterator();
+		while (it.hasNext()) {
+			PendingLookup lookup = it.next();
+			if (now - lookup.startTime >= lookupTimeout) {
+				it.remove();
+				failLookup(lookup);
+			}
+		}
+	}
+
+	/*--------------------------------- Join and maintenance ---------------------------- */
+
+	private void uponJoin(JoinMessage msg, Host from, short sourceProto, int channelId) {
+		PastryNode joiner = msg.getJoiner();
+		if (joiner.equals(selfNode))
+			return;
+		learn(joiner);
+		//Rows up to the one the joiner shares with us apply to it as they are
+		int shared = Math.min(state.sharedPrefix(selfNode.getId(), joiner.getId()), state.getRows() - 1);
+		List<PastryNode> nodes = new ArrayList<>();
+		nodes.add(me());
+		for (int row = 0; row <= shared; row++)
+			nodes.addAll(state.getRow(row));
+		PastryNode next = nextHop(joiner.getId());
+		if (next == null || next.equals(joiner) || msg.getHops() >= MAX_HOPS) {
+			nodes.addAll(state.getLeaves());
+			send(new StateMessage(me(), nodes, true, 0), joiner.getHost());
+		} else {
+			send(new StateMessage(me(), nodes, false, 0), joiner.getHost());
+			send(msg.nextHop(), next.getHost());
+		}
+		state.add(joiner);
+	}
+
+	private void uponJoinFail(JoinMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		peerFailed(host);
+		//The contact will be retried by maintenance
+		if (!msg.getJoiner().equals(selfNode))
+			uponJoin(msg, self, getProtoId(), channelId);
+	}
+
+	private void uponState(StateMessage msg, Host from, short sourceProto, int channelId) {
+		long rtt = msg.getTimestamp() > 0 ? System.currentTimeMillis() - msg.getTimestamp() : 0;
+		if (rtt > 0)
+			detector.replied(from, rtt);
+		vivaldi.observe(from, msg.getSender().getCoordinate(), rtt);
+		//Coordinates first, so that the routing table can compare the new candidates
+		for (PastryNode n : msg.getNodes())
+			learn(n);
+		state.add(msg.getSender());
+		for (PastryNode n : msg.getNodes())
+			state.add(n);
+		if (msg.isJoined() && !joined) {
+			joined = true;
+			logger.info("Joined through {}: {}", from, state);
+			//Announce ourselves to every node we now know of
+			Set<PastryNode> known = new HashSet<>(state.getLeaves());
+			for (int row : state.nonEmptyRows())
+				known.addAll(state.getRow(row));
+			List<PastryNode> leaves = state.getLeaves();
+			for (PastryNode n : known)
+				send(new StateMessage(me(), leaves, false, 0), n.getHost());
+		}
+	}
+
+	private void uponStateRequest(StateRequestMessage msg, Host from, short sourceProto, int channelId) {
+		vivaldi.observe(from, msg.getSender().getCoordinate(), 0);
+		List<PastryNode> nodes = state.getLeaves();
+		if (msg.getRow() >= 0 && msg.getRow() < state.getRows())
+			nodes.addAll(state.getRow(msg.getRow()));
+		send(new StateMessage(me(), nodes, false, msg.getTimestamp()), from);
+		state.add(msg.getSender());
+	}
+
+	//Asks a node for its leaf set and one row of its routing table
+	private void requestState(PastryNode n, int row) {
+		if (n != null && !n.equals(selfNode)) {
+			detector.sent(n.getHost());
+			send(new StateRequestMessage(me(), row, System.currentTimeMillis()), n.getHost());
+		}
+	}
+
+	private void uponMaintenanceTimer(MaintenanceTimer timer, long timerId) {
+		if (state.isEmpty()) {
+			//Alone (or bootstrapping)
+			joined = false;
+			if (contact != null)
+				join();
+			return;
+		}
+		//Leaf set repair, alternating sides: the farthest leaf knows the nodes beyond it
+		requestState(state.farthestLeaf(nextSide), -1);
+		nextSide = !nextSide;
+		//Routing table maintenance: the entries of row r of a node in our row r are candidates for it
+		List<Integer> rows = state.nonEmptyRows();
+		if (!rows.isEmpty()) {
+			int row = rows.get(r.nextInt(rows.size()));
+			List<PastryNode> entries = state.getRow(row);
+			requestState(entries.get(r.nextInt(entries.size())), row);
+		}
+	}
+
+	private void uponStatsTimer(StatsTimer timer, long timerId) {
+		logger.info("{}: lookups completed={} failed={} avgHops={} avgLatency={}ms avgStretch={} routed={} pending={} {} coordinate={} samples={}", self,
+				lookupsCompleted, lookupsFailed,
+				lookupsCompleted == 0 ? 0 : String.format("%.2f", (double) totalHops / lookupsCompleted),
+				lookupsCompleted == 0 ? 0 : totalLatency / lookupsCompleted,
+				stretchSamples == 0 ? "-" : String.format("%.2f", totalStretch / stretchSamples),
+				messagesRouted, pending.size(), state, vivaldi.getCoordinate(), vivaldi.getSamples());
+	}
+
+	/*--------------------------------- Proximity -------------------------------------- */
+
+	//Our node, with our current coordinate
+	private PastryNode me() {
+		return new PastryNode(selfNode.getId(), self, vivaldi.getCoordinate());
+	}
+
+	//Estimated round-trip time to n in milliseconds, NaN if unknown
+	private double estimate(PastryNode n) {
+		double estimate = vivaldi.estimate(n.getHost());
+		if (Double.isNaN(estimate) && n.getCoordinate() != null)
+			estimate = vivaldi.getCoordinate().distanceTo(n.getCoordinate());
+		return estimate;
+	}
+
+	//A node (and its coordinate) relayed by another node
+	private void learn(PastryNode n) {
+		if (n != null && !n.equals(selfNode))
+			vivaldi.learn(n.getHost(), n.getCoordinate());
+	}
+
+	private void recordStretch(Host owner, long latency) {
+		if (groundTruth == null || owner.equals(self))
+			return;
+		int from = LatencyMatrix.indexOf(self, owner, groundTruthBasePort);
+		int to = LatencyMatrix.indexOf(owner, self, groundTruthBasePort);
+		if (from < 0 || to < 0 || from >= groundTruth.size() || to >= groundTruth.size())
+			return;
+		int rtt = groundTruth.get(from, to) + groundTruth.get(to, from);
+		if (rtt <= 0)
+			return;
+		double stretch = (double) latency / rtt;
+		stretchSamples++;
+		totalStretch += stretch;
+		stretchMetric.record(Math.round(stretch * 100));
+	}
+
+	/*--------------------------------- Connections ------------------------------------ */
+
+	private void send(ProtoMessage msg, Host destination) {
+		if (!connections.contains(destination)) {
+			openConnection(destination);
+			connections.add(destination);
+		}
+		sendMessage(msg, destination);
+	}
+
+	private void peerFailed(Host host) {
+		connections.remove(host);
+		detector.failed(host);
+		vivaldi.forget(host);
+		if (state.remove(host)) {
+			//Refill the leaf set from the farthest leaves on both sides
+			logger.info("Leaf {} failed", host);
+			requestState(state.farthestLeaf(true), -1);
+			requestState(state.farthestLeaf(false), -1);
+		}
+	}
+
+	private void uponMsgFail(ProtoMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		logger.debug("Message {} to {} failed, reason: {}", msg, host, throwable);
+		peerFailed(host);
+	}
+
+	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
+		logger.debug("Connection to {} is up", event.getNode());
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Connection to {} is down cause {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<ProtoMessage> event, int channelId) {
+		logger.debug("Connection to {} failed cause: {}", event.getNode(), event.getCause());
+		peerFailed(event.getNode());
+	}
+
+	private void uponInConnectionUp(InConnectionUp event, int channelId) {
+		logger.trace("Connection from {} is up", event.getNode());
+	}
+
+	private void uponInConnectionDown(InConnectionDown event, int channelId) {
+		logger.trace("Connection from {} is down, cause: {}", event.getNode(), event.getCause());
+	}
+
+	private static class PendingLookup {
+		private final LookupRequest request;
+		private final UUID uid;
+		private final RingId id;
+		private final short sourceProto;
+		private final long startTime;
+
+		private PendingLookup(LookupRequest request, short sourceProto) {
+			this.request = request;
+			this.uid = request.getRequestUID();
+			this.id = request.getRingID();
+			this.sourceProto = sourceProto;
+			this.startTime = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package protocols.dht.pastry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * State of a Pastry node (Rowstron and Druschel, Middleware 2001). Ids are read as digits of b
+ * bits; row r of the routing table holds, for each digit value d, a node that shares the first r
+ * digits of our id and has d as its next one, so every hop fixes at least one more digit of the
+ * key. Of all the candidates for an entry, the one with the lowest estimated round-trip time is
+ * kept. The leaf set holds the L/2 numerically closest nodes on each side of us, and the nodes
+ * closest to a key within its range are the owner and replicas of the key.
+ * Has no Babel dependencies, so that it can also run in the simulator.
+ */
+public class RoutingState {
+
+	private final PastryNode self;
+	private final int b;
+	private final int rows;
+	private final PastryNode[][] table;
+	private final int halfLeafSet;
+	//Leaves clockwise (larger ids) and counter-clockwise (smaller ids) from us, closest first
+	private final List<PastryNode> larger;
+	private final List<PastryNode> smaller;
+	//Estimated round-trip time to a node, NaN if unknown
+	private final ToDoubleFunction<PastryNode> proximity;
+
+	public RoutingState(PastryNode self, int b, int leafSetSize, ToDoubleFunction<PastryNode> proximity) {
+		if (b < 1 || b > 8 || RingId.BITS % b != 0)
+			throw new IllegalArgumentException("pastry_b must divide " + RingId.BITS + " and be at most 8: " + b);
+		this.self = self;
+		this.b = b;
+		this.rows = RingId.BITS / b;
+		this.table = new PastryNode[rows][1 << b];
+		this.halfLeafSet = Math.max(1, leafSetSize / 2);
+		this.larger = new ArrayList<>(halfLeafSet);
+		this.smaller = new ArrayList<>(halfLeafSet);
+		this.proximity = proximity;
+	}
+
+	public PastryNode getSelf() {
+		return self;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	//Digit of id at position row, most significant first
+	public int digit(RingId id, int row) {
+		int top = RingId.BITS - 1 - row * b;
+		int d = 0;
+		for (int i = 0; i < b; i++)
+			d = (d << 1) | (id.testBit(top - i) ? 1 : 0);
+		return d;
+	}
+
+	//Number of leading digits that a and c share
+	public int sharedPrefix(RingId a, RingId c) {
+		int bit = a.highestDifferingBit(c);
+		return bit < 0 ? rows : (RingId.BITS - 1 - bit) / b;
+	}
+
+	//Numerical distance between a and c, the shorter way around the ring
+	public static RingId ringDistance(RingId a, RingId c) {
+		RingId cw = a.distance(c);
+		RingId ccw = c.distance(a);
+		return cw.compareTo(ccw) <= 0 ? cw : ccw;
+	}
+
+	/*--------------------------------- Updates ---------------------------------------- */
+
+	//Adds n to the leaf set and routing table wherever it fits; true if the state changed
+	public boolean add(PastryNode n) {
+		if (n == null || n.equals(self))
+			return false;
+		boolean changed = addLeaf(larger, n, true);
+		changed |= addLeaf(smaller, n, false);
+		int row = sharedPrefix(self.getId(), n.getId());
+		if (row == rows)
+			return changed;
+		int col = digit(n.getId(), row);
+		PastryNode current = table[row][col];
+		if (current == null || current.equals(n) || closer(n, current)) {
+			//The same node is replaced too, its coordinate may be fresher
+			table[row][col] = n;
+			changed |= current == null || !current.equals(n);
+		}
+		return changed;
+	}
+
+	//True if a is known to be closer in the network than c
+	private boolean closer(PastryNode a, PastryNode c) {
+		double pa = proximity.applyAsDouble(a);
+		if (Double.isNaN(pa))
+			return false;
+		double pc = proximity.applyAsDouble(c);
+		return Double.isNaN(pc) || pa < pc;
+	}
+
+	private RingId leafDistance(PastryNode n, boolean clockwise) {
+		return clockwise ? self.getId().distance(n.getId()) : n.getId().distance(self.getId());
+	}
+
+	private boolean addLeaf(List<PastryNode> side, PastryNode n, boolean clockwise) {
+		RingId d = leafDistance(n, clockwise);
+		for (int i = 0; i < side.size(); i++) {
+			PastryNode leaf = side.get(i);
+			if (leaf.equals(n)) {
+				side.set(i, n);
+				return false;
+			}
+			if (d.compareTo(leafDistance(leaf, clockwise)) < 0) {
+				side.add(i, n);
+				if (side.size() > halfLeafSet)
+					side.remove(side.size() - 1);
+				return true;
+			}
+		}
+		if (side.size() >= halfLeafSet)
+			return false;
+		side.add(n);
+		return true;
+	}
+
+	//Removes the node at host; true if it was a leaf
+	public boolean remove(Host host) {
+		for (PastryNode[] row : table)
+			for (int c = 0; c < row.length; c++)
+				if (row[c] != null && row[c].getHost().equals(host))
+					row[c] = null;
+		boolean leaf = larger.removeIf(n -> n.getHost().equals(host));
+		leaf |= smaller.removeIf(n -> n.getHost().equals(host));
+		return leaf;
+	}
+
+	/*--------------------------------- Routing ---------------------------------------- */
+
+	//True if key falls within the range of the leaf set, whose nodes are then the closest to it
+	public boolean leafSetCovers(RingId key) {
+		//Short sides, or sides that meet, mean that the leaf set holds the whole ring
+		if (larger.size() < halfLeafSet || smaller.size() < halfLeafSet || !Collections.disjoint(larger, smaller))
+			return true;
+		RingId first = smaller.get(smaller.size() - 1).getId();
+		RingId last = larger.get(larger.size() - 1).getId();
+		return key.equals(first) || key.inHalfOpen(first, last);
+	}
+
+	//The count nodes of the leaf set (us included) numerically closest to key, closest first
+	public List<PastryNode> closest(RingId key, int count) {
+		List<PastryNode> candidates = new ArrayList<>(larger.size() + smaller.size() + 1);
+		candidates.add(self);
+		candidates.addAll(larger);
+		for (PastryNode n : smaller)
+			if (!larger.contains(n))
+				candidates.add(n);
+		candidates.sort(Comparator.comparing(n -> ringDistance(n.getId(), key)));
+		return new ArrayList<>(candidates.subList(0, Math.min(count, candidates.size())));
+	}
+
+	//Node to forward a message for key to, or null if we are numerically closest to it
+	public PastryNode nextHop(RingId key) {
+		return nextHop(key, n -> true);
+	}
+
+	/**
+	 * As {@link #nextHop(RingId)}, but routing table entries that are not usable (e.g. suspected
+	 * to have failed) are passed over for the rare case. The leaf step is kept as is, since only
+	 * the numerically closest node can deliver the message.
+	 */
+	public PastryNode nextHop(RingId key, Predicate<PastryNode> usable) {
+		if (leafSetCovers(key)) {
+			PastryNode closest = closest(key, 1).get(0);
+			return closest.equals(self) ? null : closest;
+		}
+		int row = sharedPrefix(self.getId(), key);
+		if (row == rows)
+			return null;
+		PastryNode entry = table[row][digit(key, row)];
+		if (entry != null && usable.test(entry))
+			return entry;
+
+		//Rare case: any node with as long a shared prefix that is numerically closer to key
+		PastryNode best = null;
+		RingId bestDistance = ringDistance(self.getId(), key);
+		for (int r = row; r < rows; r++) {
+			for (PastryNode n : table[r]) {
+				if (n == null || !usable.test(n))
+					continue;
+				RingId d = ringDistance(n.getId(), key);
+				if (d.compareTo(bestDistance) < 0 && sharedPrefix(n.getId(), key) >= row) {
+					best = n;
+					bestDistance = d;
+				}
+			}
+		}
+		for (PastryNode n : getLeaves()) {
+			RingId d = ringDistance(n.getId(), key);
+			if (usable.test(n) && d.compareTo(bestDistance) < 0 && sharedPrefix(n.getId(), key) >= row) {
+				best = n;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	/*--------------------------------- Accessors -------------------------------------- */
+
+	public List<PastryNode> getRow(int row) {
+		List<PastryNode> entries = new ArrayList<>();
+		for (PastryNode n : table[row])
+			if (n != null)
+				entries.add(n);
+		return entries;
+	}
+
+	public List<Integer> nonEmptyRows() {
+		List<Integer> nonEmpty = new ArrayList<>();
+		for (int r = 0; r < rows; r++)
+			if (!getRow(r).isEmpty())
+				nonEmpty.add(r);
+		return nonEmpty;
+	}
+
+	//Leaves on both sides, without repetitions
+	public List<PastryNode> getLeaves() {
+		List<PastryNode> leaves = new ArrayList<>(larger);
+		for (PastryNode n : smaller)
+			if (!leaves.contains(n))
+				leaves.add(n);
+		return leaves;
+	}
+
+	//Farthest leaf on one side, null if that side is empty
+	public PastryNode farthestLeaf(boolean clockwise) {
+		List<PastryNode> side = clockwise ? larger : smaller;
+		return side.isEmpty() ? null : side.get(side.size() - 1);
+	}
+
+	public boolean isEmpty() {
+		return larger.isEmpty() && smaller.isEmpty();
+	}
+
+	public int tableSize() {
+		int size = 0;
+		for (PastryNode[] row : table)
+			for (PastryNode n : row)
+				if (n != null)
+					size++;
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "leaves=" + getLeaves().size() + " entries=" + tableSize() + " rows=" + nonEmptyRows().size();
+	}
+}
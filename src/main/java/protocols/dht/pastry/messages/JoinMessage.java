@@ -0,0 +1,59 @@
+package protocols.dht.pastry.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.pastry.PastryNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Join request, routed towards the id of the joining node: every node on the path sends it the
+ * rows of its routing table that apply to it, and the last one its leaf set, in
+ * {@link StateMessage}s.
+ */
+public class JoinMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 133;
+
+	private final PastryNode joiner;
+	private final int hops;
+
+	public JoinMessage(PastryNode joiner, int hops) {
+		super(MSG_ID);
+		this.joiner = joiner;
+		this.hops = hops;
+	}
+
+	public PastryNode getJoiner() {
+		return joiner;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public JoinMessage nextHop() {
+		return new JoinMessage(joiner, hops + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "JoinMessage{joiner=" + joiner + ", hops=" + hops + '}';
+	}
+
+	public static ISerializer<JoinMessage> serializer = new ISerializer<JoinMessage>() {
+		@Override
+		public void serialize(JoinMessage msg, ByteBuf out) throws IOException {
+			PastryNode.serializer.serialize(msg.joiner, out);
+			out.writeShort(msg.hops);
+		}
+
+		@Override
+		public JoinMessage deserialize(ByteBuf in) throws IOException {
+			PastryNode joiner = PastryNode.serializer.deserialize(in);
+			int hops = in.readShort();
+			return new JoinMessage(joiner, hops);
+		}
+	};
+}
@@ -0,0 +1,77 @@
+package protocols.dht.pastry.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.pastry.PastryNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Lookup step: forwarded by prefix routing until it reaches the node numerically closest to the
+ * key, which answers the origin directly with a {@link RouteReplyMessage}.
+ */
+public class RouteMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 131;
+
+	private final UUID uid;
+	private final RingId id;
+	private final PastryNode origin;
+	private final int hops;
+
+	public RouteMessage(UUID uid, RingId id, PastryNode origin, int hops) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.origin = origin;
+		this.hops = hops;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public PastryNode getOrigin() {
+		return origin;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public RouteMessage nextHop() {
+		return new RouteMessage(uid, id, origin, hops + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "RouteMessage{uid=" + uid + ", id=" + id + ", origin=" + origin + ", hops=" + hops + '}';
+	}
+
+	public static ISerializer<RouteMessage> serializer = new ISerializer<RouteMessage>() {
+		@Override
+		public void serialize(RouteMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			PastryNode.serializer.serialize(msg.origin, out);
+			out.writeShort(msg.hops);
+		}
+
+		@Override
+		public RouteMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			PastryNode origin = PastryNode.serializer.deserialize(in);
+			int hops = in.readShort();
+			return new RouteMessage(uid, id, origin, hops);
+		}
+	};
+}
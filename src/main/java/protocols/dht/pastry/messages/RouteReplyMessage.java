@@ -0,0 +1,80 @@
+package protocols.dht.pastry.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.pastry.PastryNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.RingId;
+
+/**
+ * Final answer of a lookup, sent straight to the origin: the nodes of the leaf set of the last
+ * hop numerically closest to the key, the owner first.
+ */
+public class RouteReplyMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 132;
+
+	private final UUID uid;
+	private final RingId id;
+	private final int hops;
+	private final List<PastryNode> nodes;
+
+	public RouteReplyMessage(UUID uid, RingId id, int hops, List<PastryNode> nodes) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.id = id;
+		this.hops = hops;
+		this.nodes = nodes;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public RingId getKey() {
+		return id;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public List<PastryNode> getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteReplyMessage{uid=" + uid + ", id=" + id + ", hops=" + hops + ", nodes=" + nodes + '}';
+	}
+
+	public static ISerializer<RouteReplyMessage> serializer = new ISerializer<RouteReplyMessage>() {
+		@Override
+		public void serialize(RouteReplyMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			RingId.serialize(msg.id, out);
+			out.writeShort(msg.hops);
+			out.writeByte(msg.nodes.size());
+			for (PastryNode n : msg.nodes)
+				PastryNode.serializer.serialize(n, out);
+		}
+
+		@Override
+		public RouteReplyMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			RingId id = RingId.deserialize(in);
+			int hops = in.readShort();
+			int size = in.readByte();
+			List<PastryNode> nodes = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				nodes.add(PastryNode.serializer.deserialize(in));
+			return new RouteReplyMessage(uid, id, hops, nodes);
+		}
+	};
+}
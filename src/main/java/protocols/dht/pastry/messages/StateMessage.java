@@ -0,0 +1,79 @@
+package protocols.dht.pastry.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.pastry.PastryNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Part of the state of the sender (routing table rows and/or leaf set), for the receiver to add
+ * to its own. Sent along the path of a join (the last one with joined set), by a node that has
+ * just joined to announce itself, and in answer to a {@link StateRequestMessage}, whose timestamp
+ * it echoes (0 otherwise) to measure the round-trip time.
+ */
+public class StateMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 134;
+
+	private final PastryNode sender;
+	private final List<PastryNode> nodes;
+	private final boolean joined;
+	private final long timestamp;
+
+	public StateMessage(PastryNode sender, List<PastryNode> nodes, boolean joined, long timestamp) {
+		super(MSG_ID);
+		this.sender = sender;
+		this.nodes = nodes;
+		this.joined = joined;
+		this.timestamp = timestamp;
+	}
+
+	public PastryNode getSender() {
+		return sender;
+	}
+
+	public List<PastryNode> getNodes() {
+		return nodes;
+	}
+
+	public boolean isJoined() {
+		return joined;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "StateMessage{sender=" + sender + ", nodes=" + nodes.size() + ", joined=" + joined + '}';
+	}
+
+	public static ISerializer<StateMessage> serializer = new ISerializer<StateMessage>() {
+		@Override
+		public void serialize(StateMessage msg, ByteBuf out) throws IOException {
+			PastryNode.serializer.serialize(msg.sender, out);
+			out.writeShort(msg.nodes.size());
+			for (PastryNode n : msg.nodes)
+				PastryNode.serializer.serialize(n, out);
+			out.writeBoolean(msg.joined);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public StateMessage deserialize(ByteBuf in) throws IOException {
+			PastryNode sender = PastryNode.serializer.deserialize(in);
+			int size = in.readShort();
+			List<PastryNode> nodes = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				nodes.add(PastryNode.serializer.deserialize(in));
+			boolean joined = in.readBoolean();
+			long timestamp = in.readLong();
+			return new StateMessage(sender, nodes, joined, timestamp);
+		}
+	};
+}
@@ -0,0 +1,62 @@
+package protocols.dht.pastry.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.dht.pastry.PastryNode;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Periodic maintenance: asks a node for its leaf set and, if row is not -1, that row of its
+ * routing table. Answered with a {@link StateMessage}.
+ */
+public class StateRequestMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 135;
+
+	private final PastryNode sender;
+	private final int row;
+	private final long timestamp;
+
+	public StateRequestMessage(PastryNode sender, int row, long timestamp) {
+		super(MSG_ID);
+		this.sender = sender;
+		this.row = row;
+		this.timestamp = timestamp;
+	}
+
+	public PastryNode getSender() {
+		return sender;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "StateRequestMessage{sender=" + sender + ", row=" + row + '}';
+	}
+
+	public static ISerializer<StateRequestMessage> serializer = new ISerializer<StateRequestMessage>() {
+		@Override
+		public void serialize(StateRequestMessage msg, ByteBuf out) throws IOException {
+			PastryNode.serializer.serialize(msg.sender, out);
+			out.writeShort(msg.row);
+			out.writeLong(msg.timestamp);
+		}
+
+		@Override
+		public StateRequestMessage deserialize(ByteBuf in) throws IOException {
+			PastryNode sender = PastryNode.serializer.deserialize(in);
+			int row = in.readShort();
+			long timestamp = in.readLong();
+			return new StateRequestMessage(sender, row, timestamp);
+		}
+	};
+}
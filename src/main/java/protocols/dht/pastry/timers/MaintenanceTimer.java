@@ -0,0 +1,16 @@
+package protocols.dht.pastry.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class MaintenanceTimer extends ProtoTimer {
+    public static final short TIMER_ID = 131;
+
+    public MaintenanceTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,16 @@
+package protocols.dht.pastry.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class StatsTimer extends ProtoTimer {
+    public static final short TIMER_ID = 133;
+
+    public StatsTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
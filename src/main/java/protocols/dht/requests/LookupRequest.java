@@ -1,36 +1,51 @@
-package protocols.dht.requests;
-
-import java.math.BigInteger;
-import java.util.UUID;
-
-import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
-
-public class LookupRequest extends ProtoRequest {
-
-	public final static short REQUEST_ID = 101;
-	
-	private BigInteger id;
-	private UUID uid;
-	
-	public LookupRequest(BigInteger id) {
-		super(REQUEST_ID);
-		this.id = id;
-		this.uid = UUID.randomUUID();
-	}
-	
-	public LookupRequest(BigInteger id, UUID uid) {
-		super(REQUEST_ID);
-		this.id = id;
-		this.uid = uid;
-	}
-	
-	public UUID getRequestUID() {
-		return this.uid;
-	}
-	
-	public BigInteger getID() {
-		return this.id;
-	}
-
-
-}
+package protocols.dht.requests;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import utils.RingId;
+
+public class LookupRequest extends ProtoRequest {
+
+	public final static short REQUEST_ID = 101;
+	
+	private RingId id;
+	private UUID uid;
+	//The id as given by the caller, which may lie outside the ring; null if given as a RingId
+	private BigInteger requestedId;
+	
+	public LookupRequest(RingId id) {
+		this(id, UUID.randomUUID());
+	}
+	
+	public LookupRequest(RingId id, UUID uid) {
+		super(REQUEST_ID);
+		this.id = id;
+		this.uid = uid;
+	}
+	
+	public LookupRequest(BigInteger id) {
+		this(id, UUID.randomUUID());
+	}
+	
+	public LookupRequest(BigInteger id, UUID uid) {
+		this(RingId.fromBigInteger(id), uid);
+		this.requestedId = id;
+	}
+	
+	public UUID getRequestUID() {
+		return this.uid;
+	}
+	
+	public RingId getRingID() {
+		return this.id;
+	}
+	
+	//The id as requested; lookups route on its value mod 2^160, the ring id
+	public BigInteger getID() {
+		return this.requestedId != null ? this.requestedId : this.id.toBigInteger();
+	}
+
+
+}
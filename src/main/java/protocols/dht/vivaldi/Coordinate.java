@@ -0,0 +1,70 @@
+package protocols.dht.vivaldi;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Vivaldi network coordinate: a point in a 2D Euclidean plane plus a height, which models the
+ * access link of the node, all in milliseconds of round-trip time, and the relative error of the
+ * node's own estimate (1 when it knows nothing).
+ */
+public class Coordinate {
+
+	public static final double MIN_HEIGHT = 0.1;
+	public static final Coordinate ORIGIN = new Coordinate(0, 0, MIN_HEIGHT, 1);
+
+	private final double x;
+	private final double y;
+	private final double height;
+	private final double error;
+
+	public Coordinate(double x, double y, double height, double error) {
+		this.x = x;
+		this.y = y;
+		this.height = height;
+		this.error = error;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public double getHeight() {
+		return height;
+	}
+
+	public double getError() {
+		return error;
+	}
+
+	//Estimated round-trip time to o, in milliseconds
+	public double distanceTo(Coordinate o) {
+		return Math.hypot(x - o.x, y - o.y) + height + o.height;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("(%.1f, %.1f, h=%.1f, err=%.2f)", x, y, height, error);
+	}
+
+	public static ISerializer<Coordinate> serializer = new ISerializer<Coordinate>() {
+		@Override
+		public void serialize(Coordinate c, ByteBuf out) throws IOException {
+			out.writeFloat((float) c.x);
+			out.writeFloat((float) c.y);
+			out.writeFloat((float) c.height);
+			out.writeFloat((float) c.error);
+		}
+
+		@Override
+		public Coordinate deserialize(ByteBuf in) throws IOException {
+			return new Coordinate(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+		}
+	};
+}
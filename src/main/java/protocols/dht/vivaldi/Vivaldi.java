@@ -0,0 +1,110 @@
+package protocols.dht.vivaldi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/**
+ * Vivaldi network coordinates (Dabek et al., SIGCOMM 2004) of one node. Every round-trip time
+ * measured to a peer whose coordinate is known pulls or pushes our coordinate along the line
+ * between both, weighted by how confident each side is; the node never sends anything itself,
+ * samples come from replies to messages the DHT already exchanges. The latest coordinates of
+ * peers (heard from them, or relayed by others) are cached to estimate latencies to them.
+ * Has no Babel dependencies, so that it can also run in the simulator.
+ */
+public class Vivaldi {
+
+	//Adaptive timestep and error weight constants of the paper
+	private static final double CC = 0.25;
+	private static final double CE = 0.25;
+	private static final double RTT_WEIGHT = 0.05;
+
+	private final Random r;
+	private final Map<Host, Coordinate> peers;
+	private Coordinate coordinate;
+	private double averageRtt;
+	private long samples;
+
+	public Vivaldi(int cacheSize, Random r) {
+		this.r = r;
+		this.peers = new LinkedHashMap<Host, Coordinate>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Host, Coordinate> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		this.coordinate = Coordinate.ORIGIN;
+		this.averageRtt = Double.NaN;
+		this.samples = 0;
+	}
+
+	public Coordinate getCoordinate() {
+		return coordinate;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	//Moving average of measured round-trip times, NaN before the first sample
+	public double getAverageRtt() {
+		return averageRtt;
+	}
+
+	//A round-trip time of rtt ms was measured to peer, whose coordinate is remote
+	public void observe(Host peer, Coordinate remote, double rtt) {
+		if (remote == null)
+			return;
+		if (peer != null)
+			peers.put(peer, remote);
+		if (rtt <= 0)
+			return;
+		samples++;
+		averageRtt = Double.isNaN(averageRtt) ? rtt : averageRtt + RTT_WEIGHT * (rtt - averageRtt);
+
+		Coordinate c = coordinate;
+		double dist = c.distanceTo(remote);
+		double errors = c.getError() + remote.getError();
+		double w = errors > 0 ? c.getError() / errors : 0.5;
+		double relative = Math.abs(dist - rtt) / rtt;
+		double error = Math.min(1, relative * CE * w + c.getError() * (1 - CE * w));
+		double force = CC * w * (rtt - dist);
+
+		//Unit vector from the remote coordinate to ours, heights included (they always add up)
+		double dx = c.getX() - remote.getX();
+		double dy = c.getY() - remote.getY();
+		double planar = Math.hypot(dx, dy);
+		if (planar == 0) {
+			//Same point: push away in a random direction
+			double angle = r.nextDouble() * 2 * Math.PI;
+			dx = Math.cos(angle);
+			dy = Math.sin(angle);
+			planar = 1;
+		}
+		double norm = planar + c.getHeight() + remote.getHeight();
+		coordinate = new Coordinate(c.getX() + force * dx / norm, c.getY() + force * dy / norm,
+				Math.max(Coordinate.MIN_HEIGHT, c.getHeight() + force * (c.getHeight() + remote.getHeight()) / norm), error);
+	}
+
+	//Coordinate of peer relayed by a third node: only used if we have not heard from peer itself
+	public void learn(Host peer, Coordinate remote) {
+		if (remote != null && !peers.containsKey(peer))
+			peers.put(peer, remote);
+	}
+
+	public void forget(Host peer) {
+		peers.remove(peer);
+	}
+
+	//Estimated round-trip time to peer in milliseconds, NaN if its coordinate is unknown
+	public double estimate(Host peer) {
+		Coordinate remote = peers.get(peer);
+		return remote == null ? Double.NaN : coordinate.distanceTo(remote);
+	}
+
+	public int knownPeers() {
+		return peers.size();
+	}
+}
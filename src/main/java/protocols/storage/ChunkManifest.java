@@ -0,0 +1,68 @@
+package protocols.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * What is stored under the name of a content that was split into chunks: its length and chunk
+ * size. Chunk i is stored as an ordinary content named {@link #chunkName}, so its id, and the
+ * owners it lands on, differ from those of the other chunks. Manifests start with a magic prefix
+ * that tells them apart from whole contents.
+ */
+public class ChunkManifest {
+
+	private static final byte[] MAGIC = "\0CHUNKS\0".getBytes(StandardCharsets.US_ASCII);
+	private static final int SIZE = MAGIC.length + Long.BYTES + Integer.BYTES;
+
+	private final long length;
+	private final int chunkSize;
+
+	public ChunkManifest(long length, int chunkSize) {
+		this.length = length;
+		this.chunkSize = chunkSize;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getChunks() {
+		return (int) ((length + chunkSize - 1) / chunkSize);
+	}
+
+	//Offset of chunk i in the content
+	public long offset(int i) {
+		return (long) i * chunkSize;
+	}
+
+	//Length of chunk i, the last one may be shorter
+	public int length(int i) {
+		return (int) Math.min(chunkSize, length - offset(i));
+	}
+
+	public static String chunkName(String name, int i) {
+		return name + "#chunk" + i;
+	}
+
+	public byte[] encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.put(MAGIC);
+		buffer.putLong(length);
+		buffer.putInt(chunkSize);
+		return buffer.array();
+	}
+
+	public static boolean isManifest(byte[] content) {
+		return content.length == SIZE && Arrays.equals(MAGIC, 0, MAGIC.length, content, 0, MAGIC.length);
+	}
+
+	public static ChunkManifest decode(byte[] content) {
+		ByteBuffer buffer = ByteBuffer.wrap(content, MAGIC.length, SIZE - MAGIC.length);
+		return new ChunkManifest(buffer.getLong(), buffer.getInt());
+	}
+}
@@ -0,0 +1,54 @@
+package protocols.storage;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the encoding and decoding throughput of {@link ReedSolomon}, in megabytes of content
+ * per second, decoding from the data fragments only and with the first m of them lost.
+ */
+public class ErasureBenchmark {
+
+	private static final long MIN_NANOS = 1_000_000_000L;
+
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err.println("Usage: java " + ErasureBenchmark.class.getCanonicalName()
+					+ " <data_fragments> <parity_fragments> <content_size>");
+			System.exit(1);
+		}
+		int k = Integer.parseInt(args[0]);
+		int m = Integer.parseInt(args[1]);
+		int contentSize = Integer.parseInt(args[2]);
+		ReedSolomon coder = new ReedSolomon(k, m);
+		byte[] content = new byte[contentSize];
+		new Random(0).nextBytes(content);
+
+		byte[][] fragments = coder.encode(content);
+		byte[][] lost = fragments.clone();
+		for (int i = 0; i < Math.min(m, k); i++)
+			lost[i] = null;
+		if (!Arrays.equals(content, coder.decode(fragments)) || !Arrays.equals(content, coder.decode(lost)))
+			throw new IllegalStateException("Decoded content differs from the original");
+
+		System.out.println("operation\tMBps");
+		//Twice, the first round warms up the JIT
+		for (int round = 0; round < 2; round++) {
+			System.out.println("encode\t" + throughput(contentSize, () -> coder.encode(content)));
+			System.out.println("decode_data\t" + throughput(contentSize, () -> coder.decode(fragments)));
+			System.out.println("decode_" + Math.min(m, k) + "_lost\t" + throughput(contentSize, () -> coder.decode(lost)));
+		}
+	}
+
+	private static String throughput(int contentSize, Runnable operation) {
+		long operations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			operation.run();
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MIN_NANOS);
+		return String.format("%.1f", operations * (double) contentSize / 1024 / 1024 / (elapsed / 1e9));
+	}
+}
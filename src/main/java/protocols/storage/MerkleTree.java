@@ -0,0 +1,139 @@
+package protocols.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import protocols.storage.store.SegmentIndex;
+import utils.RingId;
+
+/**
+ * Merkle tree over the names held by the local store, by key id (as in Dynamo's anti-entropy).
+ * Leaf i covers the key range of the ids whose first "depth" bits are i. Its hash is the XOR of
+ * the 64-bit hashes of the names in it, as Cassandra does for rows, so adding a name costs O(1)
+ * and no content is read: contents are immutable, so the same names mean the same data. Inner
+ * hashes are recomputed lazily. Nodes are numbered as in a binary heap: the root is 1, the
+ * children of n are 2n and 2n+1, and the leaves are 2^depth to 2^(depth+1)-1.
+ */
+public class MerkleTree {
+
+	private final int depth;
+	private final long[] hashes;
+	private final boolean[] stale;
+	//Names of each leaf, created on the first add
+	private final Set<String>[] names;
+	private int size;
+
+	@SuppressWarnings("unchecked")
+	public MerkleTree(int depth) {
+		if (depth < 1 || depth > 20)
+			throw new IllegalArgumentException("Merkle tree depth must be between 1 and 20");
+		this.depth = depth;
+		this.hashes = new long[2 << depth];
+		this.stale = new boolean[1 << depth];
+		this.names = new Set[1 << depth];
+		this.size = 0;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//The leaf node covering id
+	public int leafOf(RingId id) {
+		return (1 << depth) | (int) (id.getHi() >>> (64 - depth));
+	}
+
+	//The id in the middle of the key range of a leaf
+	public RingId middleOf(int leaf) {
+		long hi = ((long) (leaf - (1 << depth)) << (64 - depth)) | (1L << (63 - depth));
+		return new RingId(hi, 0, 0);
+	}
+
+	public boolean isLeaf(int node) {
+		return node >= 1 << depth;
+	}
+
+	//True if node is a valid node number of this tree
+	public boolean contains(int node) {
+		return node >= 1 && node < 2 << depth;
+	}
+
+	//Adds a name, returns false if it was already there
+	public boolean add(String name, RingId id) {
+		int leaf = leafOf(id);
+		Set<String> leafNames = names[leaf - (1 << depth)];
+		if (leafNames == null)
+			leafNames = names[leaf - (1 << depth)] = new HashSet<>(4);
+		if (!leafNames.add(name))
+			return false;
+		hashes[leaf] ^= SegmentIndex.hash(name);
+		for (int n = leaf >>> 1; n >= 1 && !stale[n]; n >>>= 1)
+			stale[n] = true;
+		size++;
+		return true;
+	}
+
+	public long hash(int node) {
+		if (!isLeaf(node) && stale[node]) {
+			hashes[node] = combine(hash(2 * node), hash(2 * node + 1));
+			stale[node] = false;
+		}
+		return hashes[node];
+	}
+
+	//Empty subtrees hash to 0, so that they match without being walked
+	private static long combine(long left, long right) {
+		if (left == 0 && right == 0)
+			return 0;
+		long h = left * 0x9E3779B97F4A7C15L + right;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	public Set<String> names(int leaf) {
+		Set<String> leafNames = names[leaf - (1 << depth)];
+		return leafNames == null ? Collections.emptySet() : leafNames;
+	}
+
+	//The first non-empty leaf at or after leaf, wrapping around, or -1 if the tree is empty
+	public int nextNonEmptyLeaf(int leaf) {
+		int leaves = 1 << depth;
+		int start = leaf < leaves ? 0 : (leaf - leaves) % leaves;
+		for (int i = 0; i < leaves; i++) {
+			int index = (start + i) % leaves;
+			if (names[index] != null && !names[index].isEmpty())
+				return leaves + index;
+		}
+		return -1;
+	}
+
+	/**
+	 * The fewest nodes whose leaves are exactly the given leaves (sorted, no duplicates): each
+	 * subtree all of whose leaves are listed is sent as a single hash.
+	 */
+	public List<Integer> cover(List<Integer> leaves) {
+		List<Integer> result = new ArrayList<>();
+		int i = 0;
+		while (i < leaves.size()) {
+			int node = leaves.get(i);
+			int span = 1;
+			//Climb while node is a left child and the leaves of its parent follow in the list
+			while (node > 1 && (node & 1) == 0 && i + 2 * span <= leaves.size()
+					&& leaves.get(i + 2 * span - 1) == leaves.get(i) + 2 * span - 1) {
+				node >>>= 1;
+				span *= 2;
+			}
+			result.add(node);
+			i += span;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,97 @@
+package protocols.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Bounded LRU cache from key id to the owners returned by the last LookupReply for it, so that
+ * repeated operations on hot keys can skip the DHT lookup. Entries are dropped when a fetch
+ * through them fails or when one of their hosts becomes unreachable.
+ */
+public class OwnerCache {
+
+	private final int capacity;
+	private final LinkedHashMap<RingId, List<Host>> entries;
+
+	private long hits;
+	private long misses;
+	private long invalidations;
+
+	public OwnerCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<RingId, List<Host>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RingId, List<Host>> eldest) {
+				return size() > OwnerCache.this.capacity;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+		this.invalidations = 0;
+	}
+
+	public boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	//The cached owners of id, or null on a miss
+	public List<Host> get(RingId id) {
+		if (capacity <= 0)
+			return null;
+		List<Host> owners = entries.get(id);
+		if (owners == null)
+			misses++;
+		else
+			hits++;
+		return owners;
+	}
+
+	public void put(RingId id, List<Host> owners) {
+		if (capacity > 0 && !owners.isEmpty())
+			entries.put(id, owners);
+	}
+
+	public void invalidate(RingId id) {
+		if (entries.remove(id) != null)
+			invalidations++;
+	}
+
+	//Drops every entry that routes through host
+	public void invalidate(Host host) {
+		Iterator<List<Host>> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().contains(host)) {
+				it.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+}
@@ -0,0 +1,228 @@
+package protocols.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): a content is cut into k data fragments, padded to the
+ * same size, and m parity fragments are added, such that any k of the k+m fragments give the
+ * content back. Parity rows form a Cauchy matrix, so every k x k submatrix of the encoding matrix
+ * is invertible. Each fragment carries a header with k, m, its index and the content length.
+ *
+ * Multiplication goes through a 64 KB table, one row per coefficient, so the inner loops are a
+ * lookup and a XOR per byte. Encoding allocates only the fragments; decoding copies the data
+ * fragments it has straight into the content and computes only the missing ones, with inverse
+ * matrices cached per set of fragments used. Instances are not thread-safe.
+ */
+public class ReedSolomon {
+
+	//k, m, index and the content length
+	public static final int HEADER = 3 + Integer.BYTES;
+	//Fragments per content, so that the fragments used fit a long mask
+	public static final int MAX_FRAGMENTS = 64;
+
+	private static final byte[] EXP = new byte[510];
+	private static final int[] LOG = new int[256];
+	private static final byte[][] MUL = new byte[256][256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = EXP[i + 255] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256)
+				x ^= 0x11d;
+		}
+		for (int a = 1; a < 256; a++)
+			for (int b = 1; b < 256; b++)
+				MUL[a][b] = EXP[LOG[a] + LOG[b]];
+	}
+
+	private final int dataFragments;
+	private final int parityFragments;
+	//parity[i][j]: coefficient of data fragment j in parity fragment i
+	private final byte[][] parity;
+	private final Map<Long, byte[][]> inverses;
+
+	public ReedSolomon(int dataFragments, int parityFragments) {
+		if (dataFragments < 1 || parityFragments < 0 || dataFragments + parityFragments > MAX_FRAGMENTS)
+			throw new IllegalArgumentException("Invalid erasure code: " + dataFragments + "+" + parityFragments);
+		this.dataFragments = dataFragments;
+		this.parityFragments = parityFragments;
+		this.parity = new byte[parityFragments][dataFragments];
+		for (int i = 0; i < parityFragments; i++)
+			for (int j = 0; j < dataFragments; j++)
+				parity[i][j] = inverse((dataFragments + i) ^ j);
+		this.inverses = new HashMap<>();
+	}
+
+	public int getDataFragments() {
+		return dataFragments;
+	}
+
+	public int getParityFragments() {
+		return parityFragments;
+	}
+
+	public int getFragments() {
+		return dataFragments + parityFragments;
+	}
+
+	private static byte inverse(int a) {
+		return EXP[255 - LOG[a]];
+	}
+
+	//dst[dstOff..+len) ^= c * src[srcOff..+len)
+	private static void mulAdd(byte c, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+		if (c == 0)
+			return;
+		if (c == 1) {
+			for (int p = 0; p < len; p++)
+				dst[dstOff + p] ^= src[srcOff + p];
+			return;
+		}
+		byte[] row = MUL[c & 0xff];
+		for (int p = 0; p < len; p++)
+			dst[dstOff + p] ^= row[src[srcOff + p] & 0xff];
+	}
+
+	//Index of a fragment, or -1 if it is not one of this code
+	public int indexOf(byte[] fragment) {
+		if (fragment.length < HEADER || fragment[0] != dataFragments || fragment[1] != parityFragments)
+			return -1;
+		int index = fragment[2] & 0xff;
+		return index < getFragments() ? index : -1;
+	}
+
+	//Same, reading the header of a stored fragment in place
+	public int indexOf(ByteBuffer fragment) {
+		int p = fragment.position();
+		if (fragment.remaining() < HEADER || fragment.get(p) != dataFragments || fragment.get(p + 1) != parityFragments)
+			return -1;
+		int index = fragment.get(p + 2) & 0xff;
+		return index < getFragments() ? index : -1;
+	}
+
+	//Length of the content a fragment belongs to
+	public static int contentLength(byte[] fragment) {
+		return ByteBuffer.wrap(fragment, 3, Integer.BYTES).getInt();
+	}
+
+	public byte[][] encode(byte[] content) {
+		int size = (content.length + dataFragments - 1) / dataFragments;
+		byte[][] fragments = new byte[getFragments()][];
+		for (int i = 0; i < fragments.length; i++) {
+			byte[] fragment = new byte[HEADER + size];
+			ByteBuffer.wrap(fragment).put((byte) dataFragments).put((byte) parityFragments).put((byte) i).putInt(content.length);
+			fragments[i] = fragment;
+		}
+		for (int j = 0; j < dataFragments; j++) {
+			int offset = j * size;
+			if (offset < content.length)
+				System.arraycopy(content, offset, fragments[j], HEADER, Math.min(size, content.length - offset));
+		}
+		for (int i = 0; i < parityFragments; i++)
+			for (int j = 0; j < dataFragments; j++)
+				mulAdd(parity[i][j], fragments[j], HEADER, fragments[dataFragments + i], HEADER, size);
+		return fragments;
+	}
+
+	//Fragment index of content alone, as encode would produce it, e.g. to rebuild a lost one
+	public byte[] encode(byte[] content, int index) {
+		int size = (content.length + dataFragments - 1) / dataFragments;
+		byte[] fragment = new byte[HEADER + size];
+		ByteBuffer.wrap(fragment).put((byte) dataFragments).put((byte) parityFragments).put((byte) index).putInt(content.length);
+		for (int j = 0; j < dataFragments; j++) {
+			int offset = j * size;
+			int len = Math.min(size, content.length - offset);
+			if (len <= 0)
+				break;
+			//Padding is zero, so it adds nothing to a parity fragment
+			if (index >= dataFragments)
+				mulAdd(parity[index - dataFragments][j], content, offset, fragment, HEADER, len);
+			else if (j == index)
+				System.arraycopy(content, offset, fragment, HEADER, len);
+		}
+		return fragment;
+	}
+
+	/**
+	 * The content of the given fragments, indexed by their index, with null for the missing ones.
+	 * At least k of them must be present, and all of the same content.
+	 */
+	public byte[] decode(byte[][] fragments) {
+		int[] used = new int[dataFragments];
+		long mask = 0;
+		int count = 0;
+		for (int i = 0; i < fragments.length && count < dataFragments; i++) {
+			if (fragments[i] != null) {
+				used[count++] = i;
+				mask |= 1L << i;
+			}
+		}
+		if (count < dataFragments)
+			throw new IllegalArgumentException("Need " + dataFragments + " fragments, got " + count);
+		int length = contentLength(fragments[used[0]]);
+		int size = fragments[used[0]].length - HEADER;
+		byte[] content = new byte[length];
+		byte[][] decoding = null;
+		for (int j = 0; j < dataFragments; j++) {
+			int offset = j * size;
+			int len = Math.min(size, length - offset);
+			if (len <= 0)
+				break;
+			if (fragments[j] != null) {
+				System.arraycopy(fragments[j], HEADER, content, offset, len);
+				continue;
+			}
+			if (decoding == null)
+				decoding = inverses.computeIfAbsent(mask, k -> invert(used));
+			for (int t = 0; t < dataFragments; t++)
+				mulAdd(decoding[j][t], fragments[used[t]], HEADER, content, offset, len);
+		}
+		return content;
+	}
+
+	//Inverse of the rows of the encoding matrix of the used fragments, by Gauss-Jordan elimination
+	private byte[][] invert(int[] used) {
+		int k = dataFragments;
+		byte[][] a = new byte[k][];
+		byte[][] inv = new byte[k][k];
+		for (int r = 0; r < k; r++) {
+			a[r] = new byte[k];
+			if (used[r] < k)
+				a[r][used[r]] = 1;
+			else
+				System.arraycopy(parity[used[r] - k], 0, a[r], 0, k);
+			inv[r][r] = 1;
+		}
+		for (int c = 0; c < k; c++) {
+			int pivot = c;
+			while (a[pivot][c] == 0)
+				pivot++;
+			byte[] t = a[pivot];
+			a[pivot] = a[c];
+			a[c] = t;
+			t = inv[pivot];
+			inv[pivot] = inv[c];
+			inv[c] = t;
+			byte scale = inverse(a[c][c] & 0xff);
+			for (int j = 0; j < k; j++) {
+				a[c][j] = MUL[scale & 0xff][a[c][j] & 0xff];
+				inv[c][j] = MUL[scale & 0xff][inv[c][j] & 0xff];
+			}
+			for (int r = 0; r < k; r++) {
+				byte f = a[r][c];
+				if (r == c || f == 0)
+					continue;
+				for (int j = 0; j < k; j++) {
+					a[r][j] ^= MUL[f & 0xff][a[c][j] & 0xff];
+					inv[r][j] ^= MUL[f & 0xff][inv[c][j] & 0xff];
+				}
+			}
+		}
+		return inv;
+	}
+}
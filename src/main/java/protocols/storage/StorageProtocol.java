@@ -0,0 +1,1844 @@
+package protocols.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import channel.notifications.ChannelCreated;
+import protocols.dht.replies.LookupReply;
+import protocols.dht.requests.LookupRequest;
+import protocols.storage.messages.KeyListMessage;
+import protocols.storage.messages.MerkleDigestMessage;
+import protocols.storage.messages.MultiRetrieveMessage;
+import protocols.storage.messages.MultiRetrieveResponseMessage;
+import protocols.storage.messages.MultiStoreAckMessage;
+import protocols.storage.messages.MultiStoreMessage;
+import protocols.storage.messages.RetrieveMessage;
+import protocols.storage.messages.RetrieveResponseMessage;
+import protocols.storage.messages.StoreAckMessage;
+import protocols.storage.messages.StoreMessage;
+import protocols.storage.messages.TransferAckMessage;
+import protocols.storage.messages.TransferMessage;
+import protocols.storage.replies.MultiRetrieveReply;
+import protocols.storage.replies.MultiStoreReply;
+import protocols.storage.replies.RetrieveFailedReply;
+import protocols.storage.replies.RetrieveOKReply;
+import protocols.storage.replies.StoreFailedReply;
+import protocols.storage.replies.StoreOKReply;
+import protocols.storage.requests.MultiRetrieveRequest;
+import protocols.storage.requests.MultiStoreRequest;
+import protocols.storage.requests.RetrieveRequest;
+import protocols.storage.requests.StoreRequest;
+import protocols.storage.store.ContentStore;
+import protocols.storage.store.HeapContentStore;
+import protocols.storage.store.LogContentStore;
+import protocols.storage.store.OffHeapContentStore;
+import protocols.storage.timers.HedgeTimer;
+import protocols.storage.timers.MaintenanceTimer;
+import protocols.storage.timers.OperationTimeoutTimer;
+import protocols.storage.timers.RepairTimer;
+import protocols.storage.timers.StatsTimer;
+import protocols.storage.timers.SyncTimer;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionDown;
+import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.AtomicHistogram;
+import utils.FailureDetector;
+import utils.HashGenerator;
+import utils.MetricsRegistry;
+import utils.RingId;
+import utils.RttWindow;
+import utils.TraceBuffer;
+import utils.Tracer;
+
+/**
+ * Replicated storage on top of the DHT. The owners of a content are the first
+ * "storage_replication" (N) peers of the LookupReply for the hash of its name. A store is
+ * acknowledged to the application after "storage_write_quorum" (W) replicas hold it, and a
+ * retrieve succeeds after "storage_read_quorum" (R) replicas answered and at least one of
+ * them had the content. Contents are immutable, so any copy found is the right one.
+ *
+ * With "storage_hedging" enabled, retrieves first contact only R replicas; if no answer
+ * arrives within the hedge delay (fixed, or a percentile of recently observed RTTs) a
+ * duplicate request goes to the next replica of the LookupReply, up to "storage_hedge_max"
+ * times. The first copy to arrive wins and later answers are ignored.
+ *
+ * Owners returned by the DHT are kept in an {@link OwnerCache} ("storage_owner_cache_size"
+ * entries), so repeated operations on the same key go straight to its replicas.
+ *
+ * Concurrent operations on the same key id are coalesced: a retrieve for a key that is already
+ * being retrieved piggy-backs on the pending one, and operations that need the owners of a key
+ * share a single in-flight LookupRequest. Each request is still answered with its own UUID.
+ *
+ * Retrieves contact the replicas the {@link FailureDetector} suspects last, and wait for each
+ * replica only as long as its adaptive timeout: a replica that exceeds it is suspected and the
+ * retrieve is rerouted to the next one, well before "storage_request_timeout" ends the attempt.
+ *
+ * Replicas keep their contents in the {@link ContentStore} selected by "storage_content_store":
+ * "heap" (a map of arrays), "direct" (off-heap buffers) or "mmap" (memory-mapped segment files
+ * under "storage_data_dir") are volatile; "log" is a durable append-only log. With a durable store,
+ * StoreAcks are held back until the next group commit, which syncs every
+ * "storage_log_sync_interval" milliseconds or as soon as "storage_log_sync_batch" acks are waiting.
+ *
+ * Anti-entropy keeps replicas converged across joins and leaves. Every "storage_repair_interval"
+ * milliseconds up to "storage_repair_leaves" non-empty leaves of the local {@link MerkleTree} are
+ * looked up, and the leaves that share a replica are compared with it as one digest, walking down
+ * only where the hashes differ. The contents missing on either side of a divergent leaf are then
+ * streamed in chunks of "storage_repair_chunk_bytes", at most "storage_repair_window" unacked
+ * chunks per peer. A node that is no longer a replica of a leaf hands its contents off to the
+ * current replicas. Replicas are looked up at the middle of each leaf, so a leaf split by an
+ * ownership boundary is compared with replicas that do not own all of its names: each name is
+ * checked against the owners of its own id before it is pushed, and the default depth keeps such
+ * leaves few (see {@link #repairDepth}). When a full sweep of the leaves finds nothing to repair after a divergence,
+ * the time it took to converge and the data moved are logged.
+ *
+ * Contents larger than "storage_chunk_size" are split into chunks, each stored as a content of its
+ * own named by {@link ChunkManifest#chunkName}, so the chunks of a content land on different
+ * owners. Up to "storage_chunk_parallelism" chunks are stored or retrieved at once, and the
+ * {@link ChunkManifest} is stored under the name of the content only after every chunk is, so a
+ * retrieve that finds it can fetch all the chunks and reassemble the content.
+ *
+ * With "storage_erasure_data_fragments" (k) set, contents are not replicated whole but split by a
+ * {@link ReedSolomon} code into k data and "storage_erasure_parity_fragments" (m) parity
+ * fragments, one per owner among the first k+m. Stores complete after
+ * "storage_erasure_write_quorum" fragments are stored, and retrieves as soon as any k fragments
+ * arrived, so m owners may fail as with m+1 replicas, at (k+m)/k times the size of the content.
+ * Repair keeps that tolerance across churn: an owner missing a name is sent the fragment of its
+ * own index, which a node holding another index rebuilds by retrieving the content from any k
+ * fragments and re-encoding, so that no two owners end up with the same fragment.
+ *
+ * A {@link MultiStoreRequest} or {@link MultiRetrieveRequest} looks up the owners of all of its
+ * keys at once, then sends each owner a single message with all the keys it is asked for, and is
+ * answered with one reply holding the result of every key. Keys the batch does not complete when
+ * all owners answered, or within "storage_request_timeout", go on as single-key operations, with
+ * their retries, so batching never makes a key fail that would otherwise succeed.
+ */
+public class StorageProtocol extends GenericProtocol {
+	private static final Logger logger = LogManager.getLogger(StorageProtocol.class);
+
+	//Protocol information, to register in babel
+	public static final String PROTO_NAME = "StorageProtocol";
+	public static final short PROTO_ID = 200;
+
+	private final Host self;
+	private final short dhtProtoId;
+
+	private final int replication;
+	private final int writeQuorum;
+	private final int readQuorum;
+	//Erasure code of the contents, null when they are replicated whole
+	private final ReedSolomon erasure;
+	private final int requestTimeout;
+	private final int maxRetries;
+	private final int statsInterval;
+
+	private final boolean hedging;
+	private final int hedgeMax;
+	//Fixed hedge delay, or -1 when derived from the RTT percentile
+	private final long hedgeDelay;
+	private final long hedgeInitialDelay;
+	private final RttWindow rtts;
+	private final OwnerCache ownerCache;
+	private final FailureDetector detector;
+
+	private int channelId;
+	private boolean channelReady;
+	private final Set<Host> connections;
+	//Requests that arrived before the DHT channel was created
+	private final List<Operation> waiting;
+	private final Map<UUID, Operation> operations;
+	//In-flight retrieves by key id, which later retrieves of the same key piggy-back on
+	private final Map<RingId, Operation> retrievesInFlight;
+	//In-flight lookups, by key id and by the UUID of their LookupRequest
+	private final Map<RingId, LookupGroup> lookupsById;
+	private final Map<UUID, LookupGroup> lookupsByUid;
+	private final Map<UUID, Batch> batches;
+	private final ContentStore store;
+	private final int syncInterval;
+	private final int syncBatch;
+	private final int maintenanceInterval;
+	//Acks waiting for the next group commit of a durable store
+	private final List<Host> pendingAckHosts;
+	private final List<ProtoMessage> pendingAcks;
+
+	private final MerkleTree merkle;
+	private final int repairInterval;
+	private final int repairLeaves;
+	private final int transferChunkBytes;
+	private final int transferWindow;
+	//Repair lookups in flight, with the Merkle leaf each one asks the replicas of
+	private final Map<UUID, Integer> repairLookups;
+	//Owner lookups of names a sweep would push, by lookup UUID
+	private final Map<UUID, Push> pushLookups;
+	//Leaves of the current repair round by the replica to compare them with, and to hand off
+	private final Map<Host, List<Integer>> repairPeers;
+	private final Map<Host, List<Integer>> handoffPeers;
+	private final Map<Host, Transfer> transfers;
+	private int repairCursor = 0;
+	private boolean sweepDivergent = false;
+	//Start of the divergence being repaired (-1 if converged), and of the latest repair work
+	private long divergenceStart = -1;
+	private long lastRepair = 0;
+	private long[] divergenceBaseline = new long[4];
+
+	private final int chunkSize;
+	private final int chunkParallelism;
+
+	//Variables related with measurement
+	private long storesCompleted = 0;
+	private long storesFailed = 0;
+	private long retrievesCompleted = 0;
+	private long retrievesFailed = 0;
+	//Exported through the MetricsRegistry
+	private final TraceBuffer trace = Tracer.buffer(PROTO_ID);
+	private final AtomicHistogram replicaRttMetric = MetricsRegistry.global().histogram("storage.replica_rtt_ms");
+	private final AtomicHistogram convergenceMetric = MetricsRegistry.global().histogram("storage.repair.convergence_ms");
+	private final MetricsRegistry.Counter divergentLeaves = MetricsRegistry.global().counter("storage.repair.divergent_leaves");
+	private final MetricsRegistry.Counter repairSent = MetricsRegistry.global().counter("storage.repair.sent_contents");
+	private final MetricsRegistry.Counter repairSentBytes = MetricsRegistry.global().counter("storage.repair.sent_bytes");
+	private final MetricsRegistry.Counter repairReceived = MetricsRegistry.global().counter("storage.repair.received_contents");
+	private final MetricsRegistry.Counter repairReceivedBytes = MetricsRegistry.global().counter("storage.repair.received_bytes");
+	private final MetricsRegistry.Counter repairNotOwned = MetricsRegistry.global().counter("storage.repair.not_owned");
+	private final MetricsRegistry.Counter repairRebuilt = MetricsRegistry.global().counter("storage.repair.rebuilt_fragments");
+	private final MetricsRegistry.Counter chunksStored = MetricsRegistry.global().counter("storage.chunks.stored");
+	private final MetricsRegistry.Counter chunksRetrieved = MetricsRegistry.global().counter("storage.chunks.retrieved");
+	private final MetricsRegistry.Counter chunkedFailures = MetricsRegistry.global().counter("storage.chunks.failed_contents");
+	private final MetricsRegistry.Counter batchesCompleted = MetricsRegistry.global().counter("storage.batch.completed");
+	private final MetricsRegistry.Counter batchKeys = MetricsRegistry.global().counter("storage.batch.keys");
+	private final MetricsRegistry.Counter batchMessages = MetricsRegistry.global().counter("storage.batch.messages");
+	private final MetricsRegistry.Counter batchFallbacks = MetricsRegistry.global().counter("storage.batch.fallbacks");
+	private long hedgesFired = 0;
+	private long hedgesWon = 0;
+	private long reroutes = 0;
+	private long coalescedRetrieves = 0;
+	private long coalescedLookups = 0;
+	private long syncs = 0;
+	private long syncedAcks = 0;
+	private long storedBytes = 0;
+	private long lastStatsTime = System.currentTimeMillis();
+	private long lastStoredBytes = 0;
+
+	public StorageProtocol(Host self, Properties props, short dhtProtoId) throws HandlerRegistrationException, IOException {
+		super(PROTO_NAME, PROTO_ID);
+		this.self = self;
+		this.dhtProtoId = dhtProtoId;
+
+		int dataFragments = Integer.parseInt(props.getProperty("storage_erasure_data_fragments", "-1"));
+		if (dataFragments > 0) {
+			//Each owner keeps one fragment, and reads need any k of them
+			this.erasure = new ReedSolomon(dataFragments,
+					Integer.parseInt(props.getProperty("storage_erasure_parity_fragments", "2")));
+			this.replication = erasure.getFragments();
+			this.writeQuorum = Integer.parseInt(props.getProperty("storage_erasure_write_quorum",
+					Integer.toString(Math.min(dataFragments + 1, replication))));
+			this.readQuorum = dataFragments;
+			if (writeQuorum < dataFragments)
+				throw new IllegalArgumentException("storage_erasure_write_quorum must be at least storage_erasure_data_fragments");
+		} else {
+			this.erasure = null;
+			this.replication = Integer.parseInt(props.getProperty("storage_replication", "3"));
+			this.writeQuorum = Integer.parseInt(props.getProperty("storage_write_quorum", "2"));
+			this.readQuorum = Integer.parseInt(props.getProperty("storage_read_quorum", "1"));
+		}
+		this.requestTimeout = Integer.parseInt(props.getProperty("storage_request_timeout", "5000")); //in milliseconds
+		this.maxRetries = Integer.parseInt(props.getProperty("storage_max_retries", "3"));
+		this.statsInterval = Integer.parseInt(props.getProperty("storage_stats_interval", "-1")); //in milliseconds
+
+		this.hedging = Boolean.parseBoolean(props.getProperty("storage_hedging", "false"));
+		this.hedgeMax = Integer.parseInt(props.getProperty("storage_hedge_max", "1"));
+		//Either a delay in milliseconds or a percentile of observed RTTs, such as "p95"
+		String delay = props.getProperty("storage_hedge_delay", "p95");
+		if (delay.startsWith("p")) {
+			this.hedgeDelay = -1;
+			this.rtts = new RttWindow(256, Double.parseDouble(delay.substring(1)));
+		} else {
+			this.hedgeDelay = Long.parseLong(delay);
+			this.rtts = null;
+		}
+		this.hedgeInitialDelay = Long.parseLong(props.getProperty("storage_hedge_initial_delay", "250")); //in milliseconds
+		this.ownerCache = new OwnerCache(Integer.parseInt(props.getProperty("storage_owner_cache_size", "1024")));
+		this.detector = FailureDetector.global();
+		if (writeQuorum > replication || readQuorum > replication)
+			throw new IllegalArgumentException("Quorums must not exceed storage_replication");
+
+		this.channelReady = false;
+		this.connections = new HashSet<>();
+		this.waiting = new ArrayList<>();
+		this.operations = new HashMap<>();
+		this.retrievesInFlight = new HashMap<>();
+		this.lookupsById = new HashMap<>();
+		this.lookupsByUid = new HashMap<>();
+		this.batches = new HashMap<>();
+		this.store = createStore(self, props);
+		MetricsRegistry.global().gauge("storage.store.contents", store::size);
+		MetricsRegistry.global().gauge("storage.store.bytes", store::bytes);
+		MetricsRegistry.global().gauge("storage.pending_operations", operations::size);
+		MetricsRegistry.global().gauge("storage.stores_completed", () -> storesCompleted);
+		MetricsRegistry.global().gauge("storage.stores_failed", () -> storesFailed);
+		MetricsRegistry.global().gauge("storage.retrieves_completed", () -> retrievesCompleted);
+		MetricsRegistry.global().gauge("storage.retrieves_failed", () -> retrievesFailed);
+		this.syncInterval = Integer.parseInt(props.getProperty("storage_log_sync_interval", "5")); //in milliseconds
+		this.syncBatch = Integer.parseInt(props.getProperty("storage_log_sync_batch", "64"));
+		this.maintenanceInterval = Integer.parseInt(props.getProperty("storage_log_maintenance_interval", "1000")); //in milliseconds
+		this.pendingAckHosts = new ArrayList<>();
+		this.pendingAcks = new ArrayList<>();
+
+		this.merkle = new MerkleTree(repairDepth(props));
+		this.repairInterval = Integer.parseInt(props.getProperty("storage_repair_interval", "5000")); //in milliseconds
+		this.repairLeaves = Integer.parseInt(props.getProperty("storage_repair_leaves", "64"));
+		this.transferChunkBytes = Integer.parseInt(props.getProperty("storage_repair_chunk_bytes", "262144"));
+		this.transferWindow = Integer.parseInt(props.getProperty("storage_repair_window", "4"));
+		this.repairLookups = new HashMap<>();
+		this.pushLookups = new HashMap<>();
+		this.repairPeers = new HashMap<>();
+		this.handoffPeers = new HashMap<>();
+		this.transfers = new HashMap<>();
+		//Contents recovered by a durable store are already ours to repair
+		store.forEachName(name -> merkle.add(name, HashGenerator.generateRingId(name)));
+		MetricsRegistry.global().gauge("storage.repair.transfers", transfers::size);
+
+		this.chunkSize = Integer.parseInt(props.getProperty("storage_chunk_size", "1048576")); //in bytes
+		this.chunkParallelism = Integer.parseInt(props.getProperty("storage_chunk_parallelism", "8"));
+		if (chunkSize > 0 && chunkParallelism < 1)
+			throw new IllegalArgumentException("storage_chunk_parallelism must be at least 1");
+
+		/*--------------------- Register Request Handlers ----------------------------- */
+		registerRequestHandler(StoreRequest.REQUEST_ID, this::uponStoreRequest);
+		registerRequestHandler(RetrieveRequest.REQUEST_ID, this::uponRetrieveRequest);
+		registerRequestHandler(MultiStoreRequest.REQUEST_ID, this::uponMultiStoreRequest);
+		registerRequestHandler(MultiRetrieveRequest.REQUEST_ID, this::uponMultiRetrieveRequest);
+
+		/*--------------------- Register Reply Handlers ----------------------------- */
+		registerReplyHandler(LookupReply.REPLY_ID, this::uponLookupReply);
+
+		/*--------------------- Register Timer Handlers ----------------------------- */
+		registerTimerHandler(OperationTimeoutTimer.TIMER_ID, this::uponOperationTimeout);
+		registerTimerHandler(HedgeTimer.TIMER_ID, this::uponHedgeTimer);
+		registerTimerHandler(StatsTimer.TIMER_ID, this::uponStatsTimer);
+		registerTimerHandler(SyncTimer.TIMER_ID, this::uponSyncTimer);
+		registerTimerHandler(MaintenanceTimer.TIMER_ID, this::uponMaintenanceTimer);
+		registerTimerHandler(RepairTimer.TIMER_ID, this::uponRepairTimer);
+
+		/*--------------------- Register Notification Handlers ----------------------------- */
+		subscribeNotification(ChannelCreated.NOTIFICATION_ID, this::uponChannelCreated);
+	}
+
+	/**
+	 * A leaf is looked up by its middle id, so its names are only compared with their own replicas
+	 * while no ownership boundary falls inside it. Unless set, the depth gives about 16 leaves per
+	 * ring position (total_processes times dht_virtual_nodes), so that few leaves are split.
+	 */
+	private static int repairDepth(Properties props) {
+		int depth = Integer.parseInt(props.getProperty("storage_repair_depth", "-1"));
+		if (depth > 0)
+			return depth;
+		long positions = Long.parseLong(props.getProperty("total_processes", "1"))
+				* Math.max(1, Long.parseLong(props.getProperty("dht_virtual_nodes", "1")));
+		return Math.max(1, Math.min(20, 64 - Long.numberOfLeadingZeros(positions * 16 - 1)));
+	}
+
+	private static ContentStore createStore(Host self, Properties props) throws IOException {
+		String type = props.getProperty("storage_content_store", "heap");
+		int segmentSize = Integer.parseInt(props.getProperty("storage_segment_size", "67108864")); //in bytes
+		int expected = Integer.parseInt(props.getProperty("content_number", "20"))
+				* Integer.parseInt(props.getProperty("total_processes", "1"));
+		String prefix = "store-" + self.getAddress().getHostAddress() + "-" + self.getPort();
+		switch (type) {
+			case "heap":
+				return new HeapContentStore();
+			case "direct":
+				return new OffHeapContentStore(null, prefix, segmentSize, expected);
+			case "mmap":
+				return new OffHeapContentStore(new File(props.getProperty("storage_data_dir", "data")), prefix, segmentSize, expected);
+			case "log":
+				return new LogContentStore(new File(props.getProperty("storage_data_dir", "data"), prefix), segmentSize,
+						Long.parseLong(props.getProperty("storage_log_checkpoint_bytes", "16777216")),
+						Double.parseDouble(props.getProperty("storage_log_compaction_threshold", "0.5")), expected);
+			default:
+				throw new IllegalArgumentException("Unknown storage_content_store: " + type);
+		}
+	}
+
+	@Override
+	public void init(Properties props) {
+		//Nothing else to do here, we wait for the DHT to create the channel
+		if (statsInterval > 0)
+			setupPeriodicTimer(new StatsTimer(), statsInterval, statsInterval);
+		if (store.isDurable()) {
+			setupPeriodicTimer(new SyncTimer(), syncInterval, syncInterval);
+			setupPeriodicTimer(new MaintenanceTimer(), maintenanceInterval, maintenanceInterval);
+		}
+		if (repairInterval > 0)
+			setupPeriodicTimer(new RepairTimer(), repairInterval, repairInterval);
+		//The application exits the process, so the final statistics are logged on shutdown
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+	}
+
+	private void uponChannelCreated(ChannelCreated notification, short sourceProto) {
+		channelId = notification.getChannelId();
+		registerSharedChannel(channelId);
+
+		/*---------------------- Register Message Serializers ---------------------- */
+		registerMessageSerializer(channelId, StoreMessage.MSG_ID, MetricsRegistry.global().counting("msg.StoreMessage", StoreMessage.serializer));
+		registerMessageSerializer(channelId, StoreAckMessage.MSG_ID, MetricsRegistry.global().counting("msg.StoreAckMessage", StoreAckMessage.serializer));
+		registerMessageSerializer(channelId, RetrieveMessage.MSG_ID, MetricsRegistry.global().counting("msg.RetrieveMessage", RetrieveMessage.serializer));
+		registerMessageSerializer(channelId, RetrieveResponseMessage.MSG_ID, MetricsRegistry.global().counting("msg.RetrieveResponseMessage", RetrieveResponseMessage.serializer));
+		registerMessageSerializer(channelId, MerkleDigestMessage.MSG_ID, MetricsRegistry.global().counting("msg.MerkleDigestMessage", MerkleDigestMessage.serializer));
+		registerMessageSerializer(channelId, KeyListMessage.MSG_ID, MetricsRegistry.global().counting("msg.KeyListMessage", KeyListMessage.serializer));
+		registerMessageSerializer(channelId, TransferMessage.MSG_ID, MetricsRegistry.global().counting("msg.TransferMessage", TransferMessage.serializer));
+		registerMessageSerializer(channelId, TransferAckMessage.MSG_ID, MetricsRegistry.global().counting("msg.TransferAckMessage", TransferAckMessage.serializer));
+		registerMessageSerializer(channelId, MultiStoreMessage.MSG_ID, MetricsRegistry.global().counting("msg.MultiStoreMessage", MultiStoreMessage.serializer));
+		registerMessageSerializer(channelId, MultiStoreAckMessage.MSG_ID, MetricsRegistry.global().counting("msg.MultiStoreAckMessage", MultiStoreAckMessage.serializer));
+		registerMessageSerializer(channelId, MultiRetrieveMessage.MSG_ID, MetricsRegistry.global().counting("msg.MultiRetrieveMessage", MultiRetrieveMessage.serializer));
+		registerMessageSerializer(channelId, MultiRetrieveResponseMessage.MSG_ID, MetricsRegistry.global().counting("msg.MultiRetrieveResponseMessage", MultiRetrieveResponseMessage.serializer));
+
+		try {
+			/*---------------------- Register Message Handlers -------------------------- */
+			registerMessageHandler(channelId, StoreMessage.MSG_ID, this::uponStoreMessage, this::uponMsgFail);
+			registerMessageHandler(channelId, StoreAckMessage.MSG_ID, this::uponStoreAck, this::uponMsgFail);
+			registerMessageHandler(channelId, RetrieveMessage.MSG_ID, this::uponRetrieveMessage, this::uponMsgFail);
+			registerMessageHandler(channelId, RetrieveResponseMessage.MSG_ID, this::uponRetrieveResponse, this::uponMsgFail);
+			registerMessageHandler(channelId, MerkleDigestMessage.MSG_ID, this::uponMerkleDigest, this::uponMsgFail);
+			registerMessageHandler(channelId, KeyListMessage.MSG_ID, this::uponKeyList, this::uponMsgFail);
+			registerMessageHandler(channelId, TransferMessage.MSG_ID, this::uponTransfer, this::uponMsgFail);
+			registerMessageHandler(channelId, TransferAckMessage.MSG_ID, this::uponTransferAck, this::uponMsgFail);
+			registerMessageHandler(channelId, MultiStoreMessage.MSG_ID, this::uponMultiStoreMessage, this::uponMsgFail);
+			registerMessageHandler(channelId, MultiStoreAckMessage.MSG_ID, this::uponMultiStoreAck, this::uponMsgFail);
+			registerMessageHandler(channelId, MultiRetrieveMessage.MSG_ID, this::uponMultiRetrieveMessage, this::uponMsgFail);
+			registerMessageHandler(channelId, MultiRetrieveResponseMessage.MSG_ID, this::uponMultiRetrieveResponse, this::uponMsgFail);
+
+			/*--------------------- Register Channel Events ------------------------------- */
+			registerChannelEventHandler(channelId, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+			registerChannelEventHandler(channelId, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		} catch (HandlerRegistrationException e) {
+			logger.error("Error registering message handler: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		channelReady = true;
+		for (Operation op : waiting)
+			lookup(op);
+		waiting.clear();
+	}
+
+	/*--------------------------------- Requests ---------------------------------------- */
+
+	private void uponStoreRequest(StoreRequest request, short sourceProto) {
+		startStore(new Operation(request.getRequestUID(), request.getName(), true, sourceProto), request.getContent());
+	}
+
+	private void startStore(Operation op, byte[] content) {
+		if (chunkSize > 0 && content.length > chunkSize) {
+			//The manifest is stored, with the operation's UUID, once every chunk is
+			ChunkManifest manifest = new ChunkManifest(content.length, chunkSize);
+			op.content = manifest.encode();
+			issueChunks(new Chunked(op, manifest, content));
+			return;
+		}
+		op.content = content;
+		start(op);
+	}
+
+	private void uponRetrieveRequest(RetrieveRequest request, short sourceProto) {
+		Operation op = new Operation(request.getRequestUID(), request.getName(), false, sourceProto);
+		Operation inFlight = retrievesInFlight.get(op.id);
+		if (inFlight != null && inFlight.name.equals(op.name)) {
+			inFlight.followers.add(op);
+			coalescedRetrieves++;
+			return;
+		}
+		retrievesInFlight.put(op.id, op);
+		start(op);
+	}
+
+	private void start(Operation op) {
+		operations.put(op.uid, op);
+		op.attemptStart = System.currentTimeMillis();
+		op.timer = setupTimer(new OperationTimeoutTimer(op.uid), requestTimeout);
+		if (channelReady)
+			lookup(op);
+		else
+			waiting.add(op);
+	}
+
+	private void lookup(Operation op) {
+		List<Host> cached = ownerCache.get(op.id);
+		if (cached != null) {
+			op.fromCache = true;
+			dispatch(op, cached);
+		} else {
+			op.fromCache = false;
+			LookupGroup group = lookupsById.get(op.id);
+			if (isPending(group)) {
+				if (!group.operations.contains(op)) {
+					group.operations.add(op);
+					coalescedLookups++;
+					trace.record(Tracer.LOOKUP_ISSUED, 1, op.uid, group.uid);
+				}
+				return;
+			}
+			group = newLookup(op.id);
+			group.operations.add(op);
+			trace.record(Tracer.LOOKUP_ISSUED, 0, op.uid, group.uid);
+		}
+	}
+
+	//A lookup pending for longer than an operation may wait is presumed lost
+	private boolean isPending(LookupGroup group) {
+		return group != null && System.currentTimeMillis() - group.startTime < requestTimeout;
+	}
+
+	private LookupGroup newLookup(RingId id) {
+		LookupGroup group = lookupsById.get(id);
+		if (group != null)
+			lookupsByUid.remove(group.uid);
+		group = new LookupGroup(id);
+		lookupsById.put(id, group);
+		lookupsByUid.put(group.uid, group);
+		sendRequest(new LookupRequest(id, group.uid), dhtProtoId);
+		return group;
+	}
+
+	private void uponLookupReply(LookupReply reply, short sourceProto) {
+		Integer leaf = repairLookups.remove(reply.getRequestUID());
+		if (leaf != null) {
+			repairReplicas(leaf, reply);
+			return;
+		}
+		Push push = pushLookups.remove(reply.getRequestUID());
+		if (push != null) {
+			pushOwned(push, reply);
+			return;
+		}
+		LookupGroup group = lookupsByUid.remove(reply.getRequestUID());
+		if (group == null)
+			return;
+		lookupsById.remove(group.id, group);
+		List<Host> replicas = new ArrayList<>(replication);
+		Iterator<Host> it = reply.getPeerIterator();
+		while (it.hasNext() && replicas.size() < replication)
+			replicas.add(it.next());
+		if (!replicas.isEmpty())
+			ownerCache.put(group.id, replicas);
+		for (Operation op : group.operations) {
+			if (operations.get(op.uid) != op || op.replicas != null)
+				continue;
+			if (replicas.isEmpty()) {
+				logger.debug("Lookup for {} returned no peers", op.name);
+				retryOrFail(op);
+			} else {
+				dispatch(op, replicas);
+			}
+		}
+		for (Batch batch : group.batches)
+			batchOwners(batch, group.id, replicas);
+	}
+
+	//Sends the operation to its replicas
+	private void dispatch(Operation op, List<Host> replicas) {
+		op.contacted = 0;
+		if (op.store) {
+			op.replicas = replicas;
+			//Fragment i goes to the i-th owner, and is only encoded once across retries
+			if (erasure != null && op.fragments == null)
+				op.fragments = erasure.encode(op.content);
+			for (int i = 0; i < replicas.size(); i++) {
+				Host replica = replicas.get(i);
+				op.sentAt.put(replica, System.currentTimeMillis());
+				trace.record(Tracer.REPLICA_SENT, 0, op.uid);
+				sendTo(replica, new StoreMessage(op.uid, op.name, erasure != null ? op.fragments[i] : op.content));
+			}
+			return;
+		}
+		op.replicas = bySuspicion(replicas);
+		if (hedging) {
+			while (op.contacted < readQuorum && op.contacted < op.replicas.size())
+				contactNext(op);
+			op.hedgeTimer = setupTimer(new HedgeTimer(op.uid), currentHedgeDelay());
+		} else {
+			while (op.contacted < op.replicas.size())
+				contactNext(op);
+		}
+		armTimer(op);
+	}
+
+	//The replicas, those the failure detector suspects last
+	private List<Host> bySuspicion(List<Host> replicas) {
+		List<Host> ordered = new ArrayList<>(replicas.size());
+		List<Host> suspected = new ArrayList<>(0);
+		for (Host replica : replicas)
+			(detector.isSuspected(replica) ? suspected : ordered).add(replica);
+		ordered.addAll(suspected);
+		return ordered;
+	}
+
+	/**
+	 * Times out a retrieve when its first unanswered replica exceeds its adaptive timeout, or
+	 * when the attempt runs out of time.
+	 */
+	private void armTimer(Operation op) {
+		if (operations.get(op.uid) != op)
+			return;
+		cancelTimer(op.timer);
+		long now = System.currentTimeMillis();
+		long wait = requestTimeout - (now - op.attemptStart);
+		for (int i = 0; i < op.contacted; i++) {
+			Host replica = op.replicas.get(i);
+			if (replica.equals(self) || op.responders.contains(replica) || op.overdue.contains(replica))
+				continue;
+			wait = Math.min(wait, op.sentAt.get(replica) + detector.timeout(replica, requestTimeout) - now);
+		}
+		op.timer = setupTimer(new OperationTimeoutTimer(op.uid), Math.max(1, wait));
+	}
+
+	//Sends a retrieve to the next replica not contacted yet
+	private Host contactNext(Operation op) {
+		Host replica = op.replicas.get(op.contacted++);
+		op.sentAt.put(replica, System.currentTimeMillis());
+		trace.record(Tracer.REPLICA_SENT, hedging && op.contacted > readQuorum ? 2 : 1, op.uid);
+		sendTo(replica, new RetrieveMessage(op.uid, op.name));
+		return replica;
+	}
+
+	private long currentHedgeDelay() {
+		if (hedgeDelay >= 0)
+			return hedgeDelay;
+		return rtts.size() < 16 ? hedgeInitialDelay : Math.max(1, rtts.get());
+	}
+
+	private void uponHedgeTimer(HedgeTimer timer, long timerId) {
+		Operation op = operations.get(timer.getUid());
+		if (op == null || op.replicas == null)
+			return;
+		op.hedgeTimer = -1;
+		if (op.hedged.size() >= hedgeMax || op.contacted >= op.replicas.size())
+			return;
+		Host replica = contactNext(op);
+		op.hedged.add(replica);
+		hedgesFired++;
+		logger.debug("Hedging retrieve of {} to {}", op.name, replica);
+		if (op.hedged.size() < hedgeMax && op.contacted < op.replicas.size())
+			op.hedgeTimer = setupTimer(new HedgeTimer(op.uid), currentHedgeDelay());
+		armTimer(op);
+	}
+
+	//Sends to a replica, short-circuiting when the replica is ourselves
+	private void sendTo(Host replica, ProtoMessage msg) {
+		if (replica.equals(self)) {
+			if (msg instanceof StoreMessage)
+				uponStoreMessage((StoreMessage) msg, self, PROTO_ID, channelId);
+			else if (msg instanceof RetrieveMessage)
+				uponRetrieveMessage((RetrieveMessage) msg, self, PROTO_ID, channelId);
+			else if (msg instanceof MultiStoreMessage)
+				uponMultiStoreMessage((MultiStoreMessage) msg, self, PROTO_ID, channelId);
+			else
+				uponMultiRetrieveMessage((MultiRetrieveMessage) msg, self, PROTO_ID, channelId);
+		} else {
+			detector.sent(replica);
+			send(msg, replica);
+		}
+	}
+
+	//Feeds the failure detector with an answer; returns the round-trip time, -1 if unknown
+	private long answered(Operation op, Host from) {
+		if (from.equals(self))
+			return -1;
+		Long sentAt = op == null ? null : op.sentAt.get(from);
+		long rtt = sentAt == null ? -1 : System.currentTimeMillis() - sentAt;
+		detector.replied(from, Math.max(0, rtt));
+		return rtt;
+	}
+
+	private void reply(Host to, ProtoMessage msg) {
+		if (to.equals(self)) {
+			if (msg instanceof StoreAckMessage)
+				uponStoreAck((StoreAckMessage) msg, self, PROTO_ID, channelId);
+			else if (msg instanceof RetrieveResponseMessage)
+				uponRetrieveResponse((RetrieveResponseMessage) msg, self, PROTO_ID, channelId);
+			else if (msg instanceof MultiStoreAckMessage)
+				uponMultiStoreAck((MultiStoreAckMessage) msg, self, PROTO_ID, channelId);
+			else
+				uponMultiRetrieveResponse((MultiRetrieveResponseMessage) msg, self, PROTO_ID, channelId);
+		} else {
+			send(msg, to);
+		}
+	}
+
+	/*--------------------------------- Replicas ---------------------------------------- */
+
+	private void uponStoreMessage(StoreMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Storing {} for {}", msg.getName(), from);
+		trace.record(Tracer.REPLICA_SERVED, 0, msg.getUid());
+		try {
+			put(msg.getName(), msg.getContent());
+		} catch (IOException e) {
+			//Answered anyway, the writer counts on the other replicas but knows we are alive
+			logger.error("Unable to store {}: {}", msg.getName(), e.getMessage());
+			reply(from, new StoreAckMessage(msg.getUid(), msg.getName(), false));
+			return;
+		}
+		storedBytes += msg.getContent().length;
+		StoreAckMessage ack = new StoreAckMessage(msg.getUid(), msg.getName(), true);
+		if (!store.isDurable()) {
+			reply(from, ack);
+			return;
+		}
+		pendingAckHosts.add(from);
+		pendingAcks.add(ack);
+		if (pendingAcks.size() >= syncBatch)
+			groupCommit();
+	}
+
+	private void uponMultiStoreMessage(MultiStoreMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Storing {} contents for {}", msg.getNames().size(), from);
+		trace.record(Tracer.REPLICA_SERVED, 0, msg.getUid());
+		List<String> stored = new ArrayList<>(msg.getNames().size());
+		for (int i = 0; i < msg.getNames().size(); i++) {
+			try {
+				put(msg.getNames().get(i), msg.getContents().get(i));
+			} catch (IOException e) {
+				//Left out of the ack, which is still sent
+				logger.error("Unable to store {}: {}", msg.getNames().get(i), e.getMessage());
+				continue;
+			}
+			storedBytes += msg.getContents().get(i).length;
+			stored.add(msg.getNames().get(i));
+		}
+		MultiStoreAckMessage ack = new MultiStoreAckMessage(msg.getUid(), stored);
+		if (!store.isDurable()) {
+			reply(from, ack);
+			return;
+		}
+		pendingAckHosts.add(from);
+		pendingAcks.add(ack);
+		if (pendingAcks.size() >= syncBatch)
+			groupCommit();
+	}
+
+	private void put(String name, byte[] content) throws IOException {
+		store.put(name, content);
+		merkle.add(name, HashGenerator.generateRingId(name));
+	}
+
+	/*--------------------------------- Durability -------------------------------------- */
+
+	private void uponSyncTimer(SyncTimer timer, long timerId) {
+		if (!pendingAcks.isEmpty())
+			groupCommit();
+	}
+
+	//One sync makes every pending store durable, then all of their acks are released
+	private void groupCommit() {
+		try {
+			store.sync();
+		} catch (IOException e) {
+			//Same as a failed put: the writers will count on the other replicas
+			logger.error("Unable to sync the content store: {}", e.getMessage());
+			pendingAckHosts.clear();
+			pendingAcks.clear();
+			return;
+		}
+		syncs++;
+		syncedAcks += pendingAcks.size();
+		for (int i = 0; i < pendingAcks.size(); i++)
+			reply(pendingAckHosts.get(i), pendingAcks.get(i));
+		pendingAckHosts.clear();
+		pendingAcks.clear();
+	}
+
+	private void uponMaintenanceTimer(MaintenanceTimer timer, long timerId) {
+		try {
+			store.maintenance();
+		} catch (IOException e) {
+			logger.error("Content store maintenance failed: {}", e.getMessage());
+		}
+	}
+
+	private void uponRetrieveMessage(RetrieveMessage msg, Host from, short sourceProto, int channelId) {
+		trace.record(Tracer.REPLICA_SERVED, 1, msg.getUid());
+		reply(from, new RetrieveResponseMessage(msg.getUid(), msg.getName(), store.view(msg.getName())));
+	}
+
+	private void uponMultiRetrieveMessage(MultiRetrieveMessage msg, Host from, short sourceProto, int channelId) {
+		trace.record(Tracer.REPLICA_SERVED, 1, msg.getUid());
+		List<ByteBuffer> views = new ArrayList<>(msg.getNames().size());
+		for (String name : msg.getNames())
+			views.add(store.view(name));
+		reply(from, new MultiRetrieveResponseMessage(msg.getUid(), msg.getNames(), views));
+	}
+
+	/*--------------------------------- Repair ------------------------------------------ */
+
+	private void uponRepairTimer(RepairTimer timer, long timerId) {
+		if (!channelReady)
+			return;
+		long now = System.currentTimeMillis();
+		//Transfers that stopped making progress are dropped, the next sweep finds what they missed
+		transfers.values().removeIf(t -> t.inFlight > 0 && now - t.lastProgress > requestTimeout);
+		//Replicas still unknown by now are left for the next sweep
+		repairLookups.clear();
+		pushLookups.clear();
+		compareWithReplicas();
+		int first = -1;
+		for (int i = 0; i < repairLeaves; i++) {
+			int leaf = merkle.nextNonEmptyLeaf(repairCursor);
+			if (leaf < 0 || leaf == first)
+				break;
+			if (leaf < repairCursor)
+				sweepEnded(now);
+			if (first < 0)
+				first = leaf;
+			UUID uid = UUID.randomUUID();
+			repairLookups.put(uid, leaf);
+			sendRequest(new LookupRequest(merkle.middleOf(leaf), uid), dhtProtoId);
+			repairCursor = leaf + 1;
+		}
+	}
+
+	//Groups a leaf with the others of the round that share a replica with it
+	private void repairReplicas(int leaf, LookupReply reply) {
+		List<Host> replicas = new ArrayList<>(replication);
+		Iterator<Host> it = reply.getPeerIterator();
+		while (it.hasNext() && replicas.size() < replication)
+			replicas.add(it.next());
+		Map<Host, List<Integer>> peers = replicas.contains(self) ? repairPeers : handoffPeers;
+		for (Host replica : replicas)
+			if (!replica.equals(self))
+				peers.computeIfAbsent(replica, h -> new ArrayList<>()).add(leaf);
+		if (repairLookups.isEmpty())
+			compareWithReplicas();
+	}
+
+	private void compareWithReplicas() {
+		for (Map.Entry<Host, List<Integer>> e : repairPeers.entrySet())
+			sendDigest(e.getKey(), e.getValue(), false);
+		for (Map.Entry<Host, List<Integer>> e : handoffPeers.entrySet())
+			sendDigest(e.getKey(), e.getValue(), true);
+		repairPeers.clear();
+		handoffPeers.clear();
+	}
+
+	//Starts a comparison with the hashes of the largest subtrees made of the given leaves only
+	private void sendDigest(Host peer, List<Integer> leaves, boolean handoff) {
+		Collections.sort(leaves);
+		send(digest(merkle.cover(leaves), handoff, true), peer);
+	}
+
+	private MerkleDigestMessage digest(List<Integer> nodes, boolean handoff, boolean fromInitiator) {
+		int[] ids = new int[nodes.size()];
+		long[] hashes = new long[nodes.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = nodes.get(i);
+			hashes[i] = merkle.hash(ids[i]);
+		}
+		return new MerkleDigestMessage(handoff, fromInitiator, ids, hashes);
+	}
+
+	private void uponMerkleDigest(MerkleDigestMessage msg, Host from, short sourceProto, int channelId) {
+		List<Integer> children = new ArrayList<>();
+		List<Integer> leaves = new ArrayList<>();
+		for (int i = 0; i < msg.getNodes().length; i++) {
+			int node = msg.getNodes()[i];
+			if (!merkle.contains(node) || merkle.hash(node) == msg.getHashes()[i])
+				continue;
+			if (merkle.isLeaf(node)) {
+				leaves.add(node);
+			} else {
+				children.add(2 * node);
+				children.add(2 * node + 1);
+			}
+		}
+		if (!children.isEmpty())
+			send(digest(children, msg.isHandoff(), !msg.isFromInitiator()), from);
+		if (leaves.isEmpty())
+			return;
+		//Only data moved counts as repair work: a leaf split by an ownership boundary stays divergent
+		divergentLeaves.add(leaves.size());
+		//The replicas of a range want what they lack, a node handing the range off does not
+		boolean initiator = !msg.isFromInitiator();
+		boolean wanted = !initiator || !msg.isHandoff();
+		boolean peerWants = initiator || !msg.isHandoff();
+		int[] ids = new int[leaves.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = leaves.get(i);
+		send(new KeyListMessage(ids, namesIn(ids), wanted, peerWants), from);
+	}
+
+	private List<String> namesIn(int[] leaves) {
+		List<String> names = new ArrayList<>();
+		for (int leaf : leaves)
+			if (merkle.contains(leaf) && merkle.isLeaf(leaf))
+				names.addAll(merkle.names(leaf));
+		return names;
+	}
+
+	private void uponKeyList(KeyListMessage msg, Host from, short sourceProto, int channelId) {
+		List<String> ours = namesIn(msg.getLeaves());
+		if (msg.isPush()) {
+			Set<String> theirs = new HashSet<>(msg.getNames());
+			for (String name : ours)
+				if (!theirs.contains(name))
+					pushIfOwner(from, name);
+			pump(from);
+		}
+		if (msg.isAnswer())
+			send(new KeyListMessage(msg.getLeaves(), ours, true, false), from);
+	}
+
+	/**
+	 * Queues name for peer only if peer is one of its replicas: a leaf split by an ownership
+	 * boundary was compared with the replicas of its middle, which do not own all of its names.
+	 */
+	private void pushIfOwner(Host peer, String name) {
+		RingId id = HashGenerator.generateRingId(name);
+		List<Host> owners = ownerCache.get(id);
+		if (owners != null) {
+			pushTo(peer, name, owners);
+			return;
+		}
+		UUID uid = UUID.randomUUID();
+		pushLookups.put(uid, new Push(peer, name, id));
+		sendRequest(new LookupRequest(id, uid), dhtProtoId);
+	}
+
+	private void pushOwned(Push push, LookupReply reply) {
+		List<Host> owners = new ArrayList<>(replication);
+		Iterator<Host> it = reply.getPeerIterator();
+		while (it.hasNext() && owners.size() < replication)
+			owners.add(it.next());
+		if (!owners.isEmpty())
+			ownerCache.put(push.id, owners);
+		pushTo(push.peer, push.name, owners);
+		pump(push.peer);
+	}
+
+	//Queues name for peer if it owns it; erasure-coded, peer gets the fragment of its own index
+	private void pushTo(Host peer, String name, List<Host> owners) {
+		int index = owners.indexOf(peer);
+		if (index < 0) {
+			repairNotOwned.inc();
+			return;
+		}
+		if (erasure != null) {
+			ByteBuffer ours = store.view(name);
+			if (ours == null)
+				return;
+			if (erasure.indexOf(ours) != index) {
+				rebuildFragment(peer, name, index);
+				return;
+			}
+		}
+		enqueueTransfer(peer, name, null);
+	}
+
+	//Retrieves the content of name to send peer fragment index of it, see rebuilt
+	private void rebuildFragment(Host peer, String name, int index) {
+		Operation op = new Operation(UUID.randomUUID(), name, false, PROTO_ID);
+		op.rebuildFor = peer;
+		op.rebuildIndex = index;
+		start(op);
+	}
+
+	//Sends a rebuilt fragment; if the content could not be retrieved the next sweep tries again
+	private void rebuilt(Operation op, byte[] content) {
+		if (content == null) {
+			logger.debug("{}: Unable to rebuild fragment {} of {} for {}", self, op.rebuildIndex, op.name, op.rebuildFor);
+			return;
+		}
+		repairRebuilt.inc();
+		enqueueTransfer(op.rebuildFor, op.name, erasure.encode(content, op.rebuildIndex));
+		pump(op.rebuildFor);
+	}
+
+	//Queues name for peer, with the content to send if it is not the stored one
+	private void enqueueTransfer(Host peer, String name, byte[] content) {
+		Transfer transfer = transfers.computeIfAbsent(peer, h -> new Transfer());
+		if (content != null)
+			transfer.contents.put(name, content);
+		if (transfer.queued.add(name))
+			transfer.queue.add(name);
+	}
+
+	//Keeps up to transferWindow chunks in flight to peer
+	private void pump(Host peer) {
+		Transfer transfer = transfers.get(peer);
+		if (transfer == null)
+			return;
+		while (transfer.inFlight < transferWindow && !transfer.queue.isEmpty()) {
+			List<String> names = new ArrayList<>();
+			List<byte[]> contents = new ArrayList<>();
+			long bytes = 0;
+			while (!transfer.queue.isEmpty() && bytes < transferChunkBytes) {
+				String name = transfer.queue.poll();
+				transfer.queued.remove(name);
+				byte[] content = transfer.contents.remove(name);
+				if (content == null)
+					content = store.get(name);
+				if (content == null)
+					continue;
+				names.add(name);
+				contents.add(content);
+				bytes += content.length;
+			}
+			if (names.isEmpty())
+				break;
+			transfer.inFlight++;
+			repairSent.add(names.size());
+			repairSentBytes.add(bytes);
+			repairWork();
+			send(new TransferMessage(names, contents), peer);
+		}
+		if (transfer.queue.isEmpty() && transfer.inFlight == 0)
+			transfers.remove(peer);
+	}
+
+	private void uponTransfer(TransferMessage msg, Host from, short sourceProto, int channelId) {
+		int stored = 0;
+		long bytes = 0;
+		try {
+			for (int i = 0; i < msg.getNames().size(); i++) {
+				String name = msg.getNames().get(i);
+				if (store.contains(name))
+					continue;
+				put(name, msg.getContents().get(i));
+				stored++;
+				bytes += msg.getContents().get(i).length;
+			}
+			//A chunk is made durable with a single sync before it is acked
+			if (store.isDurable() && stored > 0)
+				store.sync();
+		} catch (IOException e) {
+			//No ack: the sender drops the transfer and the next sweep retries
+			logger.error("Unable to store a transfer from {}: {}", from, e.getMessage());
+			return;
+		}
+		storedBytes += bytes;
+		repairReceived.add(stored);
+		repairReceivedBytes.add(bytes);
+		if (stored > 0)
+			repairWork();
+		send(new TransferAckMessage(stored), from);
+	}
+
+	private void uponTransferAck(TransferAckMessage msg, Host from, short sourceProto, int channelId) {
+		Transfer transfer = transfers.get(from);
+		if (transfer == null)
+			return;
+		transfer.inFlight--;
+		transfer.lastProgress = System.currentTimeMillis();
+		pump(from);
+	}
+
+	//Repair found or moved data: a divergence is being repaired
+	private void repairWork() {
+		lastRepair = System.currentTimeMillis();
+		sweepDivergent = true;
+		if (divergenceStart < 0) {
+			divergenceStart = lastRepair;
+			divergenceBaseline = new long[] { repairSent.get(), repairSentBytes.get(), repairReceived.get(), repairReceivedBytes.get() };
+		}
+	}
+
+	//A sweep over every leaf ended: if it repaired nothing, the replicas converged
+	private void sweepEnded(long now) {
+		if (!sweepDivergent && transfers.isEmpty() && divergenceStart >= 0) {
+			long time = lastRepair - divergenceStart;
+			convergenceMetric.record(time);
+			logger.info("{}: replicas converged in {}ms, sent {} contents ({} bytes), received {} contents ({} bytes)", self,
+					time, repairSent.get() - divergenceBaseline[0], repairSentBytes.get() - divergenceBaseline[1],
+					repairReceived.get() - divergenceBaseline[2], repairReceivedBytes.get() - divergenceBaseline[3]);
+			divergenceStart = -1;
+		}
+		sweepDivergent = false;
+	}
+
+	/*--------------------------------- Batches ----------------------------------------- */
+
+	private void uponMultiStoreRequest(MultiStoreRequest request, short sourceProto) {
+		Batch batch = new Batch(request.getRequestUID(), true, sourceProto);
+		for (int i = 0; i < request.getNames().size(); i++) {
+			Operation op = new Operation(UUID.randomUUID(), request.getNames().get(i), true, sourceProto);
+			op.content = request.getContents().get(i);
+			batch.add(op);
+		}
+		startBatch(batch);
+	}
+
+	private void uponMultiRetrieveRequest(MultiRetrieveRequest request, short sourceProto) {
+		Batch batch = new Batch(request.getRequestUID(), false, sourceProto);
+		for (String name : request.getNames())
+			batch.add(new Operation(UUID.randomUUID(), name, false, sourceProto));
+		startBatch(batch);
+	}
+
+	//Looks up the owners of every key at once, sharing lookups with pending operations
+	private void startBatch(Batch batch) {
+		batches.put(batch.uid, batch);
+		if (batch.keys.isEmpty()) {
+			answerBatch(batch);
+			return;
+		}
+		batch.timer = setupTimer(new OperationTimeoutTimer(batch.uid), requestTimeout);
+		for (Operation op : new ArrayList<>(batch.round)) {
+			//Large contents are stored in chunks, and without a channel nothing can be batched
+			if (!channelReady || (op.store && chunkSize > 0 && op.content.length > chunkSize)) {
+				fallBack(op);
+				continue;
+			}
+			List<Host> cached = ownerCache.get(op.id);
+			if (cached != null) {
+				op.replicas = cached;
+				continue;
+			}
+			batch.awaitingOwners.put(op.id, op);
+			LookupGroup group = lookupsById.get(op.id);
+			if (isPending(group)) {
+				coalescedLookups++;
+				trace.record(Tracer.LOOKUP_ISSUED, 1, op.uid, group.uid);
+			} else {
+				group = newLookup(op.id);
+				trace.record(Tracer.LOOKUP_ISSUED, 0, op.uid, group.uid);
+			}
+			group.batches.add(batch);
+		}
+		if (batch.awaitingOwners.isEmpty() && batches.get(batch.uid) == batch)
+			sendBatch(batch);
+	}
+
+	private void batchOwners(Batch batch, RingId id, List<Host> replicas) {
+		Operation op = batch.awaitingOwners.remove(id);
+		if (op == null || batches.get(batch.uid) != batch)
+			return;
+		if (replicas.isEmpty())
+			fallBack(op);
+		else
+			op.replicas = replicas;
+		if (batch.awaitingOwners.isEmpty())
+			sendBatch(batch);
+	}
+
+	//Sends each owner one message with all the keys of the batch it is asked for
+	private void sendBatch(Batch batch) {
+		batch.sent = true;
+		Map<Host, List<String>> names = new LinkedHashMap<>();
+		Map<Host, List<byte[]>> contents = new HashMap<>();
+		for (Operation op : batch.round) {
+			List<Host> owners;
+			if (op.store) {
+				owners = op.replicas;
+				if (erasure != null && op.fragments == null)
+					op.fragments = erasure.encode(op.content);
+			} else {
+				//As many as a single-key retrieve contacts before hedging
+				op.replicas = bySuspicion(op.replicas);
+				owners = op.replicas.subList(0, Math.min(readQuorum, op.replicas.size()));
+			}
+			for (int i = 0; i < owners.size(); i++) {
+				names.computeIfAbsent(owners.get(i), h -> new ArrayList<>()).add(op.name);
+				if (op.store)
+					contents.computeIfAbsent(owners.get(i), h -> new ArrayList<>())
+							.add(erasure != null ? op.fragments[i] : op.content);
+			}
+		}
+		cancelTimer(batch.timer);
+		batch.timer = setupTimer(new OperationTimeoutTimer(batch.uid), requestTimeout);
+		//Every owner is awaited before any is sent to, as our own answer comes back right away
+		long now = System.currentTimeMillis();
+		for (Host owner : names.keySet()) {
+			batch.awaiting.add(owner);
+			batch.sentAt.put(owner, now);
+		}
+		batchMessages.add(names.size());
+		for (Map.Entry<Host, List<String>> e : names.entrySet()) {
+			if (batch.store)
+				sendTo(e.getKey(), new MultiStoreMessage(batch.uid, e.getValue(), contents.get(e.getKey())));
+			else
+				sendTo(e.getKey(), new MultiRetrieveMessage(batch.uid, e.getValue()));
+		}
+		if (names.isEmpty())
+			endRound(batch);
+	}
+
+	//Feeds the failure detector with the answer of an owner; returns the round-trip time, -1 if unknown
+	private long batchAnswered(Batch batch, Host from) {
+		batch.awaiting.remove(from);
+		if (from.equals(self))
+			return -1;
+		Long sentAt = batch.sentAt.get(from);
+		long rtt = sentAt == null ? -1 : System.currentTimeMillis() - sentAt;
+		detector.replied(from, Math.max(0, rtt));
+		return rtt;
+	}
+
+	private void uponMultiStoreAck(MultiStoreAckMessage msg, Host from, short sourceProto, int channelId) {
+		Batch batch = batches.get(msg.getUid());
+		if (batch == null)
+			return;
+		batchAnswered(batch, from);
+		for (String name : msg.getNames()) {
+			Operation op = batch.keys.get(name);
+			if (op == null || !batch.round.contains(op) || !op.responders.add(from))
+				continue;
+			if (op.responders.size() >= writeQuorum) {
+				batch.round.remove(op);
+				keyDone(op, true, null);
+			}
+		}
+		if (batch.awaiting.isEmpty())
+			endRound(batch);
+	}
+
+	private void uponMultiRetrieveResponse(MultiRetrieveResponseMessage msg, Host from, short sourceProto, int channelId) {
+		Batch batch = batches.get(msg.getUid());
+		if (batch == null)
+			return;
+		long rtt = batchAnswered(batch, from);
+		if (rtt >= 0) {
+			replicaRttMetric.record(rtt);
+			if (rtts != null)
+				rtts.add(rtt);
+		}
+		for (int i = 0; i < msg.getNames().size(); i++) {
+			Operation op = batch.keys.get(msg.getNames().get(i));
+			if (op == null || !batch.round.contains(op) || !op.responders.add(from))
+				continue;
+			byte[] content = msg.getContent(i);
+			if (content != null && op.content == null)
+				op.content = erasure != null ? addFragment(op, content) : content;
+			if (op.content != null && op.responders.size() >= readQuorum) {
+				//A chunk manifest still has its chunks fetched before the key is done
+				batch.round.remove(op);
+				completeRetrieve(op, op.content);
+			}
+		}
+		if (batch.awaiting.isEmpty())
+			endRound(batch);
+	}
+
+	private void batchTimeout(Batch batch) {
+		batch.timer = -1;
+		if (!batch.sent) {
+			//Keys whose lookup is late go on alone, the others are sent now
+			for (Operation op : batch.awaitingOwners.values())
+				fallBack(op);
+			batch.awaitingOwners.clear();
+			sendBatch(batch);
+			return;
+		}
+		logger.debug("Batch {} timed out waiting for {} owners", batch.uid, batch.awaiting.size());
+		batch.awaiting.clear();
+		endRound(batch);
+	}
+
+	//Every owner answered or the batch timed out: keys not done yet go on alone
+	private void endRound(Batch batch) {
+		if (batch.timer >= 0) {
+			cancelTimer(batch.timer);
+			batch.timer = -1;
+		}
+		for (Operation op : new ArrayList<>(batch.round))
+			fallBack(op);
+	}
+
+	//Hands a key of a batch over to the single-key path, with its retries
+	private void fallBack(Operation op) {
+		op.batchOf.round.remove(op);
+		batchFallbacks.inc();
+		op.replicas = null;
+		op.responders.clear();
+		op.sentAt.clear();
+		if (op.store)
+			startStore(op, op.content);
+		else
+			start(op);
+	}
+
+	private void keyDone(Operation op, boolean ok, byte[] content) {
+		Batch batch = op.batchOf;
+		if (!batch.finished.add(op.name))
+			return;
+		if (ok && batch.store)
+			batch.stored.add(op.name);
+		else if (ok)
+			batch.contents.put(op.name, content);
+		if (batch.finished.size() == batch.keys.size())
+			answerBatch(batch);
+	}
+
+	//One reply with the result of every key, in the order of the request
+	private void answerBatch(Batch batch) {
+		batches.remove(batch.uid);
+		if (batch.timer >= 0) {
+			cancelTimer(batch.timer);
+			batch.timer = -1;
+		}
+		batchesCompleted.inc();
+		batchKeys.add(batch.keys.size());
+		int succeeded = batch.store ? batch.stored.size() : batch.contents.size();
+		trace.record(Tracer.OPERATION_DONE, succeeded == batch.keys.size() ? 1 : 0, batch.uid);
+		if (batch.store) {
+			Map<String, Boolean> results = new LinkedHashMap<>();
+			for (String name : batch.keys.keySet())
+				results.put(name, batch.stored.contains(name));
+			storesCompleted += batch.stored.size();
+			storesFailed += batch.keys.size() - batch.stored.size();
+			sendReply(new MultiStoreReply(batch.uid, results), batch.sourceProto);
+		} else {
+			Map<String, byte[]> results = new LinkedHashMap<>();
+			for (String name : batch.keys.keySet())
+				results.put(name, batch.contents.get(name));
+			retrievesCompleted += batch.contents.size();
+			retrievesFailed += batch.keys.size() - batch.contents.size();
+			sendReply(new MultiRetrieveReply(batch.uid, results), batch.sourceProto);
+		}
+	}
+
+	/*--------------------------------- Quorums ----------------------------------------- */
+
+	private void uponStoreAck(StoreAckMessage msg, Host from, short sourceProto, int channelId) {
+		Operation op = operations.get(msg.getUid());
+		answered(op, from);
+		//Answers to an attempt that was already retried are ignored, failed writes only feed the detector
+		if (!msg.isStored() || op == null || op.replicas == null || !op.responders.add(from))
+			return;
+		trace.record(Tracer.REPLICA_ANSWERED, 0, op.uid);
+		if (op.responders.size() >= writeQuorum) {
+			finish(op);
+			if (op.chunkOf != null) {
+				chunkDone(op, null);
+				return;
+			}
+			if (op.batchOf != null) {
+				keyDone(op, true, null);
+				return;
+			}
+			storesCompleted++;
+			trace.record(Tracer.OPERATION_DONE, 1, op.uid);
+			sendReply(new StoreOKReply(op.name, op.uid), op.sourceProto);
+		}
+	}
+
+	private void uponRetrieveResponse(RetrieveResponseMessage msg, Host from, short sourceProto, int channelId) {
+		Operation op = operations.get(msg.getUid());
+		long rtt = answered(op, from);
+		//Answers to an attempt that was already retried are ignored
+		if (op == null || op.replicas == null || !op.responders.add(from))
+			return;
+		trace.record(Tracer.REPLICA_ANSWERED, msg.isFound() ? 1 : 0, op.uid);
+		if (rtt >= 0) {
+			replicaRttMetric.record(rtt);
+			if (rtts != null)
+				rtts.add(rtt);
+		}
+		if (msg.isFound() && op.content == null) {
+			op.content = erasure != null ? addFragment(op, msg.getContent()) : msg.getContent();
+			if (op.content != null && op.hedged.contains(from))
+				hedgesWon++;
+		}
+		if (op.content != null && op.responders.size() >= readQuorum) {
+			finish(op);
+			completeRetrieve(op, op.content);
+		} else if (op.responders.size() >= op.contacted) {
+			if (op.contacted < op.replicas.size()) {
+				//Everyone we asked answered but we still need more copies
+				contactNext(op);
+				armTimer(op);
+				return;
+			}
+			if (op.fromCache) {
+				//The cached owners may be outdated, ask the DHT
+				retryOrFail(op);
+				return;
+			}
+			//Every replica answered and none had it
+			finish(op);
+			completeRetrieve(op, null);
+		}
+	}
+
+	//Keeps a fragment of a retrieve; returns the content once enough fragments arrived
+	private byte[] addFragment(Operation op, byte[] fragment) {
+		int index = erasure.indexOf(fragment);
+		if (op.fragments == null)
+			op.fragments = new byte[erasure.getFragments()][];
+		if (index < 0 || op.fragments[index] != null) {
+			logger.debug("Ignoring fragment {} of {}", index, op.name);
+			return null;
+		}
+		for (byte[] other : op.fragments) {
+			if (other != null && (other.length != fragment.length
+					|| ReedSolomon.contentLength(other) != ReedSolomon.contentLength(fragment))) {
+				logger.error("{}: Fragments of {} do not match", self, op.name);
+				return null;
+			}
+		}
+		op.fragments[index] = fragment;
+		if (++op.fragmentCount < erasure.getDataFragments())
+			return null;
+		return erasure.decode(op.fragments);
+	}
+
+	private void uponOperationTimeout(OperationTimeoutTimer timer, long timerId) {
+		Batch batch = batches.get(timer.getUid());
+		if (batch != null) {
+			batchTimeout(batch);
+			return;
+		}
+		Operation op = operations.get(timer.getUid());
+		if (op == null)
+			return;
+		long now = System.currentTimeMillis();
+		if (!op.store && op.replicas != null && now - op.attemptStart < requestTimeout) {
+			//Replicas late for their adaptive timeout are suspected, and the next one asked instead
+			for (int i = 0; i < op.contacted; i++) {
+				Host replica = op.replicas.get(i);
+				if (replica.equals(self) || op.responders.contains(replica) || op.overdue.contains(replica))
+					continue;
+				if (now - op.sentAt.get(replica) >= detector.timeout(replica, requestTimeout)) {
+					op.overdue.add(replica);
+					detector.failed(replica);
+					if (op.contacted < op.replicas.size()) {
+						logger.debug("Retrieve of {} rerouted from {}", op.name, replica);
+						contactNext(op);
+						reroutes++;
+					}
+				}
+			}
+			armTimer(op);
+			return;
+		}
+		logger.debug("Operation on {} timed out with {} answers", op.name, op.responders.size());
+		retryOrFail(op);
+	}
+
+	private void retryOrFail(Operation op) {
+		if (op.fromCache) {
+			ownerCache.invalidate(op.id);
+			op.fromCache = false;
+		}
+		if (op.retries < maxRetries) {
+			op.retries++;
+			op.replicas = null;
+			op.responders.clear();
+			op.sentAt.clear();
+			op.hedged.clear();
+			op.overdue.clear();
+			cancelTimers(op);
+			op.attemptStart = System.currentTimeMillis();
+			op.timer = setupTimer(new OperationTimeoutTimer(op.uid), requestTimeout);
+			lookup(op);
+			return;
+		}
+		finish(op);
+		if (op.chunkOf != null) {
+			chunkFailed(op);
+		} else if (op.store) {
+			trace.record(Tracer.OPERATION_DONE, 0, op.uid);
+			logger.error("{}: Unable to store {} after {} attempts", self, op.name, op.retries + 1);
+			storeFailed(op);
+		} else {
+			completeRetrieve(op, null);
+		}
+	}
+
+	private void completeRetrieve(Operation op, byte[] content) {
+		if (op.rebuildFor != null) {
+			rebuilt(op, content);
+			return;
+		}
+		if (op.chunkOf != null) {
+			if (content != null)
+				chunkDone(op, content);
+			else
+				chunkFailed(op);
+			return;
+		}
+		if (content != null && ChunkManifest.isManifest(content)) {
+			//Coalesced retrieves keep joining this one until the content is reassembled
+			ChunkManifest manifest = ChunkManifest.decode(content);
+			if (manifest.getChunkSize() > 0 && manifest.getLength() <= Integer.MAX_VALUE - 8) {
+				issueChunks(new Chunked(op, manifest, new byte[(int) manifest.getLength()]));
+				return;
+			}
+			logger.error("{}: Invalid chunk manifest for {}", self, op.name);
+			content = null;
+		}
+		answerRetrieve(op, content);
+	}
+
+	//Answers a retrieve and every retrieve coalesced with it, each with its own UUID
+	private void answerRetrieve(Operation op, byte[] content) {
+		if (op.batchOf != null) {
+			keyDone(op, content != null, content);
+			return;
+		}
+		retrievesInFlight.remove(op.id, op);
+		trace.record(Tracer.OPERATION_DONE, content != null ? 1 : 0, op.uid);
+		for (Operation o : op.followers) {
+			trace.record(Tracer.OPERATION_DONE, content != null ? 1 : 0, o.uid);
+			if (content != null)
+				sendReply(new RetrieveOKReply(o.name, o.uid, content), o.sourceProto);
+			else
+				sendReply(new RetrieveFailedReply(o.name, o.uid), o.sourceProto);
+		}
+		if (content != null) {
+			retrievesCompleted += 1 + op.followers.size();
+			sendReply(new RetrieveOKReply(op.name, op.uid, content), op.sourceProto);
+		} else {
+			retrievesFailed += 1 + op.followers.size();
+			sendReply(new RetrieveFailedReply(op.name, op.uid), op.sourceProto);
+		}
+	}
+
+	/*--------------------------------- Chunks ----------------------------------------- */
+
+	//Starts the next chunks of a content, up to chunkParallelism at once
+	private void issueChunks(Chunked chunked) {
+		int chunks = chunked.manifest.getChunks();
+		while (chunked.inFlight < chunkParallelism && chunked.next < chunks) {
+			int i = chunked.next++;
+			Operation op = new Operation(UUID.randomUUID(), ChunkManifest.chunkName(chunked.parent.name, i),
+					chunked.parent.store, chunked.parent.sourceProto);
+			op.chunkOf = chunked;
+			op.chunk = i;
+			if (op.store) {
+				int offset = (int) chunked.manifest.offset(i);
+				op.content = Arrays.copyOfRange(chunked.content, offset, offset + chunked.manifest.length(i));
+			}
+			chunked.inFlight++;
+			start(op);
+		}
+	}
+
+	//A chunk was stored, or retrieved with the given content
+	private void chunkDone(Operation op, byte[] content) {
+		Chunked chunked = op.chunkOf;
+		chunked.inFlight--;
+		if (chunked.failed)
+			return;
+		if (op.store) {
+			chunksStored.inc();
+		} else {
+			if (content.length != chunked.manifest.length(op.chunk)) {
+				logger.error("{}: Chunk {} of {} has {} bytes, expected {}", self, op.chunk, chunked.parent.name,
+						content.length, chunked.manifest.length(op.chunk));
+				abandon(chunked, op);
+				return;
+			}
+			System.arraycopy(content, 0, chunked.content, (int) chunked.manifest.offset(op.chunk), content.length);
+			chunksRetrieved.inc();
+		}
+		if (++chunked.done < chunked.manifest.getChunks()) {
+			issueChunks(chunked);
+		} else if (op.store) {
+			start(chunked.parent);
+		} else {
+			answerRetrieve(chunked.parent, chunked.content);
+		}
+	}
+
+	//A chunk could not be stored or retrieved, so neither can its content
+	private void chunkFailed(Operation op) {
+		Chunked chunked = op.chunkOf;
+		chunked.inFlight--;
+		if (!chunked.failed)
+			abandon(chunked, op);
+	}
+
+	//Fails a chunked content because of chunk op; chunks still in flight are ignored when done
+	private void abandon(Chunked chunked, Operation op) {
+		chunked.failed = true;
+		chunkedFailures.inc();
+		if (op.store) {
+			trace.record(Tracer.OPERATION_DONE, 0, chunked.parent.uid);
+			logger.error("{}: Unable to store {}, chunk {} failed after {} attempts", self, chunked.parent.name, op.chunk,
+					op.retries + 1);
+			storeFailed(chunked.parent);
+		} else {
+			answerRetrieve(chunked.parent, null);
+		}
+	}
+
+	//Tells the application, or the batch, that a store gave up
+	private void storeFailed(Operation op) {
+		if (op.batchOf != null) {
+			keyDone(op, false, null);
+			return;
+		}
+		storesFailed++;
+		sendReply(new StoreFailedReply(op.name, op.uid), op.sourceProto);
+	}
+
+	private void finish(Operation op) {
+		operations.remove(op.uid);
+		cancelTimers(op);
+	}
+
+	private void cancelTimers(Operation op) {
+		cancelTimer(op.timer);
+		if (op.hedgeTimer >= 0) {
+			cancelTimer(op.hedgeTimer);
+			op.hedgeTimer = -1;
+		}
+	}
+
+	private void uponStatsTimer(StatsTimer timer, long timerId) {
+		logStats();
+	}
+
+	private void shutdown() {
+		logStats();
+		try {
+			//A durable store checkpoints on close, so the next start replays nothing
+			store.close();
+		} catch (IOException e) {
+			logger.error("Unable to close the content store: {}", e.getMessage());
+		}
+	}
+
+	private void logStats() {
+		logger.info("{}: stores={} storesFailed={} retrieves={} failed={} hedgesFired={} hedgesWon={} hedgeDelay={}ms reroutes={} stored={} pending={}",
+				self, storesCompleted, storesFailed, retrievesCompleted, retrievesFailed, hedgesFired, hedgesWon,
+				hedging ? currentHedgeDelay() : -1, reroutes, store.size(), operations.size());
+		long now = System.currentTimeMillis();
+		double throughput = (storedBytes - lastStoredBytes) / 1024.0 / Math.max(1, now - lastStatsTime) * 1000;
+		lastStatsTime = now;
+		lastStoredBytes = storedBytes;
+		logger.info("{}: content store holds {} contents, {} bytes, writing {} KB/s", self, store.size(), store.bytes(),
+				String.format("%.1f", throughput));
+		if (store.isDurable())
+			logger.info("{}: group commits={} avgAcksPerCommit={}", self, syncs,
+					String.format("%.2f", syncs == 0 ? 0.0 : (double) syncedAcks / syncs));
+		if (ownerCache.isEnabled())
+			logger.info("{}: owner cache hitRatio={} savedLookups={} misses={} invalidations={} size={}", self,
+					String.format("%.3f", ownerCache.getHitRatio()), ownerCache.getHits(), ownerCache.getMisses(),
+					ownerCache.getInvalidations(), ownerCache.size());
+		logger.info("{}: coalesced retrieves={} coalesced lookups={}", self, coalescedRetrieves, coalescedLookups);
+		logger.info("{}: repair divergentLeaves={} sent={} ({} bytes) received={} ({} bytes) notOwned={} rebuilt={} transfers={}", self,
+				divergentLeaves.get(), repairSent.get(), repairSentBytes.get(), repairReceived.get(), repairReceivedBytes.get(),
+				repairNotOwned.get(), repairRebuilt.get(), transfers.size());
+		if (batchesCompleted.get() > 0)
+			logger.info("{}: batches={} keys={} messages={} fallbacks={}", self, batchesCompleted.get(), batchKeys.get(),
+					batchMessages.get(), batchFallbacks.get());
+		if (chunkSize > 0)
+			logger.info("{}: chunks stored={} retrieved={} failedContents={}", self, chunksStored.get(), chunksRetrieved.get(),
+					chunkedFailures.get());
+	}
+
+	/*--------------------------------- Connections ------------------------------------ */
+
+	private void send(ProtoMessage msg, Host destination) {
+		if (!connections.contains(destination)) {
+			openConnection(destination);
+			connections.add(destination);
+		}
+		sendMessage(msg, destination);
+	}
+
+	private void uponMsgFail(ProtoMessage msg, Host host, short destProto, Throwable throwable, int channelId) {
+		logger.debug("Message {} to {} failed, reason: {}", msg, host, throwable);
+		peerFailed(host);
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		peerFailed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<ProtoMessage> event, int channelId) {
+		peerFailed(event.getNode());
+	}
+
+	private void peerFailed(Host host) {
+		connections.remove(host);
+		detector.failed(host);
+		ownerCache.invalidate(host);
+		transfers.remove(host);
+		for (Batch batch : new ArrayList<>(batches.values()))
+			if (batch.awaiting.remove(host) && batch.awaiting.isEmpty())
+				endRound(batch);
+	}
+
+	private static class Operation {
+		private final UUID uid;
+		private final String name;
+		private final RingId id;
+		private final boolean store;
+		private final short sourceProto;
+		private final Set<Host> responders;
+		private final Map<Host, Long> sentAt;
+		private final Set<Host> hedged;
+		//Replicas that exceeded their adaptive timeout in this attempt
+		private final Set<Host> overdue;
+		//Retrieves of the same content answered together with this one
+		private final List<Operation> followers;
+		private byte[] content;
+		private List<Host> replicas;
+		private int contacted;
+		private long timer;
+		private long hedgeTimer;
+		private int retries;
+		private boolean fromCache;
+		private long attemptStart;
+		//Erasure-coded fragments, sent by a store or received by a retrieve (across its attempts)
+		private byte[][] fragments;
+		private int fragmentCount;
+		//The chunked content this operation stores or retrieves chunk "chunk" of, if any
+		private Chunked chunkOf;
+		private int chunk;
+		//The batch this operation is a key of, if any
+		private Batch batchOf;
+		//Repair: the owner this retrieve rebuilds fragment rebuildIndex for, if any
+		private Host rebuildFor;
+		private int rebuildIndex;
+
+		private Operation(UUID uid, String name, boolean store, short sourceProto) {
+			this.uid = uid;
+			this.name = name;
+			this.id = HashGenerator.generateRingId(name);
+			this.store = store;
+			this.sourceProto = sourceProto;
+			this.responders = new HashSet<>();
+			this.sentAt = new HashMap<>();
+			this.hedged = new HashSet<>();
+			this.overdue = new HashSet<>();
+			this.followers = new ArrayList<>(0);
+			this.hedgeTimer = -1;
+			this.retries = 0;
+		}
+	}
+
+	//A name a sweep would push to peer, waiting for its owners
+	private static class Push {
+		private final Host peer;
+		private final String name;
+		private final RingId id;
+
+		private Push(Host peer, String name, RingId id) {
+			this.peer = peer;
+			this.name = name;
+			this.id = id;
+		}
+	}
+
+	//Contents queued for one peer, streamed in chunks with a window of unacked chunks
+	private static class Transfer {
+		private final Deque<String> queue;
+		private final Set<String> queued;
+		//Rebuilt fragments to send instead of the stored ones
+		private final Map<String, byte[]> contents;
+		private int inFlight;
+		private long lastProgress;
+
+		private Transfer() {
+			this.queue = new ArrayDeque<>();
+			this.queued = new HashSet<>();
+			this.contents = new HashMap<>();
+			this.inFlight = 0;
+			this.lastProgress = System.currentTimeMillis();
+		}
+	}
+
+	//A content stored or retrieved as chunks, with the operation on its manifest
+	private static class Chunked {
+		private final Operation parent;
+		private final ChunkManifest manifest;
+		//The whole content: the one being stored, or the one being reassembled
+		private final byte[] content;
+		private int next;
+		private int inFlight;
+		private int done;
+		private boolean failed;
+
+		private Chunked(Operation parent, ChunkManifest manifest, byte[] content) {
+			this.parent = parent;
+			this.manifest = manifest;
+			this.content = content;
+			this.next = 0;
+			this.inFlight = 0;
+			this.done = 0;
+			this.failed = false;
+		}
+	}
+
+	//A multi-key request, with one operation per distinct key
+	private static class Batch {
+		private final UUID uid;
+		private final boolean store;
+		private final short sourceProto;
+		//By name, in the order of the request
+		private final Map<String, Operation> keys;
+		//Keys still handled by the batch, rather than as single-key operations
+		private final Set<Operation> round;
+		private final Map<RingId, Operation> awaitingOwners;
+		private final Set<Host> awaiting;
+		private final Map<Host, Long> sentAt;
+		private final Set<String> finished;
+		private final Set<String> stored;
+		private final Map<String, byte[]> contents;
+		private boolean sent;
+		private long timer;
+
+		private Batch(UUID uid, boolean store, short sourceProto) {
+			this.uid = uid;
+			this.store = store;
+			this.sourceProto = sourceProto;
+			this.keys = new LinkedHashMap<>();
+			this.round = new LinkedHashSet<>();
+			this.awaitingOwners = new HashMap<>();
+			this.awaiting = new HashSet<>();
+			this.sentAt = new HashMap<>();
+			this.finished = new HashSet<>();
+			this.stored = new HashSet<>();
+			this.contents = new HashMap<>();
+			this.sent = false;
+			this.timer = -1;
+		}
+
+		//Repeated names are only handled once
+		private void add(Operation op) {
+			if (keys.putIfAbsent(op.name, op) == null) {
+				op.batchOf = this;
+				round.add(op);
+			}
+		}
+	}
+
+	//Operations and batches waiting on the same LookupRequest
+	private static class LookupGroup {
+		private final UUID uid;
+		private final RingId id;
+		private final long startTime;
+		private final List<Operation> operations;
+		private final List<Batch> batches;
+
+		private LookupGroup(RingId id) {
+			this.uid = UUID.randomUUID();
+			this.id = id;
+			this.startTime = System.currentTimeMillis();
+			this.operations = new ArrayList<>(1);
+			this.batches = new ArrayList<>(0);
+		}
+	}
+}
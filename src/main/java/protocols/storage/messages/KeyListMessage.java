@@ -0,0 +1,81 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Anti-entropy: the names the sender holds in Merkle leaves that differ from the receiver's. If
+ * push is set the receiver transfers the contents the sender lacks, and if answer is set it
+ * replies with its own names for the same leaves, so the sender can do the same.
+ */
+public class KeyListMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 216;
+
+	private final int[] leaves;
+	private final List<String> names;
+	private final boolean push;
+	private final boolean answer;
+
+	public KeyListMessage(int[] leaves, List<String> names, boolean push, boolean answer) {
+		super(MSG_ID);
+		this.leaves = leaves;
+		this.names = names;
+		this.push = push;
+		this.answer = answer;
+	}
+
+	public int[] getLeaves() {
+		return leaves;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	public boolean isPush() {
+		return push;
+	}
+
+	public boolean isAnswer() {
+		return answer;
+	}
+
+	@Override
+	public String toString() {
+		return "KeyListMessage{leaves=" + leaves.length + ", names=" + names.size() + ", push=" + push + ", answer=" + answer + '}';
+	}
+
+	public static ISerializer<KeyListMessage> serializer = new ISerializer<KeyListMessage>() {
+		@Override
+		public void serialize(KeyListMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.leaves.length);
+			for (int leaf : msg.leaves)
+				out.writeInt(leaf);
+			out.writeInt(msg.names.size());
+			for (String name : msg.names)
+				StoreMessage.serializeString(name, out);
+			out.writeBoolean(msg.push);
+			out.writeBoolean(msg.answer);
+		}
+
+		@Override
+		public KeyListMessage deserialize(ByteBuf in) throws IOException {
+			int[] leaves = new int[in.readInt()];
+			for (int i = 0; i < leaves.length; i++)
+				leaves[i] = in.readInt();
+			int size = in.readInt();
+			List<String> names = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				names.add(StoreMessage.deserializeString(in));
+			boolean push = in.readBoolean();
+			boolean answer = in.readBoolean();
+			return new KeyListMessage(leaves, names, push, answer);
+		}
+	};
+}
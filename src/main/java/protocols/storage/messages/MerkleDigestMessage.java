@@ -0,0 +1,79 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Anti-entropy: hashes of some nodes of the sender's Merkle tree. The receiver answers with the
+ * hashes of the children of the nodes where it differs, and with a {@link KeyListMessage} for
+ * the leaves where it differs, so the two replicas walk down to the divergent key ranges only.
+ * In a handoff the initiator is no longer a replica of the range, and only pushes keys.
+ */
+public class MerkleDigestMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 215;
+
+	private final boolean handoff;
+	private final boolean fromInitiator;
+	private final int[] nodes;
+	private final long[] hashes;
+
+	public MerkleDigestMessage(boolean handoff, boolean fromInitiator, int[] nodes, long[] hashes) {
+		super(MSG_ID);
+		this.handoff = handoff;
+		this.fromInitiator = fromInitiator;
+		this.nodes = nodes;
+		this.hashes = hashes;
+	}
+
+	public boolean isHandoff() {
+		return handoff;
+	}
+
+	public boolean isFromInitiator() {
+		return fromInitiator;
+	}
+
+	public int[] getNodes() {
+		return nodes;
+	}
+
+	public long[] getHashes() {
+		return hashes;
+	}
+
+	@Override
+	public String toString() {
+		return "MerkleDigestMessage{handoff=" + handoff + ", fromInitiator=" + fromInitiator + ", nodes=" + nodes.length + '}';
+	}
+
+	public static ISerializer<MerkleDigestMessage> serializer = new ISerializer<MerkleDigestMessage>() {
+		@Override
+		public void serialize(MerkleDigestMessage msg, ByteBuf out) throws IOException {
+			out.writeBoolean(msg.handoff);
+			out.writeBoolean(msg.fromInitiator);
+			out.writeInt(msg.nodes.length);
+			for (int i = 0; i < msg.nodes.length; i++) {
+				out.writeInt(msg.nodes[i]);
+				out.writeLong(msg.hashes[i]);
+			}
+		}
+
+		@Override
+		public MerkleDigestMessage deserialize(ByteBuf in) throws IOException {
+			boolean handoff = in.readBoolean();
+			boolean fromInitiator = in.readBoolean();
+			int size = in.readInt();
+			int[] nodes = new int[size];
+			long[] hashes = new long[size];
+			for (int i = 0; i < size; i++) {
+				nodes[i] = in.readInt();
+				hashes[i] = in.readLong();
+			}
+			return new MerkleDigestMessage(handoff, fromInitiator, nodes, hashes);
+		}
+	};
+}
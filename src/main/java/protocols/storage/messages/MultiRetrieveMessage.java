@@ -0,0 +1,61 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Asks a replica for its copies of every content of a batch it owns, in a single message.
+ */
+public class MultiRetrieveMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 221;
+
+	private final UUID uid;
+	private final List<String> names;
+
+	public MultiRetrieveMessage(UUID uid, List<String> names) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.names = names;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return "MultiRetrieveMessage{uid=" + uid + ", names=" + names.size() + '}';
+	}
+
+	public static ISerializer<MultiRetrieveMessage> serializer = new ISerializer<MultiRetrieveMessage>() {
+		@Override
+		public void serialize(MultiRetrieveMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			out.writeInt(msg.names.size());
+			for (String name : msg.names)
+				StoreMessage.serializeString(name, out);
+		}
+
+		@Override
+		public MultiRetrieveMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			int size = in.readInt();
+			List<String> names = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				names.add(StoreMessage.deserializeString(in));
+			return new MultiRetrieveMessage(uid, names);
+		}
+	};
+}
@@ -0,0 +1,90 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link MultiRetrieveMessage}: for each name, the content, or null if the replica does
+ * not hold it. As in {@link RetrieveResponseMessage}, replicas send views of their stored copies.
+ */
+public class MultiRetrieveResponseMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 222;
+
+	private final UUID uid;
+	private final List<String> names;
+	private final List<ByteBuffer> views;
+
+	public MultiRetrieveResponseMessage(UUID uid, List<String> names, List<ByteBuffer> views) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.names = names;
+		this.views = views;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	//Content of the i-th name, null if the replica does not hold it
+	public byte[] getContent(int i) {
+		ByteBuffer view = views.get(i);
+		if (view == null)
+			return null;
+		byte[] content = new byte[view.remaining()];
+		view.duplicate().get(content);
+		return content;
+	}
+
+	@Override
+	public String toString() {
+		return "MultiRetrieveResponseMessage{uid=" + uid + ", names=" + names.size() + '}';
+	}
+
+	public static ISerializer<MultiRetrieveResponseMessage> serializer = new ISerializer<MultiRetrieveResponseMessage>() {
+		@Override
+		public void serialize(MultiRetrieveResponseMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			out.writeInt(msg.names.size());
+			for (int i = 0; i < msg.names.size(); i++) {
+				StoreMessage.serializeString(msg.names.get(i), out);
+				ByteBuffer view = msg.views.get(i);
+				out.writeInt(view == null ? -1 : view.remaining());
+				if (view != null)
+					out.writeBytes(view.duplicate());
+			}
+		}
+
+		@Override
+		public MultiRetrieveResponseMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			int size = in.readInt();
+			List<String> names = new ArrayList<>(size);
+			List<ByteBuffer> views = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				names.add(StoreMessage.deserializeString(in));
+				int length = in.readInt();
+				ByteBuffer view = null;
+				if (length >= 0) {
+					byte[] content = new byte[length];
+					in.readBytes(content);
+					view = ByteBuffer.wrap(content);
+				}
+				views.add(view);
+			}
+			return new MultiRetrieveResponseMessage(uid, names, views);
+		}
+	};
+}
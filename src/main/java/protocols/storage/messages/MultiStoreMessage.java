@@ -0,0 +1,75 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Asks a replica to keep a copy of every content of a batch it owns, in a single message.
+ */
+public class MultiStoreMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 219;
+
+	private final UUID uid;
+	private final List<String> names;
+	private final List<byte[]> contents;
+
+	public MultiStoreMessage(UUID uid, List<String> names, List<byte[]> contents) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.names = names;
+		this.contents = contents;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	public List<byte[]> getContents() {
+		return contents;
+	}
+
+	@Override
+	public String toString() {
+		return "MultiStoreMessage{uid=" + uid + ", names=" + names.size() + '}';
+	}
+
+	public static ISerializer<MultiStoreMessage> serializer = new ISerializer<MultiStoreMessage>() {
+		@Override
+		public void serialize(MultiStoreMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			out.writeInt(msg.names.size());
+			for (int i = 0; i < msg.names.size(); i++) {
+				StoreMessage.serializeString(msg.names.get(i), out);
+				out.writeInt(msg.contents.get(i).length);
+				out.writeBytes(msg.contents.get(i));
+			}
+		}
+
+		@Override
+		public MultiStoreMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			int size = in.readInt();
+			List<String> names = new ArrayList<>(size);
+			List<byte[]> contents = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				names.add(StoreMessage.deserializeString(in));
+				byte[] content = new byte[in.readInt()];
+				in.readBytes(content);
+				contents.add(content);
+			}
+			return new MultiStoreMessage(uid, names, contents);
+		}
+	};
+}
@@ -0,0 +1,54 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Asks a replica for its copy of a content.
+ */
+public class RetrieveMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 213;
+
+	private final UUID uid;
+	private final String name;
+
+	public RetrieveMessage(UUID uid, String name) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.name = name;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return "RetrieveMessage{uid=" + uid + ", name=" + name + '}';
+	}
+
+	public static ISerializer<RetrieveMessage> serializer = new ISerializer<RetrieveMessage>() {
+		@Override
+		public void serialize(RetrieveMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			StoreMessage.serializeString(msg.name, out);
+		}
+
+		@Override
+		public RetrieveMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			String name = StoreMessage.deserializeString(in);
+			return new RetrieveMessage(uid, name);
+		}
+	};
+}
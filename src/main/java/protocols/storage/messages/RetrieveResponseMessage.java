@@ -0,0 +1,93 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link RetrieveMessage}: the content, or null if the replica does not hold it.
+ * Replicas send a view of their stored copy, which is written straight to the network.
+ */
+public class RetrieveResponseMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 214;
+
+	private final UUID uid;
+	private final String name;
+	private byte[] content;
+	private final ByteBuffer view;
+
+	public RetrieveResponseMessage(UUID uid, String name, byte[] content) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.name = name;
+		this.content = content;
+		this.view = null;
+	}
+
+	public RetrieveResponseMessage(UUID uid, String name, ByteBuffer view) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.name = name;
+		this.content = null;
+		this.view = view;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isFound() {
+		return content != null || view != null;
+	}
+
+	public byte[] getContent() {
+		if (content == null && view != null) {
+			content = new byte[view.remaining()];
+			view.duplicate().get(content);
+		}
+		return content;
+	}
+
+	@Override
+	public String toString() {
+		return "RetrieveResponseMessage{uid=" + uid + ", name=" + name + ", found=" + isFound() + '}';
+	}
+
+	public static ISerializer<RetrieveResponseMessage> serializer = new ISerializer<RetrieveResponseMessage>() {
+		@Override
+		public void serialize(RetrieveResponseMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			StoreMessage.serializeString(msg.name, out);
+			out.writeBoolean(msg.isFound());
+			if (msg.content != null) {
+				out.writeInt(msg.content.length);
+				out.writeBytes(msg.content);
+			} else if (msg.view != null) {
+				out.writeInt(msg.view.remaining());
+				out.writeBytes(msg.view.duplicate());
+			}
+		}
+
+		@Override
+		public RetrieveResponseMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			String name = StoreMessage.deserializeString(in);
+			byte[] content = null;
+			if (in.readBoolean()) {
+				content = new byte[in.readInt()];
+				in.readBytes(content);
+			}
+			return new RetrieveResponseMessage(uid, name, content);
+		}
+	};
+}
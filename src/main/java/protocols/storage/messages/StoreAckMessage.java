@@ -0,0 +1,63 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link StoreMessage}: whether the replica now holds the content. Failed writes are
+ * answered too, so that the writer does not take the replica for a dead one.
+ */
+public class StoreAckMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 212;
+
+	private final UUID uid;
+	private final String name;
+	private final boolean stored;
+
+	public StoreAckMessage(UUID uid, String name, boolean stored) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.name = name;
+		this.stored = stored;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isStored() {
+		return stored;
+	}
+
+	@Override
+	public String toString() {
+		return "StoreAckMessage{uid=" + uid + ", name=" + name + ", stored=" + stored + '}';
+	}
+
+	public static ISerializer<StoreAckMessage> serializer = new ISerializer<StoreAckMessage>() {
+		@Override
+		public void serialize(StoreAckMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			StoreMessage.serializeString(msg.name, out);
+			out.writeBoolean(msg.stored);
+		}
+
+		@Override
+		public StoreAckMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			String name = StoreMessage.deserializeString(in);
+			boolean stored = in.readBoolean();
+			return new StoreAckMessage(uid, name, stored);
+		}
+	};
+}
@@ -0,0 +1,77 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Asks a replica to keep a copy of a content.
+ */
+public class StoreMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 211;
+
+	private final UUID uid;
+	private final String name;
+	private final byte[] content;
+
+	public StoreMessage(UUID uid, String name, byte[] content) {
+		super(MSG_ID);
+		this.uid = uid;
+		this.name = name;
+		this.content = content;
+	}
+
+	public UUID getUid() {
+		return uid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	@Override
+	public String toString() {
+		return "StoreMessage{uid=" + uid + ", name=" + name + ", size=" + content.length + '}';
+	}
+
+	public static void serializeString(String s, ByteBuf out) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.writeBytes(bytes);
+	}
+
+	public static String deserializeString(ByteBuf in) {
+		byte[] bytes = new byte[in.readShort() & 0xFFFF];
+		in.readBytes(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static ISerializer<StoreMessage> serializer = new ISerializer<StoreMessage>() {
+		@Override
+		public void serialize(StoreMessage msg, ByteBuf out) throws IOException {
+			out.writeLong(msg.uid.getMostSignificantBits());
+			out.writeLong(msg.uid.getLeastSignificantBits());
+			serializeString(msg.name, out);
+			out.writeInt(msg.content.length);
+			out.writeBytes(msg.content);
+		}
+
+		@Override
+		public StoreMessage deserialize(ByteBuf in) throws IOException {
+			UUID uid = new UUID(in.readLong(), in.readLong());
+			String name = deserializeString(in);
+			byte[] content = new byte[in.readInt()];
+			in.readBytes(content);
+			return new StoreMessage(uid, name, content);
+		}
+	};
+}
@@ -0,0 +1,43 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Answer to {@link TransferMessage}: the chunk is stored, and how many of its contents were new.
+ */
+public class TransferAckMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 218;
+
+	private final int stored;
+
+	public TransferAckMessage(int stored) {
+		super(MSG_ID);
+		this.stored = stored;
+	}
+
+	public int getStored() {
+		return stored;
+	}
+
+	@Override
+	public String toString() {
+		return "TransferAckMessage{stored=" + stored + '}';
+	}
+
+	public static ISerializer<TransferAckMessage> serializer = new ISerializer<TransferAckMessage>() {
+		@Override
+		public void serialize(TransferAckMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.stored);
+		}
+
+		@Override
+		public TransferAckMessage deserialize(ByteBuf in) throws IOException {
+			return new TransferAckMessage(in.readInt());
+		}
+	};
+}
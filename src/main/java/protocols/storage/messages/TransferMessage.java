@@ -0,0 +1,66 @@
+package protocols.storage.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Anti-entropy: one chunk of the contents a replica lacks, streamed by key range. Answered with
+ * a {@link TransferAckMessage} once stored, which lets the sender have the next chunk in flight.
+ */
+public class TransferMessage extends ProtoMessage {
+
+	public final static short MSG_ID = 217;
+
+	private final List<String> names;
+	private final List<byte[]> contents;
+
+	public TransferMessage(List<String> names, List<byte[]> contents) {
+		super(MSG_ID);
+		this.names = names;
+		this.contents = contents;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	public List<byte[]> getContents() {
+		return contents;
+	}
+
+	@Override
+	public String toString() {
+		return "TransferMessage{names=" + names.size() + '}';
+	}
+
+	public static ISerializer<TransferMessage> serializer = new ISerializer<TransferMessage>() {
+		@Override
+		public void serialize(TransferMessage msg, ByteBuf out) throws IOException {
+			out.writeInt(msg.names.size());
+			for (int i = 0; i < msg.names.size(); i++) {
+				StoreMessage.serializeString(msg.names.get(i), out);
+				out.writeInt(msg.contents.get(i).length);
+				out.writeBytes(msg.contents.get(i));
+			}
+		}
+
+		@Override
+		public TransferMessage deserialize(ByteBuf in) throws IOException {
+			int size = in.readInt();
+			List<String> names = new ArrayList<>(size);
+			List<byte[]> contents = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				names.add(StoreMessage.deserializeString(in));
+				byte[] content = new byte[in.readInt()];
+				in.readBytes(content);
+				contents.add(content);
+			}
+			return new TransferMessage(names, contents);
+		}
+	};
+}
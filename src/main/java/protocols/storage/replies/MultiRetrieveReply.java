@@ -0,0 +1,29 @@
+package protocols.storage.replies;
+
+import java.util.Map;
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+public class MultiRetrieveReply extends ProtoReply {
+
+	final public static short REPLY_ID = 207;
+	
+	//For each name of the request, its content, or null if it could not be retrieved
+	private Map<String, byte[]> contents;
+	private UUID uid;
+	
+	public MultiRetrieveReply(UUID uid, Map<String, byte[]> contents) {
+		super(MultiRetrieveReply.REPLY_ID);
+		this.contents = contents;
+		this.uid = uid;
+	}
+	
+	public UUID getReplyUID() {
+		return this.uid;
+	}
+	
+	public Map<String, byte[]> getContents() {
+		return this.contents;
+	}
+}
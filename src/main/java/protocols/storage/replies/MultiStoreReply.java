@@ -0,0 +1,29 @@
+package protocols.storage.replies;
+
+import java.util.Map;
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+public class MultiStoreReply extends ProtoReply {
+
+	final public static short REPLY_ID = 206;
+	
+	//For each name of the request, whether it was stored
+	private Map<String, Boolean> results;
+	private UUID uid;
+	
+	public MultiStoreReply(UUID uid, Map<String, Boolean> results) {
+		super(MultiStoreReply.REPLY_ID);
+		this.results = results;
+		this.uid = uid;
+	}
+	
+	public UUID getReplyUID() {
+		return this.uid;
+	}
+	
+	public Map<String, Boolean> getResults() {
+		return this.results;
+	}
+}
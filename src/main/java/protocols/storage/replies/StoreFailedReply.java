@@ -0,0 +1,28 @@
+package protocols.storage.replies;
+
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+public class StoreFailedReply extends ProtoReply {
+
+	final public static short REPLY_ID = 208;
+	
+	private String name;
+	private UUID uid;
+	
+	public StoreFailedReply(String name, UUID uid) {
+		super(StoreFailedReply.REPLY_ID);
+		this.name = name;
+		this.uid = uid;
+	}
+	
+	public UUID getReplyUID() {
+		return this.uid;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+
+}
@@ -0,0 +1,29 @@
+package protocols.storage.requests;
+
+import java.util.List;
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+
+public class MultiRetrieveRequest extends ProtoRequest {
+
+	final public static short REQUEST_ID = 204;
+	
+	private List<String> names;
+	private UUID uid;
+	
+	public MultiRetrieveRequest(List<String> names) {
+		super(MultiRetrieveRequest.REQUEST_ID);
+		this.names = names;
+		this.uid = UUID.randomUUID();
+	}
+	
+	public UUID getRequestUID() {
+		return this.uid;
+	}
+	
+	public List<String> getNames() {
+		return this.names;
+	}
+
+}
@@ -0,0 +1,37 @@
+package protocols.storage.requests;
+
+import java.util.List;
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+
+public class MultiStoreRequest extends ProtoRequest {
+
+	final public static short REQUEST_ID = 203;
+	
+	private List<String> names;
+	private List<byte[]> contents;
+	private UUID uid;
+	
+	public MultiStoreRequest(List<String> names, List<byte[]> contents) {
+		super(MultiStoreRequest.REQUEST_ID);
+		if (names.size() != contents.size())
+			throw new IllegalArgumentException("Every name needs a content");
+		this.names = names;
+		this.contents = contents;
+		this.uid = UUID.randomUUID();
+	}
+	
+	public UUID getRequestUID() {
+		return this.uid;
+	}
+	
+	public List<String> getNames() {
+		return this.names;
+	}
+	
+	public List<byte[]> getContents() {
+		return this.contents;
+	}
+
+}
@@ -0,0 +1,46 @@
+package protocols.storage.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Local storage of the contents replicated at this node.
+ */
+public interface ContentStore {
+
+	void put(String name, byte[] content) throws IOException;
+
+	//A copy of the content, or null if absent
+	byte[] get(String name);
+
+	//A read-only view of the content that can be written to the network without copying it
+	//to the heap first, or null if absent. Valid until the next put.
+	ByteBuffer view(String name);
+
+	boolean contains(String name);
+
+	//Number of contents stored
+	int size();
+
+	//Bytes of content stored
+	long bytes();
+
+	//Calls the consumer with the name of every content, e.g. to index a recovered store
+	void forEachName(Consumer<String> consumer);
+
+	void close() throws IOException;
+
+	//True if put only becomes durable after the next sync
+	default boolean isDurable() {
+		return false;
+	}
+
+	//Makes every previous put durable
+	default void sync() throws IOException {
+	}
+
+	//Periodic housekeeping (checkpoints, compaction), kept short enough to run between requests
+	default void maintenance() throws IOException {
+	}
+}
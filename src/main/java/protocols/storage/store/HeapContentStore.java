@@ -0,0 +1,62 @@
+package protocols.storage.store;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Baseline store: contents kept as arrays in a heap map.
+ */
+public class HeapContentStore implements ContentStore {
+
+	private final Map<String, byte[]> contents;
+	private long bytes;
+
+	public HeapContentStore() {
+		this.contents = new HashMap<>();
+		this.bytes = 0;
+	}
+
+	@Override
+	public void put(String name, byte[] content) {
+		byte[] old = contents.put(name, content);
+		bytes += content.length - (old == null ? 0 : old.length);
+	}
+
+	@Override
+	public byte[] get(String name) {
+		return contents.get(name);
+	}
+
+	@Override
+	public ByteBuffer view(String name) {
+		byte[] content = contents.get(name);
+		return content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer();
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return contents.containsKey(name);
+	}
+
+	@Override
+	public int size() {
+		return contents.size();
+	}
+
+	@Override
+	public long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public void forEachName(Consumer<String> consumer) {
+		contents.keySet().forEach(consumer);
+	}
+
+	@Override
+	public void close() {
+		contents.clear();
+	}
+}
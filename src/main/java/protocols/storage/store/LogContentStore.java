@@ -0,0 +1,427 @@
+package protocols.storage.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Durable, log-structured store. Contents are appended to segment files; each record is
+ * [crc][name length][name][content length][content]. Appends are made durable in groups by
+ * {@link #sync()}, so a single fsync covers every put since the previous one.
+ *
+ * The in-memory {@link SegmentIndex} is checkpointed to disk once enough bytes were appended,
+ * together with the log position it covers, so a restart loads the checkpoint and only replays
+ * the records written after it. Segments whose live data dropped below a threshold are compacted
+ * one per {@link #maintenance()} call, by copying their live records to the head of the log.
+ */
+public class LogContentStore implements ContentStore {
+	private static final Logger logger = LogManager.getLogger(LogContentStore.class);
+
+	private static final String CHECKPOINT = "index.ckpt";
+	private static final int HEADER = Integer.BYTES * 3;
+
+	private final File directory;
+	private final int segmentSize;
+	private final long checkpointBytes;
+	private final double compactionThreshold;
+
+	//Open segments, by id; the last one is the head of the log
+	private final TreeMap<Integer, FileChannel> segments;
+	//Bytes of live records in each segment
+	private final TreeMap<Integer, Long> liveBytes;
+	private final SegmentIndex index;
+	//Content length of each indexed record, so checkpoints and accounting never touch the disk
+	private final SegmentIndex lengths;
+	private FileChannel head;
+	private int headId;
+	private long headSize;
+	private long sinceCheckpoint;
+	private long bytes;
+	private int count;
+	private boolean dirty;
+
+	//Variables related with measurement
+	private long recoveryTime;
+	private long replayedRecords;
+
+	public LogContentStore(File directory, int segmentSize, long checkpointBytes, double compactionThreshold,
+			int expectedContents) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.checkpointBytes = checkpointBytes;
+		this.compactionThreshold = compactionThreshold;
+		this.segments = new TreeMap<>();
+		this.liveBytes = new TreeMap<>();
+		this.index = new SegmentIndex(expectedContents);
+		this.lengths = new SegmentIndex(expectedContents);
+		this.bytes = 0;
+		this.count = 0;
+		this.dirty = false;
+		directory.mkdirs();
+		recover();
+	}
+
+	private File segmentFile(int id) {
+		return new File(directory, String.format("%08d.log", id));
+	}
+
+	private static long location(int segment, long offset) {
+		return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private FileChannel openSegment(int id) throws IOException {
+		FileChannel channel = FileChannel.open(segmentFile(id).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segments.put(id, channel);
+		liveBytes.putIfAbsent(id, 0L);
+		return channel;
+	}
+
+	/*--------------------------------- Recovery ---------------------------------------- */
+
+	private void recover() throws IOException {
+		long start = System.nanoTime();
+		File[] files = directory.listFiles((d, n) -> n.endsWith(".log"));
+		if (files != null)
+			for (File f : files)
+				openSegment(Integer.parseInt(f.getName().substring(0, f.getName().length() - 4)));
+
+		int replaySegment = segments.isEmpty() ? 0 : segments.firstKey();
+		long replayOffset = 0;
+		File checkpoint = new File(directory, CHECKPOINT);
+		if (checkpoint.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)))) {
+				int ckptSegment = in.readInt();
+				long ckptOffset = in.readLong();
+				int entries = in.readInt();
+				for (int i = 0; i < entries; i++) {
+					long hash = in.readLong();
+					long location = in.readLong();
+					int length = in.readInt();
+					index.put(hash, location);
+					lengths.put(hash, length);
+					addLive((int) (location >>> 32), recordSize(length));
+				}
+				count = entries;
+				bytes = in.readLong();
+				replaySegment = ckptSegment;
+				replayOffset = ckptOffset;
+			} catch (EOFException e) {
+				//A torn checkpoint: rebuild everything from the log
+				logger.warn("Ignoring incomplete checkpoint in {}", directory);
+				index.clear();
+				lengths.clear();
+				liveBytes.replaceAll((k, v) -> 0L);
+				count = 0;
+				bytes = 0;
+				replaySegment = segments.isEmpty() ? 0 : segments.firstKey();
+				replayOffset = 0;
+			}
+		}
+
+		for (Map.Entry<Integer, FileChannel> e : segments.tailMap(replaySegment, true).entrySet()) {
+			long from = e.getKey() == replaySegment ? replayOffset : 0;
+			replay(e.getKey(), e.getValue(), from);
+		}
+
+		if (segments.isEmpty()) {
+			headId = 0;
+			head = openSegment(0);
+		} else {
+			headId = segments.lastKey();
+			head = segments.get(headId);
+		}
+		headSize = head.size();
+		recoveryTime = (System.nanoTime() - start) / 1_000_000;
+		logger.info("Recovered {} contents ({} bytes) from {} in {} ms, replayed {} records after the checkpoint",
+				count, bytes, directory, recoveryTime, replayedRecords);
+	}
+
+	//Re-applies the records of a segment from an offset, truncating a torn tail
+	private void replay(int id, FileChannel channel, long offset) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		while (offset + HEADER <= size) {
+			header.clear();
+			channel.read(header, offset);
+			header.flip();
+			int crc = header.getInt();
+			int nameLength = header.getInt();
+			int length = header.getInt();
+			long recordSize = HEADER + (long) nameLength + length;
+			if (nameLength < 0 || length < 0 || offset + recordSize > size)
+				break;
+			ByteBuffer body = ByteBuffer.allocate(nameLength + length);
+			channel.read(body, offset + HEADER);
+			CRC32 check = new CRC32();
+			check.update(body.array());
+			if ((int) check.getValue() != crc)
+				break;
+			String name = new String(body.array(), 0, nameLength, StandardCharsets.UTF_8);
+			applyPut(SegmentIndex.hash(name), location(id, offset), length);
+			replayedRecords++;
+			offset += recordSize;
+		}
+		if (offset < size) {
+			logger.warn("Truncating torn tail of segment {} at {}", id, offset);
+			channel.truncate(offset);
+		}
+	}
+
+	private static long recordSize(long contentLength) {
+		//Name lengths are not tracked per entry, live byte counts are an estimate that ignores them
+		return HEADER + (long) contentLength;
+	}
+
+	private void addLive(int segment, long delta) {
+		liveBytes.merge(segment, delta, Long::sum);
+	}
+
+	private void applyPut(long hash, long location, int length) {
+		long old = index.put(hash, location);
+		long oldLength = lengths.put(hash, length);
+		addLive((int) (location >>> 32), recordSize(length));
+		bytes += length;
+		if (old >= 0) {
+			addLive((int) (old >>> 32), -recordSize(oldLength));
+			bytes -= oldLength;
+		} else {
+			count++;
+		}
+	}
+
+	/*--------------------------------- Reads and writes -------------------------------- */
+
+	@Override
+	public void put(String name, byte[] content) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int size = HEADER + nameBytes.length + content.length;
+		if (headSize > 0 && headSize + size > segmentSize)
+			roll();
+		CRC32 crc = new CRC32();
+		crc.update(nameBytes);
+		crc.update(content);
+		ByteBuffer record = ByteBuffer.allocate(size);
+		record.putInt((int) crc.getValue());
+		record.putInt(nameBytes.length);
+		record.putInt(content.length);
+		record.put(nameBytes);
+		record.put(content);
+		record.flip();
+		long offset = headSize;
+		while (record.hasRemaining())
+			headSize += head.write(record, headSize);
+		applyPut(SegmentIndex.hash(name), location(headId, offset), content.length);
+		sinceCheckpoint += size;
+		dirty = true;
+	}
+
+	private void roll() throws IOException {
+		head.force(false);
+		headId++;
+		head = openSegment(headId);
+		headSize = 0;
+	}
+
+	private ByteBuffer read(String name) {
+		long location = index.get(SegmentIndex.hash(name));
+		if (location < 0)
+			return null;
+		try {
+			FileChannel channel = segments.get((int) (location >>> 32));
+			long offset = location & 0xFFFFFFFFL;
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			channel.read(header, offset);
+			int nameLength = header.getInt(4);
+			int length = header.getInt(8);
+			ByteBuffer body = ByteBuffer.allocate(nameLength + length);
+			channel.read(body, offset + HEADER);
+			if (!name.equals(new String(body.array(), 0, nameLength, StandardCharsets.UTF_8)))
+				return null;
+			body.position(nameLength);
+			return body.slice();
+		} catch (IOException e) {
+			logger.error("Unable to read {}: {}", name, e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public byte[] get(String name) {
+		ByteBuffer content = read(name);
+		if (content == null)
+			return null;
+		byte[] result = new byte[content.remaining()];
+		content.get(result);
+		return result;
+	}
+
+	@Override
+	public ByteBuffer view(String name) {
+		ByteBuffer content = read(name);
+		return content == null ? null : content.asReadOnlyBuffer();
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return index.get(SegmentIndex.hash(name)) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public void forEachName(Consumer<String> consumer) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		index.forEach((hash, location) -> {
+			try {
+				FileChannel channel = segments.get((int) (location >>> 32));
+				long offset = location & 0xFFFFFFFFL;
+				header.clear();
+				channel.read(header, offset);
+				ByteBuffer name = ByteBuffer.allocate(header.getInt(4));
+				channel.read(name, offset + HEADER);
+				consumer.accept(new String(name.array(), StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.error("Unable to read the record at {}: {}", location, e.getMessage());
+			}
+		});
+	}
+
+	public long getRecoveryTime() {
+		return recoveryTime;
+	}
+
+	@Override
+	public boolean isDurable() {
+		return true;
+	}
+
+	@Override
+	public void sync() throws IOException {
+		if (dirty) {
+			head.force(false);
+			dirty = false;
+		}
+	}
+
+	/*--------------------------------- Maintenance ------------------------------------- */
+
+	@Override
+	public void maintenance() throws IOException {
+		compactOne();
+		if (sinceCheckpoint >= checkpointBytes)
+			checkpoint();
+	}
+
+	//Rewrites the live records of the emptiest sealed segment, if it is empty enough
+	private void compactOne() throws IOException {
+		int victim = -1;
+		double lowest = compactionThreshold;
+		for (Map.Entry<Integer, Long> e : liveBytes.entrySet()) {
+			if (e.getKey() == headId)
+				continue;
+			double ratio = (double) e.getValue() / segmentSize;
+			if (ratio < lowest) {
+				lowest = ratio;
+				victim = e.getKey();
+			}
+		}
+		if (victim < 0)
+			return;
+		FileChannel channel = segments.get(victim);
+		long size = channel.size();
+		long offset = 0;
+		int moved = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		while (offset + HEADER <= size) {
+			header.clear();
+			channel.read(header, offset);
+			int nameLength = header.getInt(4);
+			int length = header.getInt(8);
+			long recordSize = HEADER + (long) nameLength + length;
+			ByteBuffer body = ByteBuffer.allocate(nameLength + length);
+			channel.read(body, offset + HEADER);
+			String name = new String(body.array(), 0, nameLength, StandardCharsets.UTF_8);
+			if (index.get(SegmentIndex.hash(name)) == location(victim, offset)) {
+				byte[] content = new byte[length];
+				System.arraycopy(body.array(), nameLength, content, 0, length);
+				put(name, content);
+				moved++;
+			}
+			offset += recordSize;
+		}
+		//The copies must be durable, and indexed by a checkpoint, before the old segment goes away
+		sync();
+		checkpoint();
+		channel.close();
+		segments.remove(victim);
+		liveBytes.remove(victim);
+		Files.deleteIfExists(segmentFile(victim).toPath());
+		logger.debug("Compacted segment {} of {}, {} live records moved", victim, directory, moved);
+	}
+
+	//Writes the index and the log position it covers, atomically replacing the previous checkpoint
+	public void checkpoint() throws IOException {
+		sync();
+		File tmp = new File(directory, CHECKPOINT + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+			out.writeInt(headId);
+			out.writeLong(headSize);
+			out.writeInt(index.size());
+			IOException[] error = new IOException[1];
+			index.forEach((hash, location) -> {
+				try {
+					out.writeLong(hash);
+					out.writeLong(location);
+					out.writeInt((int) lengths.get(hash));
+				} catch (IOException e) {
+					error[0] = e;
+				}
+			});
+			if (error[0] != null)
+				throw error[0];
+			out.writeLong(bytes);
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), new File(directory, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		sinceCheckpoint = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		checkpoint();
+		for (FileChannel channel : segments.values())
+			channel.close();
+		segments.clear();
+	}
+}
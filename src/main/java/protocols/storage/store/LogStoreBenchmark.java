@@ -0,0 +1,68 @@
+package protocols.storage.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures the write throughput of a {@link LogContentStore} and its restart time as a function
+ * of the amount of data it holds, with and without a checkpoint covering the log.
+ */
+public class LogStoreBenchmark {
+
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int SYNC_BATCH = 64;
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	private static long restart(File dir, boolean checkpoint) throws IOException {
+		if (!checkpoint)
+			new File(dir, "index.ckpt").delete();
+		long start = System.nanoTime();
+		LogContentStore store = new LogContentStore(dir, SEGMENT_SIZE, Long.MAX_VALUE, 0, 1024);
+		long elapsed = (System.nanoTime() - start) / 1_000_000;
+		store.close();
+		return elapsed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: java " + LogStoreBenchmark.class.getCanonicalName()
+					+ " <directory> <content_size> <max_megabytes>");
+			System.exit(1);
+		}
+		File dir = new File(args[0]);
+		int contentSize = Integer.parseInt(args[1]);
+		long maxBytes = Long.parseLong(args[2]) * 1024 * 1024;
+		byte[] content = new byte[contentSize];
+		new Random(0).nextBytes(content);
+
+		System.out.println("megabytes\tcontents\twrite_MBps\trestart_ckpt_ms\trestart_full_ms");
+		for (long total = 16L * 1024 * 1024; total <= maxBytes; total *= 2) {
+			delete(dir);
+			LogContentStore store = new LogContentStore(dir, SEGMENT_SIZE, Long.MAX_VALUE, 0, 1024);
+			int contents = (int) (total / contentSize);
+			long start = System.nanoTime();
+			for (int i = 0; i < contents; i++) {
+				store.put("content-" + i, content);
+				if (i % SYNC_BATCH == SYNC_BATCH - 1)
+					store.sync();
+			}
+			store.sync();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			store.close();
+
+			long withCheckpoint = restart(dir, true);
+			long fullReplay = restart(dir, false);
+			System.out.println(total / 1024 / 1024 + "\t" + contents + "\t"
+					+ String.format("%.1f", total / 1024.0 / 1024 / seconds) + "\t" + withCheckpoint + "\t" + fullReplay);
+		}
+		delete(dir);
+	}
+}
@@ -0,0 +1,165 @@
+package protocols.storage.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps contents outside of the Java heap, appended to fixed-size segments that are either
+ * direct buffers or memory-mapped files. The heap only holds a {@link SegmentIndex} from the
+ * hash of each name to the location of its latest record, so heap usage (and GC work) does not
+ * grow with the stored bytes. Each record is [name length][name][content length][content];
+ * overwritten records are not reclaimed.
+ */
+public class OffHeapContentStore implements ContentStore {
+
+	private final File directory;
+	private final String prefix;
+	private final int segmentSize;
+	private final List<ByteBuffer> segments;
+	private final List<FileChannel> files;
+	private final SegmentIndex index;
+	private ByteBuffer current;
+	private long bytes;
+
+	/**
+	 * @param directory where segment files are mapped, or null to use direct buffers
+	 * @param prefix file name prefix of the segments of this store
+	 */
+	public OffHeapContentStore(File directory, String prefix, int segmentSize, int expectedContents) throws IOException {
+		this.directory = directory;
+		this.prefix = prefix;
+		this.segmentSize = segmentSize;
+		this.segments = new ArrayList<>();
+		this.files = new ArrayList<>();
+		this.index = new SegmentIndex(expectedContents);
+		this.bytes = 0;
+		if (directory != null)
+			directory.mkdirs();
+		newSegment();
+	}
+
+	private void newSegment() throws IOException {
+		if (segments.size() >= 0xFFFF)
+			throw new IOException("Content store is full");
+		ByteBuffer segment;
+		if (directory == null) {
+			segment = ByteBuffer.allocateDirect(segmentSize);
+		} else {
+			File f = new File(directory, prefix + "-" + segments.size() + ".seg");
+			f.delete();
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			FileChannel channel = raf.getChannel();
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			files.add(channel);
+			f.deleteOnExit();
+		}
+		segments.add(segment);
+		current = segment;
+	}
+
+	private static long location(int segment, int offset) {
+		return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public void put(String name, byte[] content) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int recordSize = Integer.BYTES + nameBytes.length + Integer.BYTES + content.length;
+		if (recordSize > segmentSize)
+			throw new IOException("Content " + name + " does not fit in a segment of " + segmentSize + " bytes");
+		if (current.remaining() < recordSize)
+			newSegment();
+		int offset = current.position();
+		current.putInt(nameBytes.length);
+		current.put(nameBytes);
+		current.putInt(content.length);
+		current.put(content);
+		long old = index.put(SegmentIndex.hash(name), location(segments.size() - 1, offset));
+		bytes += content.length;
+		if (old >= 0) {
+			ByteBuffer previous = record(old, null);
+			if (previous != null)
+				bytes -= previous.remaining();
+		}
+	}
+
+	//The content of the record at location, if it belongs to name (any name if null)
+	private ByteBuffer record(long location, byte[] name) {
+		ByteBuffer segment = segments.get((int) (location >>> 32)).duplicate();
+		segment.position((int) location);
+		int nameLength = segment.getInt();
+		if (name != null) {
+			if (nameLength != name.length)
+				return null;
+			for (int i = 0; i < nameLength; i++)
+				if (segment.get() != name[i])
+					return null;
+		} else {
+			segment.position(segment.position() + nameLength);
+		}
+		int length = segment.getInt();
+		segment.limit(segment.position() + length);
+		return segment.slice();
+	}
+
+	@Override
+	public ByteBuffer view(String name) {
+		long location = index.get(SegmentIndex.hash(name));
+		if (location < 0)
+			return null;
+		ByteBuffer content = record(location, name.getBytes(StandardCharsets.UTF_8));
+		return content == null ? null : content.asReadOnlyBuffer();
+	}
+
+	@Override
+	public byte[] get(String name) {
+		ByteBuffer view = view(name);
+		if (view == null)
+			return null;
+		byte[] content = new byte[view.remaining()];
+		view.get(content);
+		return content;
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return view(name) != null;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public void forEachName(Consumer<String> consumer) {
+		index.forEach((hash, location) -> {
+			ByteBuffer segment = segments.get((int) (location >>> 32)).duplicate();
+			segment.position((int) location);
+			byte[] name = new byte[segment.getInt()];
+			segment.get(name);
+			consumer.accept(new String(name, StandardCharsets.UTF_8));
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (FileChannel channel : files)
+			channel.close();
+		files.clear();
+		segments.clear();
+		index.clear();
+	}
+}
@@ -0,0 +1,109 @@
+package protocols.storage.store;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from a 64-bit key hash to a packed 64-bit location, kept in two
+ * primitive arrays (16 bytes per entry, no objects). Hash 0 is reserved to mark empty slots.
+ */
+public class SegmentIndex {
+
+	private static final float MAX_LOAD = 0.6f;
+
+	private long[] keys;
+	private long[] values;
+	private int size;
+	private int mask;
+
+	public SegmentIndex(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / MAX_LOAD)) - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new long[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+	}
+
+	//64-bit FNV-1a hash of a content name
+	public static long hash(String name) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			h ^= name.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static long fix(long hash) {
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static int spread(long hash) {
+		long h = hash * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	//The location stored for hash, or -1
+	public long get(long hash) {
+		hash = fix(hash);
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == hash)
+				return values[i];
+			if (k == 0)
+				return -1;
+		}
+	}
+
+	//Stores a location, returning the previous one or -1
+	public long put(long hash, long location) {
+		hash = fix(hash);
+		if (size + 1 > keys.length * MAX_LOAD)
+			resize();
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == hash) {
+				long old = values[i];
+				values[i] = location;
+				return old;
+			}
+			if (k == 0) {
+				keys[i] = hash;
+				values[i] = location;
+				size++;
+				return -1;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//Calls the consumer for every (hash, location) pair
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != 0)
+				consumer.accept(keys[i], values[i]);
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new long[oldValues.length * 2];
+		mask = keys.length - 1;
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != 0)
+				put(oldKeys[i], oldValues[i]);
+	}
+
+	public interface EntryConsumer {
+		void accept(long hash, long location);
+	}
+}
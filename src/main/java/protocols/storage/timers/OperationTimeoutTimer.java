@@ -0,0 +1,25 @@
+package protocols.storage.timers;
+
+import java.util.UUID;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class OperationTimeoutTimer extends ProtoTimer {
+    public static final short TIMER_ID = 201;
+
+    private final UUID uid;
+
+    public OperationTimeoutTimer(UUID uid) {
+        super(TIMER_ID);
+        this.uid = uid;
+    }
+
+    public UUID getUid() {
+        return uid;
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
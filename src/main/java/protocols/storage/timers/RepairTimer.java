@@ -0,0 +1,16 @@
+package protocols.storage.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class RepairTimer extends ProtoTimer {
+    public static final short TIMER_ID = 206;
+
+    public RepairTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,16 @@
+package protocols.storage.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class SyncTimer extends ProtoTimer {
+    public static final short TIMER_ID = 204;
+
+    public SyncTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,163 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import protocols.dht.chord.ChordNode;
+import protocols.dht.chord.ChordProtocol;
+import protocols.dht.chord.FingerTable;
+import protocols.dht.vivaldi.Vivaldi;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Chord lookups over the {@link FingerTable}s of a stabilized ring: every successor list,
+ * predecessor and finger is what stabilization and fix-fingers eventually converge to. Each hop
+ * resolves and forwards through the same FingerTable methods as {@link ChordProtocol}, and hops
+ * are counted as it counts them, in both recursive and iterative modes. A recursive lookup that
+ * reaches the hop limit is dropped, so it fails at its origin after dht_lookup_timeout.
+ *
+ * With chord_proximity, every node first trains its {@link Vivaldi} coordinate (see
+ * {@link Network#coordinates}); fingers are then picked among the owner of each finger start
+ * and its successors, and next hops chosen, as ChordProtocol does.
+ */
+public class ChordSimulation implements SimulatedDht {
+
+	private static final int MAX_HOPS = FingerTable.M;
+
+	private final Network net;
+	private final boolean recursive;
+	private final int replyPeers;
+	//In microseconds
+	private final long lookupTimeout;
+	private final FingerTable[] tables;
+	private final Vivaldi[] coordinates;
+
+	public ChordSimulation(Network net, Properties props, Random r) {
+		this.net = net;
+		this.recursive = props.getProperty("chord_lookup_mode", ChordProtocol.MODE_RECURSIVE).equals(ChordProtocol.MODE_RECURSIVE);
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		this.lookupTimeout = Long.parseLong(props.getProperty("dht_lookup_timeout", "5000")) * 1000;
+		int successorListSize = Integer.parseInt(props.getProperty("chord_successor_list_size", "4"));
+
+		boolean proximity = Boolean.parseBoolean(props.getProperty("chord_proximity", "false"));
+		this.coordinates = proximity ? net.coordinates(props, r) : null;
+
+		int n = net.size();
+		ChordNode[] ring = new ChordNode[n];
+		for (int i = 0; i < n; i++)
+			ring[i] = new ChordNode(net.id(i), net.host(i));
+		Arrays.sort(ring, (a, b) -> a.getId().compareTo(b.getId()));
+		RingId[] ringIds = new RingId[n];
+		for (int p = 0; p < n; p++)
+			ringIds[p] = ring[p].getId();
+
+		this.tables = new FingerTable[n];
+		for (int p = 0; p < n; p++) {
+			ChordNode self = ring[p];
+			FingerTable table = new FingerTable(self, successorListSize);
+			if (n > 1) {
+				List<ChordNode> rest = new ArrayList<>(successorListSize);
+				for (int s = 2; s <= successorListSize && s < n; s++)
+					rest.add(ring[(p + s) % n]);
+				table.updateSuccessors(ring[(p + 1) % n], rest);
+				table.setPredecessor(ring[(p - 1 + n) % n]);
+			}
+			int index = net.indexOf(self.getHost());
+			//Each finger found also fills the run of following fingers it succeeds
+			for (int i = 0; i < FingerTable.M; i++) {
+				int owner = successorPosition(ringIds, table.getFingerStart(i));
+				if (coordinates == null) {
+					i = table.setFinger(i, ring[owner]);
+				} else {
+					//The candidates a fix-fingers lookup returns: the owner and its successors
+					List<ChordNode> candidates = new ArrayList<>(replyPeers);
+					for (int c = 0; c < replyPeers && c < n; c++)
+						candidates.add(ring[(owner + c) % n]);
+					i = table.setFinger(i, table.proximityFinger(i, candidates, estimator(index)));
+				}
+			}
+			tables[index] = table;
+		}
+	}
+
+	//Position in the sorted ring of the first node with an id >= id, wrapping around
+	private static int successorPosition(RingId[] ringIds, RingId id) {
+		int idx = Arrays.binarySearch(ringIds, id);
+		if (idx < 0)
+			idx = -idx - 1;
+		return idx == ringIds.length ? 0 : idx;
+	}
+
+	//The owners if this node can tell them without contacting anyone
+	private List<Host> resolveLocally(FingerTable table, RingId id) {
+		List<ChordNode> owners = table.resolveLocally(id, table.getSelf(), replyPeers);
+		if (owners == null)
+			return null;
+		List<Host> hosts = new ArrayList<>(owners.size());
+		for (ChordNode o : owners)
+			hosts.add(o.getHost());
+		return hosts;
+	}
+
+	//Estimated round-trip times from node
+	private ToDoubleFunction<ChordNode> estimator(int node) {
+		return n -> coordinates[node].getCoordinate().distanceTo(coordinates[net.indexOf(n.getHost())].getCoordinate());
+	}
+
+	private int nextHop(FingerTable table, RingId id) {
+		int node = net.indexOf(table.getSelf().getHost());
+		ChordNode next = coordinates == null
+				? table.nextHop(id, null, 0, n -> true)
+				: table.nextHop(id, estimator(node), coordinates[node].getAverageRtt(), n -> true);
+		return net.indexOf(next.getHost());
+	}
+
+	@Override
+	public void lookup(int origin, RingId key, LookupCallback callback) {
+		List<Host> local = resolveLocally(tables[origin], key);
+		if (local != null) {
+			callback.done(0, local);
+			return;
+		}
+		int next = nextHop(tables[origin], key);
+		if (recursive)
+			forward(origin, origin, next, key, 1, net.now(), callback);
+		else
+			query(origin, next, key, 1, callback);
+	}
+
+	//FindSuccessorMessage: each hop forwards, the last one answers the origin
+	private void forward(int origin, int from, int to, RingId key, int hops, long start, LookupCallback callback) {
+		net.send(from, to, () -> {
+			List<Host> owners = resolveLocally(tables[to], key);
+			if (owners != null)
+				net.send(to, origin, () -> callback.done(hops, owners));
+			else if (hops >= MAX_HOPS)
+				//Dropped, as ChordProtocol does: the origin times out
+				net.schedule(start + lookupTimeout - net.now(), () -> callback.done(hops, null));
+			else
+				forward(origin, to, nextHop(tables[to], key), key, hops + 1, start, callback);
+		});
+	}
+
+	//NextHopRequestMessage: the origin asks each hop in turn
+	private void query(int origin, int to, RingId key, int hops, LookupCallback callback) {
+		net.send(origin, to, () -> {
+			List<Host> owners = resolveLocally(tables[to], key);
+			int next = owners == null ? nextHop(tables[to], key) : -1;
+			net.send(to, origin, () -> {
+				if (owners != null)
+					callback.done(hops, owners);
+				else if (hops >= MAX_HOPS || next == to)
+					callback.done(hops, null);
+				else
+					query(origin, next, key, hops + 1, callback);
+			});
+		});
+	}
+}
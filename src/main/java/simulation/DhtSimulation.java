@@ -0,0 +1,274 @@
+package simulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import protocols.apps.KeyChooser;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.HashGenerator;
+import utils.Histogram;
+import utils.LatencyMatrix;
+import utils.ParsedArgs;
+import utils.RingId;
+
+/**
+ * Runs the storage workload of {@link protocols.apps.AutomatedApplication} over sim_nodes virtual
+ * nodes in a single JVM, in deterministic virtual time. Every operation looks up the owners of its
+ * key in the simulated DHT and then contacts the replicas (all of them, completing at the read
+ * or write quorum), with message delays taken from a latency matrix.
+ * Reports the distribution of lookup hops and of lookup, retrieve and store latencies, in the
+ * same units and CSV layout as the application's latency file, and the stretch of lookups: their
+ * latency over the direct round-trip time between the origin and the owner. The load of each
+ * node is reported as the keys it was found to own and the replica requests it served, divided
+ * by its capacity ("sim_capacities", cycled over the nodes) relative to the mean.
+ *
+ * The configuration file and key=value arguments are those of a real run (dht_protocol,
+ * storage_replication, workload_distribution, ...), plus the sim_* keys.
+ *
+ * The DHTs route over the same routing tables as their protocols, but the storage layer is only
+ * that quorum exchange. Not modeled, so results are a lower bound on a deployment's latencies:
+ * the owner cache and lookup coalescing (every operation does a full lookup), hedged reads,
+ * replica timeouts and retries, the failure detector, durable stores and group commit, chunking,
+ * erasure coding, multi-key batches, and Merkle repair and handoff traffic. No node fails.
+ */
+public class DhtSimulation {
+
+	private static final String DEFAULT_CONF = "babel_config.properties";
+
+	private final Simulator sim;
+	private final Network net;
+	private final SimulatedDht dht;
+	private final Random r;
+	private final KeyChooser keys;
+	private final int contentNumber;
+	private final int replication;
+	private final int readQuorum;
+	private final int writeQuorum;
+	private final double readRatio;
+	private final double[] capacities;
+	//Primary owner found for each key, -1 if never looked up, and replica requests per node
+	private final int[] keyOwners;
+	private final long[] requests;
+
+	private final Histogram hops = new Histogram();
+	private final Histogram lookupLatency = new Histogram();
+	private final Histogram retrieveLatency = new Histogram();
+	private final Histogram storeLatency = new Histogram();
+	//In percent
+	private final Histogram stretch = new Histogram();
+	private long failed = 0;
+
+	public DhtSimulation(Properties props) throws IOException {
+		long seed = Long.parseLong(props.getProperty("sim_seed", "1"));
+		int nodes = Integer.parseInt(props.getProperty("sim_nodes", "1000"));
+		String latencyFile = props.getProperty("sim_latency_file", "");
+		LatencyMatrix latencies = latencyFile.isEmpty()
+				? LatencyMatrix.uniform(1, 0)
+				: LatencyMatrix.read(new File(latencyFile));
+		long processingDelay = Long.parseLong(props.getProperty("sim_processing_delay", "50"));
+		int port = Integer.parseInt(props.getProperty("port", "10000"));
+
+		this.sim = new Simulator();
+		this.r = new Random(seed);
+		this.net = new Network(sim, latencies, nodes, port, processingDelay);
+		this.capacities = capacities(props.getProperty("sim_capacities", "1"), nodes);
+		this.dht = createDHT(props);
+		this.contentNumber = Integer.parseInt(props.getProperty("content_number", "20"));
+		this.keys = new KeyChooser(nodes * contentNumber, props, r);
+		this.replication = Integer.parseInt(props.getProperty("storage_replication", "3"));
+		this.readQuorum = Integer.parseInt(props.getProperty("storage_read_quorum", "1"));
+		this.writeQuorum = Integer.parseInt(props.getProperty("storage_write_quorum", "2"));
+		this.readRatio = Double.parseDouble(props.getProperty("workload_read_ratio", "0.9"));
+		this.keyOwners = new int[nodes * contentNumber];
+		Arrays.fill(keyOwners, -1);
+		this.requests = new long[nodes];
+	}
+
+	//Comma-separated capacities, assigned to the nodes round-robin
+	private static double[] capacities(String spec, int nodes) {
+		String[] values = spec.split(",");
+		double[] result = new double[nodes];
+		for (int i = 0; i < nodes; i++)
+			result[i] = Double.parseDouble(values[i % values.length].trim());
+		return result;
+	}
+
+	private SimulatedDht createDHT(Properties props) {
+		String dht = props.getProperty("dht_protocol", "chord");
+		switch (dht) {
+			case "chord":
+				return new ChordSimulation(net, props, r);
+			case "kademlia":
+				return new KademliaSimulation(net, props, r);
+			case "onehop":
+				return new OneHopSimulation(net, props, capacities);
+			case "pastry":
+				return new PastrySimulation(net, props, r);
+			default:
+				throw new IllegalArgumentException("Unknown dht_protocol: " + dht);
+		}
+	}
+
+	//Issues operations open-loop, with poisson arrivals at rate per second, and runs them to completion
+	public void run(int operations, double rate) {
+		long time = 0;
+		for (int i = 0; i < operations; i++) {
+			time += (long) (-Math.log(1 - r.nextDouble()) / rate * 1_000_000);
+			int origin = r.nextInt(net.size());
+			int key = keys.next();
+			//Names follow the application's content_<process>_<n> pattern; only their hash matters here
+			RingId id = HashGenerator.generateRingId("content_" + (key / contentNumber + 1) + "_" + key % contentNumber);
+			boolean read = r.nextDouble() < readRatio;
+			sim.schedule(time - sim.now(), () -> operation(origin, key, id, read));
+			//Keeps the event queue short: only operations due soon are scheduled
+			sim.run(time);
+		}
+		sim.run(Long.MAX_VALUE);
+	}
+
+	private void operation(int origin, int key, RingId id, boolean read) {
+		long start = sim.now();
+		dht.lookup(origin, id, (lookupHops, owners) -> {
+			if (owners == null || owners.isEmpty()) {
+				failed++;
+				return;
+			}
+			hops.record(lookupHops);
+			lookupLatency.record(sim.now() - start);
+			int owner = net.indexOf(owners.get(0));
+			keyOwners[key] = owner;
+			long rtt = net.delay(origin, owner) + net.delay(owner, origin);
+			if (rtt > 0)
+				stretch.record((sim.now() - start) * 100 / rtt);
+			contactReplicas(origin, owners.subList(0, Math.min(replication, owners.size())), read, start);
+		});
+	}
+
+	//Sends the operation to every replica; it completes once a quorum has answered
+	private void contactReplicas(int origin, List<Host> replicas, boolean read, long start) {
+		int quorum = Math.min(read ? readQuorum : writeQuorum, replicas.size());
+		int[] answers = new int[1];
+		for (Host h : replicas) {
+			int replica = net.indexOf(h);
+			net.send(origin, replica, () -> {
+				requests[replica]++;
+				net.send(replica, origin, () -> {
+					if (++answers[0] == quorum)
+						(read ? retrieveLatency : storeLatency).record(sim.now() - start);
+				});
+			});
+		}
+	}
+
+	//Load of each node divided by its capacity relative to the mean capacity
+	private double[] load(long[] counts) {
+		double meanCapacity = Arrays.stream(capacities).average().orElse(1);
+		double[] load = new double[counts.length];
+		for (int i = 0; i < counts.length; i++)
+			load[i] = counts[i] * meanCapacity / capacities[i];
+		return load;
+	}
+
+	private static String loadSummary(double[] load) {
+		double[] sorted = load.clone();
+		Arrays.sort(sorted);
+		double mean = Arrays.stream(load).average().orElse(0);
+		double variance = Arrays.stream(load).map(x -> (x - mean) * (x - mean)).average().orElse(0);
+		double max = sorted[sorted.length - 1];
+		return String.format(Locale.ROOT, "mean=%.1f p50=%.1f p99=%.1f max=%.1f max/mean=%.2f cov=%.3f", mean,
+				sorted[sorted.length / 2], sorted[(int) ((sorted.length - 1) * 0.99)], max,
+				mean == 0 ? 0 : max / mean, mean == 0 ? 0 : Math.sqrt(variance) / mean);
+	}
+
+	private static Histogram histogram(double[] values) {
+		Histogram h = new Histogram();
+		for (double v : values)
+			h.record(Math.round(v));
+		return h;
+	}
+
+	private static String summary(Histogram h) {
+		return String.format(Locale.ROOT, "count=%d p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", h.getCount(),
+				h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0,
+				h.getPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+	}
+
+	private void printRow(PrintStream out, String type, Histogram h, double seconds) {
+		out.printf(Locale.ROOT, "%d,%s,%s,%d,%.2f,%.1f,%d,%d,%d,%d,%d%n", sim.now() / 1000, "total", type, h.getCount(),
+				h.getCount() / seconds, h.getMean(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99),
+				h.getPercentile(99.9), h.getMax());
+	}
+
+	public void report(long wallTime, String outputFile) throws FileNotFoundException {
+		double seconds = Math.max(1, sim.now()) / 1_000_000.0;
+		System.out.printf(Locale.ROOT, "%d nodes, %d events, %d messages, %.1fs of virtual time in %.1fs%n", net.size(),
+				sim.getProcessed(), net.getMessages(), seconds, wallTime / 1000.0);
+		System.out.printf(Locale.ROOT, "hops: count=%d mean=%.2f p50=%d p90=%d p99=%d max=%d%n", hops.getCount(),
+				hops.getMean(), hops.getPercentile(50), hops.getPercentile(90), hops.getPercentile(99), hops.getMax());
+		System.out.println("lookup: " + summary(lookupLatency));
+		System.out.printf(Locale.ROOT, "stretch: count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f%n", stretch.getCount(),
+				stretch.getMean() / 100, stretch.getPercentile(50) / 100.0, stretch.getPercentile(90) / 100.0,
+				stretch.getPercentile(99) / 100.0);
+		System.out.println("retrieve: " + summary(retrieveLatency));
+		System.out.println("store: " + summary(storeLatency));
+		System.out.println("failed lookups: " + failed);
+		long[] owned = new long[net.size()];
+		for (int owner : keyOwners)
+			if (owner >= 0)
+				owned[owner]++;
+		double[] keyLoad = load(owned);
+		double[] requestLoad = load(requests);
+		System.out.println("keys/node: " + loadSummary(keyLoad));
+		System.out.println("requests/node: " + loadSummary(requestLoad));
+		if (outputFile.isEmpty())
+			return;
+		try (PrintStream out = new PrintStream(new FileOutputStream(outputFile))) {
+			out.println("time_ms,scope,type,count,throughput,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+			printRow(out, "lookup", lookupLatency, seconds);
+			printRow(out, "retrieve", retrieveLatency, seconds);
+			printRow(out, "store", storeLatency, seconds);
+			//Hop counts and stretch percentages, not microseconds
+			printRow(out, "hops", hops, seconds);
+			printRow(out, "stretch_pct", stretch, seconds);
+			printRow(out, "keys_per_node", histogram(keyLoad), seconds);
+			printRow(out, "requests_per_node", histogram(requestLoad), seconds);
+		}
+	}
+
+	private static Properties loadConfig(String[] args) throws IOException {
+		ParsedArgs parsed = ParsedArgs.parseArgs(args, DEFAULT_CONF);
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(parsed.getConfigFile())) {
+			props.load(in);
+		}
+		for (String arg : parsed.getArgs()) {
+			int eq = arg.indexOf('=');
+			if (eq <= 0)
+				throw new IllegalArgumentException("Expected key=value, got " + arg);
+			props.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		return props;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Properties props = loadConfig(args);
+		long start = System.currentTimeMillis();
+		DhtSimulation simulation = new DhtSimulation(props);
+		System.out.printf(Locale.ROOT, "Set up %s over %s nodes in %.1fs%n", props.getProperty("dht_protocol", "chord"),
+				props.getProperty("sim_nodes", "1000"), (System.currentTimeMillis() - start) / 1000.0);
+		start = System.currentTimeMillis();
+		simulation.run(Integer.parseInt(props.getProperty("sim_operations", "10000")),
+				Double.parseDouble(props.getProperty("sim_rate", "100")));
+		simulation.report(System.currentTimeMillis() - start, props.getProperty("sim_output", ""));
+	}
+}
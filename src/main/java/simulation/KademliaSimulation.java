@@ -0,0 +1,115 @@
+package simulation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import protocols.dht.kademlia.KademliaNode;
+import protocols.dht.kademlia.NodeLookup;
+import protocols.dht.kademlia.RoutingTable;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Kademlia lookups driven by {@link NodeLookup} over refreshed {@link RoutingTable}s: every bucket
+ * holds k random nodes of its distance range (or all of them, if there are fewer). Routing tables
+ * are left untouched by lookups, and the hop count of a lookup is its number of rounds.
+ */
+public class KademliaSimulation implements SimulatedDht {
+
+	private final Network net;
+	private final int k;
+	private final int alpha;
+	private final RoutingTable[] tables;
+
+	public KademliaSimulation(Network net, Properties props, Random r) {
+		this.net = net;
+		this.k = Integer.parseInt(props.getProperty("kademlia_k", "20"));
+		this.alpha = Integer.parseInt(props.getProperty("kademlia_alpha", "3"));
+
+		int n = net.size();
+		KademliaNode[] nodes = new KademliaNode[n];
+		for (int i = 0; i < n; i++)
+			nodes[i] = new KademliaNode(net.id(i), net.host(i));
+		KademliaNode[] sorted = nodes.clone();
+		Arrays.sort(sorted, (a, b) -> a.getId().compareTo(b.getId()));
+		RingId[] sortedIds = new RingId[n];
+		for (int p = 0; p < n; p++)
+			sortedIds[p] = sorted[p].getId();
+
+		this.tables = new RoutingTable[n];
+		for (int i = 0; i < n; i++) {
+			RoutingTable table = new RoutingTable(nodes[i], k);
+			BigInteger self = nodes[i].getId().toBigInteger();
+			for (int b = 0; b < RoutingTable.B; b++) {
+				//Bucket b: ids that share our bits above b and differ in bit b, a contiguous range
+				BigInteger low = self.flipBit(b).shiftRight(b).shiftLeft(b);
+				BigInteger high = low.add(BigInteger.ONE.shiftLeft(b)).subtract(BigInteger.ONE);
+				int from = bound(sortedIds, RingId.fromBigInteger(low), false);
+				int to = bound(sortedIds, RingId.fromBigInteger(high), true);
+				int count = to - from;
+				if (count <= k) {
+					for (int p = from; p < to; p++)
+						table.seen(sorted[p]);
+				} else {
+					//k distinct random members (partial Fisher-Yates over the offsets)
+					int[] offsets = new int[count];
+					for (int j = 0; j < count; j++)
+						offsets[j] = j;
+					for (int j = 0; j < k; j++) {
+						int pick = j + r.nextInt(count - j);
+						int tmp = offsets[j];
+						offsets[j] = offsets[pick];
+						offsets[pick] = tmp;
+						table.seen(sorted[from + offsets[j]]);
+					}
+				}
+			}
+			tables[i] = table;
+		}
+	}
+
+	//Index of the first id > id (if inclusive) or >= id (otherwise)
+	static int bound(RingId[] ids, RingId id, boolean inclusive) {
+		int low = 0;
+		int high = ids.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int c = ids[middle].compareTo(id);
+			if (c < 0 || (inclusive && c == 0))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	@Override
+	public void lookup(int origin, RingId key, LookupCallback callback) {
+		RoutingTable table = tables[origin];
+		advance(origin, new NodeLookup(null, key, k, alpha, table.getSelf(), table.closest(key, k)), callback);
+	}
+
+	//Same as KademliaProtocol: issues the next FIND_NODE rpcs, or finishes the lookup
+	private void advance(int origin, NodeLookup lookup, LookupCallback callback) {
+		for (KademliaNode n : lookup.nextToQuery()) {
+			int to = net.indexOf(n.getHost());
+			net.send(origin, to, () -> {
+				List<KademliaNode> closest = tables[to].closest(lookup.getTarget(), k);
+				net.send(to, origin, () -> {
+					lookup.onReply(n.getHost(), closest);
+					advance(origin, lookup, callback);
+				});
+			});
+		}
+		if (lookup.isFinished()) {
+			List<Host> owners = new ArrayList<>(k);
+			for (KademliaNode n : lookup.result())
+				owners.add(n.getHost());
+			callback.done(lookup.getRounds(), owners);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package simulation;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import protocols.dht.vivaldi.Vivaldi;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.HashGenerator;
+import utils.LatencyMatrix;
+import utils.RingId;
+
+/**
+ * The simulated nodes and the network between them. Node i has the address the docker deployment
+ * gives container i (172.10.10.i, continuing into the following /24s), so it gets the same ring
+ * identifier as the real node, and a message from i to j is delivered after the latency that
+ * setupTc.sh would impose on that link. With more nodes than matrix rows, node i uses row
+ * i % rows, and nodes that share a row are a processing delay apart.
+ */
+public class Network {
+
+	private final Simulator sim;
+	private final LatencyMatrix latencies;
+	private final long processingDelay;
+	private final Host[] hosts;
+	private final RingId[] ids;
+	private final Map<Host, Integer> indexes;
+	private long messages;
+
+	public Network(Simulator sim, LatencyMatrix latencies, int nodes, int port, long processingDelay) throws UnknownHostException {
+		this.sim = sim;
+		this.latencies = latencies;
+		this.processingDelay = processingDelay;
+		this.hosts = new Host[nodes];
+		this.ids = new RingId[nodes];
+		this.indexes = new HashMap<>(nodes * 2);
+		for (int i = 0; i < nodes; i++) {
+			byte[] address = { (byte) 172, 10, (byte) (10 + i / 256), (byte) (i % 256) };
+			hosts[i] = new Host(InetAddress.getByAddress(address), port);
+			ids[i] = HashGenerator.generateRingId(hosts[i].toString());
+			indexes.put(hosts[i], i);
+		}
+		this.messages = 0;
+	}
+
+	public int size() {
+		return hosts.length;
+	}
+
+	public Host host(int node) {
+		return hosts[node];
+	}
+
+	public RingId id(int node) {
+		return ids[node];
+	}
+
+	public int indexOf(Host host) {
+		return indexes.get(host);
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	//One-way delay from one node to another, in microseconds
+	public long delay(int from, int to) {
+		if (from == to)
+			return 0;
+		int rows = latencies.size();
+		return latencies.get(from % rows, to % rows) * 1000L + processingDelay;
+	}
+
+	//Current virtual time, in microseconds
+	public long now() {
+		return sim.now();
+	}
+
+	//Runs action after delay microseconds, as a timer of a node would
+	public void schedule(long delay, Runnable action) {
+		sim.schedule(delay, action);
+	}
+
+	//Runs deliver at the destination once a message sent now would arrive there
+	public void send(int from, int to, Runnable deliver) {
+		if (from != to)
+			messages++;
+		sim.schedule(delay(from, to), deliver);
+	}
+
+	//Vivaldi coordinates of every node, trained with sim_vivaldi_rounds round-trip samples to random nodes
+	public Vivaldi[] coordinates(Properties props, Random r) {
+		int n = size();
+		Vivaldi[] coordinates = new Vivaldi[n];
+		int cacheSize = Integer.parseInt(props.getProperty("vivaldi_peer_cache", "1024"));
+		for (int i = 0; i < n; i++)
+			coordinates[i] = new Vivaldi(cacheSize, r);
+		int rounds = Integer.parseInt(props.getProperty("sim_vivaldi_rounds", "64"));
+		for (int round = 0; round < rounds && n > 1; round++) {
+			for (int i = 0; i < n; i++) {
+				int j = r.nextInt(n - 1);
+				j = j >= i ? j + 1 : j;
+				double rtt = (delay(i, j) + delay(j, i)) / 1000.0;
+				coordinates[i].observe(hosts[j], coordinates[j].getCoordinate(), rtt);
+			}
+		}
+		return coordinates;
+	}
+}
@@ -0,0 +1,30 @@
+package simulation;
+
+import java.util.Properties;
+
+import protocols.dht.onehop.MembershipRing;
+import utils.RingId;
+
+/**
+ * One-hop lookups over a complete {@link MembershipRing}, shared by every node since gossip
+ * eventually gives them all the same view. Lookups are answered locally, in zero hops. Each node
+ * holds "dht_virtual_nodes" tokens scaled by its capacity, as OneHopProtocol does.
+ */
+public class OneHopSimulation implements SimulatedDht {
+
+	private final MembershipRing ring;
+	private final int replyPeers;
+
+	public OneHopSimulation(Network net, Properties props, double[] capacities) {
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		int virtualNodes = Integer.parseInt(props.getProperty("dht_virtual_nodes", "1"));
+		this.ring = new MembershipRing(net.size() * virtualNodes);
+		for (int i = 0; i < net.size(); i++)
+			ring.addTokens(net.host(i), MembershipRing.tokens(virtualNodes, capacities[i]));
+	}
+
+	@Override
+	public void lookup(int origin, RingId key, LookupCallback callback) {
+		callback.done(0, ring.owners(key, replyPeers));
+	}
+}
@@ -0,0 +1,132 @@
+package simulation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import protocols.dht.pastry.PastryNode;
+import protocols.dht.pastry.PastryProtocol;
+import protocols.dht.pastry.RoutingState;
+import protocols.dht.vivaldi.Vivaldi;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Pastry lookups over converged {@link RoutingState}s: every leaf set is exact, and every routing
+ * table entry is, of up to CANDIDATES nodes spread over the id range of the entry, the one with
+ * the lowest round-trip time estimated by the trained {@link Vivaldi} coordinates (see
+ * {@link Network#coordinates}). Lookups are routed recursively, as {@link PastryProtocol} does.
+ */
+public class PastrySimulation implements SimulatedDht {
+
+	private static final int MAX_HOPS = RingId.BITS;
+	//Candidates compared for each routing table entry
+	private static final int CANDIDATES = 64;
+
+	private final Network net;
+	private final int replyPeers;
+	private final RoutingState[] states;
+	private final Vivaldi[] coordinates;
+
+	public PastrySimulation(Network net, Properties props, Random r) {
+		this.net = net;
+		this.replyPeers = Integer.parseInt(props.getProperty("dht_reply_peers", "3"));
+		int b = Integer.parseInt(props.getProperty("pastry_b", "4"));
+		int leafSetSize = Integer.parseInt(props.getProperty("pastry_leaf_set_size", "16"));
+		this.coordinates = net.coordinates(props, r);
+
+		int n = net.size();
+		PastryNode[] ring = new PastryNode[n];
+		for (int i = 0; i < n; i++)
+			ring[i] = new PastryNode(net.id(i), net.host(i));
+		Arrays.sort(ring, (x, y) -> x.getId().compareTo(y.getId()));
+		RingId[] ringIds = new RingId[n];
+		for (int p = 0; p < n; p++)
+			ringIds[p] = ring[p].getId();
+
+		this.states = new RoutingState[n];
+		for (int p = 0; p < n; p++) {
+			PastryNode self = ring[p];
+			int index = net.indexOf(self.getHost());
+			ToDoubleFunction<PastryNode> estimator = estimator(index);
+			RoutingState state = new RoutingState(self, b, leafSetSize, estimator);
+			for (int s = 1; s <= leafSetSize / 2 && s < n; s++) {
+				state.add(ring[(p + s) % n]);
+				state.add(ring[(p - s + n) % n]);
+			}
+
+			BigInteger id = self.getId().toBigInteger();
+			for (int row = 0; row < state.getRows(); row++) {
+				//Entry (row, d): ids with our first row digits followed by d, a contiguous range
+				int shift = RingId.BITS - (row + 1) * b;
+				BigInteger prefix = id.shiftRight(shift + b).shiftLeft(b);
+				int own = state.digit(self.getId(), row);
+				int ownCount = 0;
+				for (int d = 0; d < 1 << b; d++) {
+					BigInteger low = prefix.or(BigInteger.valueOf(d)).shiftLeft(shift);
+					BigInteger high = low.add(BigInteger.ONE.shiftLeft(shift)).subtract(BigInteger.ONE);
+					int from = KademliaSimulation.bound(ringIds, RingId.fromBigInteger(low), false);
+					int to = KademliaSimulation.bound(ringIds, RingId.fromBigInteger(high), true);
+					if (d == own) {
+						ownCount = to - from;
+						continue;
+					}
+					PastryNode best = null;
+					double bestEstimate = Double.POSITIVE_INFINITY;
+					for (int c = from; c < to; c += Math.max(1, (to - from) / CANDIDATES)) {
+						double estimate = estimator.applyAsDouble(ring[c]);
+						if (best == null || estimate < bestEstimate) {
+							best = ring[c];
+							bestEstimate = estimate;
+						}
+					}
+					state.add(best);
+				}
+				//Nobody else shares one more digit with us: the following rows are empty
+				if (ownCount <= 1)
+					break;
+			}
+			states[index] = state;
+		}
+	}
+
+	//Estimated round-trip times from node
+	private ToDoubleFunction<PastryNode> estimator(int node) {
+		return x -> coordinates[node].getCoordinate().distanceTo(coordinates[net.indexOf(x.getHost())].getCoordinate());
+	}
+
+	private List<Host> closest(RoutingState state, RingId key) {
+		List<Host> hosts = new ArrayList<>(replyPeers);
+		for (PastryNode o : state.closest(key, replyPeers))
+			hosts.add(o.getHost());
+		return hosts;
+	}
+
+	@Override
+	public void lookup(int origin, RingId key, LookupCallback callback) {
+		PastryNode next = states[origin].nextHop(key);
+		if (next == null)
+			callback.done(0, closest(states[origin], key));
+		else
+			forward(origin, origin, net.indexOf(next.getHost()), key, 1, callback);
+	}
+
+	//RouteMessage: each hop forwards, the last one answers the origin
+	private void forward(int origin, int from, int to, RingId key, int hops, LookupCallback callback) {
+		net.send(from, to, () -> {
+			PastryNode next = states[to].nextHop(key);
+			if (next == null) {
+				List<Host> owners = closest(states[to], key);
+				net.send(to, origin, () -> callback.done(hops, owners));
+			} else if (hops >= MAX_HOPS) {
+				callback.done(hops, null);
+			} else {
+				forward(origin, to, net.indexOf(next.getHost()), key, hops + 1, callback);
+			}
+		});
+	}
+}
@@ -0,0 +1,20 @@
+package simulation;
+
+import java.util.List;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.RingId;
+
+/**
+ * Routing of a DHT over a {@link Network}, starting from converged routing state.
+ */
+public interface SimulatedDht {
+
+	interface LookupCallback {
+		//owners is null if the lookup failed
+		void done(int hops, List<Host> owners);
+	}
+
+	//Resolves the owners of key from node origin
+	void lookup(int origin, RingId key, LookupCallback callback);
+}
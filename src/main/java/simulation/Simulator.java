@@ -0,0 +1,68 @@
+package simulation;
+
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event scheduler in virtual time (microseconds). Events run one at a time, in order of
+ * time and, for equal times, of scheduling, so a run depends only on its inputs and random seed.
+ */
+public class Simulator {
+
+	private static class Event implements Comparable<Event> {
+		private final long time;
+		private final long seq;
+		private final Runnable action;
+
+		private Event(long time, long seq, Runnable action) {
+			this.time = time;
+			this.seq = seq;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			int c = Long.compare(time, o.time);
+			return c != 0 ? c : Long.compare(seq, o.seq);
+		}
+	}
+
+	private final PriorityQueue<Event> queue;
+	private long now;
+	private long seq;
+	private long processed;
+
+	public Simulator() {
+		this.queue = new PriorityQueue<>();
+		this.now = 0;
+		this.seq = 0;
+		this.processed = 0;
+	}
+
+	//Current virtual time, in microseconds
+	public long now() {
+		return now;
+	}
+
+	public long getProcessed() {
+		return processed;
+	}
+
+	public int getPending() {
+		return queue.size();
+	}
+
+	public void schedule(long delay, Runnable action) {
+		queue.add(new Event(now + Math.max(0, delay), seq++, action));
+	}
+
+	//Runs events until there are none left or the next one is after until
+	public void run(long until) {
+		Event e;
+		while ((e = queue.peek()) != null && e.time <= until) {
+			queue.poll();
+			now = e.time;
+			processed++;
+			e.action.run();
+		}
+	}
+}
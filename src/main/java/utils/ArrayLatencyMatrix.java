@@ -0,0 +1,70 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * In-memory latency matrix, kept in a single row-major int array.
+ */
+public class ArrayLatencyMatrix implements LatencyMatrix {
+
+	private final int size;
+	private final int[] latencies;
+	private final int max;
+
+	public ArrayLatencyMatrix(int size, int[] latencies) {
+		if (latencies.length != size * size)
+			throw new IllegalArgumentException("Expected " + size * size + " latencies, got " + latencies.length);
+		this.size = size;
+		this.latencies = latencies;
+		int m = 0;
+		for (int l : latencies)
+			m = Math.max(m, l);
+		this.max = m;
+	}
+
+	//Reads a text matrix, one whitespace-separated row per node; its size is given by the first row
+	public static ArrayLatencyMatrix readText(File file) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			int[] latencies = null;
+			int size = 0;
+			int row = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				String[] fields = line.split("\\s+");
+				if (latencies == null) {
+					size = fields.length;
+					latencies = new int[size * size];
+				}
+				if (fields.length != size || row >= size)
+					throw new IOException(file + ": row " + row + " does not match a " + size + "x" + size + " matrix");
+				for (int j = 0; j < size; j++)
+					latencies[row * size + j] = Integer.parseInt(fields[j]);
+				row++;
+			}
+			if (latencies == null || row != size)
+				throw new IOException(file + ": expected " + size + " rows, found " + row);
+			return new ArrayLatencyMatrix(size, latencies);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int from, int to) {
+		return latencies[from * size + to];
+	}
+
+	@Override
+	public int getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,50 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe version of {@link Histogram}: any thread may record without locking (one atomic
+ * increment per value) while another takes snapshots.
+ */
+public class AtomicHistogram {
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong min;
+	private final AtomicLong max;
+
+	public AtomicHistogram() {
+		this.counts = new AtomicLongArray(Histogram.BUCKETS);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+		this.min = new AtomicLong(Long.MAX_VALUE);
+		this.max = new AtomicLong(0);
+	}
+
+	public void record(long value) {
+		value = Math.max(0, Math.min(value, Histogram.MAX_VALUE));
+		counts.incrementAndGet(Histogram.index(value));
+		count.increment();
+		sum.add(value);
+		if (value < min.get())
+			min.accumulateAndGet(value, Math::min);
+		if (value > max.get())
+			max.accumulateAndGet(value, Math::max);
+	}
+
+	//A copy of the current state; concurrent records may be partially included
+	public Histogram snapshot() {
+		long[] copy = new long[Histogram.BUCKETS];
+		long total = 0;
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		Histogram h = new Histogram();
+		h.load(copy, total, sum.sum(), min.get(), max.get());
+		return h;
+	}
+}
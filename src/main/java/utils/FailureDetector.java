@@ -0,0 +1,196 @@
+package utils;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/**
+ * Process-wide accrual failure detector (Hayashibara et al., SRDS 2004), fed by the requests and
+ * replies the protocols already exchange. For every peer it keeps a window of the last
+ * "fd_window" round-trip times. While requests to a peer go unanswered, its suspicion level phi
+ * grows with the time since the oldest of them: -log10 of the probability, under a normal fit of
+ * the window, that a reply would still arrive that late. Peers are suspected once phi reaches
+ * "fd_phi_threshold", or after a request to them failed or timed out, until they are heard from.
+ * Suspicion is not permanent: "fd_suspicion_time" milliseconds after a failure, or after the
+ * oldest unanswered request, the peer is trusted again, so the next request to it probes it anew.
+ *
+ * The same windows give adaptive timeouts: the "fd_timeout_percentile" RTT of the peer times
+ * "fd_timeout_factor", between "fd_min_timeout" and the caller's fixed timeout, so that neither a
+ * slow link is taken for a dead node nor a dead node waited on as long as the slowest link.
+ * Peers with few samples use the window of all peers. The DHT and storage protocols share the
+ * detector from their own threads, so every method is thread-safe.
+ */
+public class FailureDetector {
+
+	//Samples needed before a window is trusted
+	private static final int MIN_SAMPLES = 8;
+	//Lower bound on the deviation of the normal fit, as a fraction of the mean
+	private static final double MIN_DEVIATION = 0.25;
+
+	private static volatile FailureDetector global = new FailureDetector(new Properties());
+
+	private final int window;
+	private final double percentile;
+	private final double factor;
+	private final long minTimeout;
+	private final double threshold;
+	private final long suspicionTime;
+	private final Map<Host, Peer> peers;
+	private final Peer all;
+
+	public FailureDetector(Properties props) {
+		this.window = Integer.parseInt(props.getProperty("fd_window", "64"));
+		this.percentile = Double.parseDouble(props.getProperty("fd_timeout_percentile", "99"));
+		this.factor = Double.parseDouble(props.getProperty("fd_timeout_factor", "2"));
+		this.minTimeout = Long.parseLong(props.getProperty("fd_min_timeout", "50")); //in milliseconds
+		this.threshold = Double.parseDouble(props.getProperty("fd_phi_threshold", "8"));
+		this.suspicionTime = Long.parseLong(props.getProperty("fd_suspicion_time", "10000")); //in milliseconds
+		this.peers = new ConcurrentHashMap<>();
+		this.all = new Peer(new RttWindow(Math.max(window, 256), percentile));
+	}
+
+	/**
+	 * Configures the process detector; must be called before the protocols are created, since
+	 * they keep the detector they get.
+	 */
+	public static void configure(Properties props) {
+		FailureDetector detector = new FailureDetector(props);
+		MetricsRegistry.global().gauge("fd.suspected", detector::suspected);
+		global = detector;
+	}
+
+	public static FailureDetector global() {
+		return global;
+	}
+
+	public long getMinTimeout() {
+		return minTimeout;
+	}
+
+	private Peer peer(Host host) {
+		return peers.computeIfAbsent(host, h -> new Peer(new RttWindow(window, percentile)));
+	}
+
+	//A request that expects a reply was sent to peer
+	public void sent(Host peer) {
+		Peer p = peer(peer);
+		synchronized (p) {
+			if (p.pendingSince < 0)
+				p.pendingSince = System.currentTimeMillis();
+		}
+	}
+
+	//A reply arrived from peer, rtt milliseconds after its request (0 if unknown)
+	public void replied(Host peer, long rtt) {
+		Peer p = peer(peer);
+		synchronized (p) {
+			p.pendingSince = -1;
+			p.failedAt = -1;
+			if (rtt > 0)
+				p.rtts.add(rtt);
+		}
+		if (rtt > 0) {
+			synchronized (all) {
+				all.rtts.add(rtt);
+			}
+		}
+	}
+
+	//A request to peer failed or timed out: suspect it until it is heard from again, or for suspicionTime
+	public void failed(Host peer) {
+		Peer p = peer(peer);
+		synchronized (p) {
+			if (p.failedAt < 0)
+				p.failedAt = System.currentTimeMillis();
+		}
+	}
+
+	//Suspicion level of peer: 0 while nothing is pending, infinite after a failure
+	public double phi(Host peer) {
+		Peer p = peers.get(peer);
+		if (p == null)
+			return 0;
+		long elapsed;
+		double mean;
+		double deviation;
+		synchronized (p) {
+			long now = System.currentTimeMillis();
+			//Expired suspicion: forget what is pending, the next request probes the peer again
+			if (now - Math.max(p.failedAt, p.pendingSince) >= suspicionTime) {
+				p.failedAt = -1;
+				p.pendingSince = -1;
+			}
+			if (p.failedAt >= 0)
+				return Double.POSITIVE_INFINITY;
+			if (p.pendingSince < 0)
+				return 0;
+			elapsed = now - p.pendingSince;
+			mean = p.rtts.size() >= MIN_SAMPLES ? p.rtts.mean() : Double.NaN;
+			deviation = p.rtts.size() >= MIN_SAMPLES ? p.rtts.deviation() : Double.NaN;
+		}
+		if (Double.isNaN(mean)) {
+			synchronized (all) {
+				if (all.rtts.size() < MIN_SAMPLES)
+					return 0;
+				mean = all.rtts.mean();
+				deviation = all.rtts.deviation();
+			}
+		}
+		deviation = Math.max(deviation, Math.max(1, mean * MIN_DEVIATION));
+		//Logistic approximation of the normal tail, as in Akka's detector
+		double y = (elapsed - mean) / deviation;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		double later = elapsed > mean ? e / (1 + e) : 1 - 1 / (1 + e);
+		return -Math.log10(later);
+	}
+
+	public boolean isSuspected(Host peer) {
+		return phi(peer) >= threshold;
+	}
+
+	//How long to wait for a reply from peer, at most fixed (also used while nothing is known)
+	public long timeout(Host peer, long fixed) {
+		long rtt = -1;
+		Peer p = peers.get(peer);
+		if (p != null) {
+			synchronized (p) {
+				if (p.rtts.size() >= MIN_SAMPLES)
+					rtt = p.rtts.get();
+			}
+		}
+		if (rtt < 0) {
+			synchronized (all) {
+				if (all.rtts.size() >= MIN_SAMPLES)
+					rtt = all.rtts.get();
+			}
+		}
+		if (rtt < 0)
+			return fixed;
+		return Math.min(fixed, Math.max(minTimeout, (long) Math.ceil(rtt * factor)));
+	}
+
+	//Number of peers currently suspected
+	public long suspected() {
+		long count = 0;
+		for (Host h : peers.keySet())
+			if (isSuspected(h))
+				count++;
+		return count;
+	}
+
+	private static class Peer {
+		private final RttWindow rtts;
+		//Send time of the oldest request unanswered since the last reply, -1 if none
+		private long pendingSince;
+		//When a request to the peer last failed with no reply since, -1 if none
+		private long failedAt;
+
+		private Peer(RttWindow rtts) {
+			this.rtts = rtts;
+			this.pendingSince = -1;
+			this.failedAt = -1;
+		}
+	}
+}
@@ -1,25 +1,36 @@
-package utils;
-
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-public class HashGenerator {
-
-	public static BigInteger generateHash(String s) {
-		try {
-			MessageDigest md = MessageDigest.getInstance("SHA-1");
-
-			md.update(s.getBytes());
-			byte[] hash = md.digest();
-			BigInteger bi = new BigInteger(hash);
-			return bi;
-		} catch (NoSuchAlgorithmException e) {
-			System.err.println("SHA-1 not available.");
-			e.printStackTrace();
-			System.exit(1);
-		}
-		return null;
-	}
-
-}
+package utils;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class HashGenerator {
+
+	//MessageDigest instances are expensive to obtain and not thread safe: one per thread
+	private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			System.err.println("SHA-1 not available.");
+			e.printStackTrace();
+			System.exit(1);
+			return null;
+		}
+	});
+
+	private static byte[] digest(String s) {
+		MessageDigest md = digests.get();
+		md.reset();
+		return md.digest(s.getBytes());
+	}
+
+	public static BigInteger generateHash(String s) {
+		return new BigInteger(digest(s));
+	}
+
+	//The same hash as generateHash, mapped onto [0, 2^160[ without going through BigInteger
+	public static RingId generateRingId(String s) {
+		return RingId.fromBytes(digest(s), 0);
+	}
+
+}
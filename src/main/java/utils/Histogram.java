@@ -0,0 +1,113 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of non-negative long values, in the style of HdrHistogram: values
+ * below 128 have their own bucket, and each following power of two is split into 64 buckets,
+ * so any recorded value is reported within 1.6% of its real value. Recording is an array
+ * increment, with no allocation; values above 2^40 are clamped.
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 7;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF = SUB_COUNT >> 1;
+	static final long MAX_VALUE = (1L << 40) - 1;
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+
+	public Histogram() {
+		this.counts = new long[BUCKETS];
+		reset();
+	}
+
+	static int index(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+	}
+
+	//Highest value that falls in the bucket
+	private static long highestValue(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = (index >> (SUB_BITS - 1)) - 1;
+		long sub = index - ((long) shift << (SUB_BITS - 1));
+		return ((sub + 1) << shift) - 1;
+	}
+
+	public void record(long value) {
+		value = Math.max(0, Math.min(value, MAX_VALUE));
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	//Adds every value recorded in other
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	//Overwrites the whole state, used to take snapshots of an AtomicHistogram
+	void load(long[] counts, long count, long sum, long min, long max) {
+		System.arraycopy(counts, 0, this.counts, 0, BUCKETS);
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	//Value at the given percentile (0-100], or 0 if nothing was recorded
+	public long getPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValue(i), max);
+		}
+		return max;
+	}
+}
@@ -1,75 +1,160 @@
-package utils;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-
-public class LatencyGenerator {
-	
-	private final int MULTIPLIER = 10;
-	private final int MIN = 10;
-	private final int MAX = 20;
-	
-	private int nodes;
-	private Map<Integer, Map<Integer,Integer>> latency;
-	private Random r;
-	
-	private LatencyGenerator(int nodes) {
-		this.nodes = nodes;
-		this.latency = new HashMap<Integer, Map<Integer, Integer>>();
-		for(int i = 0; i < this.nodes; i++) {
-			HashMap<Integer,Integer> internalMap = new HashMap<Integer,Integer>();
-			for(int j = 0; j < this.nodes; j++) {
-				internalMap.put(j, 0);
-			}
-			latency.put(i, internalMap);
-		}
-		this.r = new Random(System.currentTimeMillis());
-	}
-	
-	private int generateRandomLatency() {
-		return (r.nextInt(MAX-MIN) + MIN) * MULTIPLIER;
-	}
-	
-	public void generateLatency() {
-		for(int i = 0; i < this.nodes; i++) {
-			for(int j = 0; j < this.nodes; j++) {
-				if(i != j) {
-					if(i < j) {
-						//generate new latency value
-						this.latency.get(i).put(j, generateRandomLatency());
-					} else {
-						//fetch previous generate value
-						this.latency.get(i).put(j, this.latency.get(j).get(i));
-					}
-				}
-			}
-		}
-	}
-	
-	public void outputLatency() throws FileNotFoundException {
-		PrintStream fos = new PrintStream(new FileOutputStream(new File("latency-"+this.nodes)));
-		int i = 0;
-		int j = 0;
-		for(i = 0; i < this.nodes; i++) {
-			for(j = 0; j < this.nodes - 1; j++) {
-				fos.print(this.latency.get(i).get(j) + "\t");
-			}
-			fos.print(this.latency.get(i).get(j) + "\n");
-		}
-	}
-	
-	public static void main ( String args[] ) throws FileNotFoundException {
-		if(args.length != 1) {
-			System.err.println("Usage: java " + LatencyGenerator.class.getCanonicalName() + " <number_of_nodes>");
-			System.exit(1);
-		}
-		LatencyGenerator lg = new LatencyGenerator(Integer.parseInt(args[0]));
-		lg.generateLatency();
-		lg.outputLatency();
-	}
-}
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Generates latency matrices for setupTc.sh, {@link channel.EmulatedTCPChannel} and the simulator.
+ * Latencies are computed on the fly from a few primitive arrays, so memory does not grow with the
+ * number of pairs, and rows are streamed to the output file. Models:
+ * <ul>
+ * <li>random: every pair gets an independent latency in [100, 190] ms, multiple of 10 (the original model);</li>
+ * <li>coordinates: nodes are points in a plane (in ms) with an access delay each, and the latency of a pair is
+ * their distance plus both access delays, so latencies obey the triangle inequality (up to rounding);</li>
+ * <li>cluster: as coordinates, but nodes are spread around a few cluster centres (e.g. datacenters).</li>
+ * </ul>
+ * Output is either the tab-separated text of latency-files/ or the binary format of {@link MappedLatencyMatrix}.
+ */
+public class LatencyGenerator {
+
+	private static final int MULTIPLIER = 10;
+	private static final int MIN = 10;
+	private static final int MAX = 20;
+
+	private final int nodes;
+	private final String model;
+	private final long seed;
+	//Coordinate models: position and access delay of each node, in milliseconds
+	private float[] x;
+	private float[] y;
+	private float[] access;
+
+	public LatencyGenerator(int nodes, String model, long seed, double spread, int clusters, double clusterRadius,
+							double maxAccess) {
+		this.nodes = nodes;
+		this.model = model;
+		this.seed = seed;
+		Random r = new Random(seed);
+		switch (model) {
+			case "random":
+				break;
+			case "coordinates":
+			case "cluster":
+				this.x = new float[nodes];
+				this.y = new float[nodes];
+				this.access = new float[nodes];
+				double[] cx = new double[Math.max(1, clusters)];
+				double[] cy = new double[cx.length];
+				for (int c = 0; c < cx.length; c++) {
+					cx[c] = r.nextDouble() * spread;
+					cy[c] = r.nextDouble() * spread;
+				}
+				for (int i = 0; i < nodes; i++) {
+					if (model.equals("cluster")) {
+						int c = r.nextInt(cx.length);
+						x[i] = (float) (cx[c] + r.nextGaussian() * clusterRadius);
+						y[i] = (float) (cy[c] + r.nextGaussian() * clusterRadius);
+					} else {
+						x[i] = (float) (r.nextDouble() * spread);
+						y[i] = (float) (r.nextDouble() * spread);
+					}
+					access[i] = (float) (1 + r.nextDouble() * (maxAccess - 1));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown model: " + model);
+		}
+	}
+
+	public int getNodes() {
+		return nodes;
+	}
+
+	//Latency from i to j in milliseconds (symmetric, 0 for i == j)
+	public int latency(int i, int j) {
+		if (i == j)
+			return 0;
+		if (x == null) {
+			//A hash of the (unordered) pair replaces the table of the original generator
+			long h = seed * 0x9E3779B97F4A7C15L + Math.min(i, j) * 0xC2B2AE3D27D4EB4FL + Math.max(i, j);
+			h ^= h >>> 33;
+			h *= 0xFF51AFD7ED558CCDL;
+			h ^= h >>> 33;
+			return ((int) Math.floorMod(h, (long) (MAX - MIN)) + MIN) * MULTIPLIER;
+		}
+		double dx = x[i] - x[j];
+		double dy = y[i] - y[j];
+		long l = Math.round(Math.sqrt(dx * dx + dy * dy) + access[i] + access[j]);
+		return (int) Math.max(1, Math.min(MappedLatencyMatrix.MAX_LATENCY, l));
+	}
+
+	public void writeText(File file) throws IOException {
+		try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < nodes; i++) {
+				sb.setLength(0);
+				for (int j = 0; j < nodes; j++) {
+					if (j > 0)
+						sb.append('\t');
+					sb.append(latency(i, j));
+				}
+				out.println(sb);
+			}
+		}
+	}
+
+	public void writeBinary(File file) throws IOException {
+		int max = 0;
+		for (int i = 0; i < nodes; i++)
+			for (int j = i + 1; j < nodes; j++)
+				max = Math.max(max, latency(i, j));
+		try (OutputStream fos = new FileOutputStream(file);
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+			out.writeInt(MappedLatencyMatrix.MAGIC);
+			out.writeInt(MappedLatencyMatrix.VERSION);
+			out.writeInt(nodes);
+			out.writeInt(max);
+			for (int i = 0; i < nodes; i++)
+				for (int j = 0; j < nodes; j++)
+					out.writeChar(latency(i, j));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java " + LatencyGenerator.class.getCanonicalName() + " <number_of_nodes> [key=value ...]");
+			System.err.println("  model=random|coordinates|cluster format=text|binary output=<file> seed=<n>");
+			System.err.println("  spread=<ms> clusters=<n> cluster_radius=<ms> max_access=<ms>");
+			System.exit(1);
+		}
+		int nodes = Integer.parseInt(args[0]);
+		Properties props = new Properties();
+		for (int i = 1; i < args.length; i++) {
+			int eq = args[i].indexOf('=');
+			if (eq <= 0)
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			props.setProperty(args[i].substring(0, eq), args[i].substring(eq + 1));
+		}
+		String format = props.getProperty("format", "text");
+		LatencyGenerator lg = new LatencyGenerator(nodes, props.getProperty("model", "random"),
+				Long.parseLong(props.getProperty("seed", String.valueOf(System.currentTimeMillis()))),
+				Double.parseDouble(props.getProperty("spread", "150")),
+				Integer.parseInt(props.getProperty("clusters", "8")),
+				Double.parseDouble(props.getProperty("cluster_radius", "5")),
+				Double.parseDouble(props.getProperty("max_access", "10")));
+		File output = new File(props.getProperty("output", "latency-" + nodes + (format.equals("binary") ? ".bin" : "")));
+		if (format.equals("binary"))
+			lg.writeBinary(output);
+		else if (format.equals("text"))
+			lg.writeText(output);
+		else
+			throw new IllegalArgumentException("Unknown format: " + format);
+	}
+}
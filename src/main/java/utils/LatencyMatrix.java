@@ -0,0 +1,71 @@
+package utils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/**
+ * Pairwise one-way latencies in milliseconds between nodes, as applied with tc/netem by
+ * docker/setupTc.sh. Matrices are read either from the tab-separated text files of latency-files/
+ * (loaded into memory) or from the binary files written by {@link LatencyGenerator}, which are
+ * memory-mapped so that any pair can be read without loading the whole matrix.
+ */
+public interface LatencyMatrix {
+
+	int size();
+
+	int get(int from, int to);
+
+	//Largest latency in the matrix
+	int getMax();
+
+	//Reads a binary or text matrix, telling them apart by the binary header
+	static LatencyMatrix read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (file.length() >= MappedLatencyMatrix.HEADER_SIZE && in.readInt() == MappedLatencyMatrix.MAGIC)
+				return MappedLatencyMatrix.open(file);
+		}
+		return ArrayLatencyMatrix.readText(file);
+	}
+
+	/**
+	 * Row of host in a matrix: on a single machine (loopback addresses) node i listens on
+	 * basePort + i, as in deploy/start-processes.sh; otherwise node i is 172.10.10.i, as in
+	 * docker/setupTc.sh, so the last byte of the address is used. -1 if the port is below basePort.
+	 */
+	static int indexOf(Host host, int basePort) {
+		return indexOf(host, host.getAddress().isLoopbackAddress(), basePort);
+	}
+
+	/**
+	 * Row of host in a pair with other. Processes that share an address, such as the
+	 * $(hostname -i) of deploy/start-processes.sh, are told apart by port whatever the address;
+	 * otherwise as {@link #indexOf(Host, int)}.
+	 */
+	static int indexOf(Host host, Host other, int basePort) {
+		InetAddress address = host.getAddress();
+		return indexOf(host, address.isLoopbackAddress() || address.equals(other.getAddress()), basePort);
+	}
+
+	private static int indexOf(Host host, boolean byPort, int basePort) {
+		if (byPort) {
+			int index = host.getPort() - basePort;
+			return index >= 0 ? index : -1;
+		}
+		byte[] bytes = host.getAddress().getAddress();
+		return bytes[bytes.length - 1] & 0xFF;
+	}
+
+	//A matrix where every pair of distinct nodes is latency milliseconds apart
+	static LatencyMatrix uniform(int size, int latency) {
+		int[] latencies = new int[size * size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				latencies[i * size + j] = i == j ? 0 : latency;
+		return new ArrayLatencyMatrix(size, latencies);
+	}
+}
@@ -0,0 +1,74 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary latency matrix, memory-mapped: a header (magic, version, size, largest latency; four
+ * ints) followed by the rows, each latency an unsigned 16-bit number of milliseconds. Pages are
+ * only read when a pair in them is asked for. Files above 2GB are mapped in several regions, each
+ * holding whole rows.
+ */
+public class MappedLatencyMatrix implements LatencyMatrix {
+
+	public static final int MAGIC = 0x4C41544D; //"LATM"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int MAX_LATENCY = 0xFFFF;
+
+	private static final long REGION_BYTES = 1L << 30;
+
+	private final int size;
+	private final int max;
+	private final int rowsPerRegion;
+	private final MappedByteBuffer[] regions;
+
+	private MappedLatencyMatrix(int size, int max, MappedByteBuffer[] regions, int rowsPerRegion) {
+		this.size = size;
+		this.max = max;
+		this.regions = regions;
+		this.rowsPerRegion = rowsPerRegion;
+	}
+
+	public static MappedLatencyMatrix open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+			if (raf.readInt() != MAGIC)
+				throw new IOException(file + ": not a binary latency matrix");
+			int version = raf.readInt();
+			if (version != VERSION)
+				throw new IOException(file + ": unsupported version " + version);
+			int size = raf.readInt();
+			int max = raf.readInt();
+			long rowBytes = 2L * size;
+			if (ch.size() < HEADER_SIZE + rowBytes * size)
+				throw new IOException(file + ": truncated, expected " + size + "x" + size + " latencies");
+			int rowsPerRegion = (int) Math.max(1, Math.min(size, REGION_BYTES / Math.max(1, rowBytes)));
+			int count = (size + rowsPerRegion - 1) / rowsPerRegion;
+			MappedByteBuffer[] regions = new MappedByteBuffer[Math.max(1, count)];
+			for (int r = 0; r < count; r++) {
+				int rows = Math.min(rowsPerRegion, size - r * rowsPerRegion);
+				regions[r] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + r * rowsPerRegion * rowBytes, rows * rowBytes);
+			}
+			return new MappedLatencyMatrix(size, max, regions, rowsPerRegion);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int from, int to) {
+		int row = from % rowsPerRegion;
+		return regions[from / rowsPerRegion].getChar((int) ((long) row * size + to) * 2);
+	}
+
+	@Override
+	public int getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,127 @@
+package utils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Process-wide registry of named metrics: counters, gauges (set explicitly or sampled from a
+ * supplier) and {@link AtomicHistogram}s. Protocols look their metrics up once, when they are
+ * created, and update them from their own threads without locking; a {@link MetricsReporter}
+ * reads them from another thread. Names are dotted, e.g. "dht.lookup.hops".
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry global = new MetricsRegistry();
+
+	//Sorted, so dumps list related metrics together
+	private final Map<String, Object> metrics;
+
+	public MetricsRegistry() {
+		this.metrics = new ConcurrentSkipListMap<>();
+	}
+
+	public static MetricsRegistry global() {
+		return global;
+	}
+
+	public Counter counter(String name) {
+		return (Counter) metrics.computeIfAbsent(name, n -> new Counter());
+	}
+
+	public Gauge gauge(String name) {
+		return (Gauge) metrics.computeIfAbsent(name, n -> new Gauge());
+	}
+
+	//A gauge sampled when metrics are read; the supplier runs on the reporter's thread
+	public void gauge(String name, LongSupplier supplier) {
+		metrics.put(name, supplier);
+	}
+
+	public AtomicHistogram histogram(String name) {
+		return (AtomicHistogram) metrics.computeIfAbsent(name, n -> new AtomicHistogram());
+	}
+
+	/**
+	 * Wraps a message serializer so that the messages and bytes it writes and reads are counted
+	 * under prefix.sent, prefix.sent_bytes, prefix.received and prefix.received_bytes.
+	 */
+	public <T> ISerializer<T> counting(String prefix, ISerializer<T> serializer) {
+		Counter sent = counter(prefix + ".sent");
+		Counter sentBytes = counter(prefix + ".sent_bytes");
+		Counter received = counter(prefix + ".received");
+		Counter receivedBytes = counter(prefix + ".received_bytes");
+		return new ISerializer<T>() {
+			@Override
+			public void serialize(T msg, ByteBuf out) throws IOException {
+				int start = out.writerIndex();
+				serializer.serialize(msg, out);
+				sent.inc();
+				sentBytes.add(out.writerIndex() - start);
+			}
+
+			@Override
+			public T deserialize(ByteBuf in) throws IOException {
+				int start = in.readerIndex();
+				T msg = serializer.deserialize(in);
+				received.inc();
+				receivedBytes.add(in.readerIndex() - start);
+				return msg;
+			}
+		};
+	}
+
+	//Calls the visitor for every metric, in name order, with histograms as snapshots
+	public void forEach(Visitor visitor) {
+		for (Map.Entry<String, Object> e : metrics.entrySet()) {
+			Object m = e.getValue();
+			if (m instanceof Counter)
+				visitor.value(e.getKey(), "counter", ((Counter) m).get());
+			else if (m instanceof Gauge)
+				visitor.value(e.getKey(), "gauge", ((Gauge) m).get());
+			else if (m instanceof LongSupplier)
+				visitor.value(e.getKey(), "gauge", ((LongSupplier) m).getAsLong());
+			else
+				visitor.histogram(e.getKey(), ((AtomicHistogram) m).snapshot());
+		}
+	}
+
+	public interface Visitor {
+		void value(String name, String type, long value);
+
+		void histogram(String name, Histogram histogram);
+	}
+
+	public static class Counter {
+		private final LongAdder value = new LongAdder();
+
+		public void inc() {
+			value.increment();
+		}
+
+		public void add(long n) {
+			value.add(n);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+	}
+
+	public static class Gauge {
+		private volatile long value;
+
+		public void set(long value) {
+			this.value = value;
+		}
+
+		public long get() {
+			return value;
+		}
+	}
+}
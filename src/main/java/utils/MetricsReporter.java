@@ -0,0 +1,148 @@
+package utils;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exports a {@link MetricsRegistry}: every "metrics_interval" milliseconds a snapshot is appended
+ * to "metrics_file", as CSV rows or as one JSON object per line ("metrics_format"), and, if
+ * "metrics_http_port" is set, the current snapshot is served as JSON at
+ * http://"metrics_http_address":port/metrics. All of it runs on a daemon thread.
+ */
+public class MetricsReporter {
+	private static final Logger logger = LogManager.getLogger(MetricsReporter.class);
+
+	private final MetricsRegistry registry;
+	private final boolean json;
+	private final long startTime;
+	private PrintStream out;
+
+	private MetricsReporter(MetricsRegistry registry, boolean json) {
+		this.registry = registry;
+		this.json = json;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	public static void start(MetricsRegistry registry, Properties props) throws IOException {
+		int interval = Integer.parseInt(props.getProperty("metrics_interval", "-1")); //in milliseconds
+		int port = Integer.parseInt(props.getProperty("metrics_http_port", "-1"));
+		if (interval <= 0 && port <= 0)
+			return;
+		String format = props.getProperty("metrics_format", "json");
+		if (!format.equals("json") && !format.equals("csv"))
+			throw new IllegalArgumentException("Unknown metrics_format: " + format);
+		MetricsReporter reporter = new MetricsReporter(registry, format.equals("json"));
+
+		if (interval > 0) {
+			String file = props.getProperty("metrics_file",
+					System.getProperty("logFilename", "node" + props.getProperty("my_index")) + "-metrics." + format);
+			reporter.open(file);
+			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "MetricsReporter");
+				t.setDaemon(true);
+				return t;
+			});
+			executor.scheduleAtFixedRate(reporter::dump, interval, interval, TimeUnit.MILLISECONDS);
+			//Last snapshot, so short runs are covered too
+			Runtime.getRuntime().addShutdownHook(new Thread(reporter::dump));
+		}
+
+		if (port > 0) {
+			String address = props.getProperty("metrics_http_address", "127.0.0.1");
+			HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body;
+				int status = 200;
+				try {
+					body = reporter.toJson().getBytes(StandardCharsets.UTF_8);
+				} catch (RuntimeException e) {
+					logger.error("Unable to build the metrics snapshot", e);
+					body = ("{\"error\":\"" + e.getClass().getSimpleName() + "\"}").getBytes(StandardCharsets.UTF_8);
+					status = 500;
+				}
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(status, body.length);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(body);
+				}
+			});
+			server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "MetricsHttp");
+				t.setDaemon(true);
+				return t;
+			}));
+			server.start();
+			logger.info("Serving metrics at http://{}:{}/metrics", address, port);
+		}
+	}
+
+	private void open(String file) throws FileNotFoundException {
+		out = new PrintStream(new FileOutputStream(file));
+		if (!json)
+			out.println("time_ms,name,type,count,value,mean,p50,p90,p99,p999,max");
+	}
+
+	//A failing gauge must not escape: scheduleAtFixedRate would silently stop every later dump
+	private synchronized void dump() {
+		try {
+			if (json) {
+				out.println(toJson());
+			} else {
+				long time = System.currentTimeMillis() - startTime;
+				registry.forEach(new MetricsRegistry.Visitor() {
+					@Override
+					public void value(String name, String type, long value) {
+						out.printf("%d,%s,%s,,%d,,,,,,%n", time, name, type, value);
+					}
+
+					@Override
+					public void histogram(String name, Histogram h) {
+						out.printf(Locale.ROOT, "%d,%s,histogram,%d,,%.1f,%d,%d,%d,%d,%d%n", time, name, h.getCount(), h.getMean(),
+								h.getPercentile(50), h.getPercentile(90), h.getPercentile(99), h.getPercentile(99.9), h.getMax());
+					}
+				});
+			}
+		} catch (RuntimeException e) {
+			logger.error("Unable to dump the metrics snapshot", e);
+		}
+		out.flush();
+	}
+
+	private String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"time_ms\":").append(System.currentTimeMillis() - startTime);
+		registry.forEach(new MetricsRegistry.Visitor() {
+			@Override
+			public void value(String name, String type, long value) {
+				sb.append(",\"").append(name).append("\":").append(value);
+			}
+
+			@Override
+			public void histogram(String name, Histogram h) {
+				sb.append(",\"").append(name).append("\":{\"count\":").append(h.getCount())
+						.append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", h.getMean()))
+						.append(",\"p50\":").append(h.getPercentile(50))
+						.append(",\"p90\":").append(h.getPercentile(90))
+						.append(",\"p99\":").append(h.getPercentile(99))
+						.append(",\"p999\":").append(h.getPercentile(99.9))
+						.append(",\"max\":").append(h.getMax()).append('}');
+			}
+		});
+		return sb.append('}').toString();
+	}
+}
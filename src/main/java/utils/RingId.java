@@ -0,0 +1,241 @@
+package utils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+/**
+ * Immutable 160-bit identifier in [0, 2^160[, the id space of the DHTs. The value is kept in
+ * three primitive words compared unsigned: hi holds bits 159..96, mid bits 95..32 and lo bits
+ * 31..0. Comparisons, ring intervals and XOR distances never allocate; arithmetic returns new
+ * ids. Conversions to and from {@link BigInteger} are provided for the older APIs.
+ */
+public final class RingId implements Comparable<RingId> {
+
+	public static final int BITS = 160;
+	public static final int BYTES = BITS / 8;
+	public static final RingId ZERO = new RingId(0, 0, 0);
+	private static final BigInteger ID_SPACE = BigInteger.ONE.shiftLeft(BITS);
+	private static final long INT_MASK = 0xFFFFFFFFL;
+
+	private final long hi;
+	private final long mid;
+	private final int lo;
+
+	public RingId(long hi, long mid, int lo) {
+		this.hi = hi;
+		this.mid = mid;
+		this.lo = lo;
+	}
+
+	//Reads 20 big-endian bytes, such as a SHA-1 digest
+	public static RingId fromBytes(byte[] bytes, int offset) {
+		long h = 0;
+		long m = 0;
+		int l = 0;
+		for (int i = 0; i < 8; i++)
+			h = (h << 8) | (bytes[offset + i] & 0xFF);
+		for (int i = 8; i < 16; i++)
+			m = (m << 8) | (bytes[offset + i] & 0xFF);
+		for (int i = 16; i < 20; i++)
+			l = (l << 8) | (bytes[offset + i] & 0xFF);
+		return new RingId(h, m, l);
+	}
+
+	//Maps a (possibly negative) BigInteger onto the id space
+	public static RingId fromBigInteger(BigInteger id) {
+		if (id.signum() < 0 || id.bitLength() > BITS)
+			id = id.mod(ID_SPACE);
+		return new RingId(id.shiftRight(96).longValue(), id.shiftRight(32).longValue(), id.intValue());
+	}
+
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[BYTES + 1];
+		for (int i = 0; i < 8; i++)
+			bytes[1 + i] = (byte) (hi >>> (56 - 8 * i));
+		for (int i = 0; i < 8; i++)
+			bytes[9 + i] = (byte) (mid >>> (56 - 8 * i));
+		for (int i = 0; i < 4; i++)
+			bytes[17 + i] = (byte) (lo >>> (24 - 8 * i));
+		return new BigInteger(bytes);
+	}
+
+	//A uniformly random id below 2^bits
+	public static RingId random(Random r, int bits) {
+		if (bits <= 0)
+			return ZERO;
+		long h = r.nextLong();
+		long m = r.nextLong();
+		int l = r.nextInt();
+		if (bits <= 32)
+			return new RingId(0, 0, bits == 32 ? l : l & ((1 << bits) - 1));
+		if (bits <= 96)
+			return new RingId(0, bits == 96 ? m : m & ((1L << (bits - 32)) - 1), l);
+		return new RingId(bits == 160 ? h : h & ((1L << (bits - 96)) - 1), m, l);
+	}
+
+	public long getHi() {
+		return hi;
+	}
+
+	public long getMid() {
+		return mid;
+	}
+
+	public int getLo() {
+		return lo;
+	}
+
+	@Override
+	public int compareTo(RingId o) {
+		int c = Long.compareUnsigned(hi, o.hi);
+		if (c != 0) return c;
+		c = Long.compareUnsigned(mid, o.mid);
+		if (c != 0) return c;
+		return Integer.compareUnsigned(lo, o.lo);
+	}
+
+	//True if this id is in the ring interval (a, b)
+	public boolean inOpen(RingId a, RingId b) {
+		int ab = a.compareTo(b);
+		if (ab < 0)
+			return a.compareTo(this) < 0 && compareTo(b) < 0;
+		if (ab > 0)
+			return a.compareTo(this) < 0 || compareTo(b) < 0;
+		return !equals(a);
+	}
+
+	//True if this id is in the ring interval (a, b]
+	public boolean inHalfOpen(RingId a, RingId b) {
+		return equals(b) || inOpen(a, b);
+	}
+
+	//(this + o) mod 2^160
+	public RingId add(RingId o) {
+		long l = (lo & INT_MASK) + (o.lo & INT_MASK);
+		long carry = l >>> 32;
+		long m = mid + o.mid;
+		long carryHi = Long.compareUnsigned(m, mid) < 0 ? 1 : 0;
+		m += carry;
+		if (carry != 0 && m == 0)
+			carryHi = 1;
+		return new RingId(hi + o.hi + carryHi, m, (int) l);
+	}
+
+	//(this + 2^i) mod 2^160, as used for finger starts
+	public RingId addPowerOfTwo(int i) {
+		if (i < 32)
+			return add(new RingId(0, 0, 1 << i));
+		if (i < 96)
+			return add(new RingId(0, 1L << (i - 32), 0));
+		return add(new RingId(1L << (i - 96), 0, 0));
+	}
+
+	//Clockwise distance from this id to o: (o - this) mod 2^160
+	public RingId distance(RingId o) {
+		long l = (o.lo & INT_MASK) - (lo & INT_MASK);
+		long borrow = l < 0 ? 1 : 0;
+		long borrowHi = Long.compareUnsigned(o.mid, mid) < 0 || (borrow != 0 && o.mid == mid) ? 1 : 0;
+		return new RingId(o.hi - hi - borrowHi, o.mid - mid - borrow, (int) l);
+	}
+
+	//Highest set bit of distance(o), -1 if o is this id; computed in place, without allocating
+	public int distanceBit(RingId o) {
+		long l = (o.lo & INT_MASK) - (lo & INT_MASK);
+		long borrow = l < 0 ? 1 : 0;
+		long borrowHi = Long.compareUnsigned(o.mid, mid) < 0 || (borrow != 0 && o.mid == mid) ? 1 : 0;
+		long h = o.hi - hi - borrowHi;
+		if (h != 0)
+			return 159 - Long.numberOfLeadingZeros(h);
+		long m = o.mid - mid - borrow;
+		if (m != 0)
+			return 95 - Long.numberOfLeadingZeros(m);
+		int low = (int) l;
+		if (low != 0)
+			return 31 - Integer.numberOfLeadingZeros(low);
+		return -1;
+	}
+
+	public RingId xor(RingId o) {
+		return new RingId(hi ^ o.hi, mid ^ o.mid, lo ^ o.lo);
+	}
+
+	//Compares the XOR distances of a and b to this id, without computing them
+	public int compareXorDistance(RingId a, RingId b) {
+		int c = Long.compareUnsigned(a.hi ^ hi, b.hi ^ hi);
+		if (c != 0) return c;
+		c = Long.compareUnsigned(a.mid ^ mid, b.mid ^ mid);
+		if (c != 0) return c;
+		return Integer.compareUnsigned(a.lo ^ lo, b.lo ^ lo);
+	}
+
+	//Index of the highest bit in which this id and o differ, or -1 if they are equal
+	public int highestDifferingBit(RingId o) {
+		long x = hi ^ o.hi;
+		if (x != 0)
+			return 159 - Long.numberOfLeadingZeros(x);
+		x = mid ^ o.mid;
+		if (x != 0)
+			return 95 - Long.numberOfLeadingZeros(x);
+		int l = lo ^ o.lo;
+		if (l != 0)
+			return 31 - Integer.numberOfLeadingZeros(l);
+		return -1;
+	}
+
+	//The i-th bit (0 is the least significant)
+	public boolean testBit(int i) {
+		if (i < 32)
+			return ((lo >>> i) & 1) != 0;
+		if (i < 96)
+			return ((mid >>> (i - 32)) & 1) != 0;
+		return ((hi >>> (i - 96)) & 1) != 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof RingId)) return false;
+		RingId other = (RingId) o;
+		return hi == other.hi && mid == other.mid && lo == other.lo;
+	}
+
+	@Override
+	public int hashCode() {
+		//Ids are hashes already, any word is well distributed
+		return (int) (hi ^ (hi >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x%08x", hi, mid, lo);
+	}
+
+	public static void serialize(RingId id, ByteBuf out) {
+		out.writeLong(id.hi);
+		out.writeLong(id.mid);
+		out.writeInt(id.lo);
+	}
+
+	public static RingId deserialize(ByteBuf in) {
+		long h = in.readLong();
+		long m = in.readLong();
+		int l = in.readInt();
+		return new RingId(h, m, l);
+	}
+
+	public static ISerializer<RingId> serializer = new ISerializer<RingId>() {
+		@Override
+		public void serialize(RingId id, ByteBuf out) throws IOException {
+			RingId.serialize(id, out);
+		}
+
+		@Override
+		public RingId deserialize(ByteBuf in) throws IOException {
+			return RingId.deserialize(in);
+		}
+	};
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the most recent round-trip times, used to derive hedging delays and
+ * timeouts from a percentile of what we have been observing. The percentile is recomputed every
+ * few samples rather than on every query; the mean and deviation are kept as running sums.
+ */
+public class RttWindow {
+
+	private final long[] samples;
+	private final long[] sorted;
+	private final double percentile;
+	private int next;
+	private int count;
+	private int sinceRefresh;
+	private long cached;
+	private double sum;
+	private double sumSquares;
+
+	public RttWindow(int capacity, double percentile) {
+		this.samples = new long[capacity];
+		this.sorted = new long[capacity];
+		this.percentile = percentile;
+		this.next = 0;
+		this.count = 0;
+		this.sinceRefresh = 0;
+		this.cached = -1;
+		this.sum = 0;
+		this.sumSquares = 0;
+	}
+
+	public void add(long rtt) {
+		if (count == samples.length) {
+			sum -= samples[next];
+			sumSquares -= (double) samples[next] * samples[next];
+		}
+		sum += rtt;
+		sumSquares += (double) rtt * rtt;
+		samples[next] = rtt;
+		next = (next + 1) % samples.length;
+		if (count < samples.length)
+			count++;
+		sinceRefresh++;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	//The configured percentile of the window, or -1 if there are no samples yet
+	public long get() {
+		if (count == 0)
+			return -1;
+		if (cached < 0 || sinceRefresh >= Math.max(1, samples.length / 16)) {
+			System.arraycopy(samples, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			cached = sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1))];
+			sinceRefresh = 0;
+		}
+		return cached;
+	}
+
+	public double mean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	//Standard deviation of the window, NaN if there are no samples
+	public double deviation() {
+		if (count == 0)
+			return Double.NaN;
+		double mean = sum / count;
+		return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+	}
+}
@@ -0,0 +1,85 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer ring of trace events, written by the thread of one protocol and
+ * drained by the {@link Tracer}. Recording copies a few longs into the ring and never blocks nor
+ * allocates: when the ring is full the event is dropped and counted.
+ *
+ * Each event is 6 longs: timestamp (wall-clock microseconds), type (16 bits) | protocol id
+ * (16 bits) | argument (32 bits), the UUID it belongs to and a related UUID (or zeros).
+ */
+public class TraceBuffer {
+
+	static final int EVENT_LONGS = 6;
+	static final int EVENT_BYTES = EVENT_LONGS * Long.BYTES;
+
+	private final short protoId;
+	private final boolean enabled;
+	private final long[] ring;
+	private final int mask;
+	//Next slot to write, only advanced by the producer
+	private final AtomicLong tail;
+	//Next slot to drain, only advanced by the Tracer
+	private final AtomicLong head;
+	private long dropped;
+
+	TraceBuffer(short protoId, int capacity, boolean enabled) {
+		this.protoId = protoId;
+		this.enabled = enabled;
+		int events = enabled ? Integer.highestOneBit(Math.max(2, capacity) - 1) << 1 : 1;
+		this.ring = new long[events * EVENT_LONGS];
+		this.mask = events - 1;
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+		this.dropped = 0;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void record(short type, int arg, UUID uid) {
+		record(type, arg, uid, null);
+	}
+
+	public void record(short type, int arg, UUID uid, UUID related) {
+		if (!enabled)
+			return;
+		long t = tail.get();
+		if (t - head.get() > mask) {
+			dropped++;
+			return;
+		}
+		int i = (int) (t & mask) * EVENT_LONGS;
+		ring[i] = Tracer.now();
+		ring[i + 1] = ((long) type << 48) | ((long) (protoId & 0xFFFF) << 32) | (arg & 0xFFFFFFFFL);
+		ring[i + 2] = uid == null ? 0 : uid.getMostSignificantBits();
+		ring[i + 3] = uid == null ? 0 : uid.getLeastSignificantBits();
+		ring[i + 4] = related == null ? 0 : related.getMostSignificantBits();
+		ring[i + 5] = related == null ? 0 : related.getLeastSignificantBits();
+		//Publishes the slot to the Tracer
+		tail.lazySet(t + 1);
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	//Copies pending events into out, as many as fit; returns how many were copied
+	int drain(ByteBuffer out) {
+		long h = head.get();
+		long t = tail.get();
+		int n = (int) Math.min(t - h, out.remaining() / EVENT_BYTES);
+		for (int e = 0; e < n; e++) {
+			int i = (int) ((h + e) & mask) * EVENT_LONGS;
+			for (int j = 0; j < EVENT_LONGS; j++)
+				out.putLong(ring[i + j]);
+		}
+		head.lazySet(h + n);
+		return n;
+	}
+}
@@ -0,0 +1,104 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the trace files written by {@link Tracer} on any number of nodes and prints, for every
+ * request issued by an application, its timeline across nodes: the events of the request itself
+ * and of the DHT lookups issued on its behalf, ordered by time. Clocks of different nodes are
+ * assumed to be roughly synchronized (as they are when all nodes share a host).
+ */
+public class TraceDecoder {
+
+	private static final String[] NAMES = { "?", "REQUEST_ISSUED", "REPLY_RECEIVED", "LOOKUP_ISSUED", "LOOKUP_HOP",
+			"LOOKUP_DONE", "REPLICA_SENT", "REPLICA_SERVED", "REPLICA_ANSWERED", "OPERATION_DONE" };
+
+	private static class Event {
+		private final String node;
+		private final long time;
+		private final short type;
+		private final short protoId;
+		private final int arg;
+		private final UUID uid;
+		private final UUID related;
+
+		private Event(String node, long time, long word, UUID uid, UUID related) {
+			this.node = node;
+			this.time = time;
+			this.type = (short) (word >>> 48);
+			this.protoId = (short) (word >>> 32);
+			this.arg = (int) word;
+			this.uid = uid;
+			this.related = related;
+		}
+	}
+
+	private static void read(String path, List<Event> events) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (in.readInt() != Tracer.MAGIC || in.readShort() != Tracer.VERSION)
+				throw new IOException(path + " is not a trace file");
+			byte[] name = new byte[in.readShort()];
+			in.readFully(name);
+			String node = new String(name, StandardCharsets.UTF_8);
+			while (true) {
+				long time;
+				try {
+					time = in.readLong();
+				} catch (EOFException e) {
+					return;
+				}
+				long word = in.readLong();
+				UUID uid = new UUID(in.readLong(), in.readLong());
+				UUID related = new UUID(in.readLong(), in.readLong());
+				events.add(new Event(node, time, word, uid, related));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: java " + TraceDecoder.class.getCanonicalName() + " <trace_file>...");
+			System.exit(1);
+		}
+		List<Event> events = new ArrayList<>();
+		for (String path : args)
+			read(path, events);
+		events.sort((a, b) -> Long.compare(a.time, b.time));
+
+		Map<UUID, List<Event>> byUid = new HashMap<>();
+		//Lookup UUID -> UUID of the request it was issued for
+		Map<UUID, UUID> lookupOwner = new HashMap<>();
+		List<Event> requests = new ArrayList<>();
+		for (Event e : events) {
+			byUid.computeIfAbsent(e.uid, u -> new ArrayList<>()).add(e);
+			if (e.type == Tracer.LOOKUP_ISSUED)
+				lookupOwner.put(e.related, e.uid);
+			else if (e.type == Tracer.REQUEST_ISSUED)
+				requests.add(e);
+		}
+		Map<UUID, List<UUID>> lookupsOf = new HashMap<>();
+		for (Map.Entry<UUID, UUID> e : lookupOwner.entrySet())
+			lookupsOf.computeIfAbsent(e.getValue(), u -> new ArrayList<>()).add(e.getKey());
+
+		for (Event request : requests) {
+			List<Event> timeline = new ArrayList<>(byUid.get(request.uid));
+			for (UUID lookup : lookupsOf.getOrDefault(request.uid, new ArrayList<>()))
+				timeline.addAll(byUid.getOrDefault(lookup, new ArrayList<>()));
+			timeline.sort((a, b) -> Long.compare(a.time, b.time));
+			System.out.println("request " + request.uid + " from " + request.node);
+			for (Event e : timeline)
+				System.out.println(String.format("\t%+10.3fms %-22s %-16s proto=%d arg=%d", (e.time - request.time) / 1000.0,
+						e.node, e.type > 0 && e.type < NAMES.length ? NAMES[e.type] : "?", e.protoId, e.arg));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide binary event trace. Protocols get a {@link TraceBuffer} in their constructor and
+ * record typed events on it; with "trace_enabled" a daemon thread drains every buffer each
+ * "trace_flush_interval" milliseconds into "trace_file" (by default <logFilename>-trace.bin).
+ * Disabled buffers make record a single branch. Files are read by {@link TraceDecoder}.
+ *
+ * File format: magic, version, node name (length-prefixed UTF-8), then 48-byte events as laid
+ * out by TraceBuffer, big-endian.
+ */
+public class Tracer {
+	private static final Logger logger = LogManager.getLogger(Tracer.class);
+
+	static final int MAGIC = 0x54524345; //"TRCE"
+	static final short VERSION = 1;
+
+	//Event types
+	public static final short REQUEST_ISSUED = 1; //app: arg 0 store, 1 retrieve, 2 multi-store, 3 multi-retrieve
+	public static final short REPLY_RECEIVED = 2; //app: arg 0 stored, 1 retrieved, 2 retrieve failed, 3 multi-store, 4 multi-retrieve, 5 store failed
+	public static final short LOOKUP_ISSUED = 3; //storage: related is the lookup UUID
+	public static final short LOOKUP_HOP = 4; //dht: a node handled the lookup, arg is the hop count
+	public static final short LOOKUP_DONE = 5; //dht: arg is the hop count, or -1 on failure
+	public static final short REPLICA_SENT = 6; //storage: arg 0 store, 1 retrieve, 2 hedged retrieve
+	public static final short REPLICA_SERVED = 7; //storage, at the replica: arg 0 store, 1 retrieve
+	public static final short REPLICA_ANSWERED = 8; //storage, at the coordinator
+	public static final short OPERATION_DONE = 9; //storage: arg 1 success, 0 failure
+
+	private static final Tracer disabled = new Tracer(false, 0);
+	private static volatile Tracer global = disabled;
+
+	//Wall-clock microseconds, with nanoTime resolution
+	private static final long baseMicros = System.currentTimeMillis() * 1000;
+	private static final long baseNanos = System.nanoTime();
+
+	private final boolean enabled;
+	private final int capacity;
+	private final List<TraceBuffer> buffers;
+	private FileChannel file;
+	private ByteBuffer chunk;
+
+	private Tracer(boolean enabled, int capacity) {
+		this.enabled = enabled;
+		this.capacity = capacity;
+		this.buffers = new CopyOnWriteArrayList<>();
+	}
+
+	static long now() {
+		return baseMicros + (System.nanoTime() - baseNanos) / 1000;
+	}
+
+	/**
+	 * Configures the process tracer; must be called before the protocols are created, since
+	 * buffers obtained earlier stay disabled.
+	 */
+	public static void configure(Properties props, String node) throws IOException {
+		if (!Boolean.parseBoolean(props.getProperty("trace_enabled", "false")))
+			return;
+		Tracer tracer = new Tracer(true, Integer.parseInt(props.getProperty("trace_buffer_events", "65536")));
+		String path = props.getProperty("trace_file", System.getProperty("logFilename", "node" + props.getProperty("my_index")) + "-trace.bin");
+		tracer.open(path, node);
+		int interval = Integer.parseInt(props.getProperty("trace_flush_interval", "100")); //in milliseconds
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Tracer");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleAtFixedRate(tracer::flush, interval, interval, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(tracer::close));
+		global = tracer;
+		logger.info("Tracing events to {}", path);
+	}
+
+	public static TraceBuffer buffer(short protoId) {
+		Tracer tracer = global;
+		TraceBuffer buffer = new TraceBuffer(protoId, tracer.capacity, tracer.enabled);
+		if (tracer.enabled)
+			tracer.buffers.add(buffer);
+		return buffer;
+	}
+
+	private void open(String path, String node) throws IOException {
+		file = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		byte[] name = node.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + Short.BYTES + name.length);
+		header.putInt(MAGIC).putShort(VERSION).putShort((short) name.length).put(name).flip();
+		while (header.hasRemaining())
+			file.write(header);
+		chunk = ByteBuffer.allocateDirect(4096 * TraceBuffer.EVENT_BYTES);
+	}
+
+	private synchronized void flush() {
+		try {
+			for (TraceBuffer buffer : buffers) {
+				int n;
+				do {
+					chunk.clear();
+					n = buffer.drain(chunk);
+					chunk.flip();
+					while (chunk.hasRemaining())
+						file.write(chunk);
+				} while (n > 0);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to write the trace: {}", e.getMessage());
+		}
+	}
+
+	private synchronized void close() {
+		flush();
+		long dropped = 0;
+		for (TraceBuffer buffer : buffers)
+			dropped += buffer.getDropped();
+		if (dropped > 0)
+			logger.warn("{} trace events were dropped, consider a larger trace_buffer_events", dropped);
+		try {
+			file.close();
+		} catch (IOException e) {
+			logger.error("Unable to close the trace: {}", e.getMessage());
+		}
+	}
+}